@@ -30,17 +30,29 @@ public class NamedThreadFactory implements ThreadFactory {
   private final Cache<String, AtomicInteger> threadNumber =
       CacheBuilder.newBuilder().concurrencyLevel(20).build();
   private final String name;
+  private final boolean daemon;
   private static final Builder builder = new Builder();
 
   public NamedThreadFactory(String name) {
+    this(name, false);
+  }
+
+  /**
+   * @param daemon Whether the threads are daemons, which don't stop the JVM exiting. Use this for
+   *     pools owned by long lived services that are never shut down.
+   */
+  public NamedThreadFactory(String name, boolean daemon) {
     this.name = name;
+    this.daemon = daemon;
   }
 
   @Override
   public Thread newThread(Runnable r) {
     try {
       final AtomicInteger ctr = threadNumber.get(name, builder);
-      return new Thread(r, name + "-" + ctr.getAndIncrement());
+      Thread thread = new Thread(r, name + "-" + ctr.getAndIncrement());
+      thread.setDaemon(daemon);
+      return thread;
     } catch (Throwable t) {
       throw Throwables.propagate(t);
     }
@@ -97,14 +97,21 @@ public final class ExecUtils {
       final StreamReader stdErr = cp.getThird();
 
       int exitStatus;
-      while (true) {
-        synchronized (proc) {
-          exitStatus = proc.waitFor();
-          if (stdOut.isFinished() && stdErr.isFinished()) {
-            break;
+      try {
+        while (true) {
+          synchronized (proc) {
+            exitStatus = proc.waitFor();
+            if (stdOut.isFinished() && stdErr.isFinished()) {
+              break;
+            }
+            proc.wait();
           }
-          proc.wait();
         }
+      } catch (InterruptedException e) {
+        // Whoever interrupted us has given up on the result, so don't leave the process running
+        proc.destroy();
+        Thread.currentThread().interrupt();
+        throw e;
       }
 
       LOGGER.debug("Exec finished"); // $NON-NLS-1$
@@ -20,7 +20,8 @@ package com.tle.common.reporting;
 
 public class ReportingException extends RuntimeException {
   public enum Type {
-    NODESIGNS
+    NODESIGNS,
+    BUSY
   }
 
   private final Type type;
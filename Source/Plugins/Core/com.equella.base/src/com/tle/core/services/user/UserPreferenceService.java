@@ -60,6 +60,12 @@ public interface UserPreferenceService {
 
   Set<String> getReferencedUsers();
 
+  /**
+   * @return Up to maxResults distinct, non-null user ids greater than afterUserId, in order. Pass
+   *     null to start from the beginning.
+   */
+  List<String> getReferencedUsers(String afterUserId, int maxResults);
+
   Locale getPreferredLocale(HttpServletRequest request);
 
   TimeZone getPreferredTimeZone(TimeZone defaultTimeZone);
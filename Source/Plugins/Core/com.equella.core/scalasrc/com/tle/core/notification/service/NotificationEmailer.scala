@@ -19,7 +19,7 @@
 package com.tle.core.notification.service
 
 import java.util.concurrent.Callable
-import java.util.{Collections, Date, UUID}
+import java.util.{Collections, UUID}
 
 import com.tle.common.institution.CurrentInstitution
 import com.tle.common.usermanagement.user.CurrentUser
@@ -48,18 +48,13 @@ object NotificationEmailer {
   val LOGGER = LoggerFactory.getLogger(classOf[NotificationEmailer])
 }
 
-class NotificationEmailer(batched: Boolean,
-                          processDate: Date,
-                          attemptId: String,
-                          dao: NotificationDao,
-                          emailService: EmailService)
+class NotificationEmailer(attemptId: String, dao: NotificationDao, emailService: EmailService)
     extends Callable[java.lang.Iterable[Callable[EmailResult[EmailKey]]]] {
 
   override def call: java.lang.Iterable[Callable[EmailResult[EmailKey]]] = {
     val userBean = CurrentUser.getDetails
     val inst     = CurrentInstitution.get()
     val user     = userBean.getUniqueID
-    dao.updateLastAttempt(user, batched, processDate, attemptId)
     val reasonMap = dao.getReasonCounts(user, attemptId).asScala.mapValues(_.intValue()).toMap
     val canSend = emailService.hasMailSettings && Option(userBean.getEmailAddress)
       .exists(_.nonEmpty)
@@ -38,10 +38,12 @@ import com.google.common.collect.Lists;
 import com.google.common.io.CharStreams;
 import com.tle.annotation.NonNullByDefault;
 import com.tle.annotation.Nullable;
+import com.tle.beans.Institution;
 import com.tle.beans.item.IItem;
 import com.tle.beans.item.ViewableItemType;
 import com.tle.common.Check;
 import com.tle.common.NameValue;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.PathUtils;
 import com.tle.common.URLUtils;
 import com.tle.common.Utils;
@@ -51,8 +53,11 @@ import com.tle.common.connectors.ConnectorFolder;
 import com.tle.common.connectors.ConnectorTerminology;
 import com.tle.common.connectors.entity.Connector;
 import com.tle.common.i18n.CurrentLocale;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.searching.SearchResults;
 import com.tle.common.searching.SimpleSearchResults;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
 import com.tle.core.connectors.canvas.CanvasConnectorConstants;
 import com.tle.core.connectors.canvas.beans.CanvasAccountBean;
 import com.tle.core.connectors.canvas.beans.CanvasCourseBean;
@@ -61,10 +66,13 @@ import com.tle.core.connectors.canvas.beans.CanvasErrorBean.CanvasErrorMessageBe
 import com.tle.core.connectors.canvas.beans.CanvasExternalToolBean;
 import com.tle.core.connectors.canvas.beans.CanvasModuleBean;
 import com.tle.core.connectors.canvas.beans.CanvasModuleItemBean;
+import com.tle.core.connectors.canvas.service.CanvasListingCache.CachedPage;
 import com.tle.core.connectors.exception.LmsUserNotFoundException;
 import com.tle.core.connectors.service.AbstractIntegrationConnectorRespository;
 import com.tle.core.connectors.service.ConnectorRepositoryService.ExternalContentSortType;
 import com.tle.core.guice.Bind;
+import com.tle.core.i18n.ServerSideLocaleImplementation;
+import com.tle.core.i18n.ServerSideLocaleImplementation.ThreadLocale;
 import com.tle.core.institution.InstitutionService;
 import com.tle.core.plugins.AbstractPluginService;
 import com.tle.core.services.HttpService;
@@ -76,10 +84,17 @@ import com.tle.web.selection.SelectedResource;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
@@ -107,11 +122,43 @@ public class CanvasConnectorService extends AbstractIntegrationConnectorResposit
   private static final String ACCOUNTS = "accounts";
   private static final String API_ROOT = "api/v1";
 
+  /** Concurrent requests made by a single fan out across courses and modules */
+  private static final int MAX_CONCURRENT_REQUESTS = 8;
+
+  private static final TypeReference<List<CanvasCourseBean>> COURSE_LIST_TYPE =
+      new TypeReference<List<CanvasCourseBean>>() {
+        // nada
+      };
+  private static final TypeReference<List<CanvasModuleBean>> MODULE_LIST_TYPE =
+      new TypeReference<List<CanvasModuleBean>>() {
+        // nada
+      };
+  private static final TypeReference<List<CanvasAccountBean>> ACCOUNT_LIST_TYPE =
+      new TypeReference<List<CanvasAccountBean>>() {
+        // nada
+      };
+
   private final CourseTransformer courseTransformer = new CourseTransformer();
 
+  private final CanvasListingCache listingCache =
+      new CanvasListingCache(TimeUnit.MINUTES.toMillis(2), TimeUnit.MINUTES.toMillis(30), 5000);
+  private final ThreadPoolExecutor fanOutExecutor =
+      new ThreadPoolExecutor(
+          MAX_CONCURRENT_REQUESTS,
+          MAX_CONCURRENT_REQUESTS,
+          1,
+          TimeUnit.MINUTES,
+          new LinkedBlockingQueue<Runnable>(),
+          new NamedThreadFactory("CanvasConnectorService.fanOut"));
+
+  {
+    fanOutExecutor.allowCoreThreadTimeOut(true);
+  }
+
   @Inject private HttpService httpService;
   @Inject private ConfigurationService configService;
   @Inject private InstitutionService institutionService;
+  @Inject private ServerSideLocaleImplementation localeImplementation;
 
   private static final ObjectMapper jsonMapper = new ObjectMapper();
 
@@ -485,61 +532,135 @@ public class CanvasConnectorService extends AbstractIntegrationConnectorResposit
       ExternalContentSortType sortType,
       boolean reverseSort)
       throws LmsUserNotFoundException {
-    final List<ConnectorContent> results = new ArrayList<>();
-    int ctr = 0;
-
     final List<CanvasCourseBean> courses =
         (courseId != null
             ? Collections.singletonList(getCanvasCourse(connector, username, courseId))
             : getCanvasCourses(connector, username, false, archived));
-    for (CanvasCourseBean course : courses) {
-      // find the modules
-      final List<CanvasModuleBean> modules =
-          (folderId != null
-              ? Collections.singletonList(
-                  getCanvasModule(connector, username, course.getId(), folderId))
-              : getCanvasModules(connector, username, course.getId()));
-      for (CanvasModuleBean module : modules) {
-        final Request moduleItemRequest =
-            new Request(
-                apiPath(connector, COURSES, course.getId(), MODULES, module.getId(), MODULE_ITEMS));
-        if (!Strings.isNullOrEmpty(query)) {
-          moduleItemRequest.addParameter("search_term", query);
-        }
 
-        Request nextRequest = moduleItemRequest;
-
-        while (nextRequest != null) {
-          try (final Response response = getCanvasResponse(nextRequest, connector, username)) {
-            final List<CanvasModuleItemBean> items =
-                jsonMapper.readValue(
-                    response.getInputStream(),
-                    new TypeReference<List<CanvasModuleItemBean>>() {
-                      // nada
-                    });
-
-            final ModuleItemTransformer itemTransformer =
-                new ModuleItemTransformer(connector, course, module);
-
-            for (CanvasModuleItemBean item : items) {
-              ConnectorContent content = itemTransformer.apply(item);
-              if (content != null && (ctr >= offset && ctr < offset + count)) {
-                results.add(content);
-                ctr++;
-              }
+    // find the modules of every course
+    final List<Callable<List<CanvasModuleBean>>> moduleTasks = new ArrayList<>();
+    for (final CanvasCourseBean course : courses) {
+      moduleTasks.add(
+          new ContextCallable<List<CanvasModuleBean>>() {
+            @Override
+            protected List<CanvasModuleBean> doCall() {
+              return folderId != null
+                  ? Collections.singletonList(
+                      getCanvasModule(connector, username, course.getId(), folderId))
+                  : getCanvasModules(connector, username, course.getId());
             }
+          });
+    }
+    final List<List<CanvasModuleBean>> courseModules = fanOut(moduleTasks);
+
+    // then the items of every module
+    final List<Callable<List<ConnectorContent>>> itemTasks = new ArrayList<>();
+    for (int i = 0; i < courses.size(); i++) {
+      final CanvasCourseBean course = courses.get(i);
+      for (final CanvasModuleBean module : courseModules.get(i)) {
+        itemTasks.add(
+            new ContextCallable<List<ConnectorContent>>() {
+              @Override
+              protected List<ConnectorContent> doCall() {
+                return getModuleContent(connector, username, query, course, module);
+              }
+            });
+      }
+    }
 
-            nextRequest =
-                getNextRequest(connector, username, response.getHeader(RESPONSE_HEADER_LINK));
-          } catch (Exception e) {
-            throw Throwables.propagate(e);
-          }
+    final List<ConnectorContent> results = new ArrayList<>();
+    int ctr = 0;
+    for (List<ConnectorContent> moduleContent : fanOut(itemTasks)) {
+      for (ConnectorContent content : moduleContent) {
+        if (ctr >= offset && ctr < offset + count) {
+          results.add(content);
         }
+        ctr++;
       }
     }
     return new SimpleSearchResults<>(results, results.size(), offset, ctr);
   }
 
+  /** @return The EQUELLA content in the module */
+  private List<ConnectorContent> getModuleContent(
+      Connector connector,
+      String username,
+      @Nullable String query,
+      CanvasCourseBean course,
+      CanvasModuleBean module) {
+    final List<ConnectorContent> contents = new ArrayList<>();
+    final ModuleItemTransformer itemTransformer =
+        new ModuleItemTransformer(connector, course, module);
+
+    final Request moduleItemRequest =
+        new Request(
+            apiPath(connector, COURSES, course.getId(), MODULES, module.getId(), MODULE_ITEMS));
+    if (!Strings.isNullOrEmpty(query)) {
+      moduleItemRequest.addParameter("search_term", query);
+    }
+
+    Request nextRequest = moduleItemRequest;
+    while (nextRequest != null) {
+      try (final Response response = getCanvasResponse(nextRequest, connector, username)) {
+        final List<CanvasModuleItemBean> items =
+            jsonMapper.readValue(
+                response.getInputStream(),
+                new TypeReference<List<CanvasModuleItemBean>>() {
+                  // nada
+                });
+
+        for (CanvasModuleItemBean item : items) {
+          ConnectorContent content = itemTransformer.apply(item);
+          if (content != null) {
+            contents.add(content);
+          }
+        }
+
+        nextRequest = getNextRequest(connector, username, response.getHeader(RESPONSE_HEADER_LINK));
+      } catch (Exception e) {
+        throw Throwables.propagate(e);
+      }
+    }
+    return contents;
+  }
+
+  /**
+   * Runs the tasks on the fan out pool, at most {@link #MAX_CONCURRENT_REQUESTS} at a time.
+   *
+   * @return The results, in the same order as the tasks.
+   */
+  private <T> List<T> fanOut(List<? extends Callable<T>> tasks) {
+    if (tasks.size() == 1) {
+      try {
+        return Collections.singletonList(tasks.get(0).call());
+      } catch (Exception e) {
+        throw Throwables.propagate(e);
+      }
+    }
+
+    final List<Future<T>> futures = new ArrayList<>(tasks.size());
+    try {
+      for (Callable<T> task : tasks) {
+        futures.add(fanOutExecutor.submit(task));
+      }
+      final List<T> results = new ArrayList<>(tasks.size());
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (ExecutionException ee) {
+      throw Throwables.propagate(ee.getCause());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(ie);
+    } finally {
+      // Don't leave the rest of the requests running if one of them failed
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
   @Override
   protected ViewableItemType getViewableItemType() {
     return ViewableItemType.GENERIC;
@@ -589,25 +710,11 @@ public class CanvasConnectorService extends AbstractIntegrationConnectorResposit
     if (!archived) {
       courseRequest.addParameter("state", COURSE_STATE_AVAILABLE);
     }
-    Request nextRequest = courseRequest;
-    while (nextRequest != null) {
-      try (Response response = getCanvasResponse(nextRequest, connector, username)) {
-        final List<CanvasCourseBean> courses =
-            jsonMapper.readValue(
-                response.getInputStream(),
-                new TypeReference<List<CanvasCourseBean>>() {
-                  // nada
-                });
-        for (CanvasCourseBean canvasCourse : courses) {
-          String state = canvasCourse.getState();
-          if (state.equals(COURSE_STATE_AVAILABLE) || state.equals(COURSE_STATE_UNPUBLISHED)) {
-            canvasCourses.add(canvasCourse);
-          }
-        }
-
-        nextRequest = getNextRequest(connector, username, response.getHeader(RESPONSE_HEADER_LINK));
-      } catch (Exception e) {
-        throw Throwables.propagate(e);
+    for (CanvasCourseBean canvasCourse :
+        getCanvasList(connector, username, courseRequest, COURSE_LIST_TYPE)) {
+      String state = canvasCourse.getState();
+      if (state.equals(COURSE_STATE_AVAILABLE) || state.equals(COURSE_STATE_UNPUBLISHED)) {
+        canvasCourses.add(canvasCourse);
       }
     }
 
@@ -616,72 +723,43 @@ public class CanvasConnectorService extends AbstractIntegrationConnectorResposit
     for (CanvasAccountBean account : userAccounts) {
       final Request accountCourseRequest =
           new Request(apiPath(connector, ACCOUNTS, account.getId(), COURSES));
-      nextRequest = accountCourseRequest;
-      while (nextRequest != null) {
-        try (Response response = getCanvasResponse(nextRequest, connector, username)) {
-          final List<CanvasCourseBean> courses =
-              jsonMapper.readValue(
-                  response.getInputStream(),
-                  new TypeReference<List<CanvasCourseBean>>() {
-                    // nada
-                  });
-          for (CanvasCourseBean canvasCourse : courses) {
-            String state = canvasCourse.getState();
-            if (!canvasCourses.contains(canvasCourse)
-                && (state.equals(COURSE_STATE_AVAILABLE)
-                    || (archived && state.equals(COURSE_STATE_UNPUBLISHED)))) {
-              canvasCourses.add(canvasCourse);
-            }
-          }
-
-          nextRequest =
-              getNextRequest(connector, username, response.getHeader(RESPONSE_HEADER_LINK));
-        } catch (Exception e) {
-          throw Throwables.propagate(e);
+      for (CanvasCourseBean canvasCourse :
+          getCanvasList(connector, username, accountCourseRequest, COURSE_LIST_TYPE)) {
+        String state = canvasCourse.getState();
+        if (!canvasCourses.contains(canvasCourse)
+            && (state.equals(COURSE_STATE_AVAILABLE)
+                || (archived && state.equals(COURSE_STATE_UNPUBLISHED)))) {
+          canvasCourses.add(canvasCourse);
         }
       }
     }
     return canvasCourses;
   }
 
-  private CanvasCourseBean getCanvasCourse(Connector connector, String username, String courseId) {
-    try {
-      final String courseResponse =
-          getCanvasJSONResponse(
-              new Request(apiPath(connector, COURSES, courseId)), connector, username);
-      final CanvasCourseBean canvasCourse =
-          jsonMapper.readValue(courseResponse, CanvasCourseBean.class);
-      return canvasCourse;
-    } catch (Exception e) {
-      throw Throwables.propagate(e);
-    }
+  private CanvasCourseBean getCanvasCourse(
+      Connector connector, @Nullable String username, String courseId) {
+    return getCanvasObject(
+        connector,
+        username,
+        new Request(apiPath(connector, COURSES, courseId)),
+        CanvasCourseBean.class);
   }
 
   private CanvasAccountBean getCanvasAccount(
-      Connector connector, String username, String accountId) {
-    try {
-      final String accountResponse =
-          getCanvasJSONResponse(
-              new Request(apiPath(connector, ACCOUNTS, accountId)), connector, username);
-      final CanvasAccountBean canvasAccount =
-          jsonMapper.readValue(accountResponse, CanvasAccountBean.class);
-      return canvasAccount;
-    } catch (Exception e) {
-      throw Throwables.propagate(e);
-    }
+      Connector connector, @Nullable String username, String accountId) {
+    return getCanvasObject(
+        connector,
+        username,
+        new Request(apiPath(connector, ACCOUNTS, accountId)),
+        CanvasAccountBean.class);
   }
 
   private List<CanvasAccountBean> listUsersAccounts(Connector connector, String username) {
+    // won't do nextRequest stuff. Shouldn't be more than 100 accounts
+    final CachedPage page =
+        getCachedPage(connector, username, new Request(apiPath(connector, ACCOUNTS)));
     try {
-      final String accountsResponse =
-          getCanvasJSONResponse(new Request(apiPath(connector, ACCOUNTS)), connector, username);
-      // won't do nextRequest stuff. Shouldn't be more than 100 accounts
-      return jsonMapper.readValue(
-          accountsResponse,
-          new TypeReference<List<CanvasAccountBean>>() {
-            // nada
-          });
-
+      return jsonMapper.readValue(page.getBody(), ACCOUNT_LIST_TYPE);
     } catch (Exception e) {
       throw Throwables.propagate(e);
     }
@@ -689,43 +767,73 @@ public class CanvasConnectorService extends AbstractIntegrationConnectorResposit
 
   private List<CanvasModuleBean> getCanvasModules(
       Connector connector, String username, String courseId) {
-    final List<CanvasModuleBean> canvasModules = new ArrayList<>();
-    final Request moduleRequest = new Request(apiPath(connector, COURSES, courseId, MODULES));
-    Request nextRequest = moduleRequest;
-    while (nextRequest != null) {
-      try (Response response = getCanvasResponse(nextRequest, connector, username)) {
-        final List<CanvasModuleBean> modules =
-            jsonMapper.readValue(
-                response.getInputStream(),
-                new TypeReference<List<CanvasModuleBean>>() {
-                  // nada
-                });
-        canvasModules.addAll(modules);
+    return getCanvasList(
+        connector,
+        username,
+        new Request(apiPath(connector, COURSES, courseId, MODULES)),
+        MODULE_LIST_TYPE);
+  }
 
-        nextRequest = getNextRequest(connector, username, response.getHeader(RESPONSE_HEADER_LINK));
+  private CanvasModuleBean getCanvasModule(
+      Connector connector, String username, String courseId, String moduleId) {
+    return getCanvasObject(
+        connector,
+        username,
+        new Request(apiPath(connector, COURSES, courseId, MODULES, moduleId)),
+        CanvasModuleBean.class);
+  }
+
+  /** Reads every page of a listing, pages are served from the listing cache where possible. */
+  private <T> List<T> getCanvasList(
+      Connector connector,
+      @Nullable String username,
+      Request request,
+      TypeReference<List<T>> listType) {
+    final List<T> list = new ArrayList<>();
+    Request nextRequest = request;
+    while (nextRequest != null) {
+      final CachedPage page = getCachedPage(connector, username, nextRequest);
+      try {
+        final List<T> pageList = jsonMapper.readValue(page.getBody(), listType);
+        list.addAll(pageList);
       } catch (Exception e) {
         throw Throwables.propagate(e);
       }
+      nextRequest = getNextRequest(connector, username, page.getLink());
     }
-    return canvasModules;
+    return list;
   }
 
-  private CanvasModuleBean getCanvasModule(
-      Connector connector, String username, String courseId, String moduleId) {
+  private <T> T getCanvasObject(
+      Connector connector, @Nullable String username, Request request, Class<T> type) {
+    final CachedPage page = getCachedPage(connector, username, request);
     try {
-      final String moduleResponse =
-          getCanvasJSONResponse(
-              new Request(apiPath(connector, COURSES, courseId, MODULES, moduleId)),
-              connector,
-              username);
-      final CanvasModuleBean canvasModule =
-          jsonMapper.readValue(moduleResponse, CanvasModuleBean.class);
-      return canvasModule;
+      return jsonMapper.readValue(page.getBody(), type);
     } catch (Exception e) {
       throw Throwables.propagate(e);
     }
   }
 
+  private CachedPage getCachedPage(
+      final Connector connector, @Nullable final String username, Request request) {
+    // The access token belongs to the connector, not the user
+    final String key =
+        CurrentInstitution.get().getUniqueId()
+            + ":"
+            + connector.getUuid()
+            + ":"
+            + httpService.toUrl(request);
+    return listingCache.getPage(
+        key,
+        request,
+        new Function<Request, Response>() {
+          @Override
+          public Response apply(Request pageRequest) {
+            return getCanvasResponse(pageRequest, connector, username);
+          }
+        });
+  }
+
   private CanvasModuleItemBean getCanvasModuleItem(
       Connector connector, String username, String courseId, String moduleId, String moduleItemId) {
     try {
@@ -766,7 +874,8 @@ public class CanvasConnectorService extends AbstractIntegrationConnectorResposit
     setupRequest(request, accessToken, username);
 
     final Response response = httpService.getWebContent(request, configService.getProxyDetails());
-    if (!response.isOk()) {
+    // Not modified is only ever a response to a conditional request from the listing cache
+    if (!response.isOk() && response.getCode() != HttpURLConnection.HTTP_NOT_MODIFIED) {
       try {
         // try to read the error structure
         try {
@@ -962,6 +1071,35 @@ public class CanvasConnectorService extends AbstractIntegrationConnectorResposit
     }
   }
 
+  /**
+   * Runs with the institution, user and locale of the thread that created it, as the module item
+   * transformer and error messages need them.
+   */
+  private abstract class ContextCallable<T> implements Callable<T> {
+    private final Institution institution = CurrentInstitution.get();
+    private final UserState userState = CurrentUser.getUserState();
+    private final ThreadLocale locale = localeImplementation.captureThreadLocals();
+
+    @Override
+    public final T call() throws Exception {
+      final Institution callingInstitution = CurrentInstitution.get();
+      final UserState callingUserState = CurrentUser.getUserState();
+      CurrentInstitution.set(institution);
+      CurrentUser.setUserState(userState);
+      localeImplementation.restoreThreadLocals(locale);
+      try {
+        return doCall();
+      } finally {
+        CurrentInstitution.set(callingInstitution);
+        CurrentUser.setUserState(callingUserState);
+        // Worked out again for the calling user if needed
+        localeImplementation.restoreThreadLocals(null);
+      }
+    }
+
+    protected abstract T doCall() throws Exception;
+  }
+
   private static class CanvasModuleItemKey {
     private final String courseId;
     private final String moduleId;
@@ -0,0 +1,156 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.connectors.canvas.service;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.core.services.http.Request;
+import com.tle.core.services.http.Response;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the raw JSON pages of Canvas listings (courses, modules etc.) so that browsing the same
+ * courses over and over doesn't go back to Canvas each time. A page is used as is for a short time
+ * after it was last validated, after that it is revalidated with a conditional request using the
+ * ETag Canvas sent with it, so an unchanged listing only costs a 304 rather than the whole body.
+ *
+ * <p>Pages are cached individually, keyed on their full URL, along with the Link header pointing at
+ * the next page.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class CanvasListingCache {
+  private static final String HEADER_ETAG = "ETag";
+  private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+  private static final String HEADER_LINK = "Link";
+
+  private final Cache<String, CachedPage> pages;
+  private final long freshMillis;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param freshMillis How long a page is used without checking back with Canvas.
+   * @param retainMillis How long an unused page is kept around for revalidation.
+   * @param maximumPages The maximum number of pages held.
+   */
+  public CanvasListingCache(long freshMillis, long retainMillis, int maximumPages) {
+    this.freshMillis = freshMillis;
+    this.pages =
+        CacheBuilder.newBuilder()
+            .expireAfterAccess(retainMillis, TimeUnit.MILLISECONDS)
+            .maximumSize(maximumPages)
+            .build();
+  }
+
+  /**
+   * @param key Identifies the page, it should include the full URL of the request as well as
+   *     whoever the page is being fetched for.
+   * @param request The request for the page, an If-None-Match header will be added to it if a stale
+   *     copy of the page is held.
+   * @param executor Sends the request. It must return 304 responses rather than treating them as an
+   *     error.
+   */
+  public CachedPage getPage(String key, Request request, Function<Request, Response> executor) {
+    final CachedPage cached = pages.getIfPresent(key);
+    final long now = System.currentTimeMillis();
+    if (cached != null && now - cached.validated < freshMillis) {
+      hits.incrementAndGet();
+      return cached;
+    }
+
+    final String etag = cached == null ? null : cached.etag;
+    if (etag != null) {
+      request.addHeader(HEADER_IF_NONE_MATCH, etag);
+    }
+    try (Response response = executor.apply(request)) {
+      final CachedPage page;
+      if (cached != null && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        revalidations.incrementAndGet();
+        page = new CachedPage(cached.body, cached.etag, cached.link, now);
+      } else {
+        misses.incrementAndGet();
+        page =
+            new CachedPage(
+                response.getBody(),
+                response.getHeader(HEADER_ETAG),
+                response.getHeader(HEADER_LINK),
+                now);
+      }
+      pages.put(key, page);
+      return page;
+    } catch (IOException io) {
+      throw Throwables.propagate(io);
+    }
+  }
+
+  public void invalidateAll() {
+    pages.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getRevalidationCount() {
+    return revalidations.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public static class CachedPage {
+    private final String body;
+    @Nullable private final String etag;
+    @Nullable private final String link;
+    private final long validated;
+
+    CachedPage(String body, @Nullable String etag, @Nullable String link, long validated) {
+      this.body = body;
+      this.etag = etag;
+      this.link = link;
+      this.validated = validated;
+    }
+
+    public String getBody() {
+      return body;
+    }
+
+    @Nullable
+    public String getEtag() {
+      return etag;
+    }
+
+    /** @return The Link header sent with the page, used to find the next page. */
+    @Nullable
+    public String getLink() {
+      return link;
+    }
+  }
+}
@@ -30,5 +30,11 @@ public interface UserPreferenceDao extends GenericDao<UserPreference, UserPrefer
 
   Set<String> getReferencedUsers();
 
+  /**
+   * @return Up to maxResults distinct, non-null user ids greater than afterUserId, in order. Pass
+   *     null to start from the beginning.
+   */
+  List<String> getReferencedUsers(String afterUserId, int maxResults);
+
   void transferUserId(final String fromUserId, final String toUserId);
 }
@@ -80,6 +80,33 @@ public class UserPreferenceDaoImpl
     return userIdSet;
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<String> getReferencedUsers(final String afterUserId, final int maxResults) {
+    return getHibernateTemplate()
+        .executeFind(
+            new HibernateCallback() {
+              @Override
+              public Object doInHibernate(Session session) {
+                // No lower bound on the first page, Oracle treats an empty string as null
+                Query query =
+                    session.createQuery(
+                        "select distinct u.key.userID from UserPreference u"
+                            + " where u.key.institution = :institution and "
+                            + (afterUserId == null
+                                ? "u.key.userID is not null"
+                                : "u.key.userID > :after")
+                            + " order by u.key.userID");
+                query.setParameter("institution", CurrentInstitution.get().getDatabaseId());
+                if (afterUserId != null) {
+                  query.setParameter("after", afterUserId);
+                }
+                query.setMaxResults(maxResults);
+                return query.list();
+              }
+            });
+  }
+
   @Override
   public void transferUserId(final String fromUserId, final String toUserId) {
     getHibernateTemplate()
@@ -19,7 +19,15 @@
 package com.tle.core.email.impl;
 
 import com.dytech.edge.common.Constants;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.tle.common.Check;
 import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.settings.standard.MailSettings;
@@ -34,9 +42,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.mail.Message;
@@ -44,7 +54,6 @@ import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
@@ -66,6 +75,18 @@ public class EmailServiceImpl implements EmailService {
 
   private final ExecutorService emailThread = Executors.newSingleThreadExecutor();
 
+  private final Cache<String, SmtpTransportPool> transportPools =
+      CacheBuilder.newBuilder()
+          .expireAfterAccess(10, TimeUnit.MINUTES)
+          .removalListener(
+              new RemovalListener<String, SmtpTransportPool>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, SmtpTransportPool> notification) {
+                  notification.getValue().close();
+                }
+              })
+          .build();
+
   @Inject private EncryptionService encryptionService;
 
   @Inject private ConfigurationService configService;
@@ -110,34 +131,13 @@ public class EmailServiceImpl implements EmailService {
     InternetAddress senderAddr;
     try {
       senderAddr = new InternetAddress(senderEmail, settings.getSenderName(), Constants.UTF8);
-      final Properties props = System.getProperties();
-      String server = settings.getServer();
-      if (Check.isEmpty(server)) {
+      if (Check.isEmpty(settings.getServer())) {
         throw new RuntimeException(
             "Incorrect mail settings - No server set on institution: "
                 + CurrentInstitution.get().getName());
       }
-      int ind = server.indexOf(':');
-      if (ind != -1) {
-        props.put("mail.smtp.port", server.substring(ind + 1));
-        server = server.substring(0, ind);
-      }
-      props.put(HOST_PROP, server);
-      props.put(FROM_PROP, senderEmail);
-      props.put(PROTO_PROP, SMTP);
-      props.put(TLS_PROP, "true");
-
-      Session mailSession = null;
-      Authenticator auth = getAuthenticator(settings);
-      if (auth != null) {
-        props.put(SMTP_AUTH_PROP, "true");
-        props.put(SUBMITTER_PROP, auth.getPasswordAuthentication().getUserName());
-        mailSession = Session.getInstance(props, auth);
-      } else {
-        props.remove(SMTP_AUTH_PROP);
-        props.remove(SUBMITTER_PROP);
-        mailSession = Session.getDefaultInstance(props, null);
-      }
+      SmtpTransportPool transportPool = getTransportPool(settings);
+      Session mailSession = transportPool.getSession();
 
       Message mimeMessage = new MimeMessage(mailSession);
       mimeMessage.setFrom(senderAddr);
@@ -155,7 +155,7 @@ public class EmailServiceImpl implements EmailService {
       }
       mimeMessage.setHeader("Content-Type", type);
       mimeMessage.setContent(message, type);
-      return new EmailCallable<T>(mimeMessage, key);
+      return new EmailCallable<T>(mimeMessage, key, transportPool);
     } catch (UnsupportedEncodingException e) {
       throw new RuntimeException(e);
     } catch (MessagingException e) {
@@ -163,6 +163,57 @@ public class EmailServiceImpl implements EmailService {
     }
   }
 
+  /**
+   * Messages sent with the same settings share a mail session and a pool of open connections to the
+   * server. The pools are keyed on a hash of the password rather than the password itself.
+   */
+  private SmtpTransportPool getTransportPool(final MailSettings settings) {
+    String poolKey =
+        settings.getServer()
+            + '|'
+            + settings.getSender()
+            + '|'
+            + settings.getUsername()
+            + '|'
+            + Hashing.sha256()
+                .hashString(Strings.nullToEmpty(settings.getPassword()), Charsets.UTF_8);
+    try {
+      return transportPools.get(
+          poolKey,
+          new Callable<SmtpTransportPool>() {
+            @Override
+            public SmtpTransportPool call() {
+              return new SmtpTransportPool(createSession(settings));
+            }
+          });
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private Session createSession(MailSettings settings) {
+    // Don't modify the system properties, as they're shared by every session
+    final Properties props = new Properties(System.getProperties());
+    String server = settings.getServer();
+    int ind = server.indexOf(':');
+    if (ind != -1) {
+      props.put("mail.smtp.port", server.substring(ind + 1));
+      server = server.substring(0, ind);
+    }
+    props.put(HOST_PROP, server);
+    props.put(FROM_PROP, settings.getSender());
+    props.put(PROTO_PROP, SMTP);
+    props.put(TLS_PROP, "true");
+
+    Authenticator auth = getAuthenticator(settings);
+    if (auth != null) {
+      props.put(SMTP_AUTH_PROP, "true");
+      props.put(SUBMITTER_PROP, auth.getPasswordAuthentication().getUserName());
+      return Session.getInstance(props, auth);
+    }
+    return Session.getInstance(props);
+  }
+
   @Override
   public <T> Callable<EmailResult<T>> createEmailer(
       String subject, List<String> emailAddresses, String message, final T key) {
@@ -227,16 +278,18 @@ public class EmailServiceImpl implements EmailService {
   public static class EmailCallable<T> implements Callable<EmailResult<T>> {
     private final Message message;
     private final T key;
+    private final SmtpTransportPool transportPool;
 
-    public EmailCallable(Message message, T key) {
+    public EmailCallable(Message message, T key, SmtpTransportPool transportPool) {
       this.message = message;
       this.key = key;
+      this.transportPool = transportPool;
     }
 
     @Override
     public EmailResult<T> call() throws Exception {
       try {
-        Transport.send(message);
+        transportPool.send(message);
       } catch (Exception t) {
         return new EmailResult<T>(t, key);
       }
@@ -0,0 +1,171 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.email.impl;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps SMTP connections to a mail server open between messages. Sending each message with {@link
+ * Transport#send(Message)} connects, negotiates TLS and logs in every time, which dominates the
+ * time taken to send large numbers of notification emails. Connections are borrowed for a single
+ * message and handed back afterwards, so each sending thread reuses one connection for every
+ * message it sends.
+ */
+@SuppressWarnings("nls")
+public class SmtpTransportPool {
+  private static final Logger LOGGER = Logger.getLogger(SmtpTransportPool.class);
+
+  private static final int DEFAULT_MAX_IDLE = 4;
+  // Well under the five minutes servers should allow before dropping idle clients
+  private static final long DEFAULT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final Session session;
+  private final int maxIdle;
+  private final long idleMillis;
+  private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<PooledTransport>();
+
+  private final AtomicLong connectionsOpened = new AtomicLong();
+  private final AtomicLong messagesSent = new AtomicLong();
+  private volatile boolean closed;
+
+  public SmtpTransportPool(Session session) {
+    this(session, DEFAULT_MAX_IDLE, DEFAULT_IDLE_MILLIS);
+  }
+
+  /**
+   * @param maxIdle The number of connections to keep open when not in use.
+   * @param idleMillis How long a connection may sit unused before it is no longer trusted.
+   */
+  public SmtpTransportPool(Session session, int maxIdle, long idleMillis) {
+    this.session = session;
+    this.maxIdle = maxIdle;
+    this.idleMillis = idleMillis;
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  public void send(Message message) throws MessagingException {
+    message.saveChanges();
+    Address[] recipients = message.getAllRecipients();
+
+    PooledTransport pooled = borrow();
+    try {
+      pooled.transport.sendMessage(message, recipients);
+    } catch (SendFailedException ex) {
+      // The server rejected some of the addresses, the connection isn't to blame
+      Address[] invalid = ex.getInvalidAddresses();
+      if (invalid != null && invalid.length > 0 && pooled.transport.isConnected()) {
+        release(pooled);
+      } else {
+        discard(pooled);
+      }
+      throw ex;
+    } catch (MessagingException ex) {
+      discard(pooled);
+      if (!pooled.reused) {
+        throw ex;
+      }
+      // The server may have dropped the connection while it was idle
+      LOGGER.debug("Pooled SMTP connection failed, retrying with a new connection", ex);
+      pooled = open();
+      try {
+        pooled.transport.sendMessage(message, recipients);
+      } catch (MessagingException ex2) {
+        discard(pooled);
+        throw ex2;
+      }
+    }
+    messagesSent.incrementAndGet();
+    release(pooled);
+  }
+
+  private PooledTransport borrow() throws MessagingException {
+    PooledTransport pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      if (System.currentTimeMillis() - pooled.lastUsed < idleMillis) {
+        pooled.reused = true;
+        return pooled;
+      }
+      discard(pooled);
+    }
+    return open();
+  }
+
+  private PooledTransport open() throws MessagingException {
+    Transport transport = session.getTransport();
+    transport.connect();
+    connectionsOpened.incrementAndGet();
+    return new PooledTransport(transport);
+  }
+
+  private void release(PooledTransport pooled) {
+    pooled.lastUsed = System.currentTimeMillis();
+    if (closed || idle.size() >= maxIdle || !idle.offerFirst(pooled)) {
+      discard(pooled);
+    }
+  }
+
+  private static void discard(PooledTransport pooled) {
+    try {
+      pooled.transport.close();
+    } catch (MessagingException ex) {
+      // Nothing more we can do with it
+      LOGGER.debug("Error closing SMTP connection", ex);
+    }
+  }
+
+  /** Closes the idle connections. Connections in use are closed when they are handed back. */
+  public void close() {
+    closed = true;
+    PooledTransport pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      discard(pooled);
+    }
+  }
+
+  public long getConnectionsOpened() {
+    return connectionsOpened.get();
+  }
+
+  public long getMessagesSent() {
+    return messagesSent.get();
+  }
+
+  private static class PooledTransport {
+    final Transport transport;
+    long lastUsed = System.currentTimeMillis();
+    boolean reused;
+
+    PooledTransport(Transport transport) {
+      this.transport = transport;
+    }
+  }
+}
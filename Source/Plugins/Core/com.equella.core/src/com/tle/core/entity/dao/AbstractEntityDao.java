@@ -52,6 +52,12 @@ public interface AbstractEntityDao<T extends BaseEntity> extends GenericInstitut
 
   Set<String> getReferencedUsers();
 
+  /**
+   * @return Up to maxResults distinct, non-null user ids greater than afterUserId, in order. Pass
+   *     null to start from the beginning.
+   */
+  List<String> getReferencedUsers(String afterUserId, int maxResults);
+
   String getUuidForId(long id);
 
   List<T> search(String freetext, boolean archived, int offset, int perPage);
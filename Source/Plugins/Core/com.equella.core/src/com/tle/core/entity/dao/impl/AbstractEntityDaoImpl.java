@@ -184,6 +184,32 @@ public abstract class AbstractEntityDaoImpl<T extends BaseEntity>
     return new HashSet<String>(entityList);
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<String> getReferencedUsers(final String afterUserId, final int maxResults) {
+    return getHibernateTemplate()
+        .executeFind(
+            new HibernateCallback() {
+              @Override
+              public Object doInHibernate(Session session) {
+                // No lower bound on the first page, Oracle treats an empty string as null
+                Query query =
+                    session.createQuery(
+                        "select distinct owner from "
+                            + getPersistentClass().getName()
+                            + " where institution = :institution and "
+                            + (afterUserId == null ? "owner is not null" : "owner > :after")
+                            + " order by owner");
+                query.setParameter("institution", CurrentInstitution.get());
+                if (afterUserId != null) {
+                  query.setParameter("after", afterUserId);
+                }
+                query.setMaxResults(maxResults);
+                return query.list();
+              }
+            });
+  }
+
   public void setEntityLockingDao(EntityLockingDao entityLockingDao) {
     this.entityLockingDao = entityLockingDao;
   }
@@ -97,6 +97,12 @@ public interface AbstractEntityService<B extends EntityEditingBean, T extends Ba
 
   Set<String> getReferencedUsers();
 
+  /**
+   * @return Up to maxResults distinct, non-null user ids greater than afterUserId, in order. Pass
+   *     null to start from the beginning.
+   */
+  List<String> getReferencedUsers(String afterUserId, int maxResults);
+
   AbstractEntityDao<T> getEntityDao();
 
   void prepareDelete(T entity, ConverterParams params);
@@ -1126,6 +1126,12 @@ public abstract class AbstractEntityServiceImpl<
     return entityDao.getReferencedUsers();
   }
 
+  @Override
+  @Transactional
+  public List<String> getReferencedUsers(String afterUserId, int maxResults) {
+    return entityDao.getReferencedUsers(afterUserId, maxResults);
+  }
+
   protected void cloneListById(List<? extends IdCloneable> list) {
     for (IdCloneable cloneable : list) {
       cloneable.setId(0);
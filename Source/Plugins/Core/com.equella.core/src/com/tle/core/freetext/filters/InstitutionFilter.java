@@ -19,6 +19,7 @@
 package com.tle.core.freetext.filters;
 
 import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
 import com.tle.common.institution.CurrentInstitution;
 import java.io.IOException;
@@ -32,12 +33,24 @@ import org.apache.lucene.util.OpenBitSet;
 public class InstitutionFilter extends Filter {
   private static final long serialVersionUID = 1L;
 
+  @Nullable private final Long institutionId;
+
+  /** Filters on whichever institution is current when the filter is applied. */
+  public InstitutionFilter() {
+    this.institutionId = null;
+  }
+
+  /** Filters on the given institution regardless of the thread the filter is applied on. */
+  public InstitutionFilter(Institution institution) {
+    this.institutionId = institution.getUniqueId();
+  }
+
   @Override
   public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
     int max = reader.maxDoc();
     OpenBitSet good = new OpenBitSet(max);
-    Institution institution = CurrentInstitution.get();
-    Term term = new Term(FreeTextQuery.FIELD_INSTITUTION, Long.toString(institution.getUniqueId()));
+    long uniqueId = institutionId != null ? institutionId : CurrentInstitution.get().getUniqueId();
+    Term term = new Term(FreeTextQuery.FIELD_INSTITUTION, Long.toString(uniqueId));
     TermDocs docs = reader.termDocs(term);
     while (docs.next()) {
       good.set(docs.doc());
@@ -45,4 +58,9 @@ public class InstitutionFilter extends Filter {
     docs.close();
     return good;
   }
+
+  @Override
+  public String toString() {
+    return "InstitutionFilter(" + (institutionId != null ? institutionId : "current") + ")";
+  }
 }
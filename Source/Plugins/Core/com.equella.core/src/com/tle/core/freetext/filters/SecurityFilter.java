@@ -23,9 +23,14 @@ import com.tle.common.usermanagement.user.CurrentUser;
 import com.tle.common.usermanagement.user.UserState;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -35,11 +40,14 @@ import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
 
 public class SecurityFilter extends Filter {
   private static final long serialVersionUID = 1L;
 
-  private OpenBitSet results;
+  // Collected bits for each segment reader, only kept when onlyCollectResults is set
+  private transient Map<IndexReader, OpenBitSet> collected =
+      Collections.synchronizedMap(new IdentityHashMap<IndexReader, OpenBitSet>());
   private boolean onlyCollectResults;
 
   private String[] expressions;
@@ -47,8 +55,15 @@ public class SecurityFilter extends Filter {
   private TermValueComparator comparator = new TermValueComparator();
   private int ownerSizes;
   private boolean systemUser;
+  private String aclType;
+  private String userId;
 
+  /**
+   * Captures the ACL expressions and id of the current user, so the filter can be applied on any
+   * thread once created.
+   */
   public SecurityFilter(String aclType) {
+    this.aclType = aclType;
     ownerExprMap = new HashMap<String, Boolean>();
 
     UserState userState = CurrentUser.getUserState();
@@ -60,6 +75,7 @@ public class SecurityFilter extends Filter {
     ownerSizes =
         (ownerAclExpressions == null ? 0 : ownerAclExpressions.size())
             + (notOwnerAclExpressions == null ? 0 : notOwnerAclExpressions.size());
+    userId = !systemUser && ownerSizes > 0 ? userState.getUserBean().getUniqueID() : null;
     expressions = new String[(aclExpressions == null ? 0 : aclExpressions.size()) + ownerSizes];
 
     int i = 0;
@@ -85,8 +101,27 @@ public class SecurityFilter extends Filter {
     }
   }
 
-  public OpenBitSet getResults() {
-    return results;
+  /**
+   * Combines the results collected for each segment of {@code reader} into a single bitset indexed
+   * by the top level document ids of {@code reader}.
+   */
+  public OpenBitSet getResults(IndexReader reader) {
+    OpenBitSet all = new OpenBitSet(reader.maxDoc());
+    List<IndexReader> segments = new ArrayList<IndexReader>();
+    ReaderUtil.gatherSubReaders(segments, reader);
+    int docBase = 0;
+    for (IndexReader segment : segments) {
+      OpenBitSet bits = collected.get(segment);
+      if (bits != null) {
+        int doc = bits.nextSetBit(0);
+        while (doc >= 0) {
+          all.set(docBase + doc);
+          doc = bits.nextSetBit(doc + 1);
+        }
+      }
+      docBase += segment.maxDoc();
+    }
+    return all;
   }
 
   public void setOnlyCollectResults(boolean onlyCollectResults) {
@@ -96,13 +131,13 @@ public class SecurityFilter extends Filter {
   @Override
   public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
     final int max = reader.maxDoc();
-    results = new OpenBitSet(max);
+    // The filter is shared by every segment of a search, so keep no per-call state in fields
+    OpenBitSet results = new OpenBitSet(max);
 
     if (!systemUser) {
       OpenBitSet owned = new OpenBitSet(max);
       if (ownerSizes > 0) {
-        TermDocs odocs =
-            reader.termDocs(new Term(FreeTextQuery.FIELD_OWNER, CurrentUser.getUserID()));
+        TermDocs odocs = reader.termDocs(new Term(FreeTextQuery.FIELD_OWNER, userId));
         while (odocs.next()) {
           owned.set(odocs.doc());
         }
@@ -157,6 +192,7 @@ public class SecurityFilter extends Filter {
     // If we are only collecting results, we return a full bitset to match
     // every document.
     if (onlyCollectResults) {
+      collected.put(reader, results);
       OpenBitSet fullBitSet = new OpenBitSet(max);
       fullBitSet.set(0, max);
       return fullBitSet;
@@ -165,6 +201,11 @@ public class SecurityFilter extends Filter {
     }
   }
 
+  @Override
+  public String toString() {
+    return "SecurityFilter(" + aclType + ", " + Arrays.toString(expressions) + ")";
+  }
+
   public static class TermValueComparator implements Comparator<Term>, Serializable {
     @Override
     public int compare(Term o1, Term o2) {
@@ -33,6 +33,12 @@ public class FreetextModule extends PropertiesModule {
   protected void configure() {
     bindInt("freetextIndex.synchroiseMinutes");
     bindProp("freetextIndex.defaultOperator");
+    bindInt("freetextIndex.resultCacheSize");
+    bindInt("freetextIndex.resultCacheStaleSeconds");
+    bindInt("freetextIndex.warmQueries");
+    bindBoolean("freetextIndex.journal");
+    bindBoolean("freetextIndex.shardByInstitution");
+    bindProp("freetextIndex.institutionShards");
     bindBoolean("textExtracter.indexAttachments");
     bindBoolean("textExtracter.indexImsPackages");
     bindLong("textExtracter.parseDurationCap");
@@ -21,6 +21,9 @@ package com.tle.core.freetext.index;
 import com.dytech.common.io.FileUtils;
 import com.dytech.edge.exceptions.ErrorDuringSearchException;
 import com.google.common.base.Throwables;
+import com.tle.annotation.Nullable;
+import com.tle.beans.Institution;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.freetext.LuceneConstants;
 import com.tle.freetext.TLEAnalyzer;
 import io.github.classgraph.ClassGraph;
@@ -31,12 +34,19 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.PostConstruct;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -44,13 +54,12 @@ import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.ReusableAnalyzerBase;
 import org.apache.lucene.analysis.WordlistLoader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.NRTManager;
 import org.apache.lucene.search.NRTManager.TrackingIndexWriter;
-import org.apache.lucene.search.NRTManagerReopenThread;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.util.Version;
 
 /**
@@ -86,27 +95,36 @@ import org.apache.lucene.util.Version;
 @SuppressWarnings("nls")
 public abstract class AbstractIndexEngine {
   protected final Logger LOGGER = Logger.getLogger(getClass());
+  private static final String MAIN_SHARD = "main";
+  private static final String INSTITUTION_SHARD_PREFIX = "inst_";
+
   private File indexPath;
   private PerFieldAnalyzerWrapper analyzer = null;
   private File stopWordsFile;
   private String analyzerLanguage;
-  private FSDirectory directory;
-  private TrackingIndexWriter trackingIndexWriter;
-  private NRTManager nrtManager;
-  private NRTManagerReopenThread nrtReopenThread;
   private Timer commiterThread;
+  private boolean journalEnabled = true;
+
+  private boolean shardByInstitution;
+  // Institution unique id to the number of hash buckets its items are spread over
+  private Map<Long, Integer> institutionShardCounts = Collections.emptyMap();
+  private final ConcurrentMap<String, IndexShard> shards = new ConcurrentHashMap<>();
 
-  // The index generation we should wait for
-  private long generation = -1;
+  private final List<IndexWarmer> warmers = new CopyOnWriteArrayList<IndexWarmer>();
+  private final AtomicLong warmCount = new AtomicLong();
+  private final AtomicLong totalWarmMillis = new AtomicLong();
+  private volatile long lastWarmMillis;
 
   public void deleteDirectory() {
     try {
       commiterThread.cancel();
-      nrtReopenThread.close();
-      nrtManager.close();
-      trackingIndexWriter.getIndexWriter().close();
-      directory.close();
-      FileUtils.delete(indexPath);
+      for (IndexShard shard : shards.values()) {
+        shard.delete();
+      }
+      shards.clear();
+      if (shardByInstitution) {
+        FileUtils.delete(getShardsPath());
+      }
       afterPropertiesSet();
     } catch (IOException e) {
       throw Throwables.propagate(e);
@@ -115,66 +133,233 @@ public abstract class AbstractIndexEngine {
 
   @PostConstruct
   public void afterPropertiesSet() throws IOException {
-    if (!indexPath.exists()) {
-      if (!indexPath.mkdirs()) {
-        throw new Error("Error creating index:" + indexPath); // $NON-NLS-1$
+    if (shardByInstitution) {
+      // Open every existing shard so that all of their journals can be recovered
+      File[] shardDirs = getShardsPath().listFiles();
+      if (shardDirs != null) {
+        for (File shardDir : shardDirs) {
+          if (shardDir.isDirectory() && shardDir.getName().startsWith(INSTITUTION_SHARD_PREFIX)) {
+            openShard(shardDir.getName());
+          }
+        }
       }
+    } else {
+      openShard(MAIN_SHARD);
     }
-    directory = FSDirectory.open(indexPath);
 
-    if (IndexWriter.isLocked(directory)) {
-      LOGGER.info("Unlocking index:" + indexPath); // $NON-NLS-1$
-      IndexWriter.unlock(directory);
-    }
-    LOGGER.info("Opening writer for index:" + indexPath); // $NON-NLS-1$
-    trackingIndexWriter =
-        new TrackingIndexWriter(
-            new IndexWriter(
-                directory, new IndexWriterConfig(LuceneConstants.LATEST_VERSION, getAnalyser())));
-    nrtManager = new NRTManager(trackingIndexWriter, null);
-
-    // Possibly reopen a searcher every 5 seconds if necessary in the
-    // background
-    nrtReopenThread = new NRTManagerReopenThread(nrtManager, 5.0, 0.1);
-    nrtReopenThread.setName("NRT Reopen Thread: " + getClass());
-    nrtReopenThread.setPriority(
-        Math.min(Thread.currentThread().getPriority() + 2, Thread.MAX_PRIORITY));
-    nrtReopenThread.setDaemon(true);
-    nrtReopenThread.start();
-
-    // Commit any changes to disk every 5 minutes
+    // Commit any changes to disk every 5 minutes. Anything not yet committed can be recovered from
+    // the journal.
     commiterThread = new Timer(true);
     commiterThread.schedule(
         new TimerTask() {
           @Override
           public void run() {
-            try {
-              trackingIndexWriter.getIndexWriter().commit();
-            } catch (IOException ex) {
-              LOGGER.error("Error attempting to commit index writer", ex);
-            }
+            commit();
           }
         },
         5 * 60 * 1000,
         5 * 60 * 1000);
   }
 
-  public void modifyIndex(IndexBuilder builder) {
-    try {
-      long g = -1;
+  private void commit() {
+    for (IndexShard shard : shards.values()) {
       try {
-        g = builder.buildIndex(nrtManager, trackingIndexWriter);
-      } finally {
-        generation = Math.max(g, generation);
+        shard.commit();
+      } catch (IOException ex) {
+        LOGGER.error("Error attempting to commit index writer for " + shard, ex);
+      }
+    }
+  }
+
+  private File getShardsPath() {
+    return getShardsPath(indexPath);
+  }
+
+  /** @return The directory holding the shards of the index normally kept at the given path. */
+  static File getShardsPath(File indexPath) {
+    return new File(indexPath.getParentFile(), indexPath.getName() + "_shards");
+  }
+
+  private IndexShard openShard(String name) throws IOException {
+    IndexShard shard = shards.get(name);
+    if (shard == null) {
+      synchronized (shards) {
+        shard = shards.get(name);
+        if (shard == null) {
+          File path = MAIN_SHARD.equals(name) ? indexPath : new File(getShardsPath(), name);
+          final Long institutionId = getShardInstitution(name);
+          shard =
+              new IndexShard(
+                  name,
+                  path,
+                  getAnalyser(),
+                  new SearcherFactory() {
+                    @Override
+                    public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+                      IndexSearcher searcher = super.newSearcher(reader);
+                      warm(searcher, institutionId);
+                      return searcher;
+                    }
+                  },
+                  journalEnabled);
+          shards.put(name, shard);
+        }
+      }
+    }
+    return shard;
+  }
+
+  /** @return The institution a shard holds, or null for the main shard which holds them all. */
+  @Nullable
+  static Long getShardInstitution(String shardName) {
+    if (!shardName.startsWith(INSTITUTION_SHARD_PREFIX)) {
+      return null;
+    }
+    int end = shardName.indexOf('_', INSTITUTION_SHARD_PREFIX.length());
+    return Long.valueOf(
+        shardName.substring(INSTITUTION_SHARD_PREFIX.length(), end < 0 ? shardName.length() : end));
+  }
+
+  /**
+   * The name of the shard holding an item. Large institutions can be configured to spread their
+   * items over a number of shards by item key.
+   */
+  static String getShardName(long institutionId, long itemKey, int shardCount) {
+    String name = INSTITUTION_SHARD_PREFIX + institutionId;
+    if (shardCount <= 1) {
+      return name;
+    }
+    return name + '_' + Math.floorMod(itemKey, shardCount) + "of" + shardCount;
+  }
+
+  private int getShardCount(long institutionId) {
+    Integer count = institutionShardCounts.get(institutionId);
+    return count == null ? 1 : count;
+  }
+
+  protected boolean isSharded() {
+    return shardByInstitution;
+  }
+
+  /** @return The shard that an item of the given institution is indexed in. */
+  protected IndexShard getShard(long institutionId, long itemKey) {
+    if (!shardByInstitution) {
+      return shards.get(MAIN_SHARD);
+    }
+    try {
+      return openShard(getShardName(institutionId, itemKey, getShardCount(institutionId)));
+    } catch (IOException ex) {
+      throw Throwables.propagate(ex);
+    }
+  }
+
+  /**
+   * @return All the shards holding items of the given institution, opening any that don't exist.
+   */
+  protected List<IndexShard> getInstitutionShards(long institutionId) {
+    if (!shardByInstitution) {
+      return Collections.singletonList(shards.get(MAIN_SHARD));
+    }
+    int count = getShardCount(institutionId);
+    List<IndexShard> institutionShards = new ArrayList<IndexShard>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        institutionShards.add(openShard(getShardName(institutionId, i, count)));
+      }
+    } catch (IOException ex) {
+      throw Throwables.propagate(ex);
+    }
+    return institutionShards;
+  }
+
+  /**
+   * Closes and deletes all shards of an institution. Only meaningful when sharding by institution,
+   * otherwise the institution's documents have to be deleted from the index.
+   */
+  protected void dropInstitutionShards(long institutionId) {
+    String prefix = INSTITUTION_SHARD_PREFIX + institutionId;
+    synchronized (shards) {
+      for (IndexShard shard : new ArrayList<IndexShard>(shards.values())) {
+        String name = shard.getName();
+        if (name.equals(prefix) || name.startsWith(prefix + '_')) {
+          shards.remove(name);
+          try {
+            shard.delete();
+          } catch (IOException ex) {
+            LOGGER.error("Error deleting index shard " + shard, ex);
+          }
+        }
       }
+    }
+  }
+
+  /** Applies the builder to every shard of the index. */
+  public void modifyIndex(IndexBuilder builder) {
+    for (IndexShard shard : shards.values()) {
+      modifyIndex(shard, builder);
+    }
+  }
+
+  public void modifyIndex(IndexShard shard, IndexBuilder builder) {
+    try {
+      shard.modify(builder);
     } catch (Exception ex) {
       throw new RuntimeException("Error while building index", ex); // $NON-NLS-1$
     }
   }
 
+  /**
+   * Searches the shards of the current institution, or every shard if there is no current
+   * institution. When there is more than one shard their readers are combined into a single reader,
+   * so top hits are merged and collectors see every shard. Segments are searched on the calling
+   * thread because filters such as {@link com.tle.core.freetext.filters.SecurityFilter} are reused
+   * for every segment.
+   */
   public <RV> RV search(Searcher<RV> s) {
-    nrtManager.waitForGeneration(generation);
-    IndexSearcher indexSearcher = nrtManager.acquire();
+    List<IndexShard> searchShards;
+    Institution institution = CurrentInstitution.get();
+    if (!shardByInstitution) {
+      searchShards = Collections.singletonList(shards.get(MAIN_SHARD));
+    } else if (institution != null) {
+      searchShards = getInstitutionShards(institution.getUniqueId());
+    } else {
+      searchShards = new ArrayList<IndexShard>(shards.values());
+    }
+
+    if (searchShards.size() == 1) {
+      return search(searchShards.get(0), s);
+    }
+
+    Map<IndexShard, IndexSearcher> acquired = new HashMap<IndexShard, IndexSearcher>();
+    try {
+      IndexReader[] readers = new IndexReader[searchShards.size()];
+      int i = 0;
+      for (IndexShard shard : searchShards) {
+        IndexSearcher searcher = shard.acquire();
+        acquired.put(shard, searcher);
+        readers[i++] = searcher.getIndexReader();
+      }
+      // Increments the reference count of each shard reader until it is closed
+      try (ShardsReader reader = new ShardsReader(readers);
+          IndexSearcher searcher = new IndexSearcher(reader)) {
+        return s.search(searcher);
+      }
+    } catch (IOException ex) {
+      LOGGER.error("Error searching index", ex); // $NON-NLS-1$
+      throw new ErrorDuringSearchException("Error searching index", ex); // $NON-NLS-1$
+    } finally {
+      for (Map.Entry<IndexShard, IndexSearcher> entry : acquired.entrySet()) {
+        try {
+          entry.getKey().release(entry.getValue());
+        } catch (IOException ex) {
+          LOGGER.error("Error releasing searcher for " + entry.getKey(), ex); // $NON-NLS-1$
+        }
+      }
+    }
+  }
+
+  private <RV> RV search(IndexShard shard, Searcher<RV> s) {
+    IndexSearcher indexSearcher = shard.acquire();
     try {
       return s.search(indexSearcher);
     } catch (IOException ex) {
@@ -183,7 +368,7 @@ public abstract class AbstractIndexEngine {
     } finally {
       if (indexSearcher != null) {
         try {
-          nrtManager.release(indexSearcher);
+          shard.release(indexSearcher);
         } catch (IOException ex) {
           throw new ErrorDuringSearchException("Error releasing searcher", ex); // $NON-NLS-1$
         }
@@ -191,6 +376,109 @@ public abstract class AbstractIndexEngine {
     }
   }
 
+  /**
+   * @return The changes that were made to the index but not committed before it was last closed, or
+   *     null if that can't be determined and the index should be fully synchronised.
+   */
+  @Nullable
+  public IndexJournal.Recovery getRecovery() {
+    IndexJournal.Recovery recovery = null;
+    for (IndexShard shard : shards.values()) {
+      IndexJournal.Recovery shardRecovery = shard.getRecovery();
+      if (shardRecovery == null) {
+        return null;
+      }
+      recovery = recovery == null ? shardRecovery : recovery.merge(shardRecovery);
+    }
+    return recovery;
+  }
+
+  /** Lets the journals discard what {@link #getRecovery()} returned, now it has been reindexed. */
+  public void recoveryIndexed() {
+    for (IndexShard shard : shards.values()) {
+      shard.recoveryIndexed();
+    }
+  }
+
+  public void setJournalEnabled(boolean journalEnabled) {
+    this.journalEnabled = journalEnabled;
+  }
+
+  /**
+   * @param shardByInstitution Whether each institution gets its own index directory.
+   * @param institutionShardCounts The number of shards to spread the items of very large
+   *     institutions over, keyed by institution unique id. Changing these requires the index to be
+   *     split again with {@link IndexShardSplitter} or rebuilt.
+   */
+  public void setSharding(boolean shardByInstitution, Map<Long, Integer> institutionShardCounts) {
+    this.shardByInstitution = shardByInstitution;
+    this.institutionShardCounts = institutionShardCounts;
+  }
+
+  /**
+   * @return The generation of the most recent change that had to be searchable immediately. With
+   *     more than one shard this is a sum that changes whenever any shard's generation does.
+   */
+  protected long getRequiredGeneration() {
+    long generation = 0;
+    for (IndexShard shard : shards.values()) {
+      generation += shard.getRequiredGeneration();
+    }
+    return generation;
+  }
+
+  private void warm(IndexSearcher searcher, @Nullable Long institutionId) throws IOException {
+    long start = System.currentTimeMillis();
+    warmSearcher(searcher);
+    for (IndexWarmer warmer : warmers) {
+      try {
+        warmer.warm(searcher, institutionId);
+      } catch (IOException | RuntimeException ex) {
+        // Never stop a searcher being published because it couldn't be warmed
+        LOGGER.warn("Error warming searcher with " + warmer, ex);
+      }
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    lastWarmMillis = elapsed;
+    warmCount.incrementAndGet();
+    totalWarmMillis.addAndGet(elapsed);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Warmed searcher for " + indexPath + " in " + elapsed + "ms");
+    }
+  }
+
+  /**
+   * Invoked with every new searcher before it is made available for searching, e.g. to pre-build
+   * per-segment caches. Runs before any of the registered {@link IndexWarmer}s.
+   */
+  protected void warmSearcher(IndexSearcher searcher) throws IOException {
+    // Nothing by default
+  }
+
+  /** Registers a warmer to run against every new searcher before it is published. */
+  public void addWarmer(IndexWarmer warmer) {
+    warmers.add(warmer);
+  }
+
+  public void removeWarmer(IndexWarmer warmer) {
+    warmers.remove(warmer);
+  }
+
+  /** @return How long warming the most recently opened searcher took. */
+  public long getLastWarmMillis() {
+    return lastWarmMillis;
+  }
+
+  /** @return The number of searchers that have been warmed. */
+  public long getWarmCount() {
+    return warmCount.get();
+  }
+
+  /** @return The total time spent warming searchers. */
+  public long getTotalWarmMillis() {
+    return totalWarmMillis.get();
+  }
+
   public void setStopWordsFile(File stopWordsFile) {
     this.stopWordsFile = stopWordsFile;
   }
@@ -275,6 +563,28 @@ public abstract class AbstractIndexEngine {
   protected abstract Map<String, Analyzer> getAnalyzerFieldMap(
       Analyzer autoComplete, Analyzer nonStemmed);
 
+  /**
+   * Combines the readers of several shards without taking ownership of them. The version is the sum
+   * of the shard versions, so it increases whenever any shard is reopened.
+   */
+  private static class ShardsReader extends MultiReader {
+    private final IndexReader[] shardReaders;
+
+    ShardsReader(IndexReader[] shardReaders) {
+      super(shardReaders, false);
+      this.shardReaders = shardReaders;
+    }
+
+    @Override
+    public long getVersion() {
+      long version = 0;
+      for (IndexReader reader : shardReaders) {
+        version += reader.getVersion();
+      }
+      return version;
+    }
+  }
+
   public interface Searcher<T> {
     T search(IndexSearcher searcher) throws IOException;
   }
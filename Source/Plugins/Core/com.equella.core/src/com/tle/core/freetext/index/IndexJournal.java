@@ -0,0 +1,348 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.beans.item.ItemIdKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.log4j.Logger;
+
+/**
+ * An append-only log of the item changes made to an index. Index writers are only committed every
+ * few minutes, so without the journal a crash loses an unknown set of changes and the whole index
+ * has to be compared against the database on the next startup.
+ *
+ * <p>The journal is split into numbered segment files. Every commit starts a new segment and
+ * records its number in the commit's user data, after which the older segments can be deleted. On
+ * startup, the segments from the last commit point onwards hold exactly the changes that may not
+ * have made it to disk.
+ *
+ * <p>Recovered changes are only safe once they have been reindexed, so until {@link
+ * #recoveryIndexed()} is called every commit keeps pointing at the recovered segments and the time
+ * of the commit they were recovered from. A restart before then recovers them again.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class IndexJournal {
+  private static final Logger LOGGER = Logger.getLogger(IndexJournal.class);
+
+  private static final String COMMIT_SEGMENT = "journal.segment";
+  private static final String COMMIT_TIME = "journal.time";
+  private static final String FILE_PREFIX = "journal-";
+  private static final String FILE_SUFFIX = ".log";
+
+  public enum Operation {
+    ADD,
+    REMOVE
+  }
+
+  private final File indexPath;
+  @Nullable private final Recovery recovery;
+  // The commit point recovered from, kept until the recovered changes have been reindexed
+  @Nullable private Long keptSegment;
+  private long keptTime;
+
+  private long segment;
+  private FileOutputStream fileOut;
+  private DataOutputStream out;
+  private boolean dirty;
+
+  /**
+   * Opens the journal in an index directory, replaying any segments that were written after the
+   * last commit.
+   *
+   * @param commitUserData The user data of the last commit of the index.
+   */
+  public static IndexJournal open(File indexPath, Map<String, String> commitUserData)
+      throws IOException {
+    return new IndexJournal(indexPath, commitUserData);
+  }
+
+  private IndexJournal(File indexPath, Map<String, String> commitUserData) throws IOException {
+    this.indexPath = indexPath;
+
+    TreeMap<Long, File> segments = getSegments();
+    String committedSegment = commitUserData.get(COMMIT_SEGMENT);
+    String commitTime = commitUserData.get(COMMIT_TIME);
+    if (committedSegment != null && commitTime != null) {
+      long committed = Long.parseLong(committedSegment);
+      List<Entry> entries = new ArrayList<Entry>();
+      for (Map.Entry<Long, File> file : segments.entrySet()) {
+        if (file.getKey() >= committed) {
+          read(file.getValue(), entries);
+        } else {
+          delete(file.getValue());
+        }
+      }
+      recovery = new Recovery(Long.parseLong(commitTime), entries);
+      keptSegment = committed;
+      keptTime = recovery.commitTime;
+      if (!entries.isEmpty()) {
+        LOGGER.info(
+            "Found " + entries.size() + " uncommitted changes in journal for index:" + indexPath);
+      }
+      segment = Math.max(committed, segments.isEmpty() ? 0 : segments.lastKey()) + 1;
+    } else {
+      // Either a new index or one written before journalling, we can't tell what was lost
+      for (File file : segments.values()) {
+        delete(file);
+      }
+      recovery = null;
+      segment = 1;
+    }
+    openSegment();
+  }
+
+  private TreeMap<Long, File> getSegments() {
+    TreeMap<Long, File> segments = new TreeMap<Long, File>();
+    File[] files = indexPath.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+          try {
+            segments.put(
+                Long.parseLong(
+                    name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())),
+                file);
+          } catch (NumberFormatException ex) {
+            LOGGER.warn("Ignoring unrecognised journal file:" + file);
+          }
+        }
+      }
+    }
+    return segments;
+  }
+
+  private static void read(File file, List<Entry> entries) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      while (true) {
+        Operation operation;
+        try {
+          operation = Operation.values()[in.readByte()];
+        } catch (EOFException ex) {
+          return;
+        }
+        try {
+          long generation = in.readLong();
+          long institutionId = in.readLong();
+          long key = in.readLong();
+          String uuid = in.readBoolean() ? in.readUTF() : null;
+          int version = in.readInt();
+          entries.add(
+              new Entry(operation, generation, institutionId, new ItemIdKey(key, uuid, version)));
+        } catch (EOFException ex) {
+          // The server went down part way through writing the entry, which means the change
+          // itself was never made to the index
+          LOGGER.warn("Ignoring truncated entry at end of journal:" + file);
+          return;
+        }
+      }
+    }
+  }
+
+  private void openSegment() throws IOException {
+    fileOut = new FileOutputStream(getFile(segment), true);
+    out = new DataOutputStream(new BufferedOutputStream(fileOut));
+    dirty = false;
+  }
+
+  private File getFile(long number) {
+    return new File(indexPath, FILE_PREFIX + number + FILE_SUFFIX);
+  }
+
+  private static void delete(File file) {
+    if (!file.delete() && file.exists()) {
+      LOGGER.warn("Could not delete journal file:" + file);
+    }
+  }
+
+  /**
+   * Durably records the changes about to be made to the index. Must be called before the changes
+   * are given to the index writer.
+   */
+  public synchronized void write(Collection<Entry> entries) throws IOException {
+    if (entries.isEmpty()) {
+      return;
+    }
+    for (Entry entry : entries) {
+      ItemIdKey itemId = entry.getItemIdKey();
+      out.writeByte(entry.getOperation().ordinal());
+      out.writeLong(entry.getGeneration());
+      out.writeLong(entry.getInstitutionId());
+      out.writeLong(itemId.getKey());
+      // Removals can be made by key alone
+      String uuid = itemId.getUuid();
+      out.writeBoolean(uuid != null);
+      if (uuid != null) {
+        out.writeUTF(uuid);
+      }
+      out.writeInt(itemId.getVersion());
+    }
+    out.flush();
+    fileOut.getFD().sync();
+    dirty = true;
+  }
+
+  /**
+   * Starts a new segment for changes made after this point. No changes may be in progress when this
+   * is called, i.e. everything written to the journal so far must already be in the index writer.
+   *
+   * @return The user data to commit the index writer with.
+   */
+  public synchronized Map<String, String> startCommit() throws IOException {
+    if (dirty) {
+      out.close();
+      segment++;
+      openSegment();
+    }
+    Map<String, String> userData = new HashMap<String, String>();
+    if (keptSegment != null) {
+      userData.put(COMMIT_SEGMENT, Long.toString(keptSegment));
+      userData.put(COMMIT_TIME, Long.toString(keptTime));
+    } else {
+      userData.put(COMMIT_SEGMENT, Long.toString(segment));
+      userData.put(COMMIT_TIME, Long.toString(System.currentTimeMillis()));
+    }
+    return userData;
+  }
+
+  /**
+   * Called once the changes from {@link #getRecovery()} have been reindexed, after which the next
+   * commit can discard the recovered segments.
+   */
+  public synchronized void recoveryIndexed() {
+    keptSegment = null;
+  }
+
+  /**
+   * Discards the segments that are no longer needed.
+   *
+   * @param commitUserData The user data of the last commit that made it to disk.
+   */
+  public synchronized void committed(Map<String, String> commitUserData) {
+    String committedSegment = commitUserData.get(COMMIT_SEGMENT);
+    if (committedSegment == null) {
+      return;
+    }
+    long committed = Long.parseLong(committedSegment);
+    for (Map.Entry<Long, File> file : getSegments().headMap(committed).entrySet()) {
+      delete(file.getValue());
+    }
+  }
+
+  /**
+   * @return The changes that were not committed before the index was last closed, or null if the
+   *     index has no commit point to recover from.
+   */
+  @Nullable
+  public Recovery getRecovery() {
+    return recovery;
+  }
+
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  public static final class Entry {
+    private final Operation operation;
+    private final long generation;
+    private final long institutionId;
+    private final ItemIdKey itemIdKey;
+
+    /** @param generation The generation of the index writer before the change was made. */
+    public Entry(Operation operation, long generation, long institutionId, ItemIdKey itemIdKey) {
+      this.operation = operation;
+      this.generation = generation;
+      this.institutionId = institutionId;
+      this.itemIdKey = itemIdKey;
+    }
+
+    public Operation getOperation() {
+      return operation;
+    }
+
+    public long getGeneration() {
+      return generation;
+    }
+
+    public long getInstitutionId() {
+      return institutionId;
+    }
+
+    public ItemIdKey getItemIdKey() {
+      return itemIdKey;
+    }
+  }
+
+  /** What needs to be done to bring one or more indexes back up to date after a restart. */
+  public static final class Recovery {
+    private final long commitTime;
+    private final Collection<Entry> entries;
+
+    public Recovery(long commitTime, Collection<Entry> entries) {
+      this.commitTime = commitTime;
+      this.entries = Collections.unmodifiableCollection(entries);
+    }
+
+    /** @return When the oldest of the indexes was last committed. */
+    public Date getCommitDate() {
+      return new Date(commitTime);
+    }
+
+    public Collection<Entry> getEntries() {
+      return entries;
+    }
+
+    /** @return The items that may need reindexing, keyed by institution unique id. */
+    public Multimap<Long, ItemIdKey> getUncommittedItems() {
+      Multimap<Long, ItemIdKey> items = HashMultimap.create();
+      for (Entry entry : entries) {
+        items.put(entry.getInstitutionId(), entry.getItemIdKey());
+      }
+      return items;
+    }
+
+    public Recovery merge(Recovery other) {
+      List<Entry> merged = new ArrayList<Entry>(entries);
+      merged.addAll(other.entries);
+      return new Recovery(Math.min(commitTime, other.commitTime), merged);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.dytech.common.io.FileUtils;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.freetext.LuceneConstants;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NRTManager;
+import org.apache.lucene.search.NRTManager.TrackingIndexWriter;
+import org.apache.lucene.search.NRTManagerReopenThread;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * A single Lucene index directory, along with its writer, near real-time searcher manager and
+ * journal. An index engine holds one shard, or one per institution (or several for a very large
+ * institution) when sharding is enabled.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class IndexShard {
+  private static final Logger LOGGER = Logger.getLogger(IndexShard.class);
+
+  private final String name;
+  private final File indexPath;
+  private final FSDirectory directory;
+  private final TrackingIndexWriter trackingIndexWriter;
+  private final NRTManager nrtManager;
+  private final NRTManagerReopenThread nrtReopenThread;
+  @Nullable private final IndexJournal journal;
+  // Held for reading while modifying the index and for writing while starting a commit
+  private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+
+  // The index generation we should wait for
+  private volatile long generation = -1;
+
+  IndexShard(
+      String name,
+      File indexPath,
+      Analyzer analyzer,
+      SearcherFactory searcherFactory,
+      boolean journalEnabled)
+      throws IOException {
+    this.name = name;
+    this.indexPath = indexPath;
+    if (!indexPath.exists()) {
+      if (!indexPath.mkdirs()) {
+        throw new Error("Error creating index:" + indexPath); // $NON-NLS-1$
+      }
+    }
+    directory = FSDirectory.open(indexPath);
+
+    if (IndexWriter.isLocked(directory)) {
+      LOGGER.info("Unlocking index:" + indexPath); // $NON-NLS-1$
+      IndexWriter.unlock(directory);
+    }
+    LOGGER.info("Opening writer for index:" + indexPath); // $NON-NLS-1$
+    trackingIndexWriter =
+        new TrackingIndexWriter(
+            new IndexWriter(
+                directory, new IndexWriterConfig(LuceneConstants.LATEST_VERSION, analyzer)));
+    journal =
+        journalEnabled
+            ? IndexJournal.open(indexPath, IndexReader.getCommitUserData(directory))
+            : null;
+    nrtManager = new NRTManager(trackingIndexWriter, searcherFactory);
+
+    // Possibly reopen a searcher every 5 seconds if necessary in the
+    // background
+    nrtReopenThread = new NRTManagerReopenThread(nrtManager, 5.0, 0.1);
+    nrtReopenThread.setName("NRT Reopen Thread: " + indexPath.getName());
+    nrtReopenThread.setPriority(
+        Math.min(Thread.currentThread().getPriority() + 2, Thread.MAX_PRIORITY));
+    nrtReopenThread.setDaemon(true);
+    nrtReopenThread.start();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public File getIndexPath() {
+    return indexPath;
+  }
+
+  void commit() throws IOException {
+    IndexWriter writer = trackingIndexWriter.getIndexWriter();
+    if (journal == null) {
+      writer.commit();
+      return;
+    }
+    Map<String, String> userData;
+    commitLock.writeLock().lock();
+    try {
+      userData = journal.startCommit();
+    } finally {
+      commitLock.writeLock().unlock();
+    }
+    writer.commit(userData);
+    // The commit is skipped if nothing has changed, so check what actually made it to disk
+    journal.committed(IndexReader.getCommitUserData(directory));
+  }
+
+  void modify(AbstractIndexEngine.IndexBuilder builder) throws Exception {
+    long g = -1;
+    commitLock.readLock().lock();
+    try {
+      g = builder.buildIndex(nrtManager, trackingIndexWriter);
+    } finally {
+      commitLock.readLock().unlock();
+      synchronized (this) {
+        generation = Math.max(g, generation);
+      }
+    }
+  }
+
+  /** Waits for any "index now" changes to become searchable and acquires the current searcher. */
+  IndexSearcher acquire() {
+    nrtManager.waitForGeneration(generation);
+    return nrtManager.acquire();
+  }
+
+  void release(IndexSearcher searcher) throws IOException {
+    nrtManager.release(searcher);
+  }
+
+  /** @return The generation of the most recent change that had to be searchable immediately. */
+  long getRequiredGeneration() {
+    return generation;
+  }
+
+  /**
+   * Records changes in the journal before they are made, so they can be recovered if the server
+   * stops before the next commit. Only to be called from within an {@link
+   * AbstractIndexEngine.IndexBuilder} for this shard.
+   */
+  public void writeJournal(Collection<IndexJournal.Entry> entries) throws IOException {
+    if (journal != null) {
+      journal.write(entries);
+    }
+  }
+
+  @Nullable
+  IndexJournal.Recovery getRecovery() {
+    return journal == null ? null : journal.getRecovery();
+  }
+
+  void recoveryIndexed() {
+    if (journal != null) {
+      journal.recoveryIndexed();
+    }
+  }
+
+  void close() throws IOException {
+    nrtReopenThread.close();
+    nrtManager.close();
+    trackingIndexWriter.getIndexWriter().close();
+    if (journal != null) {
+      journal.close();
+    }
+    directory.close();
+  }
+
+  void delete() throws IOException {
+    close();
+    FileUtils.delete(indexPath);
+  }
+
+  @Override
+  public String toString() {
+    return indexPath.toString();
+  }
+}
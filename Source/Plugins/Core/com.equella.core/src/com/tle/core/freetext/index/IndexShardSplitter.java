@@ -0,0 +1,276 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.google.common.base.Splitter;
+import com.tle.freetext.LuceneConstants;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FilterIndexReader;
+import org.apache.lucene.index.FilterIndexReader.FilterTermDocs;
+import org.apache.lucene.index.FilterIndexReader.FilterTermPositions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Splits an existing item index into the per-institution shards used when {@code
+ * freetextIndex.shardByInstitution} is enabled, so that sharding can be turned on without
+ * reindexing everything. Run it against a copy of the index, or while the server is stopped:
+ *
+ * <pre>
+ * IndexShardSplitter &lt;index directory&gt; [&lt;institution unique id&gt;:&lt;shard count&gt;,...]
+ * </pre>
+ *
+ * The shard counts must match {@code freetextIndex.institutionShards}. The shards have no journal,
+ * so the first startup afterwards checks every item against the database.
+ */
+@SuppressWarnings("nls")
+public final class IndexShardSplitter {
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println(
+          "Usage: IndexShardSplitter <index directory> [<institution id>:<shard count>,...]");
+      System.exit(1);
+    }
+    Map<Long, Integer> shardCounts = new HashMap<Long, Integer>();
+    if (args.length == 2) {
+      for (String shard : Splitter.on(',').trimResults().omitEmptyStrings().split(args[1])) {
+        List<String> parts = Splitter.on(':').trimResults().splitToList(shard);
+        shardCounts.put(Long.parseLong(parts.get(0)), Integer.parseInt(parts.get(1)));
+      }
+    }
+    File indexPath = new File(args[0]);
+    Map<String, Integer> written = split(indexPath, shardCounts);
+    for (Map.Entry<String, Integer> shard : written.entrySet()) {
+      System.out.println(shard.getKey() + ": " + shard.getValue() + " documents");
+    }
+    System.out.println("Wrote shards to " + AbstractIndexEngine.getShardsPath(indexPath));
+  }
+
+  /**
+   * Writes a shard for every institution found in the index, replacing any existing shards.
+   *
+   * @return The number of documents written to each shard, by shard name.
+   */
+  public static Map<String, Integer> split(File indexPath, Map<Long, Integer> shardCounts)
+      throws IOException {
+    File shardsPath = AbstractIndexEngine.getShardsPath(indexPath);
+    Map<String, Integer> written = new TreeMap<String, Integer>();
+    try (Directory directory = FSDirectory.open(indexPath);
+        IndexReader reader = IndexReader.open(directory)) {
+      long[] institutions = readLongField(reader, FreeTextQuery.FIELD_INSTITUTION);
+      long[] itemKeys = readLongField(reader, FreeTextQuery.FIELD_ID);
+
+      Map<String, OpenBitSet> shardDocs = new HashMap<String, OpenBitSet>();
+      for (int doc = 0; doc < reader.maxDoc(); doc++) {
+        if (reader.isDeleted(doc)) {
+          continue;
+        }
+        long institution = institutions[doc];
+        Integer count = shardCounts.get(institution);
+        String name =
+            AbstractIndexEngine.getShardName(institution, itemKeys[doc], count == null ? 1 : count);
+        OpenBitSet docs = shardDocs.get(name);
+        if (docs == null) {
+          docs = new OpenBitSet(reader.maxDoc());
+          shardDocs.put(name, docs);
+        }
+        docs.set(doc);
+      }
+
+      for (Map.Entry<String, OpenBitSet> shard : shardDocs.entrySet()) {
+        IndexWriterConfig config =
+            new IndexWriterConfig(LuceneConstants.LATEST_VERSION, new KeywordAnalyzer())
+                .setOpenMode(OpenMode.CREATE);
+        try (Directory shardDirectory = FSDirectory.open(new File(shardsPath, shard.getKey()));
+            IndexWriter writer = new IndexWriter(shardDirectory, config)) {
+          writer.addIndexes(new KeepDocsReader(reader, shard.getValue()));
+          writer.commit();
+        }
+        written.put(shard.getKey(), (int) shard.getValue().cardinality());
+      }
+    }
+    return written;
+  }
+
+  private static long[] readLongField(IndexReader reader, String field) throws IOException {
+    long[] values = new long[reader.maxDoc()];
+    try (TermEnum terms = reader.terms(new Term(field));
+        TermDocs termDocs = reader.termDocs()) {
+      do {
+        Term term = terms.term();
+        if (term == null || !term.field().equals(field)) {
+          break;
+        }
+        long value = Long.parseLong(term.text());
+        termDocs.seek(terms);
+        while (termDocs.next()) {
+          values[termDocs.doc()] = value;
+        }
+      } while (terms.next());
+    }
+    return values;
+  }
+
+  /** Hides every document that isn't in the shard by making it appear deleted. */
+  private static class KeepDocsReader extends FilterIndexReader {
+    private final OpenBitSet keep;
+    private final int numDocs;
+    private final FieldInfos fieldInfos;
+
+    KeepDocsReader(IndexReader in, OpenBitSet keep) {
+      super(in);
+      this.keep = keep;
+      this.numDocs = (int) keep.cardinality();
+      this.fieldInfos = ReaderUtil.getMergedFieldInfos(in);
+    }
+
+    @Override
+    public FieldInfos getFieldInfos() {
+      return fieldInfos;
+    }
+
+    @Override
+    public int numDocs() {
+      return numDocs;
+    }
+
+    @Override
+    public boolean hasDeletions() {
+      return true;
+    }
+
+    @Override
+    public boolean isDeleted(int n) {
+      return !keep.get(n);
+    }
+
+    @Override
+    public TermDocs termDocs() throws IOException {
+      return new KeepTermDocs(in.termDocs(), keep);
+    }
+
+    @Override
+    public TermDocs termDocs(Term term) throws IOException {
+      TermDocs termDocs = termDocs();
+      termDocs.seek(term);
+      return termDocs;
+    }
+
+    @Override
+    public TermPositions termPositions() throws IOException {
+      return new KeepTermPositions(in.termPositions(), keep);
+    }
+
+    @Override
+    public IndexReader[] getSequentialSubReaders() {
+      // Present the whole index as one reader so the deletions above are used when merging
+      return null;
+    }
+  }
+
+  private static boolean nextKept(TermDocs termDocs, OpenBitSet keep) throws IOException {
+    while (termDocs.next()) {
+      if (keep.get(termDocs.doc())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int readKept(TermDocs termDocs, int[] docs, int[] freqs) throws IOException {
+    int i = 0;
+    while (i < docs.length && termDocs.next()) {
+      docs[i] = termDocs.doc();
+      freqs[i] = termDocs.freq();
+      i++;
+    }
+    return i;
+  }
+
+  /** Postings would otherwise still list the documents that are hidden from the shard. */
+  private static class KeepTermDocs extends FilterTermDocs {
+    private final OpenBitSet keep;
+
+    KeepTermDocs(TermDocs in, OpenBitSet keep) {
+      super(in);
+      this.keep = keep;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      return nextKept(in, keep);
+    }
+
+    @Override
+    public int read(int[] docs, int[] freqs) throws IOException {
+      return readKept(this, docs, freqs);
+    }
+
+    @Override
+    public boolean skipTo(int target) throws IOException {
+      return in.skipTo(target) && (keep.get(in.doc()) || next());
+    }
+  }
+
+  private static class KeepTermPositions extends FilterTermPositions {
+    private final OpenBitSet keep;
+
+    KeepTermPositions(TermPositions in, OpenBitSet keep) {
+      super(in);
+      this.keep = keep;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      return nextKept(in, keep);
+    }
+
+    @Override
+    public int read(int[] docs, int[] freqs) throws IOException {
+      return readKept(this, docs, freqs);
+    }
+
+    @Override
+    public boolean skipTo(int target) throws IOException {
+      return in.skipTo(target) && (keep.get(in.doc()) || next());
+    }
+  }
+
+  private IndexShardSplitter() {
+    throw new Error();
+  }
+}
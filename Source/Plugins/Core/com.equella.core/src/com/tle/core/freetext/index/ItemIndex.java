@@ -33,6 +33,7 @@ import com.tle.beans.item.ItemId;
 import com.tle.beans.item.ItemIdKey;
 import com.tle.common.Check;
 import com.tle.common.Pair;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.searching.DateFilter.Format;
 import com.tle.common.searching.Field;
 import com.tle.common.searching.Search;
@@ -49,6 +50,8 @@ import com.tle.core.freetext.filters.MustFilter;
 import com.tle.core.freetext.filters.MustNotFilter;
 import com.tle.core.freetext.filters.SecurityFilter;
 import com.tle.core.freetext.filters.XPathFieldIterator;
+import com.tle.core.freetext.index.SearchResultCache.CachedHit;
+import com.tle.core.freetext.index.SearchResultCache.CachedHits;
 import com.tle.core.freetext.queries.FreeTextAutocompleteQuery;
 import com.tle.core.freetext.queries.FreeTextBooleanQuery;
 import com.tle.core.freetext.queries.FreeTextDateQuery;
@@ -68,10 +71,10 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -85,7 +88,6 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.FieldSelector;
-import org.apache.lucene.document.FieldSelectorResult;
 import org.apache.lucene.document.SetBasedFieldSelector;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
@@ -99,6 +101,7 @@ import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.ChainedFilter;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.FieldCacheRangeFilter;
 import org.apache.lucene.search.FieldComparatorSource;
@@ -119,8 +122,11 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 
 @SuppressWarnings("nls")
@@ -130,6 +136,9 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
   private static final Pattern OR = Pattern.compile("(\\W)or(\\W)"); // $NON-NLS-1$
   private static final Pattern NOT = Pattern.compile("(\\W)not(\\W)"); // $NON-NLS-1$
 
+  // Completions taken from each segment beyond those asked for, in case some aren't visible
+  private static final int SUGGEST_EXTRA_CANDIDATES = 16;
+
   private static final Map<String, String> PRIV_MAP =
       ImmutableMap.of(
           "MODERATE_ITEM",
@@ -154,13 +163,37 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
 
   private FieldSelector keyFieldSelector;
 
+  /** True if result documents have key fields other than the item key and unique id */
+  private boolean resultDocumentRequired;
+
+  private SearchResultCache resultCache;
+
+  @Nullable private PopularSearchWarmer searchWarmer;
+
   @PostConstruct
   @Override
   public void afterPropertiesSet() throws IOException {
     setStopWordsFile(freetextIndex.getStopWordsFile());
     setDefaultOperator(freetextIndex.getDefaultOperator());
     setAnalyzerLanguage(freetextIndex.getAnalyzerLanguage());
-    keyFieldSelector = new SetBasedFieldSelector(getKeyFields(), new HashSet<String>());
+    setJournalEnabled(freetextIndex.isJournalEnabled());
+    setSharding(freetextIndex.isShardByInstitution(), freetextIndex.getInstitutionShards());
+    Set<String> keyFields = getKeyFields();
+    keyFieldSelector = new SetBasedFieldSelector(keyFields, new HashSet<String>());
+    resultDocumentRequired =
+        !Arrays.asList(FreeTextQuery.FIELD_UNIQUE, FreeTextQuery.FIELD_ID).containsAll(keyFields);
+    resultCache =
+        new SearchResultCache(
+            freetextIndex.getResultCacheSize(), freetextIndex.getResultCacheStaleSeconds());
+    if (searchWarmer != null) {
+      removeWarmer(searchWarmer);
+      searchWarmer = null;
+    }
+    int warmQueries = freetextIndex.getWarmQueries();
+    if (warmQueries > 0) {
+      searchWarmer = new PopularSearchWarmer(warmQueries);
+      addWarmer(searchWarmer);
+    }
 
     super.afterPropertiesSet();
   }
@@ -187,6 +220,12 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     return -1;
   }
 
+  @Override
+  protected void warmSearcher(IndexSearcher searcher) throws IOException {
+    ItemKeyColumns.load(searcher.getIndexReader());
+    SuggestionDictionary.prepare(searcher.getIndexReader());
+  }
+
   protected Set<String> getKeyFields() {
     return new HashSet<String>(Arrays.asList(FreeTextQuery.FIELD_UNIQUE, FreeTextQuery.FIELD_ID));
   }
@@ -275,17 +314,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
           public SearchResults<T> search(IndexSearcher searcher) throws IOException {
             long t1 = System.currentTimeMillis();
 
-            Collection<Filter> filters = getFilters(searchreq);
-            SecurityFilter deleteablesFilter = null;
-            String collectPriv = searchreq.getPrivilegeToCollect();
-            if (collectPriv != null) {
-              deleteablesFilter = new SecurityFilter(getPrefixForPrivilege(collectPriv));
-              deleteablesFilter.setOnlyCollectResults(true);
-              filters.add(deleteablesFilter);
-            }
-            Filter filter =
-                new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
-
+            IndexReader reader = searcher.getIndexReader();
             Sort sorter = getSorter(searchreq);
 
             // TODO: We should really be doing a
@@ -293,7 +322,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
             // for requestedCount too rather than trying to just work.
             int actualStart = Math.max(0, requestedStart);
             int actualCount = -1;
-            int numDocs = searcher.getIndexReader().numDocs();
+            int numDocs = reader.numDocs();
 
             if (requestedCount < 0
                 || requestedCount == Integer.MAX_VALUE
@@ -306,46 +335,46 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
               }
             }
 
-            SearchResults<T> results;
-            Query query = getQuery(searchreq, searcher.getIndexReader(), searchAttachment);
-            boolean searchAll =
-                Check.isEmpty(searchreq.getQuery()) || searchreq.getQuery().equals("*");
+            Query query = getQuery(searchreq, reader, searchAttachment);
+            if (searchWarmer != null
+                && !(searchreq.getFreeTextQuery() instanceof FreeTextAutocompleteQuery)) {
+              searchWarmer.record(
+                  CurrentInstitution.get().getUniqueId(),
+                  query,
+                  getWarmingFilter(searchreq),
+                  sorter);
+            }
 
-            if (actualCount == 0) {
-              TotalHitCountCollector hitCount = new TotalHitCountCollector();
-              searcher.search(query, filter, hitCount);
-              results =
-                  new SimpleSearchResults<T>(new ArrayList<T>(), 0, 0, hitCount.getTotalHits());
-            } else {
-              final TopDocs hits = searcher.search(query, filter, actualCount, sorter);
-              final SearchResults<T> itemResults =
-                  getResultsFromTopDocs(searcher, hits, actualStart, deleteablesFilter, searchreq);
-
-              SearchResults<T> attachmentResults = null;
-              int attachmentBoostValue = freetextIndex.getSearchSettings().getAttachmentBoost();
-              if (searchAll) {
-                // don't worry about attachment relevance
-                results = itemResults;
-              } else if (attachmentBoostValue != 0 && searchAttachment) {
-                final String[] fields = new String[] {FreeTextQuery.FIELD_ATTACHMENT_VECTORED};
-
-                Query queryAttachmentOnly =
-                    getQuery(searchreq, searcher.getIndexReader(), fields, searchAttachment);
-                queryAttachmentOnly =
-                    addUniqueIdClauseToQuery(
-                        queryAttachmentOnly, itemResults, searcher.getIndexReader());
-
-                final TopDocs attachmentHits =
-                    searcher.search(queryAttachmentOnly, filter, actualCount, sorter);
-                attachmentResults =
-                    getResultsFromTopDocs(
-                        searcher, attachmentHits, 0, deleteablesFilter, searchreq);
+            SearchResults<T> results = null;
+            String cacheKey =
+                resultCache.getKey(
+                    searchreq, query, sorter, actualStart, actualCount, searchAttachment);
+            if (cacheKey != null) {
+              CachedHits cached =
+                  resultCache.get(cacheKey, reader.getVersion(), getRequiredGeneration());
+              if (cached != null) {
+                results = getResultsFromCache(cached, searchreq);
               }
+            }
+            boolean fromCache = results != null;
 
-              if (attachmentResults != null) {
-                results = markItemKeywordFoundInAttachment(itemResults, attachmentResults);
-              } else {
-                results = itemResults;
+            if (!fromCache) {
+              List<Document> keyDocs = cacheKey != null ? new ArrayList<Document>() : null;
+              results =
+                  searchIndex(
+                      searcher,
+                      searchreq,
+                      query,
+                      sorter,
+                      actualStart,
+                      actualCount,
+                      searchAttachment,
+                      keyDocs);
+              if (cacheKey != null) {
+                resultCache.put(
+                    cacheKey,
+                    createCachedHits(
+                        results, keyDocs, reader.getVersion(), getRequiredGeneration()));
               }
             }
             long t2 = System.currentTimeMillis();
@@ -362,7 +391,8 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
                       + (t2 - t1)
                       + "ms] Total Indexed["
                       + numDocs
-                      + "]");
+                      + "]"
+                      + (fromCache ? " Cached" : ""));
             }
 
             return results;
@@ -370,46 +400,150 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
         });
   }
 
-  private Query addUniqueIdClauseToQuery(
-      Query query, SearchResults<T> itemResults, IndexReader reader) {
-    List<T> results = itemResults.getResults();
-    BooleanQuery orQuery = new BooleanQuery();
+  /**
+   * Runs the search against the index.
+   *
+   * @param keyDocs If not null, will be populated with the key fields of each result document.
+   */
+  private SearchResults<T> searchIndex(
+      IndexSearcher searcher,
+      Search searchreq,
+      Query query,
+      Sort sorter,
+      int actualStart,
+      int actualCount,
+      boolean searchAttachment,
+      @Nullable List<Document> keyDocs)
+      throws IOException {
+    Collection<Filter> filters = getFilters(searchreq);
+    SecurityFilter deleteablesFilter = null;
+    String collectPriv = searchreq.getPrivilegeToCollect();
+    if (collectPriv != null) {
+      deleteablesFilter = new SecurityFilter(getPrefixForPrivilege(collectPriv));
+      deleteablesFilter.setOnlyCollectResults(true);
+      filters.add(deleteablesFilter);
+    }
+    Filter filter =
+        new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
+
+    boolean searchAll = Check.isEmpty(searchreq.getQuery()) || searchreq.getQuery().equals("*");
+
+    if (actualCount == 0) {
+      TotalHitCountCollector hitCount = new TotalHitCountCollector();
+      searcher.search(query, filter, hitCount);
+      return new SimpleSearchResults<T>(new ArrayList<T>(), 0, 0, hitCount.getTotalHits());
+    }
+
+    final TopDocs hits = searcher.search(query, filter, actualCount, sorter);
+    final SearchResults<T> itemResults =
+        getResultsFromTopDocs(searcher, hits, actualStart, deleteablesFilter, searchreq, keyDocs);
+
+    int attachmentBoostValue = freetextIndex.getSearchSettings().getAttachmentBoost();
+    if (!searchAll && attachmentBoostValue != 0 && searchAttachment) {
+      final String[] fields = new String[] {FreeTextQuery.FIELD_ATTACHMENT_VECTORED};
+      Query queryAttachmentOnly =
+          getQuery(searchreq, searcher.getIndexReader(), fields, searchAttachment);
+      markKeywordFoundInAttachment(
+          searcher, queryAttachmentOnly, hits.scoreDocs, actualStart, itemResults.getResults());
+    }
+    return itemResults;
+  }
 
-    for (T t : results) {
-      ItemIdKey itemIdKey = t.getItemIdKey();
-      String[] split = itemIdKey.toString().split("/");
-      String uniqueId = split[1] + "/" + split[2];
+  private CachedHits createCachedHits(
+      SearchResults<T> results,
+      @Nullable List<Document> keyDocs,
+      long readerVersion,
+      long requiredGeneration) {
+    List<CachedHit> hits = new ArrayList<CachedHit>();
+    List<T> resultList = results.getResults();
+    for (int i = 0; i < resultList.size(); i++) {
+      T result = resultList.get(i);
+      hits.add(
+          new CachedHit(
+              result.getItemIdKey(),
+              keyDocs.get(i),
+              result.getRelevance(),
+              result.isMatchesPrivilege(),
+              result.isKeywordFoundInAttachment()));
+    }
+    return new CachedHits(
+        readerVersion, requiredGeneration, results.getOffset(), results.getAvailable(), hits);
+  }
 
-      FreeTextBooleanQuery bquery = new FreeTextBooleanQuery(false, true);
-      bquery.add(new FreeTextFieldQuery(FreeTextQuery.FIELD_UNIQUE, uniqueId));
-      BooleanClause convertBoolean = convertToBooleanClause(bquery, reader);
-      convertBoolean.setOccur(Occur.SHOULD);
-      orQuery.add(convertBoolean);
+  private SearchResults<T> getResultsFromCache(CachedHits cached, Search originalSearch) {
+    boolean sortByRelevance = isSortByRelevance(originalSearch);
+    List<T> retrievedResults = new ArrayList<T>();
+    for (CachedHit hit : cached.getHits()) {
+      T result =
+          createResult(hit.getKey(), hit.getKeyDocument(), hit.getRelevance(), sortByRelevance);
+      result.setMatchesPrivilege(hit.isMatchesPrivilege());
+      result.setKeywordFoundInAttachment(hit.isKeywordFoundInAttachment());
+      retrievedResults.add(result);
     }
-
-    BooleanQuery newQuery = new BooleanQuery();
-    newQuery.add(query, Occur.MUST);
-    newQuery.add(orQuery, Occur.MUST);
-
-    return newQuery;
+    return new SimpleSearchResults<T>(
+        retrievedResults, retrievedResults.size(), cached.getOffset(), cached.getAvailable());
   }
 
-  private SearchResults<T> markItemKeywordFoundInAttachment(
-      SearchResults<T> results, SearchResults<T> attachmentResults) {
-    List<T> attachments = attachmentResults.getResults();
-
-    for (int i = 0; i < results.getResults().size(); i++) {
-      T t = results.getResults().get(i);
-      t.setKeywordFoundInAttachment(false);
+  /** Hit, miss and staleness statistics for the search result cache of this index. */
+  public SearchResultCache getResultCache() {
+    return resultCache;
+  }
 
-      for (T attachment : attachments) {
-        if (t.getItemIdKey().equals(attachment.getItemIdKey())) {
-          t.setKeywordFoundInAttachment(true);
-          break;
-        }
+  /**
+   * Flags the results whose documents match the query on their attachments alone. Rather than
+   * running the attachment query as a second search, a scorer for it is advanced through the page
+   * of hits in each segment, which only visits the documents being returned.
+   *
+   * @param results The results created from {@code hits}, starting at {@code firstHit}.
+   */
+  private void markKeywordFoundInAttachment(
+      IndexSearcher searcher,
+      Query attachmentQuery,
+      final ScoreDoc[] hits,
+      final int firstHit,
+      List<T> results)
+      throws IOException {
+    if (results.isEmpty()) {
+      return;
+    }
+
+    // Scorers can only move forwards, so visit the hits in document order
+    Integer[] order = new Integer[results.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(
+        order, (i1, i2) -> Integer.compare(hits[firstHit + i1].doc, hits[firstHit + i2].doc));
+
+    List<IndexReader> segments = new ArrayList<IndexReader>();
+    ReaderUtil.gatherSubReaders(segments, searcher.getIndexReader());
+    int[] docStarts = new int[segments.size()];
+    int docStart = 0;
+    for (int i = 0; i < docStarts.length; i++) {
+      docStarts[i] = docStart;
+      docStart += segments.get(i).maxDoc();
+    }
+
+    Weight weight = searcher.createNormalizedWeight(attachmentQuery);
+    int currentSegment = -1;
+    Scorer scorer = null;
+    for (int i : order) {
+      int docId = hits[firstHit + i].doc;
+      int segment = ReaderUtil.subIndex(docId, docStarts);
+      if (segment != currentSegment) {
+        currentSegment = segment;
+        scorer = weight.scorer(segments.get(segment), true, false);
+      }
+      int segmentDoc = docId - docStarts[segment];
+      boolean found = false;
+      if (scorer != null) {
+        int current = scorer.docID();
+        found =
+            current == segmentDoc
+                || (current < segmentDoc && scorer.advance(segmentDoc) == segmentDoc);
       }
+      results.get(i).setKeywordFoundInAttachment(found);
     }
-    return results;
   }
 
   public LongSet searchBitSet(final Search searchreq, final boolean searchAttachments) {
@@ -434,21 +568,10 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
             Query query = getQuery(searchreq, indexReader, searchAttachments);
             int numDocs = indexReader.numDocs();
 
-            CompressedSetCollector compCollector = new CompressedSetCollector();
-            searcher.search(query, filter, compCollector);
-            LongSet docIdSet = compCollector.getSet();
-
-            LongSet longSet = new LongSet(new FastSet());
-            FieldSelector fieldSelector = new ItemIdFieldSelector();
-            Iterator<Long> iterator = docIdSet.iterator();
-            while (iterator.hasNext()) {
-              long doc = iterator.next();
-              Document document = indexReader.document((int) doc, fieldSelector);
-              long key = Long.parseLong(document.get(FreeTextQuery.FIELD_ID));
-              longSet.add(key);
-            }
+            ItemKeyCollector keyCollector = new ItemKeyCollector();
+            searcher.search(query, filter, keyCollector);
             LongSet results = new LongSet(new ConciseSet());
-            results.addAll(longSet);
+            results.addAll(keyCollector.getKeys());
 
             long t2 = System.currentTimeMillis();
             long size = results.size();
@@ -485,13 +608,14 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
   protected LongSet getBitSetFromTopDocs(IndexSearcher searcher, TopDocs hits, int firstHit)
       throws IOException {
     LongSet longSet = new LongSet(new ConciseSet());
+    ItemKeyColumns columns = ItemKeyColumns.forReader(searcher.getIndexReader());
     ScoreDoc[] results = hits.scoreDocs;
     if (firstHit < results.length) {
       for (int i = firstHit; i < results.length; i++) {
         int docId = results[i].doc;
-        Document doc = searcher.doc(docId, keyFieldSelector);
-        ItemIdKey key = getKeyForDocument(doc);
-        longSet.add(key.getKey());
+        if (columns.hasKey(docId)) {
+          longSet.add(columns.getKey(docId));
+        }
       }
     }
     return longSet;
@@ -504,36 +628,55 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
       @Nullable SecurityFilter deleteables,
       Search originalSearch)
       throws IOException {
+    return getResultsFromTopDocs(searcher, hits, firstHit, deleteables, originalSearch, null);
+  }
+
+  private SearchResults<T> getResultsFromTopDocs(
+      IndexSearcher searcher,
+      TopDocs hits,
+      int firstHit,
+      @Nullable SecurityFilter deleteables,
+      Search originalSearch,
+      @Nullable List<Document> keyDocs)
+      throws IOException {
     List<T> retrievedResults = new ArrayList<T>();
 
+    IndexReader reader = searcher.getIndexReader();
     OpenBitSet deleteableDocIds = null;
     if (deleteables != null) {
-      deleteableDocIds = deleteables.getResults();
+      deleteableDocIds = deleteables.getResults(reader);
     }
 
-    boolean sortByRelevance = false;
-    com.tle.common.searching.SortField[] sortfields = originalSearch.getSortFields();
-    if (sortfields != null) {
-      for (com.tle.common.searching.SortField sortfield : sortfields) {
-        if (sortfield.getType() == Type.SCORE) {
-          sortByRelevance = true;
-          searcher.setDefaultFieldSortScoring(true, false);
-        }
-      }
+    boolean sortByRelevance = isSortByRelevance(originalSearch);
+    if (sortByRelevance) {
+      searcher.setDefaultFieldSortScoring(true, false);
     }
 
+    ItemKeyColumns columns = ItemKeyColumns.forReader(reader);
     ScoreDoc[] results = hits.scoreDocs;
     if (firstHit < results.length) {
       for (int i = firstHit; i < results.length; i++) {
         int docId = results[i].doc;
         float relevance = results[i].score;
-        Document doc = searcher.doc(docId, keyFieldSelector);
-        ItemIdKey key = getKeyForDocument(doc);
+        Document doc = resultDocumentRequired ? reader.document(docId, keyFieldSelector) : null;
+        ItemIdKey key = columns.getItemIdKey(docId);
+        if (key == null) {
+          if (doc == null) {
+            doc = reader.document(docId, keyFieldSelector);
+          }
+          key = getKeyForDocument(doc);
+        }
+        if (doc == null) {
+          doc = new Document();
+        }
         T result = createResult(key, doc, relevance, sortByRelevance);
         if (deleteableDocIds != null && deleteableDocIds.get(docId)) {
           result.setMatchesPrivilege(true);
         }
         retrievedResults.add(result);
+        if (keyDocs != null) {
+          keyDocs.add(doc);
+        }
       }
     }
 
@@ -541,6 +684,18 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
         retrievedResults, retrievedResults.size(), firstHit, hits.totalHits);
   }
 
+  private boolean isSortByRelevance(Search search) {
+    com.tle.common.searching.SortField[] sortfields = search.getSortFields();
+    if (sortfields != null) {
+      for (com.tle.common.searching.SortField sortfield : sortfields) {
+        if (sortfield.getType() == Type.SCORE) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   protected abstract T createResult(
       ItemIdKey key, Document doc, float relevance, boolean sortByRelevance);
 
@@ -722,11 +877,27 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
 
   public String suggestTerm(
       final Search request, final String prefix, final boolean isSearchAttachment) {
+    List<String> terms = suggestTerms(request, prefix, isSearchAttachment, 1);
+    return terms.isEmpty() ? "" : terms.get(0);
+  }
+
+  /**
+   * Suggests completions of a keyword prefix which occur in items matched by the request. When the
+   * request is only restricted by collection, status or privilege the most common completions are
+   * taken from the segments' {@link SuggestionDictionary}s, otherwise (or if none of those turn out
+   * to be visible) the term dictionary is walked in alphabetical order.
+   *
+   * @return Up to {@code count} completions, most frequent first.
+   */
+  public List<String> suggestTerms(
+      final Search request,
+      final String prefix,
+      final boolean isSearchAttachment,
+      final int count) {
     return search(
-        new Searcher<String>() {
+        new Searcher<List<String>>() {
           @Override
-          public String search(IndexSearcher searcher) throws IOException {
-            // Get the reader
+          public List<String> search(IndexSearcher searcher) throws IOException {
             IndexReader reader = searcher.getIndexReader();
 
             // Get all the docs from the filters
@@ -735,35 +906,162 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
             filters.add(new QueryWrapperFilter(query));
             ChainedFilter chain =
                 new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
-            DocIdSetIterator iterator = chain.getDocIdSet(reader).iterator();
-
-            // Get docs that contain terms that begin with the prefix
-            List<Term> termList = Lists.newArrayList();
-            termList.add(new Term(FreeTextQuery.FIELD_BODY_NOSTEM, prefix));
-            termList.add(new Term(FreeTextQuery.FIELD_ATTACHMENT_VECTORED_NOSTEM, prefix));
-
-            for (Term term : termList) {
-              TermDocs termDocs = reader.termDocs(term);
-              TermEnum terms = reader.terms(term);
-
-              // Check if doc is in the filter and return the term
-              Term t;
-              for (t = terms.term(); t != null && t.text().startsWith(prefix); t = terms.term()) {
-                termDocs.seek(t);
-                while (termDocs.next()) {
-                  int docId = termDocs.doc();
-                  if (docId == iterator.advance(docId)) {
-                    return t.text();
+            DocIdSet docs = chain.getDocIdSet(reader);
+
+            List<String> suggestions = Lists.newArrayList();
+            if (isDictionarySuggestable(request)) {
+              // The dictionaries only know about institutions and collections, so each candidate
+              // still has to be in a document that passes the filters (including security)
+              for (String candidate : getDictionarySuggestions(reader, request, prefix, count)) {
+                if (isTermInDocs(reader, candidate, docs)) {
+                  suggestions.add(candidate);
+                  if (suggestions.size() >= count) {
+                    break;
                   }
                 }
-                terms.next();
               }
             }
-            return "";
+            if (suggestions.isEmpty()) {
+              String term = walkTerms(reader, prefix, docs);
+              if (term != null) {
+                suggestions.add(term);
+              }
+            }
+            return suggestions;
           }
         });
   }
 
+  private boolean isDictionarySuggestable(Search request) {
+    List<String> extraQueries = request.getExtraQueries();
+    Collection<com.tle.common.searching.DateFilter> dateFilters = request.getDateFilters();
+    return (Check.isEmpty(request.getQuery()) || request.getQuery().equals("*"))
+        && request.getFreeTextQuery() == null
+        && (extraQueries == null || extraQueries.isEmpty())
+        && request.getDateRange() == null
+        && (dateFilters == null || dateFilters.isEmpty())
+        && request.getMatrixFields() == null;
+  }
+
+  /**
+   * @return The heaviest completions across all segments, or nothing if any segment's dictionary
+   *     isn't available.
+   */
+  private List<String> getDictionarySuggestions(
+      IndexReader reader, Search request, String prefix, int count) {
+    List<IndexReader> segments = Lists.newArrayList();
+    ReaderUtil.gatherSubReaders(segments, reader);
+    String institution = Long.toString(CurrentInstitution.get().getUniqueId());
+    Set<String> collections = getMustCollections(request);
+    int candidates = count + SUGGEST_EXTRA_CANDIDATES;
+
+    Map<String, Integer> weights = new HashMap<String, Integer>();
+    for (IndexReader segment : segments) {
+      SuggestionDictionary dictionary = SuggestionDictionary.get(segment);
+      if (dictionary == null) {
+        return Collections.emptyList();
+      }
+      boolean[] groups = dictionary.getGroups(institution, collections);
+      for (SuggestionDictionary.Suggestion suggestion :
+          dictionary.suggest(prefix, groups, candidates)) {
+        Integer weight = weights.get(suggestion.getTerm());
+        weights.put(suggestion.getTerm(), suggestion.getWeight() + (weight == null ? 0 : weight));
+      }
+    }
+
+    List<SuggestionDictionary.Suggestion> merged = Lists.newArrayList();
+    for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+      merged.add(new SuggestionDictionary.Suggestion(entry.getKey(), entry.getValue()));
+    }
+    Collections.sort(merged, Collections.reverseOrder());
+    List<String> terms = Lists.newArrayList();
+    for (SuggestionDictionary.Suggestion suggestion : merged) {
+      terms.add(suggestion.getTerm());
+    }
+    return terms;
+  }
+
+  /** @return The collections the request is restricted to, or null for any collection. */
+  @Nullable
+  private Set<String> getMustCollections(Search request) {
+    List<List<Field>> must = request.getMust();
+    if (must != null) {
+      for (List<Field> clause : must) {
+        Set<String> collections = new HashSet<String>();
+        for (Field field : clause) {
+          if (!FreeTextQuery.FIELD_ITEMDEFID.equals(field.getField())) {
+            collections = null;
+            break;
+          }
+          collections.add(field.getValue());
+        }
+        if (collections != null && !collections.isEmpty()) {
+          return collections;
+        }
+      }
+    }
+    return null;
+  }
+
+  private boolean isTermInDocs(IndexReader reader, String text, @Nullable DocIdSet docs)
+      throws IOException {
+    for (String field : SuggestionDictionary.FIELDS) {
+      if (isTermInDocs(reader, new Term(field, text), docs)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isTermInDocs(IndexReader reader, Term term, @Nullable DocIdSet docs)
+      throws IOException {
+    DocIdSetIterator iterator = docs == null ? null : docs.iterator();
+    if (iterator == null) {
+      return false;
+    }
+    TermDocs termDocs = reader.termDocs(term);
+    try {
+      // Term docs are in order, so one pass of the iterator covers them all
+      while (termDocs.next()) {
+        int docId = termDocs.doc();
+        int filterDoc = iterator.docID() >= docId ? iterator.docID() : iterator.advance(docId);
+        if (filterDoc == docId) {
+          return true;
+        }
+        if (filterDoc == DocIdSetIterator.NO_MORE_DOCS) {
+          return false;
+        }
+      }
+      return false;
+    } finally {
+      termDocs.close();
+    }
+  }
+
+  /** @return The alphabetically first completion which is in one of the docs. */
+  @Nullable
+  private String walkTerms(IndexReader reader, String prefix, @Nullable DocIdSet docs)
+      throws IOException {
+    for (String field : SuggestionDictionary.FIELDS) {
+      TermEnum terms = reader.terms(new Term(field, prefix));
+      try {
+        for (Term t = terms.term();
+            t != null && t.field().equals(field) && t.text().startsWith(prefix);
+            t = terms.term()) {
+          if (isTermInDocs(reader, t, docs)) {
+            return t.text();
+          }
+          if (!terms.next()) {
+            break;
+          }
+        }
+      } finally {
+        terms.close();
+      }
+    }
+    return null;
+  }
+
   private void addFieldBitSet(
       Term term,
       OpenBitSet set,
@@ -783,21 +1081,11 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     list.add(new TermBitSet(term, set));
   }
 
-  private final class ItemIdFieldSelector implements FieldSelector {
-    @Override
-    public FieldSelectorResult accept(String fieldName) {
-      if (FreeTextQuery.FIELD_ID.equals(fieldName)) {
-        return FieldSelectorResult.LOAD_AND_BREAK;
-      } else {
-        return FieldSelectorResult.NO_LOAD;
-      }
-    }
-  }
-
-  protected final class CompressedSetCollector extends Collector {
-
-    private final LongSet set = new LongSet(new ConciseSet());
-    private int docBase;
+  /** Collects the item keys of matching documents from the per-segment key columns. */
+  protected static final class ItemKeyCollector extends Collector {
+    private final LongSet keys = new LongSet(new FastSet());
+    private long[] segmentKeys;
+    private Bits segmentDocsWithKey;
 
     @Override
     public void setScorer(Scorer scorer) throws IOException {
@@ -806,12 +1094,16 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
 
     @Override
     public void setNextReader(IndexReader reader, int docBase) throws IOException {
-      this.docBase = docBase;
+      segmentKeys = ItemKeyColumns.getKeys(reader);
+      segmentDocsWithKey = ItemKeyColumns.getDocsWithKey(reader);
     }
 
     @Override
     public void collect(int docId) throws IOException {
-      set.add(docBase + docId);
+      // Documents without an item key would otherwise show up as key 0
+      if (segmentDocsWithKey.get(docId)) {
+        keys.add(segmentKeys[docId]);
+      }
     }
 
     @Override
@@ -819,8 +1111,8 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
       return true;
     }
 
-    public LongSet getSet() {
-      return set;
+    public LongSet getKeys() {
+      return keys;
     }
   }
 
@@ -874,20 +1166,22 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
   private List<ItemIdKey> getIdsForBitset(OpenBitSet docBits, IndexReader reader) {
     int docid = 0;
     List<ItemIdKey> keys = new ArrayList<ItemIdKey>();
-    while (true) {
-      docid = docBits.nextSetBit(docid);
-      if (docid == -1) {
-        break;
-      }
-      Document doc;
-      try {
-        doc = reader.document(docid);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+    try {
+      ItemKeyColumns columns = ItemKeyColumns.forReader(reader);
+      while (true) {
+        docid = docBits.nextSetBit(docid);
+        if (docid == -1) {
+          break;
+        }
+        ItemIdKey key = columns.getItemIdKey(docid);
+        if (key == null) {
+          key = getKeyForDocument(reader.document(docid, keyFieldSelector));
+        }
+        keys.add(key);
+        docid++;
       }
-      ItemIdKey key = getKeyForDocument(doc);
-      keys.add(key);
-      docid++;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
     return keys;
   }
@@ -976,6 +1270,24 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     return new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
   }
 
+  /**
+   * The institution and security filters of the request, bound to the current institution and user
+   * so that they can be replayed by the {@link PopularSearchWarmer} on another thread.
+   */
+  private Filter getWarmingFilter(Search request) {
+    Filter institution = new InstitutionFilter(CurrentInstitution.get());
+    String privPrefix = request.getPrivilegePrefix();
+    String privilege = request.getPrivilege();
+    if (privPrefix == null && privilege != null) {
+      privPrefix = getPrefixForPrivilege(privilege);
+    }
+    if (privPrefix == null) {
+      return institution;
+    }
+    return new ChainedFilter(
+        new Filter[] {institution, new SecurityFilter(privPrefix)}, ChainedFilter.AND);
+  }
+
   /**
    * Takes a search request and prepares a Lucene Filter object, or null if no filtering is
    * required.
@@ -1376,11 +1688,34 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
   }
 
   public void indexBatch(final Collection<IndexedItem> batch) {
+    if (!isSharded()) {
+      indexBatch(getShard(0, 0), batch);
+      return;
+    }
+    Map<IndexShard, List<IndexedItem>> shardBatches = new HashMap<IndexShard, List<IndexedItem>>();
+    for (IndexedItem item : batch) {
+      IndexShard shard =
+          getShard(item.getInstitution().getUniqueId(), item.getItemIdKey().getKey());
+      List<IndexedItem> shardBatch = shardBatches.get(shard);
+      if (shardBatch == null) {
+        shardBatch = new ArrayList<IndexedItem>();
+        shardBatches.put(shard, shardBatch);
+      }
+      shardBatch.add(item);
+    }
+    for (Map.Entry<IndexShard, List<IndexedItem>> entry : shardBatches.entrySet()) {
+      indexBatch(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void indexBatch(final IndexShard shard, final Collection<IndexedItem> batch) {
     modifyIndex(
+        shard,
         new IndexBuilder() {
           @Override
           public long buildIndex(NRTManager nrtManager, TrackingIndexWriter writer)
               throws Exception {
+            writeJournal(shard, batch, writer);
             long generation = -1;
             generation = Math.max(generation, removeDocuments(batch, nrtManager, writer));
             generation = Math.max(generation, addDocuments(batch, nrtManager, writer));
@@ -1389,6 +1724,22 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
         });
   }
 
+  private void writeJournal(
+      IndexShard shard, Collection<IndexedItem> batch, TrackingIndexWriter writer)
+      throws IOException {
+    long generation = writer.getGeneration();
+    List<IndexJournal.Entry> entries = new ArrayList<IndexJournal.Entry>(batch.size());
+    for (IndexedItem item : batch) {
+      entries.add(
+          new IndexJournal.Entry(
+              item.isAdd() ? IndexJournal.Operation.ADD : IndexJournal.Operation.REMOVE,
+              generation,
+              item.getInstitution().getUniqueId(),
+              item.getItemIdKey()));
+    }
+    shard.writeJournal(entries);
+  }
+
   public Operator getDefaultOperator() throws ParseException {
     Operator o;
 
@@ -1475,6 +1826,10 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
   }
 
   public void deleteForInstitution(final long id) {
+    if (isSharded()) {
+      dropInstitutionShards(id);
+      return;
+    }
     modifyIndex(
         new IndexBuilder() {
           @Override
@@ -0,0 +1,124 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.beans.item.ItemId;
+import com.tle.beans.item.ItemIdKey;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCache.StringIndex;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * The item key ({@link FreeTextQuery#FIELD_ID}) and unique id ({@link FreeTextQuery#FIELD_UNIQUE})
+ * of every document in an index, as primitive per-segment columns. The columns live in the Lucene
+ * {@link FieldCache} which holds them per segment, so they are only built once when a segment is
+ * first searched (or warmed) and are released along with the segment. This lets results be mapped
+ * to items without loading stored fields for every hit.
+ *
+ * <p>The field cache reports a key of 0 for documents that have no {@link FreeTextQuery#FIELD_ID},
+ * so callers must check {@link #hasKey(int)} (or {@link #getDocsWithKey(IndexReader)} per segment)
+ * rather than treat every key as an item.
+ */
+@NonNullByDefault
+public final class ItemKeyColumns {
+  private final int[] docStarts;
+  private final long[][] keys;
+  private final Bits[] docsWithKey;
+  private final StringIndex[] uniques;
+
+  private ItemKeyColumns(IndexReader reader) throws IOException {
+    List<IndexReader> segments = new ArrayList<IndexReader>();
+    ReaderUtil.gatherSubReaders(segments, reader);
+    int count = segments.size();
+    docStarts = new int[count];
+    keys = new long[count][];
+    docsWithKey = new Bits[count];
+    uniques = new StringIndex[count];
+
+    int docStart = 0;
+    for (int i = 0; i < count; i++) {
+      IndexReader segment = segments.get(i);
+      docStarts[i] = docStart;
+      keys[i] = getKeys(segment);
+      docsWithKey[i] = getDocsWithKey(segment);
+      uniques[i] = getUniques(segment);
+      docStart += segment.maxDoc();
+    }
+  }
+
+  /** @param reader The top level reader of a searcher. Document ids are relative to this reader. */
+  public static ItemKeyColumns forReader(IndexReader reader) throws IOException {
+    return new ItemKeyColumns(reader);
+  }
+
+  /** Ensures the columns for each segment of the reader have been built. */
+  public static void load(IndexReader reader) throws IOException {
+    forReader(reader);
+  }
+
+  /** @param segment A single segment reader, e.g. as passed to a {@code Collector}. */
+  public static long[] getKeys(IndexReader segment) throws IOException {
+    return FieldCache.DEFAULT.getLongs(
+        segment, FreeTextQuery.FIELD_ID, FieldCache.DEFAULT_LONG_PARSER);
+  }
+
+  /** @param segment A single segment reader, e.g. as passed to a {@code Collector}. */
+  public static Bits getDocsWithKey(IndexReader segment) throws IOException {
+    return FieldCache.DEFAULT.getDocsWithField(segment, FreeTextQuery.FIELD_ID);
+  }
+
+  private static StringIndex getUniques(IndexReader segment) throws IOException {
+    return FieldCache.DEFAULT.getStringIndex(segment, FreeTextQuery.FIELD_UNIQUE);
+  }
+
+  public boolean hasKey(int docId) {
+    int segment = ReaderUtil.subIndex(docId, docStarts);
+    return docsWithKey[segment].get(docId - docStarts[segment]);
+  }
+
+  /** @return The key for the document, only meaningful if {@link #hasKey(int)} is true. */
+  public long getKey(int docId) {
+    int segment = ReaderUtil.subIndex(docId, docStarts);
+    return keys[segment][docId - docStarts[segment]];
+  }
+
+  /**
+   * @return The key for the document, or null if the document has no key or unique id in the index
+   *     (in which case the stored fields will need to be consulted).
+   */
+  @Nullable
+  public ItemIdKey getItemIdKey(int docId) {
+    int segment = ReaderUtil.subIndex(docId, docStarts);
+    int segmentDoc = docId - docStarts[segment];
+    StringIndex unique = uniques[segment];
+    String id = unique.lookup[unique.order[segmentDoc]];
+    if (id == null || !docsWithKey[segment].get(segmentDoc)) {
+      return null;
+    }
+    return new ItemIdKey(keys[segment][segmentDoc], new ItemId(id));
+  }
+}
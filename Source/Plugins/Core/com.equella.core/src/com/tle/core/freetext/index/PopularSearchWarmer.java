@@ -0,0 +1,146 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.tle.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+
+/**
+ * Remembers which queries and sort orders are run most often and replays the most popular of them
+ * against new searchers. This loads the sort field caches and term dictionary blocks for the new
+ * segments before real searches need them.
+ *
+ * <p>Queries are replayed with the institution and security filter they were run with, so the ACL
+ * and owner terms the filter reads are loaded too. The filter must already have captured the user
+ * and institution it applies to, as warming runs without either. Searches that differ only in the
+ * user's ACL expressions are tracked separately. Searches are kept by institution, and a shard
+ * holding a single institution only replays that institution's searches. Popularity decays each
+ * time a searcher is warmed with them, so that recent searches win out.
+ */
+public class PopularSearchWarmer implements IndexWarmer {
+  private static final int MAX_TRACKED = 200;
+  private static final int WARM_HITS = 10;
+
+  private final int maxQueries;
+  private final Map<String, PopularSearch> searches = new HashMap<String, PopularSearch>();
+
+  /** @param maxQueries The number of searches to replay on each warm. */
+  public PopularSearchWarmer(int maxQueries) {
+    this.maxQueries = maxQueries;
+  }
+
+  /**
+   * @param filter A filter that does not depend on the current user or institution when applied.
+   *     Its {@code toString()} forms part of the key, so equivalent filters must print the same.
+   */
+  public synchronized void record(
+      long institutionId, Query query, @Nullable Filter filter, Sort sort) {
+    String key = institutionId + "|" + query.toString() + '|' + filter + '|' + sort;
+    PopularSearch search = searches.get(key);
+    if (search == null) {
+      if (searches.size() >= MAX_TRACKED) {
+        removeLeastPopular();
+      }
+      search = new PopularSearch(institutionId, query, filter, sort);
+      searches.put(key, search);
+    }
+    search.count++;
+  }
+
+  @Override
+  public void warm(IndexSearcher searcher, @Nullable Long institutionId) throws IOException {
+    for (PopularSearch search : getMostPopular(institutionId)) {
+      searcher.search(search.query, search.filter, WARM_HITS, search.sort);
+    }
+  }
+
+  private synchronized List<PopularSearch> getMostPopular(@Nullable Long institutionId) {
+    List<PopularSearch> popular = new ArrayList<PopularSearch>();
+    for (PopularSearch search : searches.values()) {
+      if (search.matches(institutionId)) {
+        popular.add(search);
+      }
+    }
+    Collections.sort(popular, new PopularityComparator());
+    if (popular.size() > maxQueries) {
+      popular = new ArrayList<PopularSearch>(popular.subList(0, maxQueries));
+    }
+
+    Iterator<PopularSearch> iter = searches.values().iterator();
+    while (iter.hasNext()) {
+      PopularSearch search = iter.next();
+      if (search.matches(institutionId)) {
+        search.count /= 2;
+        if (search.count == 0) {
+          iter.remove();
+        }
+      }
+    }
+    return popular;
+  }
+
+  private void removeLeastPopular() {
+    String leastKey = null;
+    int leastCount = Integer.MAX_VALUE;
+    for (Map.Entry<String, PopularSearch> entry : searches.entrySet()) {
+      if (entry.getValue().count < leastCount) {
+        leastKey = entry.getKey();
+        leastCount = entry.getValue().count;
+      }
+    }
+    searches.remove(leastKey);
+  }
+
+  private static class PopularSearch {
+    final long institutionId;
+    final Query query;
+    @Nullable final Filter filter;
+    final Sort sort;
+    int count;
+
+    PopularSearch(long institutionId, Query query, @Nullable Filter filter, Sort sort) {
+      this.institutionId = institutionId;
+      this.query = query;
+      this.filter = filter;
+      this.sort = sort;
+    }
+
+    boolean matches(@Nullable Long shardInstitutionId) {
+      return shardInstitutionId == null || shardInstitutionId == institutionId;
+    }
+  }
+
+  private static class PopularityComparator implements Comparator<PopularSearch> {
+    @Override
+    public int compare(PopularSearch s1, PopularSearch s2) {
+      return Integer.compare(s2.count, s1.count);
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.beans.Institution;
+import com.tle.beans.item.ItemIdKey;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.searching.DateFilter;
+import com.tle.common.searching.Search;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * Caches the page of hits returned for a search so that identical searches (e.g. the default
+ * "recent items" search or a popular search portlet) don't have to rebuild their filters and re-run
+ * the query. Entries are keyed on the normalised search, the current user's ACL expressions and the
+ * requested page.
+ *
+ * <p>Each entry remembers the version of the index reader it was computed against and is discarded
+ * as soon as the NRT manager publishes a newer searcher for the same institution's shards.
+ * Optionally, entries may be served stale for a number of seconds after a reopen, but only while no
+ * "index now" change has been made since the entry was cached.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class SearchResultCache {
+  private static final Logger LOGGER = Logger.getLogger(SearchResultCache.class);
+
+  @Nullable private final Cache<String, CachedHits> cache;
+  private final long staleMillis;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong staleHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  // The latest reader version seen for each institution, whose shards are reopened independently
+  private final ConcurrentMap<Long, Long> readerVersions = new ConcurrentHashMap<Long, Long>();
+
+  /**
+   * @param maxCachedResults The total number of result rows held across all cached searches, or 0
+   *     to disable caching.
+   * @param staleSeconds How long an entry may keep being used after the index has changed in the
+   *     background, or 0 to always discard entries when a new searcher is published.
+   */
+  public SearchResultCache(int maxCachedResults, int staleSeconds) {
+    this.staleMillis = Math.max(0, staleSeconds) * 1000L;
+    if (maxCachedResults > 0) {
+      cache =
+          CacheBuilder.newBuilder()
+              .maximumWeight(maxCachedResults)
+              .weigher(
+                  new Weigher<String, CachedHits>() {
+                    @Override
+                    public int weigh(String key, CachedHits value) {
+                      return Math.max(1, value.getHits().size());
+                    }
+                  })
+              .build();
+    } else {
+      cache = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * Creates the cache key for a search, or returns null if the search can't be cached (e.g. it uses
+   * a custom sort comparator which has no stable identity).
+   */
+  @Nullable
+  public String getKey(
+      Search search, Query query, Sort sort, int start, int count, boolean searchAttachment) {
+    if (cache == null) {
+      return null;
+    }
+    for (SortField sortField : sort.getSort()) {
+      if (sortField.getType() == SortField.CUSTOM) {
+        return null;
+      }
+    }
+
+    StringBuilder key = new StringBuilder();
+    key.append(getScope()).append('|');
+    appendUser(key);
+    key.append("|q:").append(query);
+    key.append("|s:").append(sort).append(search.isSortReversed());
+    appendDates(key, "|d:", search.getDateRange());
+    Collection<DateFilter> dateFilters = search.getDateFilters();
+    if (dateFilters != null) {
+      for (DateFilter dateFilter : dateFilters) {
+        key.append("|df:").append(dateFilter.getIndexFieldName()).append(dateFilter.getFormat());
+        appendDates(key, ":", dateFilter.getRange());
+      }
+    }
+    key.append("|tz:").append(search.useServerTimeZone());
+    key.append("|p:").append(search.getPrivilege()).append(':').append(search.getPrivilegePrefix());
+    key.append("|pc:").append(search.getPrivilegeToCollect());
+    key.append("|m:").append(search.getMust());
+    key.append("|mn:").append(search.getMustNot());
+    key.append("|mx:").append(search.getMatrixFields());
+    key.append("|a:").append(searchAttachment);
+    key.append("|r:").append(start).append(',').append(count);
+    return key.toString();
+  }
+
+  /** @return The institution searched, or the fake one for background searches of every shard */
+  private static long getScope() {
+    Institution institution = CurrentInstitution.get();
+    return (institution != null ? institution : Institution.FAKE).getUniqueId();
+  }
+
+  private void appendUser(StringBuilder key) {
+    UserState userState = CurrentUser.getUserState();
+    if (userState.isSystem()) {
+      key.append("system");
+      return;
+    }
+    Collection<Long> owner = userState.getOwnerAclExpressions();
+    Collection<Long> notOwner = userState.getNotOwnerAclExpressions();
+    key.append("u:").append(sorted(userState.getCommonAclExpressions()));
+    key.append("|o:").append(sorted(owner));
+    key.append("|no:").append(sorted(notOwner));
+    // Owner expressions are evaluated against the user's own items
+    if ((owner != null && !owner.isEmpty()) || (notOwner != null && !notOwner.isEmpty())) {
+      key.append("|id:").append(CurrentUser.getUserID());
+    }
+  }
+
+  private static Collection<Long> sorted(@Nullable Collection<Long> expressions) {
+    TreeSet<Long> set = new TreeSet<Long>();
+    if (expressions != null) {
+      set.addAll(expressions);
+    }
+    return set;
+  }
+
+  private static void appendDates(StringBuilder key, String prefix, @Nullable Date[] dates) {
+    if (dates != null) {
+      key.append(prefix);
+      for (Date date : dates) {
+        key.append(date == null ? "*" : date.getTime()).append(',');
+      }
+    }
+  }
+
+  /**
+   * @param readerVersion The version of the reader the search is about to run against.
+   * @param requiredGeneration The generation of the latest "index now" change.
+   * @return The cached hits if they are still valid for this reader, otherwise null.
+   */
+  @Nullable
+  public CachedHits get(String key, long readerVersion, long requiredGeneration) {
+    if (cache == null) {
+      return null;
+    }
+    final long scope = getScope();
+    if (isNewReader(scope, readerVersion) && staleMillis == 0) {
+      // A new searcher has been published, nothing cached for these shards can be used any more
+      final String prefix = scope + "|";
+      Iterator<String> keys = cache.asMap().keySet().iterator();
+      while (keys.hasNext()) {
+        if (keys.next().startsWith(prefix)) {
+          keys.remove();
+        }
+      }
+    }
+
+    CachedHits cached = cache.getIfPresent(key);
+    if (cached != null) {
+      if (cached.readerVersion == readerVersion) {
+        hits.incrementAndGet();
+        return cached;
+      }
+      if (staleMillis > 0
+          && cached.requiredGeneration == requiredGeneration
+          && System.currentTimeMillis() - cached.created < staleMillis) {
+        staleHits.incrementAndGet();
+        return cached;
+      }
+      if (cached.readerVersion < readerVersion) {
+        cache.invalidate(key);
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Reader versions only ever increase, searches still running on an older searcher must not flush
+   * entries for the current one.
+   */
+  private boolean isNewReader(long scope, long readerVersion) {
+    while (true) {
+      Long last = readerVersions.get(scope);
+      if (last == null) {
+        if (readerVersions.putIfAbsent(scope, readerVersion) == null) {
+          return true;
+        }
+      } else if (last >= readerVersion) {
+        return false;
+      } else if (readerVersions.replace(scope, last, readerVersion)) {
+        return true;
+      }
+    }
+  }
+
+  public void put(String key, CachedHits cachedHits) {
+    if (cache != null) {
+      cache.put(key, cachedHits);
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug(getStatistics());
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getStaleHitCount() {
+    return staleHits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** Fresh and stale hits as a fraction of all lookups. */
+  public double getHitRate() {
+    long found = hits.get() + staleHits.get();
+    long total = found + misses.get();
+    return total == 0 ? 1.0 : (double) found / total;
+  }
+
+  public String getStatistics() {
+    return "Search result cache: Entries["
+        + (cache == null ? 0 : cache.size())
+        + "] Hits["
+        + getHitCount()
+        + "] Stale hits["
+        + getStaleHitCount()
+        + "] Misses["
+        + getMissCount()
+        + "] Hit rate["
+        + Math.round(getHitRate() * 100)
+        + "%]";
+  }
+
+  /** The page of hits for a single search. */
+  public static class CachedHits {
+    private final long readerVersion;
+    private final long requiredGeneration;
+    private final long created = System.currentTimeMillis();
+    private final int offset;
+    private final int available;
+    private final List<CachedHit> hits;
+
+    public CachedHits(
+        long readerVersion,
+        long requiredGeneration,
+        int offset,
+        int available,
+        List<CachedHit> hits) {
+      this.readerVersion = readerVersion;
+      this.requiredGeneration = requiredGeneration;
+      this.offset = offset;
+      this.available = available;
+      this.hits = hits;
+    }
+
+    public int getOffset() {
+      return offset;
+    }
+
+    public int getAvailable() {
+      return available;
+    }
+
+    public List<CachedHit> getHits() {
+      return hits;
+    }
+  }
+
+  /**
+   * A single hit. Only the key and key fields of the document are held, results are recreated from
+   * them on every cache hit as results are mutable.
+   */
+  public static class CachedHit {
+    private final ItemIdKey key;
+    private final Document keyDocument;
+    private final float relevance;
+    private final boolean matchesPrivilege;
+    private final boolean keywordFoundInAttachment;
+
+    public CachedHit(
+        ItemIdKey key,
+        Document keyDocument,
+        float relevance,
+        boolean matchesPrivilege,
+        boolean keywordFoundInAttachment) {
+      this.key = key;
+      this.keyDocument = keyDocument;
+      this.relevance = relevance;
+      this.matchesPrivilege = matchesPrivilege;
+      this.keywordFoundInAttachment = keywordFoundInAttachment;
+    }
+
+    public ItemIdKey getKey() {
+      return key;
+    }
+
+    public Document getKeyDocument() {
+      return keyDocument;
+    }
+
+    public float getRelevance() {
+      return relevance;
+    }
+
+    public boolean isMatchesPrivilege() {
+      return matchesPrivilege;
+    }
+
+    public boolean isKeywordFoundInAttachment() {
+      return keywordFoundInAttachment;
+    }
+  }
+}
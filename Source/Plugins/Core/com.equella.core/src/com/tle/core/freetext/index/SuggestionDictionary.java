@@ -0,0 +1,490 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.common.NamedThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCache.StringIndex;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * The keyword completions of a single index segment, weighted by document frequency. Each term also
+ * records how many of its documents belong to each institution and collection so that suggestions
+ * can be restricted to them without touching the postings.
+ *
+ * <p>Dictionaries are built in the background when a new segment (i.e. after a flush or a merge) is
+ * first warmed, and are released along with the segment. A segment that is too large or fails to
+ * build is remembered and left to the term dictionary walk, rather than tried again. Terms are held
+ * in sorted order, along with a permutation per prefix length of up to {@link #LEVELS} characters
+ * which orders each prefix's terms by weight, so the top completions of a short prefix can be found
+ * without scanning every term that starts with it.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public final class SuggestionDictionary {
+  private static final Logger LOGGER = Logger.getLogger(SuggestionDictionary.class);
+
+  static final String[] FIELDS = {
+    FreeTextQuery.FIELD_BODY_NOSTEM, FreeTextQuery.FIELD_ATTACHMENT_VECTORED_NOSTEM
+  };
+  private static final int LEVELS = 2;
+  // Scanning a prefix range this small is quicker than walking the weighted permutation
+  private static final int SCAN_LIMIT = 256;
+  // Segments with more distinct terms than this fall back to walking the term dictionary
+  private static final int MAX_TERMS = 1000000;
+
+  private static final Map<Object, SuggestionDictionary> DICTIONARIES =
+      new WeakHashMap<Object, SuggestionDictionary>();
+  private static final Map<Object, Boolean> BUILDING = new WeakHashMap<Object, Boolean>();
+  // Segments that are too large or failed to build, so they aren't walked again on every reopen
+  private static final Map<Object, Boolean> UNAVAILABLE = new WeakHashMap<Object, Boolean>();
+  private static final ThreadPoolExecutor BUILDER =
+      new ThreadPoolExecutor(
+          1,
+          1,
+          1,
+          TimeUnit.MINUTES,
+          new LinkedBlockingQueue<Runnable>(),
+          new NamedThreadFactory("SuggestionDictionaryBuilder"));
+
+  static {
+    BUILDER.allowCoreThreadTimeOut(true);
+  }
+
+  private final String[] terms;
+  private final int[] weights;
+  private final int[] groupStarts;
+  private final int[] groupIds;
+  private final int[] groupCounts;
+  private final String[] groupInstitutions;
+  private final String[] groupCollections;
+  private final int[][] byWeight;
+
+  private SuggestionDictionary(
+      String[] terms,
+      int[] weights,
+      int[] groupStarts,
+      int[] groupIds,
+      int[] groupCounts,
+      String[] groupInstitutions,
+      String[] groupCollections) {
+    this.terms = terms;
+    this.weights = weights;
+    this.groupStarts = groupStarts;
+    this.groupIds = groupIds;
+    this.groupCounts = groupCounts;
+    this.groupInstitutions = groupInstitutions;
+    this.groupCollections = groupCollections;
+    this.byWeight = new int[LEVELS][];
+    for (int level = 1; level <= LEVELS; level++) {
+      byWeight[level - 1] = orderByWeight(level);
+    }
+  }
+
+  /** Starts building dictionaries in the background for any segments of the reader without one. */
+  public static void prepare(IndexReader reader) {
+    List<IndexReader> segments = new ArrayList<IndexReader>();
+    ReaderUtil.gatherSubReaders(segments, reader);
+    for (final IndexReader segment : segments) {
+      final Object key = segment.getCoreCacheKey();
+      synchronized (DICTIONARIES) {
+        if (DICTIONARIES.containsKey(key)
+            || BUILDING.containsKey(key)
+            || UNAVAILABLE.containsKey(key)) {
+          continue;
+        }
+        BUILDING.put(key, Boolean.TRUE);
+      }
+      BUILDER.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              // Don't build for a segment that has been merged away while this was queued
+              if (!segment.tryIncRef()) {
+                synchronized (DICTIONARIES) {
+                  BUILDING.remove(key);
+                }
+                return;
+              }
+              SuggestionDictionary dictionary = null;
+              try {
+                dictionary = build(segment);
+              } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Error building suggestion dictionary for " + segment, ex);
+              } finally {
+                synchronized (DICTIONARIES) {
+                  BUILDING.remove(key);
+                  if (dictionary != null) {
+                    DICTIONARIES.put(key, dictionary);
+                  } else {
+                    UNAVAILABLE.put(key, Boolean.TRUE);
+                  }
+                }
+                try {
+                  segment.decRef();
+                } catch (IOException ex) {
+                  LOGGER.warn("Error releasing segment " + segment, ex);
+                }
+              }
+            }
+          });
+    }
+  }
+
+  /** @return The dictionary of a single segment, or null if it hasn't been built (yet). */
+  @Nullable
+  public static SuggestionDictionary get(IndexReader segment) {
+    synchronized (DICTIONARIES) {
+      return DICTIONARIES.get(segment.getCoreCacheKey());
+    }
+  }
+
+  /** @return The dictionary for the segment, or null if it has too many terms to be worthwhile. */
+  @Nullable
+  static SuggestionDictionary build(IndexReader segment) throws IOException {
+    StringIndex institutions =
+        FieldCache.DEFAULT.getStringIndex(segment, FreeTextQuery.FIELD_INSTITUTION);
+    StringIndex collections =
+        FieldCache.DEFAULT.getStringIndex(segment, FreeTextQuery.FIELD_ITEMDEFID);
+
+    // Documents of the same institution and collection form a group
+    int maxDoc = segment.maxDoc();
+    int[] docGroups = new int[maxDoc];
+    Map<Long, Integer> groups = new HashMap<Long, Integer>();
+    List<String> groupInstitutions = new ArrayList<String>();
+    List<String> groupCollections = new ArrayList<String>();
+    long collectionCount = collections.lookup.length;
+    for (int doc = 0; doc < maxDoc; doc++) {
+      int institution = institutions.order[doc];
+      int collection = collections.order[doc];
+      Long key = institution * collectionCount + collection;
+      Integer group = groups.get(key);
+      if (group == null) {
+        group = groups.size();
+        groups.put(key, group);
+        groupInstitutions.add(institutions.lookup[institution]);
+        groupCollections.add(collections.lookup[collection]);
+      }
+      docGroups[doc] = group;
+    }
+
+    List<String> termList = new ArrayList<String>();
+    IntList weightList = new IntList();
+    IntList groupStartList = new IntList();
+    IntList groupIdList = new IntList();
+    IntList groupCountList = new IntList();
+    int[] counts = new int[groups.size()];
+    IntList touched = new IntList();
+
+    // Walk the fields together so that each distinct term is only recorded once
+    TermEnum[] enums = new TermEnum[FIELDS.length];
+    TermDocs termDocs = segment.termDocs();
+    try {
+      for (int i = 0; i < FIELDS.length; i++) {
+        enums[i] = segment.terms(new Term(FIELDS[i], ""));
+      }
+      while (true) {
+        String text = null;
+        for (int i = 0; i < FIELDS.length; i++) {
+          Term term = current(enums[i], FIELDS[i]);
+          if (term != null && (text == null || term.text().compareTo(text) < 0)) {
+            text = term.text();
+          }
+        }
+        if (text == null) {
+          break;
+        }
+        if (termList.size() >= MAX_TERMS) {
+          LOGGER.info("Not building suggestion dictionary for large segment " + segment);
+          return null;
+        }
+
+        int weight = 0;
+        for (int i = 0; i < FIELDS.length; i++) {
+          Term term = current(enums[i], FIELDS[i]);
+          if (term != null && term.text().equals(text)) {
+            termDocs.seek(enums[i]);
+            while (termDocs.next()) {
+              int group = docGroups[termDocs.doc()];
+              if (counts[group]++ == 0) {
+                touched.add(group);
+              }
+              weight++;
+            }
+            enums[i].next();
+          }
+        }
+
+        termList.add(text);
+        weightList.add(weight);
+        groupStartList.add(groupIdList.size());
+        touched.sort();
+        for (int t = 0; t < touched.size(); t++) {
+          int group = touched.get(t);
+          groupIdList.add(group);
+          groupCountList.add(counts[group]);
+          counts[group] = 0;
+        }
+        touched.clear();
+      }
+    } finally {
+      termDocs.close();
+      for (TermEnum termEnum : enums) {
+        if (termEnum != null) {
+          termEnum.close();
+        }
+      }
+    }
+    groupStartList.add(groupIdList.size());
+
+    return new SuggestionDictionary(
+        termList.toArray(new String[termList.size()]),
+        weightList.toArray(),
+        groupStartList.toArray(),
+        groupIdList.toArray(),
+        groupCountList.toArray(),
+        groupInstitutions.toArray(new String[groupInstitutions.size()]),
+        groupCollections.toArray(new String[groupCollections.size()]));
+  }
+
+  @Nullable
+  private static Term current(TermEnum termEnum, String field) {
+    Term term = termEnum.term();
+    return term != null && term.field().equals(field) ? term : null;
+  }
+
+  /**
+   * For each block of terms sharing the same first {@code level} characters, orders the block by
+   * descending weight. Blocks occupy the same positions as in the sorted terms.
+   */
+  private int[] orderByWeight(int level) {
+    int count = terms.length;
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = ((long) (Integer.MAX_VALUE - weights[i]) << 32) | i;
+    }
+    int blockStart = 0;
+    for (int i = 1; i <= count; i++) {
+      if (i == count || !sameBlock(terms[blockStart], terms[i], level)) {
+        Arrays.sort(keys, blockStart, i);
+        blockStart = i;
+      }
+    }
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = (int) keys[i];
+    }
+    return order;
+  }
+
+  private static boolean sameBlock(String term1, String term2, int level) {
+    return term1.length() >= level
+        && term2.length() >= level
+        && term1.regionMatches(0, term2, 0, level);
+  }
+
+  /**
+   * @param institution The unique id of the institution to restrict to.
+   * @param collections The collection uuids to restrict to, or null for any collection.
+   * @return The groups which may be suggested from, indexed by group id.
+   */
+  public boolean[] getGroups(String institution, @Nullable Collection<String> collections) {
+    boolean[] allowed = new boolean[groupInstitutions.length];
+    for (int group = 0; group < allowed.length; group++) {
+      allowed[group] =
+          institution.equals(groupInstitutions[group])
+              && (collections == null || collections.contains(groupCollections[group]));
+    }
+    return allowed;
+  }
+
+  /**
+   * Finds the heaviest completions of a prefix, counting only documents in the allowed groups.
+   *
+   * @param allowed The groups to count, as returned by {@link #getGroups}.
+   * @return Up to {@code count} completions and their weights, heaviest first.
+   */
+  public List<Suggestion> suggest(String prefix, boolean[] allowed, int count) {
+    int start = lowerBound(prefix, 0, terms.length);
+    int end = prefixEnd(prefix, start);
+    PriorityQueue<Suggestion> top = new PriorityQueue<Suggestion>();
+    if (start == end || count <= 0) {
+      return Collections.emptyList();
+    }
+
+    if (end - start <= SCAN_LIMIT || prefix.isEmpty()) {
+      for (int i = start; i < end; i++) {
+        offer(top, i, allowed, count);
+      }
+    } else {
+      int level = Math.min(prefix.length(), LEVELS);
+      int[] order = byWeight[level - 1];
+      int blockStart = lowerBound(prefix.substring(0, level), 0, start + 1);
+      int blockEnd = prefixEnd(prefix.substring(0, level), end);
+      for (int i = blockStart; i < blockEnd; i++) {
+        int term = order[i];
+        // Weights only decrease from here and restricting to groups can only lower them further
+        if (top.size() >= count && weights[term] <= top.peek().weight) {
+          break;
+        }
+        if (level == prefix.length() || terms[term].startsWith(prefix)) {
+          offer(top, term, allowed, count);
+        }
+      }
+    }
+
+    List<Suggestion> suggestions = new ArrayList<Suggestion>(top);
+    Collections.sort(suggestions, Collections.reverseOrder());
+    return suggestions;
+  }
+
+  private void offer(PriorityQueue<Suggestion> top, int term, boolean[] allowed, int count) {
+    int weight = 0;
+    for (int i = groupStarts[term]; i < groupStarts[term + 1]; i++) {
+      if (allowed[groupIds[i]]) {
+        weight += groupCounts[i];
+      }
+    }
+    if (weight > 0 && (top.size() < count || weight > top.peek().weight)) {
+      top.add(new Suggestion(terms[term], weight));
+      if (top.size() > count) {
+        top.poll();
+      }
+    }
+  }
+
+  /** @return The first position in [from, to) whose term is not less than the key. */
+  private int lowerBound(String key, int from, int to) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (terms[mid].compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** @return The first position from {@code start} whose term doesn't start with the prefix. */
+  private int prefixEnd(String prefix, int start) {
+    int low = start;
+    int high = terms.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (terms[mid].startsWith(prefix)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  public int size() {
+    return terms.length;
+  }
+
+  /** A completion and the number of matching documents. Orders lightest first. */
+  public static final class Suggestion implements Comparable<Suggestion> {
+    private final String term;
+    private final int weight;
+
+    public Suggestion(String term, int weight) {
+      this.term = term;
+      this.weight = weight;
+    }
+
+    public String getTerm() {
+      return term;
+    }
+
+    public int getWeight() {
+      return weight;
+    }
+
+    @Override
+    public int compareTo(Suggestion other) {
+      int result = Integer.compare(weight, other.weight);
+      // Alphabetically first wins a tie
+      return result != 0 ? result : other.term.compareTo(term);
+    }
+
+    @Override
+    public String toString() {
+      return term + ':' + weight;
+    }
+  }
+
+  /** A growable list of primitive ints, to keep building large dictionaries cheap. */
+  private static final class IntList {
+    private int[] values = new int[16];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int get(int index) {
+      return values[index];
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    void sort() {
+      Arrays.sort(values, 0, size);
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
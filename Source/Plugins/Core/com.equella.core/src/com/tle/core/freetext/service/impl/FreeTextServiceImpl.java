@@ -37,6 +37,7 @@ import com.tle.common.searching.Search;
 import com.tle.common.searching.SearchResults;
 import com.tle.core.freetext.event.ItemReindexEvent;
 import com.tle.core.freetext.event.listener.ItemReindexListener;
+import com.tle.core.freetext.index.IndexJournal;
 import com.tle.core.freetext.queries.FreeTextBooleanQuery;
 import com.tle.core.freetext.queries.FreeTextFieldQuery;
 import com.tle.core.freetext.reindex.InstitutionFilter;
@@ -76,6 +77,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -95,6 +97,8 @@ public class FreeTextServiceImpl
         InstitutionListener {
 
   private static final Logger LOGGER = Logger.getLogger(FreeTextServiceImpl.class);
+  // Items modified shortly before the last commit may still have been waiting to be indexed
+  private static final long RECOVERY_MARGIN = TimeUnit.HOURS.toMillis(1);
 
   @Inject private FreetextIndex indexer;
   @Inject private ItemService itemService;
@@ -349,8 +353,33 @@ public class FreeTextServiceImpl
       case AVAILABLE:
         Multimap<Long, Institution> schema2inst = event.getChanges();
         Set<Long> schemas = schema2inst.keySet();
+        // On startup, the index journal tells us what may have been lost since the last commit
+        IndexJournal.Recovery recovery = indexer.takeRecovery();
+        // The journals hold on to the recovery until every schema has reindexed its share
+        final AtomicInteger recovering = new AtomicInteger(schemas.size());
+        Runnable onIndexed =
+            new Runnable() {
+              @Override
+              public void run() {
+                if (recovering.decrementAndGet() == 0) {
+                  indexer.recoveryIndexed();
+                }
+              }
+            };
+        if (recovery != null && schemas.isEmpty()) {
+          indexer.recoveryIndexed();
+        }
         for (Long schemaId : schemas) {
-          backgroundIndexers.getUnchecked(schemaId).synchronizeFull(schema2inst.get(schemaId));
+          BackgroundIndexer backgroundIndexer = backgroundIndexers.getUnchecked(schemaId);
+          if (recovery != null) {
+            backgroundIndexer.synchronizeRecovered(
+                schema2inst.get(schemaId),
+                new Date(recovery.getCommitDate().getTime() - RECOVERY_MARGIN),
+                recovery.getUncommittedItems(),
+                onIndexed);
+          } else {
+            backgroundIndexer.synchronizeFull(schema2inst.get(schemaId));
+          }
         }
         break;
       default:
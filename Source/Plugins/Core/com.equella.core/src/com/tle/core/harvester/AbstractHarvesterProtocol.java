@@ -19,22 +19,33 @@
 package com.tle.core.harvester;
 
 import com.dytech.devlib.PropBagEx;
+import com.tle.annotation.Nullable;
 import com.tle.beans.entity.itemdef.ItemDefinition;
+import com.tle.common.Check;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.filesystem.handle.StagingFile;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.i18n.CurrentLocale;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
 import com.tle.core.harvester.old.ContentRepository;
 import com.tle.core.harvester.old.LearningObject;
 import com.tle.core.harvester.old.TLEItem;
 import com.tle.core.harvester.search.HarvesterSearch;
+import com.tle.core.institution.RunAsInstitution;
 import com.tle.core.plugins.AbstractPluginService;
 import com.tle.core.services.FileSystemService;
+import com.tle.core.settings.service.ConfigurationService;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.inject.Inject;
+import javax.inject.Named;
 import org.apache.log4j.Logger;
 
 @SuppressWarnings("nls")
@@ -43,8 +54,20 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
   protected static final String KEY_PFX =
       AbstractPluginService.getMyPluginId(AbstractHarvesterProtocol.class) + ".";
 
+  private static final String CHECKPOINT_PROPERTY_PREFIX = "harvester.checkpoint.";
+
   @Inject private LearningEdge learningEdge;
   @Inject private FileSystemService fileSystemService;
+  @Inject private ConfigurationService configService;
+  @Inject private RunAsInstitution runAs;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("harvester.downloadThreads")
+  private int downloadThreads = 4;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("harvester.checkpointInterval")
+  private int checkpointInterval = 50;
 
   private HarvesterProfile profile;
 
@@ -64,40 +87,139 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
     return runProfile(testOnly);
   }
 
+  /**
+   * Streams the objects that have changed since the last run. Protocols that page through the
+   * remote repository should override this so that the pages are only fetched as they are needed.
+   */
+  protected Iterator<LearningObject> iterateUpdatedLearningObjects(Date since) throws Exception {
+    return getUpdatedLearningObjects(since).iterator();
+  }
+
+  /**
+   * Runs the objects through a {@link HarvestPipeline}, fetching their content on a small pool of
+   * threads. The position reached is saved after every batch, along with the dates the run was for.
+   * If the server goes down, the next run for the profile carries on from there, as long as the
+   * remote repository still lists the same object at that position.
+   */
   private int runProfile(boolean testOnly) throws Exception {
-    Date lastRun = profile.getLastRun();
-    Date started = new Date();
+    final Date lastRun = profile.getLastRun();
+    if (testOnly) {
+      return getUpdatedLearningObjects(lastRun).size();
+    }
 
-    Collection<LearningObject> results = getUpdatedLearningObjects(lastRun);
+    final String server = profile.getAttribute("server");
+    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.run", server));
 
-    int i = 0;
-    int size = results.size();
+    final String checkpointProperty = CHECKPOINT_PROPERTY_PREFIX + profile.getUuid();
+    Date started = new Date();
+    int position = 0;
+    String resumeAfter = null;
+    String checkpoint = configService.getProperty(checkpointProperty);
+    if (!Check.isEmpty(checkpoint)) {
+      // started|lastRun|position|identifier
+      String[] parts = checkpoint.split("\\|", 4);
+      if (parts.length == 4 && Long.parseLong(parts[1]) == lastRun.getTime()) {
+        started = new Date(Long.parseLong(parts[0]));
+        position = Integer.parseInt(parts[2]);
+        resumeAfter = parts[3];
+      }
+    }
 
-    if (testOnly) {
-      return size;
+    Iterator<LearningObject> results = iterateUpdatedLearningObjects(lastRun);
+    if (position > 0) {
+      if (skipTo(results, position, resumeAfter)) {
+        LOGGER.info(CurrentLocale.get(KEY_PFX + "log.resume", server, position));
+      } else {
+        LOGGER.warn(CurrentLocale.get(KEY_PFX + "log.resume.restart", server));
+        position = 0;
+        results = iterateUpdatedLearningObjects(lastRun);
+      }
     }
 
-    LOGGER.info(
-        CurrentLocale.get("com.tle.core.harvester.log.run", profile.getAttribute("server")));
-    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.results", size, lastRun.toString()));
+    final Date runStarted = started;
+    final UserState userState = CurrentUser.getUserState();
+    final int threads = Math.max(1, downloadThreads);
+    ExecutorService executor =
+        Executors.newFixedThreadPool(threads, new NamedThreadFactory("HarvesterDownload"));
+    int total;
+    try {
+      HarvestPipeline pipeline =
+          new HarvestPipeline(executor, checkpointInterval, checkpointInterval * 2 + threads);
+      total =
+          pipeline.run(
+              results,
+              position,
+              new HarvestPipeline.Stages<HarvestWork>() {
+                @Nullable
+                @Override
+                public HarvestWork prepare(LearningObject lobject) throws Exception {
+                  return prepareLearningObject(lobject);
+                }
 
-    for (LearningObject lobject : results) {
-      boolean boo = false;
-      processLearningObject(lobject);
-      if (boo) {
-        break;
-      }
+                @Override
+                public void fetch(final HarvestWork work) throws Exception {
+                  runAs.execute(
+                      userState,
+                      new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                          fetchLearningObject(work);
+                          return null;
+                        }
+                      });
+                }
 
-      LOGGER.info(
-          CurrentLocale.get(
-              "com.tle.core.harvester.log.process", ++i, profile.getAttribute("server")));
+                @Override
+                public void ingest(HarvestWork work) throws Exception {
+                  ingestLearningObject(work);
+                }
+
+                @Override
+                public void checkpoint(int position, LearningObject last) {
+                  configService.setProperty(
+                      checkpointProperty,
+                      runStarted.getTime()
+                          + "|"
+                          + lastRun.getTime()
+                          + "|"
+                          + position
+                          + "|"
+                          + last.getIdentifier());
+                  LOGGER.info(
+                      CurrentLocale.get("com.tle.core.harvester.log.process", position, server));
+                }
+
+                @Override
+                public void failed(LearningObject lobject, Exception ex) {
+                  logFailure(lobject, ex);
+                }
+
+                @Override
+                public void abandon(HarvestWork work) {
+                  abandonLearningObject(work);
+                }
+              });
+    } finally {
+      executor.shutdownNow();
     }
 
-    LOGGER.info(
-        CurrentLocale.get("com.tle.core.harvester.log.total", i, profile.getAttribute("server")));
+    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.total", total, server));
+
+    updateProfileRunDate(runStarted);
+    configService.deleteProperty(checkpointProperty);
+    return total;
+  }
 
-    updateProfileRunDate(started);
-    return size;
+  private static boolean skipTo(
+      Iterator<LearningObject> results, int position, String lastIdentifier) {
+    LearningObject last = null;
+    for (int i = 0; i < position; i++) {
+      if (!results.hasNext()) {
+        return false;
+      }
+      last = results.next();
+    }
+    return last != null && lastIdentifier.equals(last.getIdentifier());
   }
 
   @Override
@@ -110,85 +232,123 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
    */
   @Override
   public void processLearningObject(LearningObject lobject) {
-    String identifier = lobject.getIdentifier();
+    HarvestWork work = null;
     try {
-      // This will be our new item
-      PropBagEx item;
-      TLEItem oldItem = null;
+      work = prepareLearningObject(lobject);
+      if (work != null) {
+        fetchLearningObject(work);
+        ingestLearningObject(work);
+      }
+    } catch (Exception ex) {
+      logFailure(lobject, ex);
+      if (work != null) {
+        abandonLearningObject(work);
+      }
+    }
+  }
 
-      if (lobject.isEquellaItem()) {
-        if (learningEdge.itemExists(identifier)) {
-          oldItem = learningEdge.getItem(identifier, itemDefByUuid);
-        }
-      } else {
-        // Search for any older versions of this item.
-        HarvesterSearch request = (HarvesterSearch) getTLESearchRequest(lobject);
-        request.setCollectionUuids(Collections.singleton(itemDefByUuid.getUuid()));
-        oldItem = learningEdge.getLatestItem(request);
+  /** @return The new item or version to harvest into, or null if TLE's version is up to date */
+  @Nullable
+  private HarvestWork prepareLearningObject(LearningObject lobject) throws Exception {
+    String identifier = lobject.getIdentifier();
+
+    // This will be our new item
+    PropBagEx item;
+    TLEItem oldItem = null;
+
+    if (lobject.isEquellaItem()) {
+      if (learningEdge.itemExists(identifier)) {
+        oldItem = learningEdge.getItem(identifier, itemDefByUuid);
       }
+    } else {
+      // Search for any older versions of this item.
+      HarvesterSearch request = (HarvesterSearch) getTLESearchRequest(lobject);
+      request.setCollectionUuids(Collections.singleton(itemDefByUuid.getUuid()));
+      oldItem = learningEdge.getLatestItem(request);
+    }
 
-      if (oldItem != null) {
-        Date creationDate = lobject.getCreationDate();
-        Date creationDate2 = oldItem.getCreationDate();
-
-        Date modDate1 = lobject.getModifiedDate();
-        Date modDate2 = oldItem.getModifiedDate();
-
-        if (creationDate2.compareTo(creationDate) < 0
-            || ((modDate2 != null && modDate1 != null) && modDate2.compareTo(modDate1) < 0)) {
-          LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.previous", identifier));
-          // Does profile require a new version? Or update-in-place?
-          // Should a null value exist (it shouldn't, but ...) assume
-          // new Version logic
-          boolean newVersionOnHarvest =
-              (profile.getNewVersionOnHarvest() == null
-                  || profile.getNewVersionOnHarvest().booleanValue());
-          if (newVersionOnHarvest) {
-            // new incremented version of existing item
-            item = learningEdge.newVersion(oldItem);
-          } else {
-            // overwrite existing item with new one (no versioning -
-            // obliterates old item)
-            item = learningEdge.modifyInPlace(oldItem);
-          }
-        } else {
-          LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.exists", identifier));
-          return;
-        }
-      } else {
-        LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.noprevious", identifier));
+    if (oldItem != null) {
+      Date creationDate = lobject.getCreationDate();
+      Date creationDate2 = oldItem.getCreationDate();
+
+      Date modDate1 = lobject.getModifiedDate();
+      Date modDate2 = oldItem.getModifiedDate();
 
-        if (lobject.isEquellaItem()) {
-          item = learningEdge.newItem(identifier, itemDefByUuid);
+      if (creationDate2.compareTo(creationDate) < 0
+          || ((modDate2 != null && modDate1 != null) && modDate2.compareTo(modDate1) < 0)) {
+        LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.previous", identifier));
+        // Does profile require a new version? Or update-in-place?
+        // Should a null value exist (it shouldn't, but ...) assume
+        // new Version logic
+        boolean newVersionOnHarvest =
+            (profile.getNewVersionOnHarvest() == null
+                || profile.getNewVersionOnHarvest().booleanValue());
+        if (newVersionOnHarvest) {
+          // new incremented version of existing item
+          item = learningEdge.newVersion(oldItem);
         } else {
-          item = learningEdge.newItem(itemDefByUuid);
+          // overwrite existing item with new one (no versioning -
+          // obliterates old item)
+          item = learningEdge.modifyInPlace(oldItem);
         }
+      } else {
+        LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.exists", identifier));
+        return null;
       }
+    } else {
+      LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.noprevious", identifier));
 
-      // Download the item attachment (if applicable)
-      if (lobject.hasAttachment()) {
-        String staging = item.getNode("item/staging");
-        downloadLO(lobject, staging);
+      if (lobject.isEquellaItem()) {
+        item = learningEdge.newItem(identifier, itemDefByUuid);
+      } else {
+        item = learningEdge.newItem(itemDefByUuid);
       }
+    }
+    return new HarvestWork(lobject, item);
+  }
+
+  /**
+   * Downloads the attachment into the item's own staging area. May be called on any thread, so must
+   * not touch the protocol's state.
+   */
+  private void fetchLearningObject(HarvestWork work) throws Exception {
+    LearningObject lobject = work.lobject;
 
-      // Do any post-processing to the XML
-      postProcessing(item, lobject);
+    // Download the item attachment (if applicable)
+    if (lobject.hasAttachment()) {
+      String staging = work.item.getNode("item/staging");
+      downloadLO(lobject, staging);
+    }
+  }
 
-      // Upload the XML
-      LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.uploading", lobject.getTitle()));
-      learningEdge.uploadItem(item, itemDefByUuid);
-      LOGGER.info(CurrentLocale.get(KEY_PFX + "log.complete"));
+  private void ingestLearningObject(HarvestWork work) throws Exception {
+    // Do any post-processing to the XML. Protocols keep their remote connection in fields, so
+    // this stays on the harvesting thread.
+    postProcessing(work.item, work.lobject);
+
+    // Upload the XML
+    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.uploading", work.lobject.getTitle()));
+    learningEdge.uploadItem(work.item, itemDefByUuid);
+    LOGGER.info(CurrentLocale.get(KEY_PFX + "log.complete"));
+  }
 
+  private void abandonLearningObject(HarvestWork work) {
+    try {
+      learningEdge.cancelItem(work.item);
     } catch (Exception ex) {
-      LOGGER.error(
-          CurrentLocale.get(
-              "com.tle.core.harvester.harvester.error.upload",
-              identifier,
-              profile.getAttribute("server")),
-          ex);
+      LOGGER.warn("Could not cancel harvest of " + work.lobject.getIdentifier(), ex);
     }
   }
 
+  private void logFailure(LearningObject lobject, Exception ex) {
+    LOGGER.error(
+        CurrentLocale.get(
+            "com.tle.core.harvester.harvester.error.upload",
+            lobject.getIdentifier(),
+            profile.getAttribute("server")),
+        ex);
+  }
+
   protected OutputStream getOutputStream(StagingFile staging, String filename) throws IOException {
     return fileSystemService.getOutputStream(staging, filename, false);
   }
@@ -200,4 +360,14 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
   protected HarvesterProfile getProfile() {
     return profile;
   }
+
+  private static final class HarvestWork {
+    final LearningObject lobject;
+    final PropBagEx item;
+
+    HarvestWork(LearningObject lobject, PropBagEx item) {
+      this.lobject = lobject;
+      this.item = item;
+    }
+  }
 }
@@ -57,6 +57,7 @@ public class EQUELLAProtocol extends AbstractHarvesterProtocol {
   @Inject private SoapClientFactory clientFactory;
   @Inject private FileSystemService fileSystemService;
 
+  private final Object soapLock = new Object();
   private SoapHarvesterService soapService;
   private boolean liveOnly;
 
@@ -181,7 +182,13 @@ public class EQUELLAProtocol extends AbstractHarvesterProtocol {
     int version = Integer.parseInt(resultXml.getNode("@version"));
     String uuid = resultXml.getNode("@id");
 
-    final URL downloadUrl = new URL(soapService.prepareDownload(uuid, version));
+    // The client holds the login session and is not safe to share between the threads that
+    // download attachments, but the download itself can go ahead in parallel
+    final String download;
+    synchronized (soapLock) {
+      download = soapService.prepareDownload(uuid, version);
+    }
+    final URL downloadUrl = new URL(download);
     // unzipFile closes the InputStream, so we can forget about it.
     fileSystemService.unzipFile(
         new StagingFile(stagingID), downloadUrl.openStream(), ArchiveType.TAR_GZ);
@@ -0,0 +1,203 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.harvester;
+
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.core.harvester.old.LearningObject;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Harvests a stream of learning objects in three stages. Each object is prepared on the calling
+ * thread, which looks for an existing copy and starts a new item or version. Its content is then
+ * fetched from the remote repository on the executor. Finally, it is ingested on the calling
+ * thread, in the order the objects were enumerated.
+ *
+ * <p>Objects are ingested in batches. Only a limited number of objects are held in memory at once,
+ * so the whole list never has to be loaded up front. Once a batch has been ingested, every object
+ * up to that position has been dealt with, and the position is handed to {@link
+ * Stages#checkpoint(int, LearningObject)}.
+ *
+ * <p>Preparing an object decides whether to create a new item or a new version, so two objects with
+ * the same identifier are never pending at once. The second one waits until the first has been
+ * ingested. Work that has been prepared but is never ingested is handed to {@link
+ * Stages#abandon(Object)} so that its staging area and any edit lock can be released.
+ */
+@NonNullByDefault
+public class HarvestPipeline {
+  public interface Stages<W> {
+    /** @return The work to fetch and ingest, or null if the object is already up to date */
+    @Nullable
+    W prepare(LearningObject lobject) throws Exception;
+
+    /** Called on one of the executor's threads. */
+    void fetch(W work) throws Exception;
+
+    void ingest(W work) throws Exception;
+
+    /**
+     * @param position The number of objects enumerated so far, all of which have been dealt with
+     * @param last The object at that position
+     */
+    void checkpoint(int position, LearningObject last);
+
+    void failed(LearningObject lobject, Exception ex);
+
+    /** Called for prepared work that will not be ingested. Must not throw. */
+    void abandon(W work);
+  }
+
+  private final ExecutorService executor;
+  private final int batchSize;
+  private final int maxPending;
+
+  /**
+   * @param batchSize The number of objects to ingest between checkpoints
+   * @param maxPending The number of objects that can be prepared ahead of ingestion. Should be more
+   *     than the batch size, so that fetching carries on while a batch is being ingested.
+   */
+  public HarvestPipeline(ExecutorService executor, int batchSize, int maxPending) {
+    this.executor = executor;
+    this.batchSize = Math.max(1, batchSize);
+    this.maxPending = Math.max(this.batchSize, maxPending);
+  }
+
+  /**
+   * @param position The position of the first object in the iterator, when resuming a harvest
+   * @return The position after the last object
+   */
+  public <W> int run(Iterator<LearningObject> objects, int position, Stages<W> stages)
+      throws InterruptedException {
+    Deque<Pending<W>> pending = new ArrayDeque<Pending<W>>();
+    Set<String> pendingIds = new HashSet<String>();
+    LearningObject held = null;
+    try {
+      while (true) {
+        while (pending.size() < maxPending) {
+          if (held == null) {
+            if (!objects.hasNext()) {
+              break;
+            }
+            held = objects.next();
+          }
+          String identifier = held.getIdentifier();
+          if (identifier != null && !pendingIds.add(identifier)) {
+            // Wait for the earlier copy to be ingested before looking for it
+            break;
+          }
+          pending.add(start(held, stages));
+          held = null;
+        }
+        if (pending.isEmpty()) {
+          return position;
+        }
+
+        LearningObject last = null;
+        for (int i = 0; i < batchSize && !pending.isEmpty(); i++) {
+          Pending<W> next = pending.poll();
+          finish(next, stages);
+          pendingIds.remove(next.lobject.getIdentifier());
+          last = next.lobject;
+          position++;
+        }
+        stages.checkpoint(position, last);
+      }
+    } finally {
+      for (Pending<W> abandoned : pending) {
+        if (abandoned.fetched != null) {
+          abandoned.fetched.cancel(true);
+        }
+      }
+      for (Pending<W> abandoned : pending) {
+        if (abandoned.work != null) {
+          stages.abandon(abandoned.work);
+        }
+      }
+    }
+  }
+
+  private <W> Pending<W> start(LearningObject lobject, final Stages<W> stages) {
+    final W work;
+    try {
+      work = stages.prepare(lobject);
+    } catch (Exception ex) {
+      stages.failed(lobject, ex);
+      return new Pending<W>(lobject, null, null);
+    }
+    if (work == null) {
+      return new Pending<W>(lobject, null, null);
+    }
+
+    Future<?> fetched =
+        executor.submit(
+            new Callable<Void>() {
+              @Override
+              public Void call() throws Exception {
+                stages.fetch(work);
+                return null;
+              }
+            });
+    return new Pending<W>(lobject, work, fetched);
+  }
+
+  private <W> void finish(Pending<W> next, Stages<W> stages) throws InterruptedException {
+    if (next.work == null || next.fetched == null) {
+      return;
+    }
+    try {
+      next.fetched.get();
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      stages.failed(
+          next.lobject,
+          cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+      stages.abandon(next.work);
+      return;
+    } catch (InterruptedException ex) {
+      stages.abandon(next.work);
+      throw ex;
+    }
+    try {
+      stages.ingest(next.work);
+    } catch (Exception ex) {
+      stages.failed(next.lobject, ex);
+      stages.abandon(next.work);
+    }
+  }
+
+  private static final class Pending<W> {
+    final LearningObject lobject;
+    @Nullable final W work;
+    @Nullable final Future<?> fetched;
+
+    Pending(LearningObject lobject, @Nullable W work, @Nullable Future<?> fetched) {
+      this.lobject = lobject;
+      this.work = work;
+      this.fetched = fetched;
+    }
+  }
+}
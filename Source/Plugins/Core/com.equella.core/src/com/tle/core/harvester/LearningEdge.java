@@ -130,4 +130,12 @@ public interface LearningEdge {
    * @throws Exception
    */
   PropBagEx modifyInPlace(TLEItem item) throws Exception;
+
+  /**
+   * Throws away a new item, new version or in-place edit that will not be uploaded, removing its
+   * staging area and releasing any lock taken on the existing item.
+   *
+   * @param itemXml The xml of the item, as returned by one of the above methods
+   */
+  void cancelItem(PropBagEx itemXml) throws Exception;
 }
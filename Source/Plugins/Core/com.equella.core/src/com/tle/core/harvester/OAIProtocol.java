@@ -20,21 +20,23 @@ package com.tle.core.harvester;
 
 import com.dytech.devlib.Code;
 import com.dytech.devlib.PropBagEx;
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.search.whereparser.WhereParser;
 import com.tle.common.searching.Search;
 import com.tle.core.freetext.queries.FreeTextBooleanQuery;
 import com.tle.core.guice.Bind;
+import com.tle.core.harvester.oai.ListIdentifiersIterator;
 import com.tle.core.harvester.oai.OAIClient;
 import com.tle.core.harvester.oai.data.Header;
-import com.tle.core.harvester.oai.data.List;
 import com.tle.core.harvester.oai.data.Record;
 import com.tle.core.harvester.oai.data.Repository;
-import com.tle.core.harvester.oai.data.ResumptionToken;
 import com.tle.core.harvester.oai.error.CannotDisseminateFormatException;
 import com.tle.core.harvester.oai.error.IdDoesNotExistException;
-import com.tle.core.harvester.oai.error.NoRecordsMatchException;
 import com.tle.core.harvester.old.LearningObject;
 import com.tle.core.harvester.old.OAIDublinCore;
 import com.tle.core.harvester.search.HarvesterSearch;
@@ -42,7 +44,6 @@ import java.net.URL;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -91,41 +92,23 @@ public class OAIProtocol extends AbstractHarvesterProtocol {
 
   @Override
   public Collection<LearningObject> getUpdatedLearningObjects(Date since) throws Exception {
-    Collection<LearningObject> updated = new ArrayList<LearningObject>();
-    try {
-      List list = client.listIdentifiers(set, dateFormat.format(since), null, format);
-
-      if (list != null) {
-        addHeaders(updated, list);
-      } else {
-        throw new NoRecordsMatchException();
-      }
-
-      ResumptionToken token = list.getResumptionToken();
-      while (token != null && token.getToken() != null && token.getToken().length() > 0) {
-        list = client.listIdentifiers(token);
-        if (list != null) {
-          addHeaders(updated, list);
-          token = list.getResumptionToken();
-        } else {
-          token = null;
-        }
-      }
-    } catch (NoRecordsMatchException e) {
-      // Fair enough
-    }
-
-    return updated;
+    return Lists.newArrayList(iterateUpdatedLearningObjects(since));
   }
 
-  private void addHeaders(Collection<LearningObject> updated, List list) {
-    for (Iterator<?> iter = list.iterator(); iter.hasNext(); ) {
-      Header header = (Header) iter.next();
-      LearningObject convertHeaderToLO = convertHeaderToLO(header);
-      if (convertHeaderToLO != null) {
-        updated.add(convertHeaderToLO);
-      }
-    }
+  @Override
+  protected Iterator<LearningObject> iterateUpdatedLearningObjects(Date since) throws Exception {
+    Iterator<Header> headers =
+        ListIdentifiersIterator.start(client, set, dateFormat.format(since), null, format);
+    return Iterators.filter(
+        Iterators.transform(
+            headers,
+            new Function<Header, LearningObject>() {
+              @Override
+              public LearningObject apply(Header header) {
+                return convertHeaderToLO(header);
+              }
+            }),
+        Predicates.notNull());
   }
 
   private LearningObject convertHeaderToLO(Header header) {
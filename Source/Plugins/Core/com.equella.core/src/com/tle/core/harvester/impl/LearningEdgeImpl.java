@@ -28,6 +28,7 @@ import com.tle.beans.item.ItemPack;
 import com.tle.beans.item.ItemSelect;
 import com.tle.beans.item.ItemStatus;
 import com.tle.common.Check;
+import com.tle.common.filesystem.handle.StagingFile;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.searching.Search;
@@ -35,6 +36,7 @@ import com.tle.common.searching.SearchResults;
 import com.tle.common.util.Dates;
 import com.tle.common.util.UtcDate;
 import com.tle.core.collection.service.ItemDefinitionService;
+import com.tle.core.filesystem.staging.service.StagingService;
 import com.tle.core.freetext.service.FreeTextService;
 import com.tle.core.guice.Bind;
 import com.tle.core.harvester.HarvesterProfileService;
@@ -77,6 +79,7 @@ public class LearningEdgeImpl implements LearningEdge {
   @Inject private InitialiserService initialiserService;
   @Inject private ViewItemUrlFactory urlFactory;
   @Inject private ItemOperationFactory workflowFactory;
+  @Inject private StagingService stagingService;
 
   @Override
   @Transactional
@@ -118,6 +121,20 @@ public class LearningEdgeImpl implements LearningEdge {
     return new PropBagEx(itemHelper.convertToXml(pack, new ItemHelperSettings(false)).toString());
   }
 
+  @Override
+  @Transactional
+  public void cancelItem(PropBagEx itemXml) throws Exception {
+    String staging = itemXml.getNode("item/staging");
+    if (itemXml.isNodeTrue("item/newitem")) {
+      if (!Check.isEmpty(staging)) {
+        stagingService.removeStagingArea(new StagingFile(staging), true);
+      }
+    } else {
+      ItemId key = new ItemId(itemXml.getNode("item/@id"), itemXml.getIntNode("item/@version"));
+      itemService.operation(key, workflowFactory.cancelEdit(staging, true));
+    }
+  }
+
   private SearchResults<Item> getResults(Search searchReq) {
     return freetextService.search(searchReq, 0, 100);
   }
@@ -0,0 +1,95 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.harvester.oai;
+
+import com.google.common.collect.AbstractIterator;
+import com.tle.core.harvester.oai.data.Header;
+import com.tle.core.harvester.oai.data.List;
+import com.tle.core.harvester.oai.data.ResumptionToken;
+import com.tle.core.harvester.oai.error.CannotDisseminateFormatException;
+import com.tle.core.harvester.oai.error.NoRecordsMatchException;
+import com.tle.core.harvester.oai.error.NoSetHierarchyException;
+import java.util.Iterator;
+
+/**
+ * Iterates over the headers of a ListIdentifiers request, only asking the repository for the next
+ * page once the previous one has been used up. Large repositories return their identifiers over
+ * thousands of resumption token pages, which would otherwise all be fetched before any of the
+ * records could be harvested.
+ */
+public class ListIdentifiersIterator extends AbstractIterator<Header> {
+  private final OAIClient client;
+
+  private Iterator<Object> page;
+  private ResumptionToken token;
+
+  /**
+   * Fetches the first page straight away, so that errors with the request itself are thrown here
+   * rather than from the iterator.
+   */
+  public static ListIdentifiersIterator start(
+      OAIClient client, String set, String from, String until, String prefix)
+      throws NoSetHierarchyException, CannotDisseminateFormatException {
+    List list;
+    try {
+      list = client.listIdentifiers(set, from, until, prefix);
+    } catch (NoRecordsMatchException e) {
+      // Fair enough
+      list = null;
+    }
+    return new ListIdentifiersIterator(client, list);
+  }
+
+  private ListIdentifiersIterator(OAIClient client, List list) {
+    this.client = client;
+    setPage(list);
+  }
+
+  private void setPage(List list) {
+    if (list != null) {
+      page = list.iterator();
+      token = list.getResumptionToken();
+    } else {
+      page = null;
+      token = null;
+    }
+  }
+
+  @Override
+  protected Header computeNext() {
+    while (page != null) {
+      if (page.hasNext()) {
+        return (Header) page.next();
+      }
+      if (token == null || token.getToken() == null || token.getToken().length() == 0) {
+        page = null;
+      } else {
+        try {
+          setPage(client.listIdentifiers(token));
+        } catch (NoRecordsMatchException e) {
+          setPage(null);
+        } catch (NoSetHierarchyException e) {
+          // Can't happen part way through a list that has already started
+          throw new RuntimeException(e);
+        }
+      }
+    }
+    return endOfData();
+  }
+}
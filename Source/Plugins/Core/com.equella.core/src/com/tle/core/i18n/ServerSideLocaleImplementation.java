@@ -19,6 +19,7 @@
 package com.tle.core.i18n;
 
 import com.google.inject.Singleton;
+import com.tle.annotation.Nullable;
 import com.tle.common.Pair;
 import com.tle.common.i18n.CurrentLocale.AbstractCurrentLocale;
 import com.tle.common.i18n.LocaleData;
@@ -141,4 +142,33 @@ public class ServerSideLocaleImplementation extends AbstractCurrentLocale {
   public void clearThreadLocals() {
     local.remove();
   }
+
+  /**
+   * @return The locale of the calling thread, which can be given to {@link
+   *     #restoreThreadLocals(ThreadLocale)} on a worker thread that has no session or request to
+   *     work it out from.
+   */
+  public ThreadLocale captureThreadLocals() {
+    return new ThreadLocale(getCurrentData());
+  }
+
+  /**
+   * @param threadLocale The locale to use on this thread, or null to work it out again. The locale
+   *     is only used while the thread has the same user state it was captured with.
+   */
+  public void restoreThreadLocals(@Nullable ThreadLocale threadLocale) {
+    if (threadLocale == null) {
+      local.remove();
+    } else {
+      local.set(threadLocale.currentData);
+    }
+  }
+
+  public static final class ThreadLocale {
+    private final CurrentData currentData;
+
+    private ThreadLocale(CurrentData currentData) {
+      this.currentData = currentData;
+    }
+  }
 }
@@ -39,7 +39,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
@@ -63,12 +66,39 @@ public class ImageMagickServiceImpl implements ImageMagickService, ServiceCheckR
   private String imageMagickPath;
   private File convertExe;
   private File identifyExe;
+  private Map<String, String> resourceLimits = Collections.emptyMap();
 
   @Inject
   public void setImageMagickPath(@Named("imageMagick.path") String imageMagickPath) {
     this.imageMagickPath = imageMagickPath.trim();
   }
 
+  /**
+   * Limits the resources each ImageMagick process may use, e.g. "256MiB". A process that needs more
+   * memory than this swaps to disk rather than starving the server.
+   */
+  @Inject
+  public void setResourceLimits(
+      @Named("imageMagick.memoryLimit") String memoryLimit,
+      @Named("imageMagick.mapLimit") String mapLimit) {
+    Map<String, String> env = new HashMap<String, String>();
+    if (!Check.isEmpty(memoryLimit)) {
+      env.put("MAGICK_MEMORY_LIMIT", memoryLimit.trim());
+    }
+    if (!Check.isEmpty(mapLimit)) {
+      env.put("MAGICK_MAP_LIMIT", mapLimit.trim());
+    }
+    resourceLimits = env;
+  }
+
+  private ExecResult exec(List<String> command) {
+    return exec(command.toArray(new String[command.size()]));
+  }
+
+  private ExecResult exec(String... command) {
+    return ExecUtils.exec(command, resourceLimits, null);
+  }
+
   @Override
   public void generateThumbnailAdvanced(File srcFile, File dstFile, ThumbnailOptions options) {
     List<String> opts = new ArrayList<String>();
@@ -78,7 +108,7 @@ public class ImageMagickServiceImpl implements ImageMagickService, ServiceCheckR
       opts.add(srcFile.getAbsolutePath() + "[0]");
       String frame = srcFile.getParent() + "\\frame.gif";
       opts.add(frame);
-      ExecUtils.exec(opts);
+      exec(opts);
       srcFile = new File(frame);
       opts.clear();
     }
@@ -154,7 +184,7 @@ public class ImageMagickServiceImpl implements ImageMagickService, ServiceCheckR
     }
 
     opts.add(dstFile.getAbsolutePath());
-    ExecResult exec = ExecUtils.exec(opts);
+    ExecResult exec = exec(opts);
     exec.ensureOk();
     if (gif) {
       boolean wasDeleted = srcFile.delete();
@@ -167,7 +197,7 @@ public class ImageMagickServiceImpl implements ImageMagickService, ServiceCheckR
       // Check that we have not created a blank (white) thumbnail - delete
       // if so.
       ExecResult exec2 =
-          ExecUtils.exec(
+          exec(
               convertExe.getAbsolutePath(),
               dstFile.getAbsolutePath(),
               "-threshold",
@@ -205,7 +235,7 @@ public class ImageMagickServiceImpl implements ImageMagickService, ServiceCheckR
   @Override
   public Dimension getImageDimensions(File image) throws IOException {
     ExecResult result =
-        ExecUtils.exec(
+        exec(
             identifyExe.getAbsolutePath(),
             "-format",
             "%wx%h",
@@ -260,7 +290,7 @@ public class ImageMagickServiceImpl implements ImageMagickService, ServiceCheckR
       args.addAll(Arrays.asList(options));
     }
     args.add(dest.getAbsolutePath());
-    ExecUtils.exec(args.toArray(new String[args.size()])).ensureOk();
+    exec(args.toArray(new String[args.size()])).ensureOk();
   }
 
   @Override
@@ -300,7 +330,7 @@ public class ImageMagickServiceImpl implements ImageMagickService, ServiceCheckR
   public void checkServiceRequest(CheckServiceRequestEvent request) {
     ServiceStatus status = new ServiceStatus(ServiceName.IMAGEMAGICK);
     try {
-      ExecResult versionResult = ExecUtils.exec(identifyExe.getAbsolutePath(), "-version");
+      ExecResult versionResult = exec(identifyExe.getAbsolutePath(), "-version");
 
       if (!versionResult.getStderr().isEmpty()) {
         status.setServiceStatus(Status.BAD);
@@ -32,5 +32,7 @@ public class ImageMagickModule extends PropertiesModule {
   @Override
   protected void configure() {
     bindProp("imageMagick.path");
+    bindProp("imageMagick.memoryLimit", "");
+    bindProp("imageMagick.mapLimit", "");
   }
 }
@@ -104,6 +104,18 @@ public interface ItemDao extends GenericInstitutionalDao<Item, Long> {
 
   Set<String> getReferencedUsers();
 
+  /**
+   * @return Up to maxResults distinct, non-null item owners greater than afterUserId, in the
+   *     database's order. Pass null to start from the beginning.
+   */
+  List<String> getReferencedOwners(String afterUserId, int maxResults);
+
+  /**
+   * @return Up to maxResults distinct, non-null item collaborators greater than afterUserId, in the
+   *     database's order. Pass null to start from the beginning.
+   */
+  List<String> getReferencedCollaborators(String afterUserId, int maxResults);
+
   void clearHistory(Item item);
 
   <T extends IdCloneable> T mergeTwo(T oldObject, T newObject);
@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
 import com.tle.beans.IdCloneable;
 import com.tle.beans.Institution;
 import com.tle.beans.entity.LanguageBundle;
@@ -646,6 +647,57 @@ public class ItemDaoImpl extends GenericInstitionalDaoImpl<Item, Long> implement
     return users;
   }
 
+  @Override
+  public List<String> getReferencedOwners(String afterUserId, int maxResults) {
+    return getReferencedUsersPage(
+        "select distinct i.owner from Item i where i.institution = :institution and "
+            + afterPredicate("i.owner", afterUserId)
+            + " order by i.owner",
+        afterUserId,
+        maxResults);
+  }
+
+  @Override
+  public List<String> getReferencedCollaborators(String afterUserId, int maxResults) {
+    return getReferencedUsersPage(
+        "select distinct c from Item i join i.collaborators c where i.institution = :institution and "
+            + afterPredicate("c", afterUserId)
+            + " order by c",
+        afterUserId,
+        maxResults);
+  }
+
+  /**
+   * The first page has no lower bound rather than comparing with an empty string, which Oracle
+   * treats as null and so matches nothing.
+   */
+  private static String afterPredicate(String column, @Nullable String afterUserId) {
+    return afterUserId == null ? column + " is not null" : column + " > :after";
+  }
+
+  /**
+   * Owners and collaborators are paged separately, so that both the comparison with afterUserId and
+   * the order of the page come from the database's collation.
+   */
+  @SuppressWarnings("unchecked")
+  private List<String> getReferencedUsersPage(
+      final String hql, @Nullable final String afterUserId, final int maxResults) {
+    return getHibernateTemplate()
+        .executeFind(
+            new HibernateCallback() {
+              @Override
+              public Object doInHibernate(Session session) {
+                Query query = session.createQuery(hql);
+                query.setParameter("institution", CurrentInstitution.get());
+                if (afterUserId != null) {
+                  query.setParameter("after", afterUserId);
+                }
+                query.setMaxResults(maxResults);
+                return query.list();
+              }
+            });
+  }
+
   @Override
   public void clearHistory(Item item) {
     item.getHistory().clear();
@@ -22,8 +22,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.NamedType;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.tle.beans.item.attachments.Attachment;
 import com.tle.beans.item.attachments.CustomAttachment;
+import com.tle.beans.item.attachments.LinkAttachment;
 import com.tle.core.cloudproviders.CloudAttachmentSerializer;
 import com.tle.core.guice.Bind;
 import com.tle.core.item.dao.ItemDao;
@@ -35,6 +37,7 @@ import com.tle.core.item.serializer.ItemSerializerState;
 import com.tle.core.item.serializer.XMLStreamer;
 import com.tle.core.jackson.MapperExtension;
 import com.tle.core.plugins.PluginTracker;
+import com.tle.core.url.URLCheckerService;
 import com.tle.web.api.item.equella.interfaces.beans.EquellaAttachmentBean;
 import com.tle.web.api.item.equella.interfaces.beans.EquellaItemBean;
 import com.tle.web.api.item.interfaces.beans.AttachmentBean;
@@ -42,6 +45,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -53,6 +57,7 @@ public class AttachmentSerializerProvider implements ItemSerializerProvider, Map
 
   @Inject private PluginTracker<AttachmentSerializer> tracker;
   @Inject private ItemDao itemDao;
+  @Inject private URLCheckerService urlCheckerService;
 
   private Map<String, AttachmentSerializer> serializerMap;
 
@@ -97,9 +102,18 @@ public class AttachmentSerializerProvider implements ItemSerializerProvider, Map
       Multimap<Long, Attachment> attachments =
           itemDao.getAttachmentsForItemIds(
               state.getItemIdsWithPrivilege(ItemSecurityConstants.VIEW_ITEM));
+      Set<String> urls = Sets.newHashSet();
       for (Long itemId : attachments.keySet()) {
-        state.setData(itemId, ALIAS_ATTACHMENTS, attachments.get(itemId));
+        Collection<Attachment> itemAttachments = attachments.get(itemId);
+        state.setData(itemId, ALIAS_ATTACHMENTS, itemAttachments);
+        for (Attachment attachment : itemAttachments) {
+          if (attachment instanceof LinkAttachment) {
+            urls.add(attachment.getUrl());
+          }
+        }
       }
+      // Loads the status of every link in one go, ready for when they are serialized
+      urlCheckerService.getUrlStatuses(urls);
     }
   }
 
@@ -124,6 +124,18 @@ public interface ItemService
 
   Set<String> getReferencedUsers();
 
+  /**
+   * @return Up to maxResults distinct, non-null item owners greater than afterUserId, in the
+   *     database's order. Pass null to start from the beginning.
+   */
+  List<String> getReferencedOwners(String afterUserId, int maxResults);
+
+  /**
+   * @return Up to maxResults distinct, non-null item collaborators greater than afterUserId, in the
+   *     database's order. Pass null to start from the beginning.
+   */
+  List<String> getReferencedCollaborators(String afterUserId, int maxResults);
+
   void delete(Item item);
 
   /**
@@ -134,9 +134,13 @@ public class ItemServiceImpl
         ItemOperationListener,
         ItemOperationBatchListener {
   private static final String ITEM_METADATA_SECURITY_RULE_SCRIPT_NAME = "saveSecurityMetdataRule";
+  private static final long ITEM_XML_CACHE_BYTES = 64L * 1024 * 1024;
+  private static final long ITEM_XML_CACHE_MINUTES = 5;
 
   private final Cache<String, Set<String>> privilegeCache =
       CacheBuilder.newBuilder().softValues().expireAfterAccess(30, TimeUnit.SECONDS).build();
+  private final ItemXmlCache itemXmlCache =
+      new ItemXmlCache(ITEM_XML_CACHE_BYTES, ITEM_XML_CACHE_MINUTES);
   private final Map<String, List<Extension>> operationExtensionMap =
       new HashMap<String, List<Extension>>();
   private final Collection<String> itemPrivileges;
@@ -351,8 +355,7 @@ public class ItemServiceImpl
 
   @Override
   public PropBagEx getItemXmlPropBag(Item item) {
-    ItemXml itemXml = item.getItemXml();
-    return (itemXml == null ? new PropBagEx() : new PropBagEx(itemXml.getXml()));
+    return itemXmlCache.getXml(item);
   }
 
   @Override
@@ -464,6 +467,18 @@ public class ItemServiceImpl
     return dao.getReferencedUsers();
   }
 
+  @Override
+  @Transactional
+  public List<String> getReferencedOwners(String afterUserId, int maxResults) {
+    return dao.getReferencedOwners(afterUserId, maxResults);
+  }
+
+  @Override
+  @Transactional
+  public List<String> getReferencedCollaborators(String afterUserId, int maxResults) {
+    return dao.getReferencedCollaborators(afterUserId, maxResults);
+  }
+
   @Override
   public void delete(Item item) {
     auditLogService.logItemPurged(item);
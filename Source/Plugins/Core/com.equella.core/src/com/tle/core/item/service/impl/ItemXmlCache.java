@@ -0,0 +1,156 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item.service.impl;
+
+import com.dytech.devlib.PropBagEx;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.beans.item.Item;
+import com.tle.beans.item.ItemXml;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps parsed item metadata so that rendering, scripting, serialising and indexing an item in the
+ * same request don't each parse its XML again. Copying a parsed document is much cheaper than
+ * parsing the XML.
+ *
+ * <p>Documents are keyed on the item and when it was last modified, and the XML they were parsed
+ * from is compared before one is used, so changes that haven't been saved yet are never missed.
+ * Callers always get their own copy and are free to change it.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class ItemXmlCache {
+  private static final Logger LOGGER = Logger.getLogger(ItemXmlCache.class);
+
+  // Measured with Xerces: the XML string and the text in the DOM take around two bytes per
+  // character each, and each node adds around 50 bytes, roughly one per tag
+  private static final int BYTES_PER_CHAR = 4;
+  private static final int BYTES_PER_TAG = 48;
+
+  private final Cache<String, ParsedXml> documents;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maximumBytes The estimated memory the XML and parsed documents may use.
+   * @param retainMinutes How long to keep a document that isn't being used.
+   */
+  public ItemXmlCache(long maximumBytes, long retainMinutes) {
+    documents =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes)
+            .weigher(
+                new Weigher<String, ParsedXml>() {
+                  @Override
+                  public int weigh(String key, ParsedXml value) {
+                    return (int) Math.min(Integer.MAX_VALUE, estimateBytes(value.xml));
+                  }
+                })
+            .expireAfterAccess(retainMinutes, TimeUnit.MINUTES)
+            .build();
+  }
+
+  public PropBagEx getXml(Item item) {
+    ItemXml itemXml = item.getItemXml();
+    if (itemXml == null) {
+      return new PropBagEx();
+    }
+    String xml = itemXml.getXml();
+    if (item.getId() == 0) {
+      // Not saved yet
+      return new PropBagEx(xml);
+    }
+
+    Date modified = item.getDateModified();
+    String key = item.getId() + "/" + (modified == null ? 0 : modified.getTime());
+    ParsedXml parsed = documents.getIfPresent(key);
+    if (parsed != null && parsed.xml.equals(xml)) {
+      hits.incrementAndGet();
+      return parsed.copy();
+    }
+
+    misses.incrementAndGet();
+    PropBagEx propBag = new PropBagEx(xml);
+    parsed = new ParsedXml(xml, propBag);
+    documents.put(key, parsed);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug(getStatistics());
+    }
+    return parsed.copy();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public String getStatistics() {
+    long found = hits.get();
+    long total = found + misses.get();
+    return "Item XML cache: Entries["
+        + documents.size()
+        + "] Hits["
+        + found
+        + "] Misses["
+        + getMissCount()
+        + "] Hit rate["
+        + (total == 0 ? 100 : Math.round(found * 100.0 / total))
+        + "%]";
+  }
+
+  /** @return A rough size of the XML plus the document parsed from it. */
+  static long estimateBytes(String xml) {
+    long tags = 0;
+    for (int i = 0; i < xml.length(); i++) {
+      if (xml.charAt(i) == '<') {
+        tags++;
+      }
+    }
+    return (long) xml.length() * BYTES_PER_CHAR + tags * BYTES_PER_TAG;
+  }
+
+  private static final class ParsedXml {
+    final String xml;
+    // Never handed out, only copied
+    private final PropBagEx propBag;
+
+    ParsedXml(String xml, PropBagEx propBag) {
+      this.xml = xml;
+      this.propBag = propBag;
+    }
+
+    PropBagEx copy() {
+      // The DOM implementation doesn't promise that reading a document from several threads at
+      // once is safe
+      synchronized (this) {
+        return (PropBagEx) propBag.clone();
+      }
+    }
+  }
+}
@@ -66,6 +66,10 @@ public interface MimeTypeService {
 
   <T> List<T> getListFromAttribute(MimeEntry entry, String key, Class<T> entryType);
 
+  /**
+   * The decoded bean is cached and shared between callers, so it must be treated as read only. Use
+   * {@link #setBeanAttribute(MimeEntry, String, Object)} with a new bean to change it.
+   */
   @Nullable
   <T> T getBeanFromAttribute(MimeEntry entry, String key, Class<T> entryType);
 
@@ -18,6 +18,8 @@
 
 package com.tle.core.mimetypes;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
@@ -51,6 +53,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import net.sf.json.JSONArray;
@@ -65,6 +68,7 @@ import org.springframework.transaction.annotation.Transactional;
 @Singleton
 public class MimeTypeServiceImpl implements MimeTypeService, MimeTypesUpdatedListener {
   private static final String DEFAULT_MIMETYPE = "application/octet-stream"; // $NON-NLS-1$
+  private static final int MAX_DECODED_ATTRIBUTES = 2000;
 
   private static final String KEY_PFX =
       AbstractPluginService.getMyPluginId(MimeTypeServiceImpl.class) + ".";
@@ -77,6 +81,12 @@ public class MimeTypeServiceImpl implements MimeTypeService, MimeTypesUpdatedLis
   private Map<String, List<Extension>> extensionMap;
 
   private InstitutionCache<EntryCache> mimeCache;
+  /**
+   * JSON attribute values that have already been turned into beans and lists, keyed on the JSON
+   * itself so that it can never be out of date with the entry being asked about. Kept apart from
+   * {@link #mimeCache} so that decoding never has to load the entries from the database.
+   */
+  private InstitutionCache<Cache<DecodedAttributeKey, Object>> decodedCache;
 
   @Inject
   public void setInstitutionService(InstitutionService service) {
@@ -88,6 +98,14 @@ public class MimeTypeServiceImpl implements MimeTypeService, MimeTypesUpdatedLis
                 return fillCache();
               }
             });
+    decodedCache =
+        service.newInstitutionAwareCache(
+            new CacheLoader<Institution, Cache<DecodedAttributeKey, Object>>() {
+              @Override
+              public Cache<DecodedAttributeKey, Object> load(Institution key) {
+                return CacheBuilder.newBuilder().maximumSize(MAX_DECODED_ATTRIBUTES).build();
+              }
+            });
   }
 
   @Override
@@ -106,6 +124,7 @@ public class MimeTypeServiceImpl implements MimeTypeService, MimeTypesUpdatedLis
   @Override
   public void clearMimeCache() {
     mimeCache.clear();
+    decodedCache.clear();
   }
 
   @Transactional(propagation = Propagation.REQUIRED)
@@ -304,6 +323,7 @@ public class MimeTypeServiceImpl implements MimeTypeService, MimeTypesUpdatedLis
 
   private void mimeTypesChanged() {
     mimeCache.clear();
+    decodedCache.clear();
     eventService.publishApplicationEvent(new MimeTypesUpdatedMessage());
   }
 
@@ -313,7 +333,18 @@ public class MimeTypeServiceImpl implements MimeTypeService, MimeTypesUpdatedLis
     Map<String, String> attr = entry.getAttributes();
     String jsonText = attr.get(key);
     if (!Check.isEmpty(jsonText)) {
-      return new ArrayList<T>(JSONArray.toCollection(JSONArray.fromObject(jsonText), entryType));
+      DecodedAttributeKey decodedKey = new DecodedAttributeKey(jsonText, entryType, true);
+      Cache<DecodedAttributeKey, Object> decoded = decodedCache.getCache();
+      List<T> list = (List<T>) decoded.getIfPresent(decodedKey);
+      if (list == null) {
+        list =
+            Collections.unmodifiableList(
+                new ArrayList<T>(
+                    JSONArray.toCollection(JSONArray.fromObject(jsonText), entryType)));
+        decoded.put(decodedKey, list);
+      }
+      // Callers are free to modify the list they get back
+      return new ArrayList<T>(list);
     }
     return Collections.emptyList();
   }
@@ -324,11 +355,46 @@ public class MimeTypeServiceImpl implements MimeTypeService, MimeTypesUpdatedLis
     Map<String, String> attr = entry.getAttributes();
     String enabledJson = attr.get(key);
     if (!Check.isEmpty(enabledJson)) {
-      return (T) JSONObject.toBean(JSONObject.fromObject(enabledJson), entryType);
+      DecodedAttributeKey decodedKey = new DecodedAttributeKey(enabledJson, entryType, false);
+      Cache<DecodedAttributeKey, Object> decoded = decodedCache.getCache();
+      T bean = (T) decoded.getIfPresent(decodedKey);
+      if (bean == null) {
+        bean = (T) JSONObject.toBean(JSONObject.fromObject(enabledJson), entryType);
+        if (bean != null) {
+          decoded.put(decodedKey, bean);
+        }
+      }
+      return bean;
     }
     return null;
   }
 
+  private static class DecodedAttributeKey {
+    private final String json;
+    private final Class<?> type;
+    private final boolean list;
+
+    DecodedAttributeKey(String json, Class<?> type, boolean list) {
+      this.json = json;
+      this.type = type;
+      this.list = list;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof DecodedAttributeKey)) {
+        return false;
+      }
+      DecodedAttributeKey other = (DecodedAttributeKey) obj;
+      return list == other.list && type.equals(other.type) && json.equals(other.json);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(json, type, list);
+    }
+  }
+
   @Override
   public void clearAllForPrefix(MimeEntry entry, String keyPrefix) {
     Map<String, String> attr = entry.getAttributes();
@@ -49,9 +49,15 @@ public interface NotificationDao extends GenericInstitutionalDao<Notification, L
 
   boolean userIdChanged(ItemKey itemKey, String fromUserId, String toUserId);
 
-  NotifiedUser getUserToNotify(Date notAfter, String attemptId, boolean batched);
-
-  int updateLastAttempt(String user, boolean batched, Date date, String attemptId);
+  /**
+   * Finds the next page of users with notifications to send, across all institutions. Users are not
+   * returned again once {@link #updateLastAttempt} has been called for the same attempt.
+   */
+  List<NotifiedUser> getUsersToNotify(
+      Date notAfter, String attemptId, boolean batched, int maximum);
+
+  /** Claims the unprocessed notifications of the users in the current institution. */
+  int updateLastAttempt(Collection<String> users, boolean batched, Date date, String attemptId);
 
   List<Notification> getNewestNotificationsForUser(
       int maximum, String user, Collection<String> reasons, String attemptId);
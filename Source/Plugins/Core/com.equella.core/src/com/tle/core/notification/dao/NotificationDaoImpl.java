@@ -234,11 +234,12 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
                 });
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
-  public NotifiedUser getUserToNotify(
-      final Date notAfter, final String attemptId, final boolean batched) {
-    return (NotifiedUser)
+  public List<NotifiedUser> getUsersToNotify(
+      final Date notAfter, final String attemptId, final boolean batched, final int maximum) {
+    return (List<NotifiedUser>)
         getHibernateTemplate()
             .execute(
                 new HibernateCallback() {
@@ -253,12 +254,12 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
                     query.setParameter("date", notAfter);
                     query.setParameter("batched", batched);
                     query.setParameter(ATTEMPT, attemptId);
-                    query.setMaxResults(1);
-                    Object[] vals = (Object[]) query.uniqueResult();
-                    if (vals == null) {
-                      return null;
+                    query.setMaxResults(maximum);
+                    List<NotifiedUser> users = new ArrayList<NotifiedUser>();
+                    for (Object[] vals : (List<Object[]>) query.list()) {
+                      users.add(new NotifiedUser((String) vals[0], ((Number) vals[1]).longValue()));
                     }
-                    return new NotifiedUser((String) vals[0], ((Number) vals[1]).longValue());
+                    return users;
                   }
                 });
   }
@@ -329,12 +330,33 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
 
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
-  public int updateLastAttempt(String user, boolean batched, Date date, String attemptId) {
-    return getHibernateTemplate()
-        .bulkUpdate(
-            "update Notification set lastAttempt = ?, attemptId = ? "
-                + "where institution = ? and userTo = ? and processed = false and batched = ?",
-            new Object[] {date, attemptId, CurrentInstitution.get(), user, batched});
+  public int updateLastAttempt(
+      final Collection<String> users,
+      final boolean batched,
+      final Date date,
+      final String attemptId) {
+    if (users.isEmpty()) {
+      return 0;
+    }
+    return (Integer)
+        getHibernateTemplate()
+            .execute(
+                new HibernateCallback() {
+                  @Override
+                  public Object doInHibernate(Session session) {
+                    Query query =
+                        session.createQuery(
+                            "update Notification set lastAttempt = :date, attemptId = :attempt "
+                                + "where institution = :inst and userTo in (:users) and processed = false "
+                                + "and batched = :batched");
+                    query.setParameter("date", date);
+                    query.setParameter(ATTEMPT, attemptId);
+                    query.setParameter(INST, CurrentInstitution.get());
+                    query.setParameterList("users", users);
+                    query.setParameter("batched", batched);
+                    return query.executeUpdate();
+                  }
+                });
   }
 
   @Override
@@ -18,6 +18,7 @@
 
 package com.tle.core.notification.service;
 
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.tle.beans.Institution;
@@ -77,6 +78,7 @@ import org.springframework.transaction.annotation.Transactional;
 @Bind(NotificationService.class)
 public class NotificationServiceImpl implements NotificationService {
   private static final int MAX_EMAIL_NOTIFICATIONS = 30;
+  private static final int USERS_PER_BATCH = 100;
   private static final long RETRY_MILLIS = TimeUnit.HOURS.toMillis(2);
 
   private static final Log LOGGER = LogFactory.getLog(NotificationService.class);
@@ -191,7 +193,7 @@ public class NotificationServiceImpl implements NotificationService {
             @Override
             public Void call() {
 
-              while (processFirstUser(
+              while (processUsers(
                   notBefore, processTime, completionService, emailCounter, attemptId, batched)) {
                 Future<EmailResult<EmailKey>> result;
                 while ((result = completionService.poll()) != null) {
@@ -248,49 +250,80 @@ public class NotificationServiceImpl implements NotificationService {
     key.successCallback();
   }
 
+  /**
+   * Claims the next page of users with notifications and queues their emails.
+   *
+   * @return false if there were no users left to process.
+   */
   @Transactional
-  protected boolean processFirstUser(
+  protected boolean processUsers(
       Date notAfter,
       final Date processTime,
       ExecutorCompletionService<EmailResult<EmailKey>> completionService,
       AtomicInteger emailCounter,
       final String attemptId,
       final boolean batched) {
-    NotifiedUser userToNotify = dao.getUserToNotify(notAfter, attemptId, batched);
-    if (userToNotify != null) {
-      final String user = userToNotify.getUser();
-      Institution institution = institutionService.getInstitution(userToNotify.getInstId());
-      try {
-        Iterable<Callable<EmailResult<EmailKey>>> emailer =
-            runAsUser.execute(
-                institution,
-                user,
-                new NotificationEmailer(batched, processTime, attemptId, dao, emailService));
-        for (Callable<EmailResult<EmailKey>> em : emailer) {
-          emailCounter.incrementAndGet();
-          completionService.submit(em);
-        }
-      } catch (UserException ue) {
-        runAs.executeAsSystem(
-            institution,
-            new Runnable() {
-              @Override
-              public void run() {
-                dao.updateLastAttempt(user, batched, processTime, attemptId);
-                Map<String, Integer> reasonCounts = dao.getReasonCounts(user, attemptId);
-                List<String> processed = Lists.newArrayList();
-                List<String> deletes = Lists.newArrayList();
-                for (Entry<String, Integer> reasonCount : reasonCounts.entrySet()) {
-                  String reason = reasonCount.getKey();
-                  (getExtensionForType(reason).isIndexed(reason) ? processed : deletes).add(reason);
-                }
-                dao.deleteUnindexed(user, deletes, attemptId);
-                dao.markProcessed(user, processed, attemptId);
-              }
-            });
+    List<NotifiedUser> usersToNotify =
+        dao.getUsersToNotify(notAfter, attemptId, batched, USERS_PER_BATCH);
+    if (usersToNotify.isEmpty()) {
+      return false;
+    }
+
+    Multimap<Long, String> institutionUsers = LinkedHashMultimap.create();
+    for (NotifiedUser userToNotify : usersToNotify) {
+      institutionUsers.put(userToNotify.getInstId(), userToNotify.getUser());
+    }
+    for (Long instId : institutionUsers.keySet()) {
+      Institution institution = institutionService.getInstitution(instId);
+      final Collection<String> users = institutionUsers.get(instId);
+      // Claim the whole page with one update, so it won't be returned again
+      runAs.executeAsSystem(
+          institution,
+          new Runnable() {
+            @Override
+            public void run() {
+              dao.updateLastAttempt(users, batched, processTime, attemptId);
+            }
+          });
+      for (String user : users) {
+        processUser(institution, user, completionService, emailCounter, attemptId);
       }
     }
-    return userToNotify != null;
+    return true;
+  }
+
+  private void processUser(
+      Institution institution,
+      final String user,
+      ExecutorCompletionService<EmailResult<EmailKey>> completionService,
+      AtomicInteger emailCounter,
+      final String attemptId) {
+    try {
+      Iterable<Callable<EmailResult<EmailKey>>> emailer =
+          runAsUser.execute(
+              institution, user, new NotificationEmailer(attemptId, dao, emailService));
+      for (Callable<EmailResult<EmailKey>> em : emailer) {
+        emailCounter.incrementAndGet();
+        completionService.submit(em);
+      }
+    } catch (UserException ue) {
+      runAs.executeAsSystem(
+          institution,
+          new Runnable() {
+            @Override
+            public void run() {
+              Map<String, Integer> reasonCounts = dao.getReasonCounts(user, attemptId);
+              List<String> processed = Lists.newArrayList();
+              List<String> deletes = Lists.newArrayList();
+              for (Entry<String, Integer> reasonCount : reasonCounts.entrySet()) {
+                String reason = reasonCount.getKey();
+                (getExtensionForType(reason).isIndexed(reason) ? processed : deletes).add(reason);
+              }
+              dao.deleteUnindexed(user, deletes, attemptId);
+              dao.markProcessed(user, processed, attemptId);
+            }
+          });
+    }
   }
 
   @Override
@@ -27,47 +27,138 @@ import com.tle.core.events.services.EventService;
 import com.tle.core.guice.Bind;
 import com.tle.core.item.service.ItemService;
 import com.tle.core.scheduler.ScheduledTask;
+import com.tle.core.scheduler.standard.task.ReferencedUserScan.ReferencedUserSource;
 import com.tle.core.services.user.UserPreferenceService;
 import com.tle.core.services.user.UserService;
+import com.tle.core.settings.service.ConfigurationService;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import org.apache.log4j.Logger;
 import org.springframework.transaction.annotation.Transactional;
 
+/**
+ * Finds users referenced by items, entities and preferences that the user services no longer know
+ * about and publishes a {@link UserDeletedEvent} for each of them.
+ *
+ * <p>Referenced user ids are paged through with a {@link ReferencedUserScan}, and each page is
+ * resolved and its deletions published before the next is read. The scan's checkpoint is saved as
+ * an institution property, so a run that is interrupted carries on from there rather than starting
+ * again. It is written past the property cache, as saving it after every page would otherwise flush
+ * the cache across the cluster each time.
+ */
 @Bind
 @Singleton
+@SuppressWarnings("nls")
 public class CheckDeletedUsersTask implements ScheduledTask {
+  private static final Logger LOGGER = Logger.getLogger(CheckDeletedUsersTask.class);
+
+  private static final String CHECKPOINT_PROPERTY = "scheduler.checkdeletedusers.checkpoint";
+  private static final int CHUNK_SIZE = 500;
+
   @Inject private EntityRegistry entityRegistry;
   @Inject private ItemService itemService;
   @Inject private UserPreferenceService userPreferenceService;
   @Inject private UserService userService;
   @Inject private EventService eventService;
+  @Inject private ConfigurationService configService;
 
   @Override
-  @Transactional
   public void execute() {
-    final Set<String> allUsers = new HashSet<String>();
+    // Users are often referenced from several sources, only tell everyone once
+    final Set<String> deleted = new HashSet<String>();
+    int checked =
+        new ReferencedUserScan(CHUNK_SIZE) {
+          @Override
+          protected String loadCheckpoint() {
+            return configService.getUncachedProperty(CHECKPOINT_PROPERTY);
+          }
 
-    for (AbstractEntityService<?, BaseEntity> service : entityRegistry.getAllEntityServices()) {
-      Set<String> referencedUsers = service.getReferencedUsers();
-      allUsers.addAll(referencedUsers);
-    }
+          @Override
+          protected void saveCheckpoint(String checkpoint) {
+            configService.setUncachedProperty(CHECKPOINT_PROPERTY, checkpoint);
+          }
 
-    allUsers.addAll(itemService.getReferencedUsers());
-    allUsers.addAll(userPreferenceService.getReferencedUsers());
+          @Override
+          protected void clearCheckpoint() {
+            configService.setUncachedProperty(CHECKPOINT_PROPERTY, null);
+          }
 
-    // Remove all users that information could be found for
-    allUsers.removeAll(userService.getInformationForUsers(allUsers).keySet());
+          @Override
+          protected void checkUsers(List<String> users) {
+            publishDeleted(getDeletedUsers(users, deleted));
+          }
+        }.run(getSources());
+
+    LOGGER.info(
+        "Deleted user check found " + deleted.size() + " deleted users in " + checked + " checked");
+  }
+
+  private Collection<String> getDeletedUsers(List<String> chunk, Set<String> alreadyDeleted) {
+    Set<String> users = new LinkedHashSet<String>(chunk);
+    users.removeAll(alreadyDeleted);
 
     // Remove any nulls or blank strings that made there way in
-    allUsers.remove(null);
-    allUsers.remove(Constants.BLANK);
+    users.remove(null);
+    users.remove(Constants.BLANK);
+    if (users.isEmpty()) {
+      return users;
+    }
+
+    // Remove all users that information could be found for
+    users.removeAll(userService.getInformationForUsers(users).keySet());
 
     // ...IDs left over are for users that don't exist anymore
-    for (String delUser : allUsers) {
+    alreadyDeleted.addAll(users);
+    return users;
+  }
+
+  @Transactional
+  protected void publishDeleted(Collection<String> users) {
+    for (String delUser : users) {
       // Post these synchronously, as we are in danger of absolutely swamping the connections
       eventService.publishApplicationEvent(new UserDeletedEvent(delUser, true));
     }
   }
+
+  private List<ReferencedUserSource> getSources() {
+    List<ReferencedUserSource> sources = new ArrayList<ReferencedUserSource>();
+    for (final AbstractEntityService<?, BaseEntity> service :
+        entityRegistry.getAllEntityServices()) {
+      sources.add(
+          new ReferencedUserSource(service.getEntityDao().getPersistentClass().getName()) {
+            @Override
+            public List<String> getReferencedUsers(String afterUserId, int maxResults) {
+              return service.getReferencedUsers(afterUserId, maxResults);
+            }
+          });
+    }
+    sources.add(
+        new ReferencedUserSource("items") {
+          @Override
+          public List<String> getReferencedUsers(String afterUserId, int maxResults) {
+            return itemService.getReferencedOwners(afterUserId, maxResults);
+          }
+        });
+    sources.add(
+        new ReferencedUserSource("collaborators") {
+          @Override
+          public List<String> getReferencedUsers(String afterUserId, int maxResults) {
+            return itemService.getReferencedCollaborators(afterUserId, maxResults);
+          }
+        });
+    sources.add(
+        new ReferencedUserSource("preferences") {
+          @Override
+          public List<String> getReferencedUsers(String afterUserId, int maxResults) {
+            return userPreferenceService.getReferencedUsers(afterUserId, maxResults);
+          }
+        });
+    return sources;
+  }
 }
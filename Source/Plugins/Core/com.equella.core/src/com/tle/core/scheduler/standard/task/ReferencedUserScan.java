@@ -0,0 +1,133 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.scheduler.standard.task;
+
+import com.google.common.base.Strings;
+import com.tle.annotation.Nullable;
+import com.tle.common.Check;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+/**
+ * Pages through the user ids referenced by a list of sources, one source at a time, saving a
+ * checkpoint after each page so that an interrupted scan carries on where it stopped.
+ *
+ * <p>Each source pages in its own order, which is the database's, so only ids from the same source
+ * are ever compared. A checkpoint is the name of the source and the last id handed to {@link
+ * #checkUsers(List)}.
+ */
+@SuppressWarnings("nls")
+abstract class ReferencedUserScan {
+  private static final Logger LOGGER = Logger.getLogger(ReferencedUserScan.class);
+
+  private static final char CHECKPOINT_SEPARATOR = '|';
+
+  private final int chunkSize;
+
+  protected ReferencedUserScan(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /** @return The saved checkpoint, or null if the last scan completed. */
+  protected abstract String loadCheckpoint();
+
+  protected abstract void saveCheckpoint(String checkpoint);
+
+  protected abstract void clearCheckpoint();
+
+  /** Called with each page of ids, before the checkpoint after it is saved. */
+  protected abstract void checkUsers(List<String> users);
+
+  /** @return The number of ids checked. */
+  public int run(List<ReferencedUserSource> sources) {
+    String resumeSource = null;
+    String resumeAfter = null;
+    String checkpoint = loadCheckpoint();
+    if (!Check.isEmpty(checkpoint)) {
+      int sep = checkpoint.indexOf(CHECKPOINT_SEPARATOR);
+      if (sep > 0) {
+        resumeSource = checkpoint.substring(0, sep);
+        resumeAfter = Strings.emptyToNull(checkpoint.substring(sep + 1));
+      }
+    }
+    if (resumeSource != null && !containsSource(sources, resumeSource)) {
+      LOGGER.warn("Referenced user scan was interrupted in an unknown source, starting again");
+      resumeSource = null;
+      resumeAfter = null;
+    }
+
+    int checked = 0;
+    for (ReferencedUserSource source : sources) {
+      String after = null;
+      if (resumeSource != null) {
+        if (!resumeSource.equals(source.getName())) {
+          continue;
+        }
+        LOGGER.info(
+            "Resuming referenced user scan of " + source.getName() + " after " + resumeAfter);
+        after = resumeAfter;
+        resumeSource = null;
+      }
+
+      List<String> chunk;
+      do {
+        chunk = source.getReferencedUsers(after, chunkSize);
+        if (chunk.isEmpty()) {
+          break;
+        }
+        checked += chunk.size();
+        checkUsers(chunk);
+        after = chunk.get(chunk.size() - 1);
+        saveCheckpoint(source.getName() + CHECKPOINT_SEPARATOR + after);
+      } while (chunk.size() == chunkSize);
+    }
+
+    clearCheckpoint();
+    return checked;
+  }
+
+  private static boolean containsSource(List<ReferencedUserSource> sources, String name) {
+    for (ReferencedUserSource source : sources) {
+      if (source.getName().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  abstract static class ReferencedUserSource {
+    private final String name;
+
+    protected ReferencedUserSource(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @param afterUserId The last id of the previous page, or null for the first page. Oracle
+     *     treats an empty string as null, so it can't stand in for "before everything".
+     * @return Up to maxResults distinct, non-null ids greater than afterUserId, in the order the
+     *     source compares them.
+     */
+    public abstract List<String> getReferencedUsers(@Nullable String afterUserId, int maxResults);
+  }
+}
@@ -289,6 +289,12 @@ public class UserPreferenceServiceImpl implements UserPreferenceService, UserCha
     return userPreferencesDao.getReferencedUsers();
   }
 
+  @Override
+  @Transactional
+  public List<String> getReferencedUsers(String afterUserId, int maxResults) {
+    return userPreferencesDao.getReferencedUsers(afterUserId, maxResults);
+  }
+
   @Override
   public Locale getPreferredLocale(HttpServletRequest request) {
     Locale locale = null;
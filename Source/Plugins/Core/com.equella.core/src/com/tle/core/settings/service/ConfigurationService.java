@@ -40,6 +40,12 @@ public interface ConfigurationService {
   /** The result of this will be cached for future invocations. */
   <T> List<T> getPropertyList(String property);
 
+  /**
+   * Reads a property straight from the database. Only for properties that are written with {@link
+   * #setUncachedProperty(String, String)}.
+   */
+  String getUncachedProperty(String property);
+
   // SETTERS ///////////////////////////////////////////////////////////////
 
   void setProperties(ConfigurationProperties properties);
@@ -48,6 +54,13 @@ public interface ConfigurationService {
 
   void deleteProperty(String property);
 
+  /**
+   * Writes a property without invalidating the property cache here or on the rest of the cluster,
+   * for values that are updated often and only ever read with {@link #getUncachedProperty(String)}.
+   * A null value deletes the property.
+   */
+  void setUncachedProperty(String property, String value);
+
   // For institution import/export/deletion only ///////////////////////////
 
   Map<String, String> getAllProperties();
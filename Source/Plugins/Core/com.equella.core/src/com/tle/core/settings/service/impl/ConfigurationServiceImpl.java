@@ -224,6 +224,24 @@ public class ConfigurationServiceImpl implements ConfigurationService, Configura
     setPropertiesImpl(map);
   }
 
+  @Override
+  @Transactional
+  public String getUncachedProperty(String property) {
+    ConfigurationProperty prop =
+        configurationDao.findById(new PropertyKey(CurrentInstitution.get(), property));
+    return prop == null ? null : prop.getValue();
+  }
+
+  @Override
+  @Transactional
+  public void setUncachedProperty(String property, String value) {
+    if (value == null) {
+      configurationDao.deletePropertiesLike(Collections.singleton(property));
+    } else {
+      setPropertyImpl(property, value);
+    }
+  }
+
   @Override
   @Transactional
   public void setProperty(String property, String value) {
@@ -45,6 +45,8 @@ public interface TermDao extends GenericDao<Term, Long> {
 
   List<Term> getAllTermsInOrder(Taxonomy taxonomy);
 
+  List<TermResult> getAllTermResults(Taxonomy taxonomy);
+
   /**
    * @param taxonomy
    * @param parent
@@ -62,6 +64,16 @@ public interface TermDao extends GenericDao<Term, Long> {
   Term insertNewTerm(
       Taxonomy taxonomy, Term parent, @Nullable String termUuid, String termValue, int index);
 
+  /**
+   * Adds a batch of new branches to the end of a parent in one go, rather than making room for each
+   * term separately.
+   *
+   * @param parent The term to add the branches to, or null for new root terms
+   * @param termPaths Paths relative to the parent. Shared parts of the paths are only created once.
+   * @return The number of terms created
+   */
+  int insertNewTerms(Taxonomy taxonomy, @Nullable Term parent, List<String> termPaths);
+
   void move(Term moveThisTerm, Term parent, int index);
 
   void renameTermValue(Term term, String newValue);
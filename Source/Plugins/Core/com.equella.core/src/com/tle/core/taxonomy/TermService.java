@@ -72,6 +72,14 @@ public interface TermService extends RemoteTermService {
       String termValue,
       int index);
 
+  /**
+   * Bulk version of insertTerm for loading large branches. Each path is relative to the parent and
+   * any missing terms along it are created.
+   *
+   * @return The number of terms created
+   */
+  int insertTerms(Taxonomy taxonomy, @Nullable String parentFullPath, List<String> termPaths);
+
   /** Make sure you put the @Transactional annotation on the implementation! */
   void doInTransaction(Runnable runnable);
 
@@ -18,7 +18,7 @@
 
 package com.tle.core.taxonomy.impl;
 
-import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 import com.tle.annotation.Nullable;
 import com.tle.common.Check;
 import com.tle.common.beans.exception.InvalidDataException;
@@ -34,8 +34,11 @@ import com.tle.web.resources.PluginResourceHelper;
 import com.tle.web.resources.ResourcesService;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import javax.inject.Singleton;
@@ -81,6 +84,12 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
       "FROM Term t WHERE t.parent = ? ORDER BY t.left ASC";
   private static final String CHILD_TERM_RESULTS_QUERY = TERM_RESULT_PROJECTION + CHILD_TERMS_QUERY;
 
+  private static final int BATCH_SIZE = 200;
+  private static final int MIN_GROWTH = 64;
+  private static final int MAX_GROWTH = 1 << 16;
+  /** Leaves plenty of headroom before the int columns would overflow. */
+  private static final int MAX_INDEX = Integer.MAX_VALUE / 2;
+
   private static final PluginResourceHelper resources =
       ResourcesService.getResourceHelper(TermDaoImpl.class);
 
@@ -104,6 +113,19 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
         .find("FROM Term t WHERE t.taxonomy = ? ORDER BY t.left", new Object[] {taxonomy});
   }
 
+  @Override
+  public List<TermResult> getAllTermResults(final Taxonomy taxonomy) {
+    return getHibernateTemplate()
+        .executeFind(
+            session -> {
+              Query q =
+                  session.createQuery(TERM_RESULT_PROJECTION + "FROM Term t WHERE t.taxonomy = ?");
+              q.setParameter(0, taxonomy);
+              q.setResultTransformer(TERM_RESULT_TRANSFORMER);
+              return q.list();
+            });
+  }
+
   @Override
   public Term getTerm(final Taxonomy taxonomy, final String termFullPath) {
     return (Term)
@@ -143,15 +165,14 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
               @Override
               public Object doInHibernate(Session session) {
                 final Taxonomy taxonomy = term.getTaxonomy();
-                final int left = term.getLeft();
-                final int right = term.getRight();
+                final Position position = getPosition(session, term.getId());
 
                 Query q =
                     session.createQuery(
                         "DELETE FROM TermAttributes ta where ta.term.id in (FROM Term"
                             + " WHERE lft BETWEEN :left AND :right AND taxonomy = :taxonomy)");
-                q.setInteger("left", left);
-                q.setInteger("right", right);
+                q.setInteger("left", position.left);
+                q.setInteger("right", position.right);
                 q.setParameter("taxonomy", taxonomy);
                 q.executeUpdate();
 
@@ -159,14 +180,15 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
                     session.createQuery(
                         "DELETE FROM Term"
                             + " WHERE lft BETWEEN :left AND :right AND taxonomy = :taxonomy");
-                q.setInteger("left", left);
-                q.setInteger("right", right);
+                q.setInteger("left", position.left);
+                q.setInteger("right", position.right);
                 q.setParameter("taxonomy", taxonomy);
                 q.executeUpdate();
 
-                shiftLeftAndRightIndexes(
-                    session, taxonomy, right + 1, Integer.MAX_VALUE, -(right - left + 1));
-
+                // The space the term used is simply left as a gap, nothing else needs renumbering
+                if (position.parentId != null) {
+                  shrinkIfChildless(session, position.parentId);
+                }
                 return null;
               }
             });
@@ -175,16 +197,18 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
   public Term insertNewTerm(
-      Taxonomy taxonomy, Term parent, @Nullable String termUuid, String termValue, int index) {
+      final Taxonomy taxonomy,
+      final Term parent,
+      @Nullable String termUuid,
+      String termValue,
+      final int index) {
     termValue = termValue.trim();
     checkTermValue(termValue, taxonomy, parent);
 
     final int left =
-        parent != null
-            ? getLeftForChildIndex(parent, index)
-            : getLeftForRootTermIndex(taxonomy, index);
-
-    shiftLeftAndRightIndexes(null, taxonomy, left, Integer.MAX_VALUE, 2);
+        (Integer)
+            getHibernateTemplate()
+                .execute(session -> allocate(session, taxonomy, parent, index, null, 2));
 
     final String fullValue =
         parent == null
@@ -205,6 +229,83 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
     return newChild;
   }
 
+  @Override
+  @Transactional(propagation = Propagation.MANDATORY)
+  public int insertNewTerms(
+      final Taxonomy taxonomy, @Nullable final Term parent, List<String> termPaths) {
+    // Build up the new branches, merging any shared paths
+    final NewTerm root = new NewTerm(null, parent == null ? null : parent.getFullValue());
+    final List<String> existing =
+        parent == null ? getRootTermValues(taxonomy) : getChildTermValues(parent);
+    for (String termPath : termPaths) {
+      NewTerm branch = root;
+      for (String part : termPath.split(TaxonomyConstants.TERM_SEPARATOR_REGEX)) {
+        final String value = part.trim();
+        if (branch == root && existing.contains(value)) {
+          throw new InvalidDataException(
+              new ValidationError(
+                  "term", resources.getString("dao.term.validation.duplicate", value)));
+        }
+        NewTerm child = branch.children.get(value);
+        if (child == null) {
+          checkNewTermValue(value, branch.fullValue);
+          child = new NewTerm(value, branch.fullValue);
+          branch.children.put(value, child);
+        }
+        branch = child;
+      }
+    }
+
+    final List<NewTerm> terms = new ArrayList<NewTerm>();
+    final List<Integer> parents = new ArrayList<Integer>();
+    flatten(root, -1, terms, parents);
+    if (terms.isEmpty()) {
+      return 0;
+    }
+    final TermNumbering numbering = TermNumbering.number(Ints.toArray(parents), 0);
+
+    getHibernateTemplate()
+        .execute(
+            session -> {
+              // Make room for all of the new terms at the end of the parent in one go
+              final int base = allocate(session, taxonomy, parent, -1, null, numbering.getWidth());
+
+              final Term[] saved = new Term[terms.size()];
+              for (int i = 0; i < saved.length; i++) {
+                final NewTerm newTerm = terms.get(i);
+                final int parentIndex = parents.get(i);
+
+                final Term term = new Term();
+                term.setUuid(UUID.randomUUID().toString());
+                term.setValue(newTerm.value);
+                term.setFullValue(newTerm.fullValue);
+                term.setLeft(base + numbering.getLeft(i));
+                term.setRight(base + numbering.getRight(i));
+                term.setParent(parentIndex < 0 ? parent : saved[parentIndex]);
+                term.setTaxonomy(taxonomy);
+                session.save(term);
+                saved[i] = term;
+
+                if ((i + 1) % BATCH_SIZE == 0) {
+                  session.flush();
+                  session.clear();
+                }
+              }
+              session.flush();
+              session.clear();
+              return null;
+            });
+    return terms.size();
+  }
+
+  private void flatten(NewTerm term, int index, List<NewTerm> terms, List<Integer> parents) {
+    for (NewTerm child : term.children.values()) {
+      terms.add(child);
+      parents.add(index);
+      flatten(child, terms.size() - 1, terms, parents);
+    }
+  }
+
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
   protected void postSave(Term entity) {
@@ -215,42 +316,172 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
     clear();
   }
 
-  private int getLeftForChildIndex(Term parent, int index) {
-    if (index == 0) {
-      return parent.getLeft() + 1;
+  /**
+   * Finds a free range of indexes for a term (and its children) being added to a parent. The
+   * indexes are taken from the gap between the siblings either side of the insert position. Only if
+   * the gap is too small is the rest of the taxonomy shifted along, and then by enough to leave
+   * plenty of room for further inserts.
+   *
+   * @param moving The term being moved, which is not counted as one of the siblings.
+   * @param width The number of indexes needed.
+   * @return The left index of the range.
+   */
+  private int allocate(
+      Session session,
+      Taxonomy taxonomy,
+      @Nullable Term parent,
+      int index,
+      @Nullable Long moving,
+      int width) {
+    final Position parentPosition = parent == null ? null : getPosition(session, parent.getId());
+    final List<Position> siblings = getChildPositions(session, taxonomy, parentPosition, moving);
+
+    // the gap is between low and high, exclusive
+    final boolean append = index < 0 || index >= siblings.size();
+    final int low;
+    if (append) {
+      low = siblings.isEmpty() ? getFirstLeft(parentPosition) - 1 : last(siblings).right;
+    } else {
+      low = index == 0 ? getFirstLeft(parentPosition) - 1 : siblings.get(index - 1).right;
     }
-
-    if (index < 0) {
-      return parent.getRight();
+    int high;
+    if (!append) {
+      high = siblings.get(index).left;
+    } else if (parentPosition != null) {
+      high = parentPosition.right;
+    } else {
+      // Nothing comes after the last root term
+      high = low + 1 + TermNumbering.SPACING + width;
     }
 
-    final List<Term> children = getChildTerms(parent);
-    if (children.isEmpty()) {
-      return parent.getLeft() + 1;
+    int free = high - low - 1;
+    if (free < width) {
+      final int parentLeft = parentPosition == null ? 0 : parentPosition.left;
+      final int amount =
+          width - free + Math.max(MIN_GROWTH, Math.min(high - parentLeft, MAX_GROWTH));
+      if (getMaxRight(session, taxonomy) > MAX_INDEX - amount) {
+        renumber(session, taxonomy);
+        return allocate(session, taxonomy, parent, index, moving, width);
+      }
+      shiftLeftAndRightIndexes(session, taxonomy, high, Integer.MAX_VALUE, amount);
+      high += amount;
+      free += amount;
     }
 
-    if (index >= children.size()) {
-      return parent.getRight();
+    final int left;
+    if (append) {
+      // Leave room for more terms to be appended after this one
+      left = low + 1 + Math.min(TermNumbering.SPACING, free - width);
+    } else {
+      left = low + 1 + (free - width) / 2;
     }
+    if (left > MAX_INDEX - width) {
+      renumber(session, taxonomy);
+      return allocate(session, taxonomy, parent, index, moving, width);
+    }
+    return left;
+  }
 
-    return children.get(index).getLeft();
+  private static int getFirstLeft(@Nullable Position parent) {
+    return parent == null ? 0 : parent.left + 1;
   }
 
-  private int getLeftForRootTermIndex(Taxonomy taxonomy, int index) {
-    if (index == 0) {
-      return 0;
+  private static Position last(List<Position> positions) {
+    return positions.get(positions.size() - 1);
+  }
+
+  private Position getPosition(Session session, long termId) {
+    final Object[] row =
+        (Object[])
+            session
+                .createQuery(
+                    "SELECT t.id, t.left, t.right, p.id FROM Term t LEFT JOIN t.parent p"
+                        + " WHERE t.id = :id")
+                .setLong("id", termId)
+                .uniqueResult();
+    if (row == null) {
+      throw new RuntimeException("Could not find term " + termId);
     }
+    return new Position(row);
+  }
 
-    final List<Term> roots = getRootTerms(taxonomy);
-    if (roots.isEmpty()) {
-      return 0;
+  /** Reads the positions from the database, as terms held by the session could be out of date. */
+  private List<Position> getChildPositions(
+      Session session, Taxonomy taxonomy, @Nullable Position parent, @Nullable Long excluding) {
+    final Query q;
+    if (parent == null) {
+      q =
+          session.createQuery(
+              "SELECT t.id, t.left, t.right, p.id FROM Term t LEFT JOIN t.parent p"
+                  + " WHERE t.taxonomy = :taxonomy AND p IS NULL ORDER BY t.left");
+      q.setParameter("taxonomy", taxonomy);
+    } else {
+      q =
+          session.createQuery(
+              "SELECT t.id, t.left, t.right, p.id FROM Term t JOIN t.parent p"
+                  + " WHERE p.id = :parentId ORDER BY t.left");
+      q.setLong("parentId", parent.id);
+    }
+    final List<Position> positions = new ArrayList<Position>();
+    for (Object[] row : (List<Object[]>) q.list()) {
+      final Position position = new Position(row);
+      if (excluding == null || position.id != excluding) {
+        positions.add(position);
+      }
     }
+    return positions;
+  }
+
+  private int getMaxRight(Session session, Taxonomy taxonomy) {
+    final Integer max =
+        (Integer)
+            session
+                .createQuery("SELECT MAX(t.right) FROM Term t WHERE t.taxonomy = :taxonomy")
+                .setParameter("taxonomy", taxonomy)
+                .uniqueResult();
+    return max == null ? 0 : max;
+  }
+
+  /** Keeps leaf terms numbered tightly, so that lft + 1 = rht still identifies them. */
+  private void shrinkIfChildless(Session session, long termId) {
+    session
+        .createQuery(
+            "UPDATE Term SET rht = lft + 1 WHERE id = :id"
+                + " AND NOT EXISTS (SELECT c.id FROM Term c WHERE c.parent.id = :id)")
+        .setLong("id", termId)
+        .executeUpdate();
+  }
 
-    if (index >= roots.size() || index < 0) {
-      return roots.get(roots.size() - 1).getRight() + 1;
+  /**
+   * Renumbers the whole taxonomy with even gaps. Only needed when repeated inserts into the same
+   * place have pushed the indexes towards the largest int.
+   */
+  private void renumber(Session session, Taxonomy taxonomy) {
+    final List<Object[]> rows =
+        session
+            .createQuery(
+                "SELECT t.id, p.id FROM Term t LEFT JOIN t.parent p"
+                    + " WHERE t.taxonomy = :taxonomy ORDER BY t.left")
+            .setParameter("taxonomy", taxonomy)
+            .list();
+
+    final Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+    final int[] parents = new int[rows.size()];
+    for (int i = 0; i < parents.length; i++) {
+      final Object[] row = rows.get(i);
+      indexes.put((Long) row[0], i);
+      parents[i] = row[1] == null ? -1 : indexes.get(row[1]);
     }
 
-    return roots.get(index).getLeft();
+    final TermNumbering numbering = TermNumbering.number(parents, 0);
+    final Query update =
+        session.createQuery("UPDATE Term SET lft = :left, rht = :right WHERE id = :id");
+    for (int i = 0; i < parents.length; i++) {
+      update.setInteger("left", numbering.getLeft(i));
+      update.setInteger("right", numbering.getRight(i));
+      update.setLong("id", (Long) rows.get(i)[0]);
+      update.executeUpdate();
+    }
   }
 
   @Override
@@ -321,116 +552,59 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
 
     final Taxonomy taxonomy = moveThisTerm.getTaxonomy();
 
-    final int al = moveThisTerm.getLeft();
-    final int ar = moveThisTerm.getRight();
-    final int aw = ar - al + 1;
-
-    final int incFrom;
-    final int decFrom;
-    if (parent == null) {
-      final List<Term> newSibs = getRootTerms(taxonomy);
-      if (index == 0) {
-        // Move to first root node
-        incFrom = 0;
-        decFrom = Integer.MIN_VALUE; // Invalid case - negative value
-        // required for later check to
-        // indicate this is a
-        // "move left".
-      } else if (index < 0 || index >= newSibs.size()) {
-        // Move to last root node
-        incFrom = Integer.MAX_VALUE; // Invalid case - positive value
-        // required for later checks to
-        // indicate this is a
-        // "move right".
-        decFrom = newSibs.get(newSibs.size() - 1).getRight();
-      } else {
-        // Move to a root node at index
-        final Term destTerm = newSibs.get(index);
-        incFrom = destTerm.getLeft();
-        // Special edge case when moving term to be a later sibling when
-        // it is already a root term, since the left of the dest moves
-        // due to the removal of our term.
-        decFrom = moveThisTerm.getParent() == null ? destTerm.getRight() : destTerm.getLeft() - 1;
-      }
-    } else {
-      final List<Term> newSibs = getChildTerms(parent);
-      if (newSibs.isEmpty()) {
-        // Move to an empty parent
-        incFrom = parent.getRight();
-        decFrom = parent.getLeft();
-      } else if (index == 0) {
-        // Move to first child
-        incFrom = parent.getLeft() + 1;
-        decFrom = parent.getLeft();
-      } else if (index < 0 || index >= newSibs.size()) {
-        // Move to last child
-        incFrom = parent.getRight();
-        decFrom = parent.getRight() - 1;
-      } else {
-        // Move to child at index
-        final Term destTerm = newSibs.get(index);
-        incFrom = destTerm.getLeft();
-
-        // Special edge case when moving term to be a later sibling in
-        // the same parent, since the left of the dest term moves due to
-        // the removal of our term.
-        decFrom =
-            Objects.equals(moveThisTerm.getParent(), parent)
-                ? destTerm.getRight()
-                : destTerm.getLeft() - 1;
-      }
-    }
-
-    // Sanity Check
-    if (al == incFrom) {
-      throw new RuntimeException("Term is already at that exact destination");
-    }
-
-    // Sanity Check
-    if ((al < incFrom && incFrom < ar) || (al < decFrom && decFrom < ar)) {
-      throw new RuntimeException(
-          "Attempted to re-parent term under itself or one of its children.");
-    }
-
     getHibernateTemplate()
         .execute(
             session -> {
-              // Find the largest Right value, plus one. This will be our
-              // temporary Left position for the block of terms we are moving.
-              final int maxLeft =
-                  (Integer)
-                      session
-                          .createQuery("SELECT MAX(rht) + 1 FROM Term WHERE taxonomy = :taxonomy")
-                          .setParameter("taxonomy", taxonomy)
-                          .uniqueResult();
-
-              // Temporarily move the term and children to the end
-              shiftLeftAndRightIndexes(session, taxonomy, al, ar, maxLeft - al);
-              // shift(session, taxonomy, al, ar, maxLeft - al);
-
-              // destLeft should eventually contain the exact left index that
-              // the term being moved will use.
-              int destLeft = -1;
-
-              // Both AL and AR will be greater than INCFROM and DECFROM, or
-              // they will both be lower. It doesn't matter which of these
-              // pairs of variable we test for.
-              if (ar < incFrom) {
-                // Term was before destination, so shift stuff down
-                shiftLeftAndRightIndexes(session, taxonomy, ar + 1, decFrom, -aw);
-                // shift(session, taxonomy, ar + 1, decFrom, -aw);
-                destLeft = decFrom - aw + 1;
-              } else {
-                // Term was after destination, so shift stuff up
-                shiftLeftAndRightIndexes(session, taxonomy, incFrom, al - 1, aw);
-                // shift(session, taxonomy, incFrom, al - 1, aw);
-                destLeft = incFrom;
+              final Position moving = getPosition(session, moveThisTerm.getId());
+              if (parent != null) {
+                final Position parentPosition = getPosition(session, parent.getId());
+                if (moving.left < parentPosition.left && parentPosition.left < moving.right) {
+                  throw new RuntimeException(
+                      "Attempted to re-parent term under itself or one of its children.");
+                }
               }
 
-              // Move term back from the temporary position
-              shiftLeftAndRightIndexes(
-                  session, taxonomy, maxLeft, maxLeft + aw - 1, -(maxLeft - destLeft));
-              // shift(session, taxonomy, maxLeft, maxLeft + aw - 1, -(maxLeft - destLeft));
+              final Long parentId = parent == null ? null : parent.getId();
+              if (Objects.equals(moving.parentId, parentId)) {
+                final List<Position> siblings =
+                    getChildPositions(
+                        session,
+                        taxonomy,
+                        parent == null ? null : getPosition(session, parentId),
+                        moving.id);
+                int currentIndex = 0;
+                while (currentIndex < siblings.size()
+                    && siblings.get(currentIndex).left < moving.left) {
+                  currentIndex++;
+                }
+                if (index == currentIndex) {
+                  throw new RuntimeException("Term is already at that exact destination");
+                }
+                if ((index < 0 || index >= siblings.size()) && currentIndex == siblings.size()) {
+                  // Already the last sibling
+                  return null;
+                }
+              }
+
+              // Find a gap at the destination, then move the term and its children into it.
+              // Making room may have shifted the term itself, so its position is read again.
+              final int destLeft =
+                  allocate(
+                      session, taxonomy, parent, index, moving.id, moving.right - moving.left + 1);
+              final Position moved = getPosition(session, moving.id);
+              session
+                  .createQuery(
+                      "UPDATE Term SET lft = lft + :amount, rht = rht + :amount"
+                          + " WHERE taxonomy = :taxonomy AND lft BETWEEN :left AND :right")
+                  .setInteger("amount", destLeft - moved.left)
+                  .setParameter("taxonomy", taxonomy)
+                  .setInteger("left", moved.left)
+                  .setInteger("right", moved.right)
+                  .executeUpdate();
+
+              if (moving.parentId != null && !moving.parentId.equals(parentId)) {
+                shrinkIfChildless(session, moving.parentId);
+              }
 
               // We need to update the lineage if parent has changed. The left
               // and right need to be temporarily set on the object so that we
@@ -442,7 +616,7 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
                       && !Objects.equals(movedTermParent.getFullValue(), parent.getFullValue()))) {
                 moveThisTerm.setParent(parent);
                 moveThisTerm.setLeft(destLeft);
-                moveThisTerm.setRight(destLeft + aw - 1);
+                moveThisTerm.setRight(destLeft + moved.right - moved.left);
 
                 invalidateFullValues(moveThisTerm);
                 updateFullValues(moveThisTerm.getTaxonomy());
@@ -582,42 +756,35 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
     final List<Term> children =
         (parentTerm == null ? getRootTerms(taxonomy) : getChildTerms(parentTerm));
 
-    // track all the swaps that happened (from index to to index)
-    // This should mean that the number of DB calls is <= N rather than <= N^2
-    final List<TermSortData> sortData =
-        new ArrayList<>(
-            Lists.transform(children, (t) -> new TermSortData(t, t.getLeft(), t.getRight())));
-
     // Sort using server locale (in the absence of anything better!)
     // We should probably have selectable default locales on institutions (new feature!)
     final Collator collator = Collator.getInstance(Locale.getDefault());
     collator.setStrength(Collator.PRIMARY);
 
-    // Don't use sortData.sort, we specifically need bubble sort as we need to catch each swap
-    // of position
-    final int n = sortData.size();
-    for (int i = 0; i < n; i++) {
-      for (int j = 1; j < (n - i); j++) {
-        final TermSortData o1 = sortData.get(j - 1);
-        final TermSortData o2 = sortData.get(j);
-        if (collator.compare(o1.term.getValue(), o2.term.getValue()) > 0) {
-          sortData.set(j - 1, o2);
-          sortData.set(j, o1);
-          o1.swapPosition(o2);
-        }
+    final List<Term> sorted = new ArrayList<>(children);
+    sorted.sort((t1, t2) -> collator.compare(t1.getValue(), t2.getValue()));
+
+    // Lay the children out again in the sorted order, keeping the gaps that were between them so
+    // that the space taken by the parent doesn't change
+    final int[] shifts = new int[sorted.size()];
+    int left = children.isEmpty() ? 0 : children.get(0).getLeft();
+    for (int i = 0; i < shifts.length; i++) {
+      final Term term = sorted.get(i);
+      shifts[i] = left - term.getLeft();
+      left += term.getRight() - term.getLeft() + 1;
+      if (i + 1 < shifts.length) {
+        left += children.get(i + 1).getLeft() - children.get(i).getRight() - 1;
       }
     }
 
-    // now perform a re-number for each modification
     getHibernateTemplate()
         .execute(
             session -> {
-              for (TermSortData tsd : sortData) {
-                final int shiftAmount = tsd.getShiftAmount();
-                if (shiftAmount != 0) {
+              for (int i = 0; i < shifts.length; i++) {
+                if (shifts[i] != 0) {
                   // we need to use the term path for hierarchical identification, as the
                   // left+right indexes will get messed up during this process
-                  shift(session, taxonomy, tsd.term, shiftAmount);
+                  shift(session, taxonomy, sorted.get(i), shifts[i]);
                 }
               }
               return null;
@@ -642,7 +809,34 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
 
   private void checkTermValue(String termValue, Taxonomy taxonomy, Term parentTerm) {
     final List<ValidationError> errors = new ArrayList<ValidationError>();
+    addValueErrors(errors, termValue, parentTerm == null ? null : parentTerm.getFullValue());
 
+    // We need to check for term duplicate with siblings. The database
+    // constraint will ensure that this is correct for all terms that are
+    // not at the root level, but due to parent_id being NULL for root
+    // terms, the constraint will not necessarily be enforced. We do a
+    // manual check here for when this is a root term (parentTerm is null).
+    if (parentTerm == null && getRootTermValues(taxonomy).contains(termValue)) {
+      errors.add(
+          new ValidationError(
+              "term", resources.getString("dao.term.validation.duplicate", termValue)));
+    }
+
+    if (!errors.isEmpty()) {
+      throw new InvalidDataException(errors);
+    }
+  }
+
+  private void checkNewTermValue(String termValue, @Nullable String parentFullValue) {
+    final List<ValidationError> errors = new ArrayList<ValidationError>();
+    addValueErrors(errors, termValue, parentFullValue);
+    if (!errors.isEmpty()) {
+      throw new InvalidDataException(errors);
+    }
+  }
+
+  private void addValueErrors(
+      List<ValidationError> errors, String termValue, @Nullable String parentFullValue) {
     if (Check.isEmpty(termValue)) {
       errors.add(new ValidationError("term", resources.getString("dao.term.validation.emptyterm")));
     } else if (termValue.length() > Term.MAX_TERM_VALUE_LENGTH) {
@@ -659,20 +853,8 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
               resources.getString("dao.term.validation.nosep", TaxonomyConstants.TERM_SEPARATOR)));
     }
 
-    // We need to check for term duplicate with siblings. The database
-    // constraint will ensure that this is correct for all terms that are
-    // not at the root level, but due to parent_id being NULL for root
-    // terms, the constraint will not necessarily be enforced. We do a
-    // manual check here for when this is a root term (parentTerm is null).
-    if (parentTerm == null) {
-      if (getRootTermValues(taxonomy).contains(termValue)) {
-        errors.add(
-            new ValidationError(
-                "term", resources.getString("dao.term.validation.duplicate", termValue)));
-      }
-    } else {
-      final String fullPath =
-          parentTerm.getFullValue() + TaxonomyConstants.TERM_SEPARATOR + termValue;
+    if (parentFullValue != null) {
+      final String fullPath = parentFullValue + TaxonomyConstants.TERM_SEPARATOR + termValue;
       if (fullPath.length() > Term.MAX_TERM_FULLVALUE_LENGTH) {
         errors.add(
             new ValidationError(
@@ -681,10 +863,6 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
                     "dao.term.validation.termfulllength", Term.MAX_TERM_FULLVALUE_LENGTH)));
       }
     }
-
-    if (!errors.isEmpty()) {
-      throw new InvalidDataException(errors);
-    }
   }
 
   private void shiftLeftAndRightIndexes(
@@ -712,27 +890,35 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
     q.executeUpdate();
   }
 
-  private class TermSortData {
-    private final Term term;
-    private final int width;
-    private int left;
-
-    public TermSortData(Term term, int left, int right) {
-      this.term = term;
-      this.left = left;
-      this.width = right - left;
+  private static class Position {
+    final long id;
+    final int left;
+    final int right;
+    @Nullable final Long parentId;
+
+    Position(Object[] row) {
+      id = (Long) row[0];
+      left = (Integer) row[1];
+      right = (Integer) row[2];
+      parentId = (Long) row[3];
     }
+  }
 
-    public void swapPosition(TermSortData other) {
-      final TermSortData oldBefore = (other.left > left ? this : other);
-      final TermSortData oldAfter = (other.left > left ? other : this);
+  private static class NewTerm {
+    @Nullable final String value;
+    @Nullable final String fullValue;
+    final Map<String, NewTerm> children = new LinkedHashMap<String, NewTerm>();
 
-      oldAfter.left -= (oldBefore.width + 1);
-      oldBefore.left += (oldAfter.width + 1);
-    }
-
-    public int getShiftAmount() {
-      return left - term.getLeft();
+    NewTerm(@Nullable String value, @Nullable String parentFullValue) {
+      this.value = value;
+      if (value == null) {
+        fullValue = parentFullValue;
+      } else {
+        fullValue =
+            parentFullValue == null
+                ? value
+                : parentFullValue + TaxonomyConstants.TERM_SEPARATOR + value;
+      }
     }
   }
 }
@@ -0,0 +1,110 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.taxonomy.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Works out the left and right indexes of a whole tree of terms in one pass. Terms are numbered as
+ * a nested set, but with {@link #SPACING} unused indexes before every term and after the last child
+ * of a term. New terms can then usually be slotted into a gap without renumbering the rest of the
+ * taxonomy.
+ *
+ * <p>Leaf terms are always numbered tightly (right = left + 1), so a term is still a leaf exactly
+ * when {@code lft + 1 = rht}.
+ */
+public final class TermNumbering {
+  /** The unused indexes left in front of every term, and after the last child of a term. */
+  public static final int SPACING = 16;
+
+  private final int[] lefts;
+  private final int[] rights;
+  private final int width;
+
+  private TermNumbering(int[] lefts, int[] rights, int width) {
+    this.lefts = lefts;
+    this.rights = rights;
+    this.width = width;
+  }
+
+  /**
+   * @param parents The parent of each term, as an index into this same array, or -1 for a top level
+   *     term. Terms must be in depth first order, i.e. every term comes after its parent and before
+   *     the next sibling of its parent.
+   * @param start The index to start numbering from.
+   */
+  public static TermNumbering number(int[] parents, int start) {
+    final int count = parents.length;
+    final int[] lefts = new int[count];
+    final int[] rights = new int[count];
+    final boolean[] hasChildren = new boolean[count];
+    final Deque<Integer> open = new ArrayDeque<Integer>();
+
+    long next = start;
+    for (int i = 0; i < count; i++) {
+      final int parent = parents[i];
+      while (!open.isEmpty() && open.peek() != parent) {
+        next = close(open.pop(), next, rights, hasChildren);
+      }
+      if (parent >= 0) {
+        if (open.isEmpty()) {
+          throw new IllegalArgumentException("Term " + i + " does not follow its parent");
+        }
+        hasChildren[parent] = true;
+      }
+      next += SPACING;
+      lefts[i] = checked(next);
+      next++;
+      open.push(i);
+    }
+    while (!open.isEmpty()) {
+      next = close(open.pop(), next, rights, hasChildren);
+    }
+    return new TermNumbering(lefts, rights, checked(next - start));
+  }
+
+  private static long close(int term, long next, int[] rights, boolean[] hasChildren) {
+    if (hasChildren[term]) {
+      next += SPACING;
+    }
+    rights[term] = checked(next);
+    return next + 1;
+  }
+
+  private static int checked(long index) {
+    if (index > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Too many terms to number");
+    }
+    return (int) index;
+  }
+
+  public int getLeft(int term) {
+    return lefts[term];
+  }
+
+  public int getRight(int term) {
+    return rights[term];
+  }
+
+  /** @return The number of indexes used, including the gaps. */
+  public int getWidth() {
+    return width;
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.taxonomy.impl;
+
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.common.Pair;
+import com.tle.common.taxonomy.SelectionRestriction;
+import com.tle.common.taxonomy.TaxonomyConstants;
+import com.tle.core.taxonomy.TermResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory copy of the values of every term in a taxonomy, used to answer term searches without
+ * scanning the term table. Terms are held in two arrays of case folded keys, one sorted by value
+ * and one by full value, so that prefix searches are a binary search and other searches are a scan
+ * over strings that are already folded.
+ *
+ * <p>Instances are immutable. Changes to the taxonomy return a new index, so searches never need to
+ * lock.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public final class TermSearchIndex {
+  private static final Comparator<Entry> BY_VALUE =
+      Comparator.comparing((Entry e) -> e.foldedValue).thenComparing(e -> e.fullValue);
+  private static final Comparator<Entry> BY_FULL_VALUE =
+      Comparator.comparing((Entry e) -> e.foldedFullValue).thenComparing(e -> e.fullValue);
+
+  private final Entry[] byValue;
+  private final Entry[] byFullValue;
+
+  private TermSearchIndex(Entry[] byValue, Entry[] byFullValue) {
+    this.byValue = byValue;
+    this.byFullValue = byFullValue;
+  }
+
+  public static TermSearchIndex build(Collection<TermResult> terms) {
+    final Entry[] entries = new Entry[terms.size()];
+    int i = 0;
+    for (TermResult term : terms) {
+      entries[i++] = new Entry(term.getTerm(), term.getFullTerm(), term.getUuid(), term.isLeaf());
+    }
+    return sorted(entries);
+  }
+
+  private static TermSearchIndex sorted(Entry[] entries) {
+    final Entry[] byValue = entries.clone();
+    Arrays.sort(byValue, BY_VALUE);
+    Arrays.sort(entries, BY_FULL_VALUE);
+    return new TermSearchIndex(byValue, entries);
+  }
+
+  public int size() {
+    return byFullValue.length;
+  }
+
+  /**
+   * Runs a search with the same semantics as the <code>ilike</code> query it replaces, i.e. % (or
+   * *) matches any number of characters and _ matches a single character.
+   *
+   * @param limit The maximum number of results to return, or -1 for all of them
+   * @return The total number of matches and the first <code>limit</code> of them, in order of the
+   *     searched field
+   */
+  public Pair<Long, List<TermResult>> search(
+      String query, SelectionRestriction restriction, int limit, boolean searchFullTerms) {
+    final String pattern = fold(query.replace('*', '%'));
+    final Entry[] entries = searchFullTerms ? byFullValue : byValue;
+
+    // Only the terms starting with the literal part of the pattern can match
+    int wildcard = 0;
+    while (wildcard < pattern.length() && !isWildcard(pattern.charAt(wildcard))) {
+      wildcard++;
+    }
+    final String prefix = pattern.substring(0, wildcard);
+    int from = 0;
+    int to = entries.length;
+    if (!prefix.isEmpty()) {
+      from = lowerBound(entries, prefix, searchFullTerms);
+      to = lowerBound(entries, prefix + Character.MAX_VALUE, searchFullTerms);
+    }
+
+    final Matcher matcher = Matcher.compile(pattern);
+    long count = 0;
+    final List<TermResult> results = new ArrayList<TermResult>();
+    for (int i = from; i < to; i++) {
+      final Entry entry = entries[i];
+      if (entry.matches(restriction)
+          && matcher.matches(searchFullTerms ? entry.foldedFullValue : entry.foldedValue)) {
+        if (limit < 0 || results.size() < limit) {
+          results.add(entry.toResult());
+        }
+        count++;
+      }
+    }
+    return new Pair<Long, List<TermResult>>(count, results);
+  }
+
+  /** A new term has been added, as a leaf. */
+  public TermSearchIndex withTerm(String fullValue, @Nullable String uuid) {
+    final List<Entry> entries = new ArrayList<Entry>(Arrays.asList(byFullValue));
+    final String parent = getParent(fullValue);
+    entries.add(new Entry(getValue(fullValue), fullValue, uuid, true));
+    return changed(entries, parent == null ? null : Collections.singleton(parent));
+  }
+
+  /** A term and all of its children have been deleted. */
+  public TermSearchIndex withoutBranch(String fullValue) {
+    final List<Entry> entries = new ArrayList<Entry>(byFullValue.length);
+    for (Entry entry : byFullValue) {
+      if (!isInBranch(entry.fullValue, fullValue)) {
+        entries.add(entry);
+      }
+    }
+    final String parent = getParent(fullValue);
+    return changed(entries, parent == null ? null : Collections.singleton(parent));
+  }
+
+  /** A term has been renamed or moved, which changes the full values of all of its children. */
+  public TermSearchIndex withBranchMoved(String oldFullValue, String newFullValue) {
+    final List<Entry> entries = new ArrayList<Entry>(byFullValue.length);
+    for (Entry entry : byFullValue) {
+      if (isInBranch(entry.fullValue, oldFullValue)) {
+        final String moved = newFullValue + entry.fullValue.substring(oldFullValue.length());
+        entries.add(new Entry(getValue(moved), moved, entry.uuid, entry.leaf));
+      } else {
+        entries.add(entry);
+      }
+    }
+    final Set<String> parents = new HashSet<String>();
+    final String oldParent = getParent(oldFullValue);
+    final String newParent = getParent(newFullValue);
+    if (oldParent != null) {
+      parents.add(oldParent);
+    }
+    if (newParent != null) {
+      parents.add(newParent);
+    }
+    return changed(entries, parents);
+  }
+
+  /** Works out whether the given parents are still leaves, then sorts the new entries. */
+  private static TermSearchIndex changed(List<Entry> entries, @Nullable Set<String> parents) {
+    if (parents != null && !parents.isEmpty()) {
+      final Set<String> withChildren = new HashSet<String>();
+      for (Entry entry : entries) {
+        final String parent = getParent(entry.fullValue);
+        if (parent != null && parents.contains(parent)) {
+          withChildren.add(parent);
+        }
+      }
+      for (int i = 0; i < entries.size(); i++) {
+        final Entry entry = entries.get(i);
+        if (parents.contains(entry.fullValue)) {
+          final boolean leaf = !withChildren.contains(entry.fullValue);
+          if (leaf != entry.leaf) {
+            entries.set(i, new Entry(entry.value, entry.fullValue, entry.uuid, leaf));
+          }
+        }
+      }
+    }
+    return sorted(entries.toArray(new Entry[entries.size()]));
+  }
+
+  private static int lowerBound(Entry[] entries, String key, boolean fullValue) {
+    int low = 0;
+    int high = entries.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final String folded = fullValue ? entries[mid].foldedFullValue : entries[mid].foldedValue;
+      if (folded.compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static boolean isInBranch(String fullValue, String branch) {
+    return fullValue.equals(branch)
+        || (fullValue.startsWith(branch)
+            && fullValue.startsWith(TaxonomyConstants.TERM_SEPARATOR, branch.length()));
+  }
+
+  @Nullable
+  private static String getParent(String fullValue) {
+    final int sep = fullValue.lastIndexOf(TaxonomyConstants.TERM_SEPARATOR);
+    return sep < 0 ? null : fullValue.substring(0, sep);
+  }
+
+  private static String getValue(String fullValue) {
+    final int sep = fullValue.lastIndexOf(TaxonomyConstants.TERM_SEPARATOR);
+    return sep < 0
+        ? fullValue
+        : fullValue.substring(sep + TaxonomyConstants.TERM_SEPARATOR.length());
+  }
+
+  private static boolean isWildcard(char c) {
+    return c == '%' || c == '_';
+  }
+
+  static String fold(String s) {
+    return s.toLowerCase(Locale.ROOT);
+  }
+
+  private static final class Entry {
+    final String value;
+    final String fullValue;
+    @Nullable final String uuid;
+    final String foldedValue;
+    final String foldedFullValue;
+    final boolean leaf;
+    final boolean top;
+
+    Entry(String value, String fullValue, @Nullable String uuid, boolean leaf) {
+      this.value = value;
+      this.fullValue = fullValue;
+      this.uuid = uuid;
+      this.leaf = leaf;
+      this.foldedValue = fold(value);
+      this.foldedFullValue = fold(fullValue);
+      this.top = !fullValue.contains(TaxonomyConstants.TERM_SEPARATOR);
+    }
+
+    boolean matches(SelectionRestriction restriction) {
+      switch (restriction) {
+        case TOP_LEVEL_ONLY:
+          return top;
+        case LEAF_ONLY:
+          return leaf;
+        default:
+          return true;
+      }
+    }
+
+    TermResult toResult() {
+      return new TermResult(value, fullValue, leaf, uuid);
+    }
+  }
+
+  /** Matches a folded <code>like</code> pattern against folded strings. */
+  private abstract static class Matcher {
+    abstract boolean matches(String s);
+
+    static Matcher compile(String pattern) {
+      if (pattern.indexOf('_') >= 0) {
+        return new RegexMatcher(pattern);
+      }
+      return new SegmentMatcher(pattern);
+    }
+  }
+
+  /** Patterns only using % are matched with plain string searches. */
+  private static final class SegmentMatcher extends Matcher {
+    private final String[] segments;
+    private final boolean anchorStart;
+    private final boolean anchorEnd;
+
+    SegmentMatcher(String pattern) {
+      anchorStart = !pattern.startsWith("%");
+      anchorEnd = !pattern.endsWith("%");
+      final List<String> parts = new ArrayList<String>();
+      for (String part : pattern.split("%")) {
+        if (!part.isEmpty()) {
+          parts.add(part);
+        }
+      }
+      segments = parts.toArray(new String[parts.size()]);
+    }
+
+    @Override
+    boolean matches(String s) {
+      if (segments.length == 0) {
+        // Either all wildcards, or the empty pattern
+        return !anchorStart || s.isEmpty();
+      }
+      int pos = 0;
+      for (int i = 0; i < segments.length; i++) {
+        final String segment = segments[i];
+        final boolean last = i == segments.length - 1;
+        if (i == 0 && anchorStart) {
+          if (!s.startsWith(segment)) {
+            return false;
+          }
+          pos = segment.length();
+        } else if (last && anchorEnd) {
+          return s.length() - segment.length() >= pos && s.endsWith(segment);
+        } else {
+          final int found = s.indexOf(segment, pos);
+          if (found < 0) {
+            return false;
+          }
+          pos = found + segment.length();
+        }
+      }
+      return !anchorEnd || pos == s.length();
+    }
+  }
+
+  private static final class RegexMatcher extends Matcher {
+    private final Pattern regex;
+
+    RegexMatcher(String pattern) {
+      final StringBuilder sb = new StringBuilder();
+      final StringBuilder literal = new StringBuilder();
+      for (char c : pattern.toCharArray()) {
+        if (isWildcard(c)) {
+          if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+          }
+          sb.append(c == '%' ? ".*" : ".");
+        } else {
+          literal.append(c);
+        }
+      }
+      if (literal.length() > 0) {
+        sb.append(Pattern.quote(literal.toString()));
+      }
+      regex = Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    @Override
+    boolean matches(String s) {
+      return regex.matcher(s).matches();
+    }
+  }
+}
@@ -21,6 +21,8 @@ package com.tle.core.taxonomy.impl;
 import com.dytech.edge.common.LockedException;
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
@@ -39,6 +41,7 @@ import com.tle.common.taxonomy.Taxonomy;
 import com.tle.common.taxonomy.TaxonomyConstants;
 import com.tle.common.taxonomy.terms.Term;
 import com.tle.core.entity.service.EntityLockingService;
+import com.tle.core.events.services.EventService;
 import com.tle.core.guice.Bind;
 import com.tle.core.hibernate.equella.service.InitialiserService;
 import com.tle.core.institution.convert.ConverterParams;
@@ -53,10 +56,14 @@ import com.tle.web.resources.ResourcesService;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
@@ -65,19 +72,41 @@ import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @SuppressWarnings("nls")
 @Bind(TermService.class)
 @Singleton
-public class TermServiceImpl implements TermService {
+public class TermServiceImpl implements TermService, TermsChangedListener {
   private static final Logger LOGGER = Logger.getLogger(TermService.class);
 
   private static final PluginResourceHelper resources =
       ResourcesService.getResourceHelper(TermServiceImpl.class);
 
+  /** Taxonomies with more terms than this are always searched in the database. */
+  private static final int MAX_INDEXED_TAXONOMY_SIZE = 250000;
+  /** The total number of terms held in search indexes across all taxonomies. */
+  private static final int MAX_INDEXED_TERMS = 1000000;
+
   @Inject private TermDao termDao;
+  @Inject private EventService eventService;
   @Inject private EntityLockingService lockingService;
   @Inject private InitialiserService initialiserService;
+
+  /** Transaction resource holding the ids of taxonomies with uncommitted term changes */
+  private final Object pendingChangesKey = new Object();
+
+  private final Object searchIndexLock = new Object();
+  private long searchIndexChanges;
+  private final Cache<Long, Optional<TermSearchIndex>> searchIndexes =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_INDEXED_TERMS)
+          .weigher(
+              (Long taxonomyId, Optional<TermSearchIndex> index) ->
+                  index.isPresent() ? Math.max(1, index.get().size()) : 1)
+          .expireAfterAccess(1, TimeUnit.HOURS)
+          .build();
   @Inject private XmlHelper xmlHelper;
 
   @Override
@@ -111,6 +140,11 @@ public class TermServiceImpl implements TermService {
       SelectionRestriction restriction,
       int limit,
       boolean searchFullTerms) {
+    final Optional<TermSearchIndex> index = getSearchIndex(taxonomy);
+    if (index.isPresent()) {
+      return index.get().search(query, restriction, limit, searchFullTerms);
+    }
+
     final String searchField = (searchFullTerms ? "fullValue" : "value");
     final Criterion c1 = Restrictions.eq("taxonomy", taxonomy);
     final Criterion c2 = Restrictions.ilike(searchField, query.replace('*', '%'));
@@ -134,6 +168,117 @@ public class TermServiceImpl implements TermService {
     return new Pair<Long, List<TermResult>>(totalCount, results);
   }
 
+  private Optional<TermSearchIndex> getSearchIndex(Taxonomy taxonomy) {
+    final Long taxonomyId = taxonomy.getId();
+    if (hasPendingChanges(taxonomyId)) {
+      // Only the database sees this transaction's changes, and they must not end up cached
+      return Optional.empty();
+    }
+    Optional<TermSearchIndex> index = searchIndexes.getIfPresent(taxonomyId);
+    if (index == null) {
+      final long changes;
+      synchronized (searchIndexLock) {
+        changes = searchIndexChanges;
+      }
+      if (termDao.countByCriteria(Restrictions.eq("taxonomy", taxonomy))
+          > MAX_INDEXED_TAXONOMY_SIZE) {
+        index = Optional.empty();
+      } else {
+        index = Optional.of(TermSearchIndex.build(termDao.getAllTermResults(taxonomy)));
+      }
+      synchronized (searchIndexLock) {
+        // Don't keep an index that may have missed a change made while it was loading
+        if (changes == searchIndexChanges) {
+          searchIndexes.put(taxonomyId, index);
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Updates the search index of the taxonomy once the current transaction commits, and drops the
+   * index on the other cluster nodes. Until then the transaction searches the taxonomy in the
+   * database, so it sees its own changes without an index of uncommitted terms being cached.
+   *
+   * @param change The change to make to the index, or null to throw the index away
+   */
+  private void termsChanged(
+      final Taxonomy taxonomy, @Nullable final Function<TermSearchIndex, TermSearchIndex> change) {
+    final long taxonomyId = taxonomy.getId();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      getPendingChanges(true).add(taxonomyId);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+              updateSearchIndex(taxonomyId, change);
+              eventService.publishApplicationEvent(new TermsChangedEvent(taxonomyId));
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResourceIfPossible(pendingChangesKey);
+            }
+          });
+    } else {
+      updateSearchIndex(taxonomyId, change);
+      eventService.publishApplicationEvent(new TermsChangedEvent(taxonomyId));
+    }
+  }
+
+  private boolean hasPendingChanges(long taxonomyId) {
+    final Set<Long> pending = getPendingChanges(false);
+    return pending != null && pending.contains(taxonomyId);
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private Set<Long> getPendingChanges(boolean create) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return null;
+    }
+    Set<Long> pending =
+        (Set<Long>) TransactionSynchronizationManager.getResource(pendingChangesKey);
+    if (pending == null && create) {
+      pending = new HashSet<Long>();
+      TransactionSynchronizationManager.bindResource(pendingChangesKey, pending);
+    }
+    return pending;
+  }
+
+  private void updateSearchIndex(
+      long taxonomyId, @Nullable Function<TermSearchIndex, TermSearchIndex> change) {
+    synchronized (searchIndexLock) {
+      searchIndexChanges++;
+      final Optional<TermSearchIndex> index = searchIndexes.getIfPresent(taxonomyId);
+      if (index != null) {
+        if (change != null && index.isPresent()) {
+          searchIndexes.put(taxonomyId, Optional.of(change.apply(index.get())));
+        } else {
+          searchIndexes.invalidate(taxonomyId);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void termsChangedEvent(TermsChangedEvent event) {
+    updateSearchIndex(event.getTaxonomyId(), null);
+  }
+
+  private static String getFullValue(@Nullable Term parent, String value) {
+    return parent == null
+        ? value
+        : parent.getFullValue() + TaxonomyConstants.TERM_SEPARATOR + value;
+  }
+
+  private void termAdded(Taxonomy taxonomy, Term term) {
+    final String fullValue = term.getFullValue();
+    final String uuid = term.getUuid();
+    termsChanged(taxonomy, i -> i.withTerm(fullValue, uuid));
+  }
+
   private Criterion getSearchRestrictionCriterion(SelectionRestriction restriction) {
     switch (restriction) {
       case TOP_LEVEL_ONLY:
@@ -198,6 +343,24 @@ public class TermServiceImpl implements TermService {
     return this.getTermResult(taxonomy, termFullValue);
   }
 
+  @Override
+  @SecureOnCall(priv = SecurityConstants.EDIT_TAXONOMY)
+  @Transactional(propagation = Propagation.REQUIRED)
+  public int insertTerms(
+      Taxonomy taxonomy, @Nullable String parentFullPath, List<String> termPaths) {
+    ensureLocked(taxonomy);
+
+    Term parent = null;
+    if (!Strings.isNullOrEmpty(parentFullPath)) {
+      parent = termDao.getTerm(taxonomy, parentFullPath);
+      if (parent == null) {
+        throw new NotFoundException("Parent term not found: " + parentFullPath);
+      }
+    }
+    termsChanged(taxonomy, null);
+    return termDao.insertNewTerms(taxonomy, parent, termPaths);
+  }
+
   private String insertTermImpl(
       Taxonomy taxonomy,
       String parentFullPath,
@@ -213,6 +376,7 @@ public class TermServiceImpl implements TermService {
 
     if (parent != null || root) {
       Term newTerm = termDao.insertNewTerm(taxonomy, parent, termUuid, term, index);
+      termAdded(taxonomy, newTerm);
       return newTerm.getFullValue();
     } else if (createHierarchy) {
       final String fullPathNoRoot =
@@ -235,6 +399,7 @@ public class TermServiceImpl implements TermService {
           pterm =
               termDao.insertNewTerm(
                   taxonomy, parent, (i == parts.length - 1 ? termUuid : null), parts[i], -1);
+          termAdded(taxonomy, pterm);
         }
         parent = pterm;
       }
@@ -309,7 +474,11 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void move(Taxonomy taxonomy, String termToMove, String moveToParent, int index) {
     ensureLocked(taxonomy);
-    termDao.move(getTerm(taxonomy, termToMove), getParentTermOrRoot(taxonomy, moveToParent), index);
+    moveImpl(
+        taxonomy,
+        getTerm(taxonomy, termToMove),
+        getParentTermOrRoot(taxonomy, moveToParent),
+        index);
   }
 
   @Override
@@ -317,12 +486,22 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void move(Taxonomy taxonomy, TermResult termToMove, TermResult parentTerm, int index) {
     ensureLocked(taxonomy);
-    termDao.move(
+    moveImpl(
+        taxonomy,
         getTermByUuid(taxonomy, termToMove.getUuid()),
         getTermByUuid(taxonomy, parentTerm.getUuid()),
         index);
   }
 
+  private void moveImpl(Taxonomy taxonomy, Term term, @Nullable Term parent, int index) {
+    final String oldFullValue = term.getFullValue();
+    final String newFullValue = getFullValue(parent, term.getValue());
+    termDao.move(term, parent, index);
+    if (!oldFullValue.equals(newFullValue)) {
+      termsChanged(taxonomy, i -> i.withBranchMoved(oldFullValue, newFullValue));
+    }
+  }
+
   @Override
   @SecureOnCall(priv = SecurityConstants.EDIT_TAXONOMY)
   @Transactional(propagation = Propagation.REQUIRED)
@@ -336,7 +515,11 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void renameTermValue(Taxonomy taxonomy, String termToRename, String newValue) {
     ensureLocked(taxonomy);
-    termDao.renameTermValue(getTerm(taxonomy, termToRename), newValue);
+    final Term term = getTerm(taxonomy, termToRename);
+    final String oldFullValue = term.getFullValue();
+    termDao.renameTermValue(term, newValue);
+    final String newFullValue = getFullValue(term.getParent(), newValue.trim());
+    termsChanged(taxonomy, i -> i.withBranchMoved(oldFullValue, newFullValue));
   }
 
   @Override
@@ -344,7 +527,10 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void deleteTerm(Taxonomy taxonomy, String termFullPath) {
     ensureLocked(taxonomy);
-    termDao.delete(getTerm(taxonomy, termFullPath));
+    final Term term = getTerm(taxonomy, termFullPath);
+    final String fullValue = term.getFullValue();
+    termDao.delete(term);
+    termsChanged(taxonomy, i -> i.withoutBranch(fullValue));
   }
 
   @Override
@@ -461,6 +647,7 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void deleteForTaxonomy(Taxonomy taxonomy) {
     termDao.deleteForTaxonomy(taxonomy);
+    termsChanged(taxonomy, null);
   }
 
   @Override
@@ -523,6 +710,7 @@ public class TermServiceImpl implements TermService {
       Institution institution,
       ConverterParams params) {
     final List<String> termFiles = xmlHelper.getXmlFileListOrdered(termFolder);
+    termsChanged(taxonomy, null);
 
     final DefaultMessageCallback part1message =
         new DefaultMessageCallback(resources.key("converter.readingterms.progressmessage"));
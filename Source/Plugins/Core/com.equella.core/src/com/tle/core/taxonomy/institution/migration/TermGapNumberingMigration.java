@@ -0,0 +1,127 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.taxonomy.institution.migration;
+
+import com.tle.core.guice.Bind;
+import com.tle.core.hibernate.impl.HibernateMigrationHelper;
+import com.tle.core.migration.AbstractHibernateDataMigration;
+import com.tle.core.migration.MigrationInfo;
+import com.tle.core.migration.MigrationResult;
+import com.tle.core.plugins.impl.PluginServiceImpl;
+import com.tle.core.taxonomy.impl.TermNumbering;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.inject.Singleton;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import org.hibernate.Query;
+import org.hibernate.annotations.AccessType;
+import org.hibernate.classic.Session;
+
+/**
+ * Spreads out the left and right indexes of existing terms so that new terms can be inserted
+ * without renumbering the rest of the taxonomy. Leaf terms keep a right index of left + 1.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class TermGapNumberingMigration extends AbstractHibernateDataMigration {
+  @Override
+  public MigrationInfo createMigrationInfo() {
+    return new MigrationInfo(
+        PluginServiceImpl.getMyPluginId(TermGapNumberingMigration.class)
+            + ".taxonomies.gapnumbering.migration.title");
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void executeDataMigration(
+      HibernateMigrationHelper helper, MigrationResult result, Session session) throws Exception {
+    List<Long> taxonomies = session.createQuery("SELECT id FROM Taxonomy").list();
+    for (Long taxonomy : taxonomies) {
+      List<Object[]> rows =
+          session
+              .createQuery(
+                  "SELECT t.id, p.id FROM Term t LEFT JOIN t.parent p"
+                      + " WHERE t.taxonomy.id = :taxonomy ORDER BY t.lft")
+              .setLong("taxonomy", taxonomy)
+              .list();
+
+      Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+      int[] parents = new int[rows.size()];
+      for (int i = 0; i < parents.length; i++) {
+        Object[] row = rows.get(i);
+        indexes.put((Long) row[0], i);
+        parents[i] = row[1] == null ? -1 : indexes.get(row[1]);
+      }
+
+      TermNumbering numbering = TermNumbering.number(parents, 0);
+      Query update =
+          session.createQuery("UPDATE Term SET lft = :left, rht = :right WHERE id = :id");
+      for (int i = 0; i < parents.length; i++) {
+        update.setInteger("left", numbering.getLeft(i));
+        update.setInteger("right", numbering.getRight(i));
+        update.setLong("id", (Long) rows.get(i)[0]);
+        update.executeUpdate();
+      }
+      session.clear();
+      result.incrementStatus();
+    }
+  }
+
+  @Override
+  protected int countDataMigrations(HibernateMigrationHelper helper, Session session) {
+    return count(session, "FROM Taxonomy");
+  }
+
+  @Override
+  protected Class<?>[] getDomainClasses() {
+    return new Class[] {FakeTerm.class, FakeTaxonomy.class};
+  }
+
+  @Entity(name = "Taxonomy")
+  @AccessType("field")
+  public static class FakeTaxonomy {
+    @Id long id;
+  }
+
+  @Entity(name = "Term")
+  @AccessType("field")
+  public static class FakeTerm {
+    @Id long id;
+
+    @Column(name = "lft", nullable = false)
+    int lft;
+
+    @Column(name = "rht", nullable = false)
+    int rht;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    FakeTerm parent;
+
+    @JoinColumn(nullable = false)
+    @ManyToOne(fetch = FetchType.LAZY)
+    FakeTaxonomy taxonomy;
+  }
+}
@@ -20,9 +20,10 @@ package com.tle.core.url;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.tle.beans.Institution;
 import com.tle.beans.ReferencedURL;
 import com.tle.core.dao.helpers.BatchingIterator;
@@ -36,18 +37,17 @@ import com.tle.core.url.URLEvent.URLEventType;
 import com.tle.core.url.dao.URLCheckerDao;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import javax.inject.Inject;
 
 /** @author Nicholas Read */
 @Bind
 @Singleton
 public class CheckURLsScheduledTask implements ScheduledTask {
-  private static final int MAX_CONCURRENT_CHECKS = 200;
+  // Enough to find URLs on other hosts when many in a row are on the same host
+  private static final int READ_AHEAD = 10000;
+  private static final int SAVE_BATCH_SIZE = 100;
 
   @Inject private SchemaDataSourceService schemaDataSourceService;
   @Inject private URLCheckerDao dao;
@@ -57,6 +57,18 @@ public class CheckURLsScheduledTask implements ScheduledTask {
   @Inject private HttpService httpService;
   @Inject private URLCheckerPolicy policy;
 
+  @Inject(optional = true)
+  @Named("urlChecker.maxConcurrentChecks")
+  private int maxConcurrentChecks = 200;
+
+  @Inject(optional = true)
+  @Named("urlChecker.maxChecksPerHost")
+  private int maxChecksPerHost = 2;
+
+  @Inject(optional = true)
+  @Named("urlChecker.hostDelayMillis")
+  private int hostDelay = 500;
+
   @Override
   public void execute() {
     if (!httpService.canAccessInternet()) {
@@ -78,49 +90,48 @@ public class CheckURLsScheduledTask implements ScheduledTask {
     }
   }
 
-  private void executeForInstitutions(Collection<Institution> insts)
-      throws InterruptedException, ExecutionException {
-    Iterator<ReferencedURL> bi = new ReferencedURLIterator();
-
-    // Asynchronously check a maximum number of URLs at any given time. As
-    // they complete, remove them from the working set and fill it back up
-    // with more.
-    Set<ListenableFuture<ReferencedURL>> workingset =
-        Sets.newHashSetWithExpectedSize(MAX_CONCURRENT_CHECKS);
-    while (bi.hasNext() || !workingset.isEmpty()) {
-      // Remove completed URLs.
-      for (Iterator<ListenableFuture<ReferencedURL>> iter = workingset.iterator();
-          iter.hasNext(); ) {
-        ListenableFuture<ReferencedURL> f = iter.next();
-        if (f.isDone()) {
-          iter.remove();
-
-          ReferencedURL rurl = f.get();
-          dao.updateWithTransaction(rurl);
-
-          // Send event if exactly at the warning or disabled level.
-          URLEventType eventType = null;
-          if (rurl.getTries() == policy.getTriesUntilWarning()) {
-            eventType = URLEventType.URL_WARNING;
-          } else if (rurl.getTries() == policy.getTriesUntilDisabled()) {
-            eventType = URLEventType.URL_DISABLED;
-          }
-
-          if (eventType != null) {
-            // Send event to all institutions
-            eventService.publishApplicationEvent(insts, new URLEvent(eventType, rurl.getUrl()));
-          }
-        }
-      }
+  private void executeForInstitutions(final Collection<Institution> insts)
+      throws InterruptedException {
+    URLCheckPipeline pipeline =
+        new URLCheckPipeline(
+            new URLCheckPipeline.Checker() {
+              @Override
+              public ListenableFuture<ReferencedURL> check(ReferencedURL rurl) {
+                return service.checkUrl(rurl);
+              }
+            },
+            new URLCheckPipeline.ResultHandler() {
+              @Override
+              public void checked(List<ReferencedURL> rurls) {
+                saveResults(insts, rurls);
+              }
+            },
+            maxConcurrentChecks,
+            maxChecksPerHost,
+            hostDelay,
+            READ_AHEAD,
+            SAVE_BATCH_SIZE);
+    pipeline.run(new ReferencedURLIterator());
+  }
+
+  private void saveResults(Collection<Institution> insts, List<ReferencedURL> rurls) {
+    dao.updateAllWithTransaction(rurls);
 
-      // Fill up the working set with maximum allowed.
-      while (bi.hasNext() && workingset.size() < MAX_CONCURRENT_CHECKS) {
-        workingset.add(service.checkUrl(bi.next()));
+    for (ReferencedURL rurl : rurls) {
+      service.statusChanged(insts, rurl.getUrl());
+
+      // Send event if exactly at the warning or disabled level.
+      URLEventType eventType = null;
+      if (rurl.getTries() == policy.getTriesUntilWarning()) {
+        eventType = URLEventType.URL_WARNING;
+      } else if (rurl.getTries() == policy.getTriesUntilDisabled()) {
+        eventType = URLEventType.URL_DISABLED;
       }
 
-      // Now sleep for a couple of seconds before trying again, at least
-      // some URLs should already be complete.
-      Thread.sleep(TimeUnit.SECONDS.toMillis(2));
+      if (eventType != null) {
+        // Send event to all institutions
+        eventService.publishApplicationEvent(insts, new URLEvent(eventType, rurl.getUrl()));
+      }
     }
   }
 
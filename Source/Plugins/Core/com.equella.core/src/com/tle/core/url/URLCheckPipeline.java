@@ -0,0 +1,339 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.url;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.beans.ReferencedURL;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Checks a stream of URLs as fast as the network allows while being fair and polite to each host.
+ *
+ * <ul>
+ *   <li>Only a few checks run against any one host at a time, with a delay between starting them,
+ *       so a slow or huge host can't take up all of the concurrent checks.
+ *   <li>URLs are read ahead and spread across hosts round-robin.
+ *   <li>Results are handled as soon as checks complete and are passed on in batches.
+ * </ul>
+ *
+ * <p>All the work apart from the checks themselves happens on the thread calling {@link #run}.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class URLCheckPipeline {
+  private static final Logger LOGGER = Logger.getLogger(URLCheckPipeline.class);
+
+  private static final long PROGRESS_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+  private static final long IDLE_WAIT = TimeUnit.SECONDS.toMillis(1);
+
+  public interface Checker {
+    /** @return The URL with the results of the check. */
+    ListenableFuture<ReferencedURL> check(ReferencedURL rurl);
+  }
+
+  public interface ResultHandler {
+    void checked(List<ReferencedURL> rurls);
+  }
+
+  private final Checker checker;
+  private final ResultHandler handler;
+  private final int maxConcurrent;
+  private final int maxPerHost;
+  private final long hostDelay;
+  private final int readAhead;
+  private final int batchSize;
+
+  /**
+   * @param maxConcurrent The most checks to run at once.
+   * @param maxPerHost The most checks to run at once against a single host.
+   * @param hostDelay The least time in milliseconds between starting checks against a host.
+   * @param readAhead How many URLs to read ahead of the checks, to find URLs for other hosts.
+   * @param batchSize How many results to pass to the handler at once.
+   */
+  public URLCheckPipeline(
+      Checker checker,
+      ResultHandler handler,
+      int maxConcurrent,
+      int maxPerHost,
+      long hostDelay,
+      int readAhead,
+      int batchSize) {
+    this.checker = checker;
+    this.handler = handler;
+    this.maxConcurrent = maxConcurrent;
+    this.maxPerHost = maxPerHost;
+    this.hostDelay = hostDelay;
+    this.readAhead = readAhead;
+    this.batchSize = batchSize;
+  }
+
+  /** Checks all the URLs, returning once they have all been passed to the result handler. */
+  public Stats run(Iterator<ReferencedURL> urls) throws InterruptedException {
+    return new Run(urls).run();
+  }
+
+  private class Run {
+    private final Iterator<ReferencedURL> urls;
+    private final Map<String, Host> hosts = Maps.newHashMap();
+    // Hosts with URLs waiting to be checked, in the order they get their next turn
+    private final Deque<Host> waiting = new ArrayDeque<Host>();
+    private final BlockingQueue<Completion> completions = new LinkedBlockingQueue<Completion>();
+    private final List<ReferencedURL> batch = Lists.newArrayList();
+    private final Stats stats = new Stats();
+
+    private int queued;
+    private int running;
+    private long nextProgress;
+
+    Run(Iterator<ReferencedURL> urls) {
+      this.urls = urls;
+    }
+
+    Stats run() throws InterruptedException {
+      nextProgress = stats.start + PROGRESS_INTERVAL;
+      while (true) {
+        readAhead();
+        long wait = startChecks();
+        if (running == 0 && queued == 0 && !urls.hasNext()) {
+          break;
+        }
+
+        Completion completion = completions.poll(wait, TimeUnit.MILLISECONDS);
+        while (completion != null) {
+          completed(completion);
+          if (batch.size() >= batchSize) {
+            flush();
+          }
+          completion = completions.poll();
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= nextProgress) {
+          LOGGER.info(
+              "URL checking progress: "
+                  + stats
+                  + ", "
+                  + running
+                  + " running, "
+                  + queued
+                  + " queued on "
+                  + waiting.size()
+                  + " hosts");
+          nextProgress = now + PROGRESS_INTERVAL;
+        }
+      }
+      flush();
+      stats.end = System.currentTimeMillis();
+      stats.hosts = hosts.size();
+      LOGGER.info("Finished checking URLs: " + stats);
+      return stats;
+    }
+
+    private void readAhead() {
+      while (queued < readAhead && urls.hasNext()) {
+        ReferencedURL rurl = urls.next();
+        String hostKey = getHostKey(rurl.getUrl());
+        Host host = hosts.get(hostKey);
+        if (host == null) {
+          host = new Host();
+          hosts.put(hostKey, host);
+        }
+        if (host.queue.isEmpty()) {
+          waiting.add(host);
+        }
+        host.queue.add(rurl);
+        queued++;
+      }
+    }
+
+    /** @return How long until another check could start, if one can't now. */
+    private long startChecks() {
+      long now = System.currentTimeMillis();
+      long wait = IDLE_WAIT;
+      // Give each waiting host one turn, going around again while checks are still starting
+      boolean started = true;
+      while (started && running < maxConcurrent) {
+        started = false;
+        for (int i = waiting.size(); i > 0 && running < maxConcurrent; i--) {
+          Host host = waiting.poll();
+          if (host.running < maxPerHost && host.nextStart <= now) {
+            start(host, host.queue.poll());
+            started = true;
+          } else if (host.running < maxPerHost) {
+            wait = Math.min(wait, host.nextStart - now);
+          }
+          if (!host.queue.isEmpty()) {
+            waiting.add(host);
+          }
+        }
+      }
+      return Math.max(wait, 1);
+    }
+
+    private void start(final Host host, final ReferencedURL rurl) {
+      queued--;
+      running++;
+      host.running++;
+      host.nextStart = System.currentTimeMillis() + hostDelay;
+
+      ListenableFuture<ReferencedURL> future;
+      try {
+        future = checker.check(rurl);
+      } catch (RuntimeException ex) {
+        future = Futures.immediateFailedFuture(ex);
+      }
+      Futures.addCallback(
+          future,
+          new FutureCallback<ReferencedURL>() {
+            @Override
+            public void onSuccess(@Nullable ReferencedURL result) {
+              completions.add(new Completion(host, rurl, result, null));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              completions.add(new Completion(host, rurl, null, t));
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    private void completed(Completion completion) {
+      running--;
+      completion.host.running--;
+      ReferencedURL result = completion.result;
+      if (result == null) {
+        LOGGER.warn("Error checking URL: " + completion.rurl.getUrl(), completion.error);
+        stats.errors++;
+        return;
+      }
+      stats.checked++;
+      if (!result.isSuccess()) {
+        stats.failed++;
+      }
+      batch.add(result);
+    }
+
+    private void flush() {
+      if (!batch.isEmpty()) {
+        handler.checked(Lists.newArrayList(batch));
+        batch.clear();
+      }
+    }
+  }
+
+  /** URLs are shared out by host and port, or the whole URL if it can't be parsed. */
+  static String getHostKey(String url) {
+    try {
+      URI uri = new URI(url);
+      String host = uri.getHost();
+      if (host != null) {
+        return host.toLowerCase() + ':' + uri.getPort();
+      }
+    } catch (URISyntaxException e) {
+      // Fall through
+    }
+    return url;
+  }
+
+  private static class Host {
+    final Deque<ReferencedURL> queue = new ArrayDeque<ReferencedURL>();
+    int running;
+    long nextStart;
+  }
+
+  private static class Completion {
+    final Host host;
+    final ReferencedURL rurl;
+    @Nullable final ReferencedURL result;
+    @Nullable final Throwable error;
+
+    Completion(
+        Host host, ReferencedURL rurl, @Nullable ReferencedURL result, @Nullable Throwable error) {
+      this.host = host;
+      this.rurl = rurl;
+      this.result = result;
+      this.error = error;
+    }
+  }
+
+  public static class Stats {
+    private final long start = System.currentTimeMillis();
+    private long end;
+    private int checked;
+    private int failed;
+    private int errors;
+    private int hosts;
+
+    /** @return The number of URLs checked, whether they worked or not. */
+    public int getChecked() {
+      return checked;
+    }
+
+    /** @return The number of URLs that were found to be broken. */
+    public int getFailed() {
+      return failed;
+    }
+
+    /** @return The number of URLs that couldn't be checked at all. */
+    public int getErrors() {
+      return errors;
+    }
+
+    public int getHosts() {
+      return hosts;
+    }
+
+    public long getDuration() {
+      return (end == 0 ? System.currentTimeMillis() : end) - start;
+    }
+
+    @Override
+    public String toString() {
+      long duration = Math.max(getDuration(), 1);
+      return checked
+          + " checked ("
+          + failed
+          + " broken, "
+          + errors
+          + " errors) in "
+          + TimeUnit.MILLISECONDS.toSeconds(duration)
+          + "s, "
+          + String.format("%.1f", checked * 1000.0 / duration)
+          + " URLs/s";
+    }
+  }
+}
@@ -19,14 +19,22 @@
 package com.tle.core.url;
 
 import static java.net.HttpURLConnection.HTTP_MULT_CHOICE;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_PAYMENT_REQUIRED;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClientConfig;
@@ -38,21 +46,29 @@ import com.ning.http.client.Realm;
 import com.ning.http.client.Realm.AuthScheme;
 import com.ning.http.client.RequestBuilder;
 import com.tle.annotation.NonNullByDefault;
+import com.tle.beans.Institution;
 import com.tle.beans.ReferencedURL;
 import com.tle.common.Check;
 import com.tle.common.Pair;
 import com.tle.common.util.BlindSSLSocketFactory;
 import com.tle.core.guice.Bind;
+import com.tle.core.institution.InstitutionCache;
+import com.tle.core.institution.InstitutionService;
 import com.tle.core.services.HttpService;
 import com.tle.core.url.dao.URLCheckerDao;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -61,7 +77,7 @@ import org.apache.commons.logging.LogFactory;
 @Bind
 @Singleton
 @SuppressWarnings("nls")
-public class URLCheckerService {
+public class URLCheckerService implements URLListener {
   private static final Log LOGGER = LogFactory.getLog(URLCheckerService.class);
 
   public static enum URLCheckMode {
@@ -102,8 +118,23 @@ public class URLCheckerService {
   @Inject private HttpService httpService;
   @Inject private URLCheckerPolicy policy;
 
+  @Inject(optional = true)
+  @Named("urlChecker.statusCacheSize")
+  private int statusCacheSize = 10000;
+
+  @Inject(optional = true)
+  @Named("urlChecker.statusCacheMinutes")
+  private int statusCacheMinutes = 10;
+
   private final AsyncHttpClient client;
 
+  /**
+   * The recorded status of recently displayed URLs. Pages and REST results can list hundreds of
+   * links, each needing to show whether it's disabled, and the status of a URL only changes when
+   * it's checked. Changes made on other cluster nodes are picked up when the entries expire.
+   */
+  private InstitutionCache<Cache<String, ReferencedURL>> statusCache;
+
   public URLCheckerService() {
     Builder bc = new AsyncHttpClientConfig.Builder();
     bc.setAllowPoolingConnections(false); // Avoid keep-alive
@@ -141,13 +172,88 @@ public class URLCheckerService {
     client = new AsyncHttpClient(bc.build());
   }
 
+  @Inject
+  public void setInstitutionService(InstitutionService service) {
+    statusCache =
+        service.newInstitutionAwareCache(
+            new CacheLoader<Institution, Cache<String, ReferencedURL>>() {
+              @Override
+              public Cache<String, ReferencedURL> load(Institution institution) {
+                return CacheBuilder.newBuilder()
+                    .maximumSize(statusCacheSize)
+                    .expireAfterWrite(statusCacheMinutes, TimeUnit.MINUTES)
+                    .build();
+              }
+            });
+  }
+
   public boolean isUrlDisabled(String url) {
     if (!Check.isEmpty(url)) {
-      return policy.isUrlDisabled(getUrlStatus(url, URLCheckMode.RECORDS_ONLY));
+      return policy.isUrlDisabled(getUrlStatuses(Collections.singleton(url)).get(url));
     }
     return true;
   }
 
+  /** @return The URLs that are disabled, looked up as for {@link #getUrlStatuses(Collection)}. */
+  public Set<String> getDisabledUrls(Collection<String> urls) {
+    Set<String> disabled = Sets.newHashSet();
+    for (Map.Entry<String, ReferencedURL> entry : getUrlStatuses(urls).entrySet()) {
+      if (policy.isUrlDisabled(entry.getValue())) {
+        disabled.add(entry.getKey());
+      }
+    }
+    return disabled;
+  }
+
+  /**
+   * The same as calling {@link #getUrlStatus(String, URLCheckMode)} with {@link
+   * URLCheckMode#RECORDS_ONLY} for each URL, but the statuses are remembered for a while and any
+   * that aren't are loaded in bulk. Use this when displaying links.
+   *
+   * @return The status of each non-empty URL, keyed by URL. These are shared and must not be
+   *     modified.
+   */
+  public Map<String, ReferencedURL> getUrlStatuses(Collection<String> urls) {
+    Cache<String, ReferencedURL> cache = statusCache.getCache();
+    Map<String, ReferencedURL> statuses = Maps.newHashMap(cache.getAllPresent(urls));
+
+    Set<String> missing = Sets.newHashSet();
+    for (String url : urls) {
+      if (!Check.isEmpty(url) && !statuses.containsKey(url)) {
+        missing.add(url);
+      }
+    }
+    if (!missing.isEmpty()) {
+      Map<String, ReferencedURL> existing = dao.getExisting(missing);
+      for (String url : missing) {
+        ReferencedURL rurl = existing.get(url);
+        if (rurl == null) {
+          // Never checked, which is what the record would say once it's created
+          final Date epoch = new Date(0);
+          rurl = new ReferencedURL();
+          rurl.setUrl(url);
+          rurl.setLastChecked(epoch);
+          rurl.setLastIndexed(epoch);
+        }
+        cache.put(url, rurl);
+        statuses.put(url, rurl);
+      }
+    }
+    return statuses;
+  }
+
+  @Override
+  public void urlEvent(URLEvent event) {
+    statusCache.getCache().invalidate(event.getUrl());
+  }
+
+  /** Forgets the remembered status of a URL after it has been checked. */
+  void statusChanged(Collection<Institution> institutions, String url) {
+    for (Institution institution : institutions) {
+      statusCache.getCache(institution).invalidate(url);
+    }
+  }
+
   public ReferencedURL getUrlStatus(final String url, final URLCheckMode mode) {
     boolean httpUrl = false;
     try {
@@ -189,6 +295,7 @@ public class URLCheckerService {
       // Don't forget to save the results of this check
       dao.evict(rurl);
       dao.updateWithTransaction(newRurl);
+      statusCache.getCache().invalidate(url);
 
       return newRurl;
     } catch (TimeoutException ex) {
@@ -252,6 +359,11 @@ public class URLCheckerService {
   /** @return second value will be true if it failed and needs trying with a GET request. */
   private ListenableFuture<Pair<ReferencedURL, Boolean>> checkUrl(
       final ReferencedURL rurl, final boolean head) {
+    // A URL that worked last time only needs to be confirmed, which a server that hasn't changed
+    // the resource can do without sending it again
+    final Date lastChecked = rurl.getLastChecked();
+    final boolean conditional = rurl.isSuccess() && lastChecked.getTime() > 0;
+
     AsyncHandler<Pair<ReferencedURL, Boolean>> handler =
         new AsyncHandler<Pair<ReferencedURL, Boolean>>() {
           boolean retryWithGet = false;
@@ -273,7 +385,8 @@ public class URLCheckerService {
             // need to explicitly check for redirection codes here.
             // Retry with GET on anything other than 2xx
             // http://jira.pearsoncmg.com/jira/browse/EQ-561
-            if (head && (code < HTTP_OK || code >= HTTP_MULT_CHOICE)) {
+            final boolean notModified = conditional && code == HTTP_NOT_MODIFIED;
+            if (head && !notModified && (code < HTTP_OK || code >= HTTP_MULT_CHOICE)) {
               // Technically we should only need to look out for
               // HTTP_BAD_METHOD and retry with a GET, but apparently not
               // everyone has read the spec.
@@ -295,6 +408,7 @@ public class URLCheckerService {
             // or we haven't paid for the thing) that the thing does
             // actually exist, but we can't truely verify it.
             if ((code >= HTTP_OK && code < HTTP_MULT_CHOICE)
+                || notModified
                 || code == HTTP_UNAUTHORIZED
                 || code == HTTP_PAYMENT_REQUIRED) {
               if (LOGGER.isDebugEnabled()) {
@@ -359,6 +473,12 @@ public class URLCheckerService {
       if (isURL(rurl.getUrl())) {
         LOGGER.debug("Valid URL: " + rurl.getUrl());
         requestBuilder = new RequestBuilder(head ? "HEAD" : "GET").setUrl(rurl.getUrl());
+        if (conditional) {
+          requestBuilder.setHeader(
+              "If-Modified-Since",
+              DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                  lastChecked.toInstant().atZone(ZoneOffset.UTC)));
+        }
       } else {
         LOGGER.debug("Invalid URL: " + rurl.getUrl());
         throw new IllegalArgumentException("Invalid URL");
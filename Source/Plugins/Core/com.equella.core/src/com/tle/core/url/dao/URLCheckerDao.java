@@ -21,11 +21,20 @@ package com.tle.core.url.dao;
 import com.tle.beans.ReferencedURL;
 import com.tle.core.hibernate.dao.GenericDao;
 import java.util.Collection;
+import java.util.Map;
 
 public interface URLCheckerDao extends GenericDao<ReferencedURL, Long> {
   ReferencedURL retrieveOrCreate(String url, boolean httpUrl, boolean forImport, boolean persist);
 
+  /**
+   * @return The existing records for the URLs, keyed by URL. URLs that have never been recorded are
+   *     left out.
+   */
+  Map<String, ReferencedURL> getExisting(Collection<String> urls);
+
   Collection<ReferencedURL> getRecheckingBatch(long startId, int batchSize);
 
   void updateWithTransaction(ReferencedURL rurl);
+
+  void updateAllWithTransaction(Collection<ReferencedURL> rurls);
 }
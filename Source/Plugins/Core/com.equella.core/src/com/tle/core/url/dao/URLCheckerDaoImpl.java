@@ -18,6 +18,10 @@
 
 package com.tle.core.url.dao;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.tle.beans.ReferencedURL;
 import com.tle.common.institution.CurrentInstitution;
@@ -35,6 +39,9 @@ import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Singleton;
 import javax.validation.ConstraintViolationException;
@@ -55,6 +62,8 @@ public class URLCheckerDaoImpl extends GenericDaoImpl<ReferencedURL, Long>
     implements URLCheckerDao {
   private static final Logger LOGGER = Logger.getLogger(URLCheckerDao.class);
   private static final long MSGTIMEOUT = TimeUnit.SECONDS.toMillis(30);
+  // Keeps well under the limit on IN lists of some databases
+  private static final int HASHES_PER_QUERY = 500;
 
   @Inject private InstitutionService institutionService;
   @Inject private RunAsInstitution runAs;
@@ -142,6 +151,45 @@ public class URLCheckerDaoImpl extends GenericDaoImpl<ReferencedURL, Long>
     return r2;
   }
 
+  @Override
+  @Transactional
+  public Map<String, ReferencedURL> getExisting(Collection<String> urls) {
+    final Set<String> wanted = ImmutableSet.copyOf(urls);
+    final Map<String, ReferencedURL> existing = Maps.newHashMapWithExpectedSize(wanted.size());
+    if (wanted.isEmpty()) {
+      return existing;
+    }
+    List<String> hashes = Lists.newArrayListWithCapacity(wanted.size());
+    for (String url : wanted) {
+      hashes.add(DigestUtils.md5Hex(url));
+    }
+    for (final List<String> batch : Iterables.partition(hashes, HASHES_PER_QUERY)) {
+      getHibernateTemplate()
+          .execute(
+              new HibernateCallback() {
+                @Override
+                public Object doInHibernate(Session session)
+                    throws HibernateException, SQLException {
+                  List<?> rurls =
+                      session
+                          .createQuery("FROM ReferencedURL WHERE urlHash IN (:urlHashes)")
+                          .setParameterList("urlHashes", batch)
+                          .setReadOnly(true)
+                          .list();
+                  for (Object obj : rurls) {
+                    // Different URLs can share a hash
+                    ReferencedURL rurl = (ReferencedURL) obj;
+                    if (wanted.contains(rurl.getUrl())) {
+                      existing.put(rurl.getUrl(), rurl);
+                    }
+                  }
+                  return null;
+                }
+              });
+    }
+    return existing;
+  }
+
   @Override
   @Transactional
   @SuppressWarnings("unchecked")
@@ -171,6 +219,14 @@ public class URLCheckerDaoImpl extends GenericDaoImpl<ReferencedURL, Long>
     update(rurl);
   }
 
+  @Override
+  @Transactional
+  public void updateAllWithTransaction(Collection<ReferencedURL> rurls) {
+    for (ReferencedURL rurl : rurls) {
+      update(rurl);
+    }
+  }
+
   private ReferencedURL getFromDb(Session session, String url) {
     return (ReferencedURL)
         session
@@ -24,11 +24,21 @@ import com.tle.core.config.guice.OptionalConfigModule;
 public class URLModule extends OptionalConfigModule {
   private static final int TRIES_UNTIL_WARNING = 5;
   private static final int TRIES_UNTIL_DISABLED = 10;
+  private static final int STATUS_CACHE_SIZE = 10000;
+  private static final int STATUS_CACHE_MINUTES = 10;
+  private static final int MAX_CONCURRENT_CHECKS = 200;
+  private static final int MAX_CHECKS_PER_HOST = 2;
+  private static final int HOST_DELAY_MILLIS = 500;
 
   @SuppressWarnings("nls")
   @Override
   protected void configure() {
     bindInt("urlChecker.triesUntilWarning", TRIES_UNTIL_WARNING);
     bindInt("urlChecker.triesUntilDisabled", TRIES_UNTIL_DISABLED);
+    bindInt("urlChecker.statusCacheSize", STATUS_CACHE_SIZE);
+    bindInt("urlChecker.statusCacheMinutes", STATUS_CACHE_MINUTES);
+    bindInt("urlChecker.maxConcurrentChecks", MAX_CONCURRENT_CHECKS);
+    bindInt("urlChecker.maxChecksPerHost", MAX_CHECKS_PER_HOST);
+    bindInt("urlChecker.hostDelayMillis", HOST_DELAY_MILLIS);
   }
 }
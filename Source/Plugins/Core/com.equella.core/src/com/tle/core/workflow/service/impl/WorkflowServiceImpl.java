@@ -22,7 +22,12 @@ import com.dytech.devlib.PropBagEx;
 import com.dytech.edge.common.LockedException;
 import com.dytech.edge.exceptions.ItemNotFoundException;
 import com.dytech.edge.exceptions.RuntimeApplicationException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
 import com.google.common.collect.Lists;
+import com.tle.annotation.Nullable;
+import com.tle.beans.Institution;
 import com.tle.beans.entity.BaseEntityLabel;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.beans.item.Item;
@@ -58,10 +63,20 @@ import com.tle.core.collection.service.ItemDefinitionService;
 import com.tle.core.entity.EntityEditingBean;
 import com.tle.core.entity.EntityEditingSession;
 import com.tle.core.entity.service.impl.AbstractEntityServiceImpl;
+import com.tle.core.events.GroupDeletedEvent;
+import com.tle.core.events.GroupEditEvent;
+import com.tle.core.events.GroupIdChangedEvent;
+import com.tle.core.events.UMPChangedEvent;
+import com.tle.core.events.UserDeletedEvent;
+import com.tle.core.events.UserIdChangedEvent;
+import com.tle.core.events.listeners.GroupChangedListener;
+import com.tle.core.events.listeners.UMPChangedListener;
 import com.tle.core.events.services.EventService;
 import com.tle.core.filesystem.WorkflowMessageFile;
 import com.tle.core.guice.Bind;
 import com.tle.core.hibernate.equella.service.InitialiserService;
+import com.tle.core.institution.InstitutionCache;
+import com.tle.core.institution.InstitutionService;
 import com.tle.core.item.ItemIdExtension;
 import com.tle.core.item.event.ItemDeletedEvent;
 import com.tle.core.item.event.listener.ItemDeletedListener;
@@ -75,6 +90,7 @@ import com.tle.core.services.ValidationHelper;
 import com.tle.core.services.user.UserService;
 import com.tle.core.workflow.dao.WorkflowDao;
 import com.tle.core.workflow.event.WorkflowChangeEvent;
+import com.tle.core.workflow.event.listener.WorkflowChangeListener;
 import com.tle.core.workflow.extension.WorkflowNodesSaveExtension;
 import com.tle.core.workflow.service.WorkflowService;
 import java.util.ArrayList;
@@ -88,6 +104,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -100,8 +117,15 @@ import org.springframework.transaction.annotation.Transactional;
 @SecureEntity(RemoteWorkflowService.ENTITY_TYPE)
 public class WorkflowServiceImpl
     extends AbstractEntityServiceImpl<EntityEditingBean, Workflow, WorkflowService>
-    implements WorkflowService, ItemDeletedListener, ItemIdExtension {
+    implements WorkflowService,
+        ItemDeletedListener,
+        ItemIdExtension,
+        GroupChangedListener,
+        UMPChangedListener,
+        WorkflowChangeListener {
   private static final String[] BLANKS = {"name"};
+  private static final int MAX_CACHED_TASKS = 10000;
+  private static final int MODERATOR_CACHE_MINUTES = 10;
 
   @Inject private ItemDefinitionService itemDefinitionService;
   @Inject private UserService userService;
@@ -112,12 +136,31 @@ public class WorkflowServiceImpl
   private final WorkflowDao workflowDao;
   private Function<Workflow, Workflow> cloner;
 
+  /** Task UUID to the users who moderate it, not including users from the item's metadata */
+  private InstitutionCache<Cache<String, ExpandedModerators>> moderatorCache;
+
   @Inject
   public WorkflowServiceImpl(WorkflowDao workflowDao) {
     super(Node.WORKFLOW, workflowDao);
     this.workflowDao = workflowDao;
   }
 
+  @Inject
+  public void setInstitutionService(InstitutionService service) {
+    moderatorCache =
+        service.newInstitutionAwareCache(
+            new CacheLoader<Institution, Cache<String, ExpandedModerators>>() {
+              @Override
+              public Cache<String, ExpandedModerators> load(Institution key) {
+                // Groups from external directories (e.g. LDAP) change without telling us
+                return CacheBuilder.newBuilder()
+                    .maximumSize(MAX_CACHED_TASKS)
+                    .expireAfterWrite(MODERATOR_CACHE_MINUTES, TimeUnit.MINUTES)
+                    .build();
+              }
+            });
+  }
+
   @Override
   protected Collection<Pair<Object, Node>> getOtherTargetListObjects(Workflow workflow) {
     Collection<WorkflowItem> tasks = workflow.getAllWorkflowItems().values();
@@ -288,36 +331,104 @@ public class WorkflowServiceImpl
   @Override
   @Transactional
   public Set<String> getAllModeratorUserIDs(PropBagEx itemxml, WorkflowItem workflow) {
-    final Set<String> results = new HashSet<String>();
-
-    final Set<String> usersToCheck = new HashSet<String>();
+    final Set<String> results = new HashSet<String>(getTaskModeratorUserIDs(workflow));
 
+    // Users from the item's metadata differ for every item, so they are never cached
     final String path = workflow.getUserPath();
     if (!Check.isEmpty(path)) {
-      usersToCheck.addAll(itemxml.getNodeList(path));
+      final Set<String> usersToCheck = new HashSet<String>(itemxml.getNodeList(path));
+      usersToCheck.removeAll(results);
+      if (!usersToCheck.isEmpty()) {
+        results.addAll(userService.getInformationForUsers(usersToCheck).keySet());
+      }
     }
 
-    final Set<String> users = workflow.getUsers();
-    if (!Check.isEmpty(users)) {
-      usersToCheck.addAll(users);
-    }
+    return results;
+  }
 
-    // Add all users
-    if (!Check.isEmpty(usersToCheck)) {
-      results.addAll(userService.getInformationForUsers(usersToCheck).keySet());
+  /**
+   * @return The users and expanded groups of the task itself. These are only worked out once per
+   *     task and then kept until group membership or the task's moderators change.
+   */
+  private Set<String> getTaskModeratorUserIDs(WorkflowItem task) {
+    final Set<String> users = copyOf(task.getUsers());
+    final Set<String> groups = copyOf(task.getGroups());
+    if (users.isEmpty() && groups.isEmpty()) {
+      return Collections.emptySet();
     }
 
-    // Add all users of each groups
-    final Set<String> groups = workflow.getGroups();
-    if (!Check.isEmpty(groups)) {
+    final Cache<String, ExpandedModerators> cache = moderatorCache.getCache();
+    ExpandedModerators expanded = cache.getIfPresent(task.getUuid());
+    // The task may have been edited on another cluster node since it was cached
+    if (expanded == null || !expanded.isFor(users, groups)) {
+      final Set<String> userIds = new HashSet<String>();
+      // Add all users
+      if (!users.isEmpty()) {
+        userIds.addAll(userService.getInformationForUsers(users).keySet());
+      }
+      // Add all users of each groups
       for (String groupID : groups) {
         for (UserBean user : userService.getUsersInGroup(groupID, true)) {
-          results.add(user.getUniqueID());
+          userIds.add(user.getUniqueID());
         }
       }
+      expanded = new ExpandedModerators(users, groups, userIds);
+      cache.put(task.getUuid(), expanded);
     }
+    return expanded.getUserIds();
+  }
 
-    return results;
+  private static Set<String> copyOf(@Nullable Set<String> ids) {
+    return Check.isEmpty(ids)
+        ? Collections.<String>emptySet()
+        : Collections.unmodifiableSet(new HashSet<String>(ids));
+  }
+
+  @Override
+  public void groupDeletedEvent(GroupDeletedEvent event) {
+    // Groups can be nested, so any membership change could affect any task
+    moderatorCache.clear();
+  }
+
+  @Override
+  public void groupEditedEvent(GroupEditEvent event) {
+    moderatorCache.clear();
+  }
+
+  @Override
+  public void groupIdChangedEvent(GroupIdChangedEvent event) {
+    moderatorCache.clear();
+  }
+
+  @Override
+  public void umpChangedEvent(UMPChangedEvent event) {
+    // Group changes made on other cluster nodes, or user management reconfigured
+    moderatorCache.clear();
+  }
+
+  @Override
+  public void userDeletedEvent(UserDeletedEvent event) {
+    super.userDeletedEvent(event);
+    moderatorCache.clear();
+  }
+
+  @Override
+  public void userIdChangedEvent(UserIdChangedEvent event) {
+    super.userIdChangedEvent(event);
+    moderatorCache.clear();
+  }
+
+  @Override
+  public void workflowChange(WorkflowChangeEvent event) {
+    final Set<WorkflowNode> nodes = event.getNodes();
+    if (nodes == null) {
+      moderatorCache.clear();
+      return;
+    }
+    final Cache<String, ExpandedModerators> cache = moderatorCache.getCache();
+    for (WorkflowNode node : nodes) {
+      cache.invalidate(node.getUuid());
+    }
   }
 
   @Override
@@ -644,4 +755,24 @@ public class WorkflowServiceImpl
     super.setInitialiserService(initialiserService);
     this.cloner = initialiserService.createCloner(getClass().getClassLoader());
   }
+
+  private static class ExpandedModerators {
+    private final Set<String> users;
+    private final Set<String> groups;
+    private final Set<String> userIds;
+
+    public ExpandedModerators(Set<String> users, Set<String> groups, Set<String> userIds) {
+      this.users = users;
+      this.groups = groups;
+      this.userIds = Collections.unmodifiableSet(userIds);
+    }
+
+    public boolean isFor(Set<String> taskUsers, Set<String> taskGroups) {
+      return users.equals(taskUsers) && groups.equals(taskGroups);
+    }
+
+    public Set<String> getUserIds() {
+      return userIds;
+    }
+  }
 }
@@ -33,7 +33,7 @@ import java.util.List;
  */
 @NonNullByDefault
 public interface ThumbnailRequestService {
-  void newRequest(
+  ThumbnailRequest newRequest(
       String filename,
       ItemKey itemId,
       FileHandle handle,
@@ -18,34 +18,35 @@
 
 package com.tle.core.workflow.thumbnail.service;
 
-import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.tle.annotation.NonNullByDefault;
-import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
-import com.tle.beans.item.ItemId;
 import com.tle.common.Check;
-import com.tle.common.Pair;
 import com.tle.core.guice.Bind;
 import com.tle.core.hibernate.event.SchemaListener;
 import com.tle.core.institution.InstitutionService;
 import com.tle.core.institution.RunAsInstitution;
-import com.tle.core.services.GlobalTaskStartInfo;
 import com.tle.core.services.TaskService;
-import com.tle.core.services.TaskStatus;
 import com.tle.core.services.impl.AlwaysRunningTask;
 import com.tle.core.services.impl.BeanClusteredTask;
 import com.tle.core.services.impl.Task;
 import com.tle.core.workflow.thumbnail.entity.ThumbnailRequest;
+import com.tle.core.workflow.thumbnail.service.impl.ThumbnailWorkQueue;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
 
-/** @author Aaron */
+/**
+ * Requests are queued on the node that made them as soon as they are committed (see {@link
+ * ThumbnailWorkQueue}). This sweeps up any requests that have been sitting in the database for a
+ * while, e.g. because the node that made them was stopped before getting to them or its queue was
+ * full, and queues them on this node.
+ *
+ * @author Aaron
+ */
 @SuppressWarnings("nls")
 @NonNullByDefault
 @Bind
@@ -53,13 +54,15 @@ import org.apache.log4j.Logger;
 public class ThumbnailSupervisor implements SchemaListener {
   private static final Logger LOGGER = Logger.getLogger(ThumbnailSupervisor.class);
 
-  private static final long SUPERVISOR_CHECK_PERIOD = TimeUnit.SECONDS.toMillis(20);
-  private static final long TASK_WAIT_WARN_TIME = TimeUnit.MINUTES.toMillis(2);
-
   @Inject private RunAsInstitution runAs;
   @Inject private TaskService taskService;
   @Inject private InstitutionService institutionService;
   @Inject private ThumbnailRequestService thumbRequestService;
+  @Inject private ThumbnailWorkQueue workQueue;
+
+  @Inject(optional = true)
+  @Named("thumbnail.recoverySweepMinutes")
+  private int recoverySweepMinutes = 5;
 
   @Override
   public void systemSchemaUp() {
@@ -89,7 +92,7 @@ public class ThumbnailSupervisor implements SchemaListener {
       @Override
       protected Void waitFor() {
         try {
-          Thread.sleep(SUPERVISOR_CHECK_PERIOD);
+          Thread.sleep(getSweepPeriod());
         } catch (InterruptedException ex) {
           // Don't care.
         }
@@ -110,6 +113,9 @@ public class ThumbnailSupervisor implements SchemaListener {
                 }
               });
         }
+        if (workQueue.getQueueDepth() > 0 || workQueue.getRunningCount() > 0) {
+          LOGGER.info(workQueue.toString());
+        }
       }
 
       @Override
@@ -119,157 +125,37 @@ public class ThumbnailSupervisor implements SchemaListener {
     };
   }
 
+  private long getSweepPeriod() {
+    return TimeUnit.MINUTES.toMillis(Math.max(1, recoverySweepMinutes));
+  }
+
   /**
-   * This gets invoked every SUPERVISOR_CHECK_PERIOD seconds, assuming it isn't already running.
+   * Queues the institution's requests which should have been run by now. Requests younger than two
+   * sweep periods are left alone, as they are most likely still queued on the node that made them.
    *
    * @param inst
    */
   public void doRunSupervisor(Institution inst) {
-    final List<ThumbnailRequest> toRun = thumbRequestService.list(inst);
-    if (Check.isEmpty(toRun)) {
+    final List<ThumbnailRequest> requests = thumbRequestService.list(inst);
+    if (Check.isEmpty(requests)) {
       return;
     }
 
-    // Request UUID to task ID
-    final Map<String, String> runningTasks = Maps.newHashMap();
-
-    // Start as many of the thumb tasks as possible in parallel
-    // - let the cluster nodes balance it out. Once any task
-    // finishes, check through the remaining tasks to see if more
-    // can also be started. Keep looping until all the tasks have
-    // been started and all finished.
-    while (!toRun.isEmpty() || !runningTasks.isEmpty()) {
-      for (Iterator<ThumbnailRequest> iter = toRun.iterator(); iter.hasNext(); ) {
-        final ThumbnailRequest request = iter.next();
-        iter.remove();
-        if (runningTasks.containsKey(request.getUuid())) {
+    final long staleBefore = System.currentTimeMillis() - 2 * getSweepPeriod();
+    int recovered = 0;
+    for (ThumbnailRequest request : requests) {
+      if (request.getDateRequested().getTime() < staleBefore
+          && !workQueue.isQueued(request.getUuid())) {
+        if (!workQueue.enqueue(inst, request, ThumbnailWorkQueue.PRIORITY_RECOVERED)) {
+          // Full, try again next time
           break;
         }
-
-        final String requestUuid = request.getUuid();
-        final long uniqueId = inst.getUniqueId();
-        final String globalId = "ThumbnailingTask-" + requestUuid + '-' + uniqueId;
-
-        if (request.getTaskId() == null) {
-          if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("Task " + globalId + " just starting");
-          }
-        } else {
-          final TaskStatus taskStatus = taskService.getTaskStatus(request.getTaskId());
-          if (taskStatus == null) {
-            LOGGER.info(
-                "Existing task for " + globalId + " but nothing running. Server restarted?");
-          } else {
-            if (LOGGER.isTraceEnabled()) {
-              LOGGER.trace(
-                  "Existing task for "
-                      + globalId
-                      + ", status: "
-                      + (taskStatus.isFinished() ? "finished" : "not finished"));
-            }
-            break;
-          }
-        }
-
-        final BeanClusteredTask bct =
-            new BeanClusteredTask(
-                globalId,
-                ThumbnailService.class,
-                "createThumbnailerTask",
-                requestUuid,
-                uniqueId,
-                new ItemId(request.getItemUuid(), request.getItemVersion()),
-                request.getHandle());
-        final GlobalTaskStartInfo taskInfo =
-            taskService.getGlobalTask(bct, TimeUnit.SECONDS.toMillis(30));
-        final String taskId = taskInfo.getTaskId();
-        runningTasks.put(request.getUuid(), taskId);
-
-        if (taskInfo.isAlreadyRunning()) {
-          LOGGER.trace("Task " + globalId + " already running.");
-          break;
-        } else {
-          LOGGER.info("Submitted " + globalId + " with task ID " + taskId);
-          request.setTaskId(taskId);
-          request.setGlobalTaskId(globalId);
-          thumbRequestService.update(request);
-        }
-      }
-
-      // Wait for one of the currently running tasks to finish
-      final Pair<String, TaskStatus> finishedStatus = waitForAnyTaskToFinish(runningTasks);
-      if (finishedStatus != null) {
-        final String finishedRequestUuid = finishedStatus.getFirst();
-        final TaskStatus taskStat = finishedStatus.getSecond();
-        runningTasks.remove(finishedRequestUuid);
-
-        if (taskStat == null) {
-          LOGGER.warn("Thumb request " + finishedRequestUuid + " didn't have a finished status.");
-        } else {
-          final String taskError = taskStat.getErrorMessage();
-          if (taskError != null) {
-            LOGGER.warn(
-                "Thumb task "
-                    + taskStat.getInternalId()
-                    + " errored. Removing the request "
-                    + finishedRequestUuid);
-            // In the future we could add code to increment a counter and re-try it at a future
-            // time.  Or not bother.
-            thumbRequestService.delete(finishedRequestUuid);
-          } else {
-            LOGGER.debug("Aware of finished thumb task " + taskStat.getInternalId());
-          }
-        }
+        recovered++;
       }
     }
-  }
-
-  /**
-   * Waits for any of the given tasks to finish and returns that extension ID.
-   *
-   * @param runningTasks maps of request UUIDs to task IDs.
-   * @return UUID of task that has finished.
-   */
-  @Nullable
-  private Pair<String, TaskStatus> waitForAnyTaskToFinish(Map<String, String> runningTasks) {
-    final long start = System.currentTimeMillis();
-    long checkStart = start;
-    while (true) {
-      if (runningTasks.isEmpty()) {
-        return null;
-      }
-
-      final long now = System.currentTimeMillis();
-      final long delta = now - checkStart;
-      if (delta > TASK_WAIT_WARN_TIME) {
-        checkStart = now;
-        LOGGER.warn("Waiting for a task to finish for " + (now - start) + "ms");
-
-        final StringBuilder rt = new StringBuilder("Current runningTasks: ");
-        for (Map.Entry<String, String> runningTask : runningTasks.entrySet()) {
-          rt.append(runningTask.getKey()).append("=").append(runningTask.getValue()).append(" (");
-          final String taskId = runningTask.getValue();
-          final TaskStatus status =
-              taskService.waitForTaskStatus(taskId, TimeUnit.SECONDS.toMillis(1));
-          if (status == null) {
-            rt.append("no status) ");
-          } else {
-            rt.append("finished:").append(status.isFinished()).append(")");
-          }
-        }
-        LOGGER.warn(rt.toString());
-      }
-
-      for (Map.Entry<String, String> runningTask : runningTasks.entrySet()) {
-        final String taskId = runningTask.getValue();
-        final TaskStatus status =
-            taskService.waitForTaskStatus(taskId, TimeUnit.SECONDS.toMillis(1));
-        final boolean fin =
-            status != null ? status.isFinished() : !taskService.isTaskActive(taskId);
-        if (fin) {
-          return new Pair<>(runningTask.getKey(), status);
-        }
-      }
+    if (recovered > 0) {
+      LOGGER.info(
+          "Queued " + recovered + " outstanding thumbnail requests for " + inst.getUniqueId());
     }
   }
 }
@@ -68,17 +68,21 @@ public class ThumbingCallable implements Callable<ThumbingCallableResult> {
   private final String requestUuid;
   private final ItemId itemId;
   private final String serialHandle;
+  // Added to those of the request, e.g. from older requests for the file it replaced
+  private final int thumbnailTypes;
 
   @AssistedInject
   protected ThumbingCallable(
       @Assisted Institution institution,
       @Assisted("requestUuid") String requestUuid,
       @Assisted ItemId itemId,
-      @Assisted("serialHandle") String serialHandle) {
+      @Assisted("serialHandle") String serialHandle,
+      @Assisted int thumbnailTypes) {
     this.institution = institution;
     this.requestUuid = requestUuid;
     this.itemId = itemId;
     this.serialHandle = serialHandle;
+    this.thumbnailTypes = thumbnailTypes;
   }
 
   @Override
@@ -140,7 +144,7 @@ public class ThumbingCallable implements Callable<ThumbingCallableResult> {
       if (Thread.interrupted()) {
         throw new InterruptedException();
       }
-      final int flags = thumbnailRequest.getThumbnailTypes();
+      final int flags = thumbnailRequest.getThumbnailTypes() | thumbnailTypes;
       if (ThumbnailType.TYPE_GALLERY_PREVIEW.enabled(flags)) {
         final Dimension dimensions =
             thumbGen.getImageDimensions(
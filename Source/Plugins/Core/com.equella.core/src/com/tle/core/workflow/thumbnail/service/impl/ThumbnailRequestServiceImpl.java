@@ -68,7 +68,7 @@ import org.springframework.transaction.annotation.Transactional;
 
   @Transactional
   @Override
-  public void newRequest(
+  public ThumbnailRequest newRequest(
       String filename,
       ItemKey itemId,
       FileHandle handle,
@@ -103,6 +103,7 @@ import org.springframework.transaction.annotation.Transactional;
     tr.setRecreate(forceIt);
     tr.setThumbnailTypes(thumbFlags);
     thumbRequestDao.save(tr);
+    return tr;
   }
 
   /**
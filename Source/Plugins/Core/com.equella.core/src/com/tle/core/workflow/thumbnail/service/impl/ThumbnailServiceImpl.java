@@ -20,21 +20,18 @@ package com.tle.core.workflow.thumbnail.service.impl;
 
 import com.tle.annotation.NonNullByDefault;
 import com.tle.beans.Institution;
-import com.tle.beans.item.ItemId;
 import com.tle.beans.item.ItemIdKey;
 import com.tle.beans.item.ItemKey;
 import com.tle.common.PathUtils;
 import com.tle.common.filesystem.handle.FileHandle;
+import com.tle.common.filesystem.handle.StagingFile;
 import com.tle.common.institution.CurrentInstitution;
 import com.tle.core.guice.Bind;
-import com.tle.core.institution.InstitutionService;
 import com.tle.core.item.event.ItemDeletedEvent;
 import com.tle.core.item.event.listener.ItemDeletedListener;
 import com.tle.core.mimetypes.MimeTypeService;
 import com.tle.core.plugins.PluginTracker;
 import com.tle.core.services.FileSystemService;
-import com.tle.core.services.impl.SingleShotTask;
-import com.tle.core.services.impl.Task;
 import com.tle.core.workflow.thumbnail.ThumbnailGenerator;
 import com.tle.core.workflow.thumbnail.ThumbnailType;
 import com.tle.core.workflow.thumbnail.entity.ThumbnailRequest;
@@ -46,6 +43,8 @@ import org.apache.log4j.Logger;
 import org.java.plugin.registry.Extension;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @SuppressWarnings("nls")
 @NonNullByDefault
@@ -56,10 +55,9 @@ public class ThumbnailServiceImpl implements ThumbnailService, ItemDeletedListen
 
   @Inject private FileSystemService fileSystemService;
   @Inject private MimeTypeService mimeTypeService;
-  @Inject private InstitutionService institutionService;
   @Inject private ThumbnailRequestService thumbnailRequestService;
   @Inject private PluginTracker<ThumbnailGenerator> thumbnailTracker;
-  @Inject private ThumbingCallableTracker taskTracker;
+  @Inject private ThumbnailWorkQueue workQueue;
 
   @Transactional(propagation = Propagation.REQUIRED)
   @Override
@@ -98,8 +96,14 @@ public class ThumbnailServiceImpl implements ThumbnailService, ItemDeletedListen
           LOGGER.debug("Not required to thumbnail: " + filename);
         }
       } else {
-        thumbnailRequestService.newRequest(
-            filename, itemId, handle, thumbFlags, forceIt, clearPending);
+        final ThumbnailRequest request =
+            thumbnailRequestService.newRequest(
+                filename, itemId, handle, thumbFlags, forceIt, clearPending);
+        queueAfterCommit(
+            request,
+            handle instanceof StagingFile
+                ? ThumbnailWorkQueue.PRIORITY_STAGING
+                : ThumbnailWorkQueue.PRIORITY_ITEM);
       }
     }
 
@@ -145,16 +149,19 @@ public class ThumbnailServiceImpl implements ThumbnailService, ItemDeletedListen
     return ext != null ? thumbnailTracker.getBeanByExtension(ext) : null;
   }
 
-  /**
-   * Factory method to spawn a task to do a single thumbnail
-   *
-   * @param requestUuid
-   * @param institutionId
-   * @return
-   */
-  public Task createThumbnailerTask(
-      String requestUuid, long institutionId, ItemId itemId, String serialHandle) {
-    return new SingleThumbnailTask(requestUuid, institutionId, itemId, serialHandle);
+  private void queueAfterCommit(final ThumbnailRequest request, final int priority) {
+    final Institution institution = CurrentInstitution.get();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+              workQueue.enqueue(institution, request, priority);
+            }
+          });
+    } else {
+      workQueue.enqueue(institution, request, priority);
+    }
   }
 
   @Transactional
@@ -175,50 +182,4 @@ public class ThumbnailServiceImpl implements ThumbnailService, ItemDeletedListen
     // taskTracker.killTasks(request);
     thumbnailRequestService.delete(request.getUuid());
   }
-
-  private class SingleThumbnailTask extends SingleShotTask {
-    private final String requestUuid;
-    private final long institutionId;
-    private final ItemId itemId;
-    private final String serialHandle;
-
-    public SingleThumbnailTask(
-        String requestUuid, long institutionId, ItemId itemId, String serialHandle) {
-      this.requestUuid = requestUuid;
-      this.institutionId = institutionId;
-      this.itemId = itemId;
-      this.serialHandle = serialHandle;
-    }
-
-    @Override
-    public void runTask() {
-      // Wait for institution.
-      // Even though this task (and all tasks in general) wait for the institution keeper task,
-      // it can still attempt to run before the institution task is fully prepared.
-
-      Institution institution = institutionService.getInstitution(institutionId);
-      int tries = 0;
-      int backoff = 1000;
-      while (institution == null && tries < 10) {
-        try {
-          Thread.sleep(backoff);
-          institution = institutionService.getInstitution(institutionId);
-          tries++;
-          backoff += backoff;
-        } catch (InterruptedException ie) {
-          // whatevs
-        }
-      }
-      if (institution == null) {
-        throw new RuntimeException("Gave up waiting for institution");
-      }
-
-      taskTracker.submitTask(institution, requestUuid, itemId, serialHandle);
-    }
-
-    @Override
-    protected String getTitleKey() {
-      return "com.tle.core.workflow.thumbnail.task.thumbnailer.title";
-    }
-  }
 }
@@ -0,0 +1,403 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.workflow.thumbnail.service.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.beans.Institution;
+import com.tle.beans.item.ItemId;
+import com.tle.common.NamedThreadFactory;
+import com.tle.core.guice.Bind;
+import com.tle.core.guice.BindFactory;
+import com.tle.core.institution.RunAsInstitution;
+import com.tle.core.workflow.thumbnail.entity.ThumbnailRequest;
+import com.tle.core.workflow.thumbnail.service.ThumbnailRequestService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.inject.Singleton;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs thumbnail requests on a local pool of workers as soon as they are committed, rather than
+ * waiting for the supervisor to find them. Jobs are taken in priority order, then oldest first:
+ * files in a staging area (someone is editing the item and waiting to see them) before files
+ * already in an item, and both before requests recovered by the supervisor's sweep.
+ *
+ * <p>A newer request for a file which is still waiting in the queue replaces the older one rather
+ * than being run as well, taking on any thumbnail types the older one asked for. Each job has a
+ * time budget after which it is interrupted, which also kills any external program it was waiting
+ * for. The queue length is capped; requests over the cap remain in the database and are picked up
+ * by the next sweep.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+@Bind
+@Singleton
+public class ThumbnailWorkQueue {
+  private static final Logger LOGGER = Logger.getLogger(ThumbnailWorkQueue.class);
+
+  public static final int PRIORITY_STAGING = 0;
+  public static final int PRIORITY_ITEM = 1;
+  public static final int PRIORITY_RECOVERED = 2;
+
+  @Inject private ThumbnailRequestService thumbnailRequestService;
+  @Inject private ThumbingCallableFactory callableFactory;
+  @Inject private RunAsInstitution runAs;
+
+  @Inject(optional = true)
+  @Named("thumbnail.workers")
+  private int workers = 2;
+
+  @Inject(optional = true)
+  @Named("thumbnail.jobTimeoutSeconds")
+  private int jobTimeoutSeconds = 300;
+
+  @Inject(optional = true)
+  @Named("thumbnail.maxQueued")
+  private int maxQueued = 1000;
+
+  private ThreadPoolExecutor executor;
+  private ScheduledExecutorService watchdog;
+  private final AtomicLong sequence = new AtomicLong();
+
+  // Jobs that haven't started yet, by file
+  private final Map<String, ThumbnailJob> waiting = new ConcurrentHashMap<String, ThumbnailJob>();
+  // Requests that are waiting or running, so the sweep doesn't queue them again
+  private final Set<String> queuedRequests = ConcurrentHashMap.newKeySet();
+
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong timedOut = new AtomicLong();
+  private final AtomicLong totalWaitMillis = new AtomicLong();
+  private final AtomicLong totalRunMillis = new AtomicLong();
+
+  @PostConstruct
+  public void init() {
+    final int threads = Math.max(1, workers);
+    // Daemon threads don't hold up the server stopping. Requests cut off part way are still in the
+    // database for the next sweep.
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            5,
+            TimeUnit.MINUTES,
+            new PriorityBlockingQueue<Runnable>(),
+            new NamedThreadFactory("ThumbnailServiceExecutor", true));
+    executor.allowCoreThreadTimeOut(true);
+    watchdog =
+        Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("ThumbnailServiceWatchdog", true));
+  }
+
+  /**
+   * Queues a request to be run on this node.
+   *
+   * @return false if the queue is full and the request has been left for the next sweep.
+   */
+  public boolean enqueue(Institution institution, ThumbnailRequest request, int priority) {
+    final String requestUuid = request.getUuid();
+    if (!queuedRequests.add(requestUuid)) {
+      return true;
+    }
+    final String fileKey =
+        institution.getUniqueId() + ":" + request.getHandle() + ":" + request.getFilenameHash();
+    final ItemId itemId = new ItemId(request.getItemUuid(), request.getItemVersion());
+    synchronized (waiting) {
+      final ThumbnailJob existing = waiting.get(fileKey);
+      if (existing != null) {
+        // Only the latest copy of the file needs thumbnailing
+        existing.supersede(requestUuid, itemId, request.getThumbnailTypes());
+        coalesced.incrementAndGet();
+        if (priority < existing.priority && executor.remove(existing)) {
+          final ThumbnailJob promoted = existing.withPriority(priority);
+          waiting.put(fileKey, promoted);
+          executor.execute(promoted);
+        }
+        return true;
+      }
+      if (executor.getQueue().size() >= maxQueued) {
+        queuedRequests.remove(requestUuid);
+        if (rejected.incrementAndGet() % 100 == 1) {
+          LOGGER.warn("Thumbnail queue is full, leaving requests for the next sweep. " + this);
+        }
+        return false;
+      }
+      final ThumbnailJob job =
+          new ThumbnailJob(
+              institution,
+              fileKey,
+              priority,
+              sequence.incrementAndGet(),
+              System.currentTimeMillis(),
+              requestUuid,
+              itemId,
+              request.getHandle(),
+              request.getThumbnailTypes());
+      waiting.put(fileKey, job);
+      submitted.incrementAndGet();
+      executor.execute(job);
+    }
+    return true;
+  }
+
+  public boolean isQueued(String requestUuid) {
+    return queuedRequests.contains(requestUuid);
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int getRunningCount() {
+    return running.get();
+  }
+
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  public long getTimedOutCount() {
+    return timedOut.get();
+  }
+
+  /** @return The average time jobs have spent waiting in the queue before starting. */
+  public long getAverageWaitMillis() {
+    final long count = completed.get();
+    return count == 0 ? 0 : totalWaitMillis.get() / count;
+  }
+
+  /** @return The average time jobs have taken to run. */
+  public long getAverageRunMillis() {
+    final long count = completed.get();
+    return count == 0 ? 0 : totalRunMillis.get() / count;
+  }
+
+  private void runJob(ThumbnailJob job) {
+    synchronized (waiting) {
+      waiting.remove(job.fileKey, job);
+    }
+    final String requestUuid;
+    final List<String> superseded;
+    final ItemId itemId;
+    final int thumbnailTypes;
+    // Nothing can be coalesced into the job once it has left the waiting map
+    synchronized (job) {
+      requestUuid = job.requestUuid;
+      superseded = job.superseded;
+      itemId = job.itemId;
+      thumbnailTypes = job.thumbnailTypes;
+    }
+
+    final long start = System.currentTimeMillis();
+    totalWaitMillis.addAndGet(start - job.enqueued);
+    running.incrementAndGet();
+    final Thread worker = Thread.currentThread();
+    final ScheduledFuture<?> timeout =
+        watchdog.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                synchronized (job) {
+                  if (!job.finished) {
+                    job.timedOut = true;
+                    worker.interrupt();
+                  }
+                }
+              }
+            },
+            jobTimeoutSeconds,
+            TimeUnit.SECONDS);
+    try {
+      callableFactory
+          .getRunnable(job.institution, requestUuid, itemId, job.serialHandle, thumbnailTypes)
+          .call();
+    } catch (Throwable t) {
+      LOGGER.error("Error running thumbnail request " + requestUuid, t);
+    } finally {
+      synchronized (job) {
+        job.finished = true;
+      }
+      timeout.cancel(false);
+      // Don't let a late interrupt leak into the next job
+      Thread.interrupted();
+      running.decrementAndGet();
+      completed.incrementAndGet();
+      totalRunMillis.addAndGet(System.currentTimeMillis() - start);
+      if (job.timedOut) {
+        timedOut.incrementAndGet();
+        LOGGER.warn(
+            "Thumbnail request "
+                + requestUuid
+                + " took longer than "
+                + jobTimeoutSeconds
+                + " seconds and was stopped");
+      }
+
+      final List<String> finished = new ArrayList<String>(superseded);
+      finished.add(requestUuid);
+      deleteRequests(job.institution, finished);
+      queuedRequests.removeAll(finished);
+    }
+  }
+
+  private void deleteRequests(Institution institution, final List<String> requestUuids) {
+    try {
+      runAs.executeAsSystem(
+          institution,
+          new Callable<Void>() {
+            @Override
+            public Void call() {
+              for (String requestUuid : requestUuids) {
+                thumbnailRequestService.delete(requestUuid);
+              }
+              return null;
+            }
+          });
+    } catch (Exception e) {
+      LOGGER.error("Error removing finished thumbnail requests " + requestUuids, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Thumbnail queue: Waiting["
+        + getQueueDepth()
+        + "] Running["
+        + getRunningCount()
+        + "] Submitted["
+        + submitted.get()
+        + "] Coalesced["
+        + getCoalescedCount()
+        + "] Rejected["
+        + getRejectedCount()
+        + "] Timed out["
+        + getTimedOutCount()
+        + "] Average wait["
+        + getAverageWaitMillis()
+        + "ms] Average run["
+        + getAverageRunMillis()
+        + "ms]";
+  }
+
+  private final class ThumbnailJob implements Runnable, Comparable<ThumbnailJob> {
+    final Institution institution;
+    final String fileKey;
+    final int priority;
+    final long sequence;
+    final long enqueued;
+    final String serialHandle;
+
+    // Guarded by this
+    String requestUuid;
+    ItemId itemId;
+    // Including those of the superseded requests
+    int thumbnailTypes;
+    List<String> superseded = new ArrayList<String>();
+    boolean finished;
+    volatile boolean timedOut;
+
+    ThumbnailJob(
+        Institution institution,
+        String fileKey,
+        int priority,
+        long sequence,
+        long enqueued,
+        String requestUuid,
+        ItemId itemId,
+        String serialHandle,
+        int thumbnailTypes) {
+      this.institution = institution;
+      this.fileKey = fileKey;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.enqueued = enqueued;
+      this.requestUuid = requestUuid;
+      this.itemId = itemId;
+      this.serialHandle = serialHandle;
+      this.thumbnailTypes = thumbnailTypes;
+    }
+
+    synchronized void supersede(String newRequestUuid, ItemId newItemId, int newThumbnailTypes) {
+      superseded.add(requestUuid);
+      requestUuid = newRequestUuid;
+      itemId = newItemId;
+      thumbnailTypes |= newThumbnailTypes;
+    }
+
+    synchronized ThumbnailJob withPriority(int newPriority) {
+      final ThumbnailJob job =
+          new ThumbnailJob(
+              institution,
+              fileKey,
+              newPriority,
+              sequence,
+              enqueued,
+              requestUuid,
+              itemId,
+              serialHandle,
+              thumbnailTypes);
+      job.superseded = superseded;
+      return job;
+    }
+
+    @Override
+    public void run() {
+      runJob(this);
+    }
+
+    @Override
+    public int compareTo(ThumbnailJob other) {
+      final int result = Integer.compare(priority, other.priority);
+      return result != 0 ? result : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  @BindFactory
+  public interface ThumbingCallableFactory {
+    ThumbingCallable getRunnable(
+        @Assisted Institution institution,
+        @Assisted("requestUuid") String requestUuid,
+        @Assisted ItemId itemId,
+        @Assisted("serialHandle") String serialHandle,
+        @Assisted int thumbnailTypes);
+  }
+}
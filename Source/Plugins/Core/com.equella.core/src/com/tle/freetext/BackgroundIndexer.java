@@ -18,6 +18,7 @@
 
 package com.tle.freetext;
 
+import com.google.common.collect.Multimap;
 import com.tle.beans.Institution;
 import com.tle.beans.item.ItemIdKey;
 import java.util.Collection;
@@ -40,5 +41,18 @@ public interface BackgroundIndexer extends Runnable {
 
   void synchronizeFull(Collection<Institution> institutions);
 
+  /**
+   * Brings the institutions up to date after a restart by reindexing the items which were changed
+   * but not committed to the index, then synchronising anything modified since the last commit.
+   *
+   * @param uncommitted Item keys by institution unique id.
+   * @param onIndexed Run in the background once everything found has been written to the index.
+   */
+  void synchronizeRecovered(
+      Collection<Institution> institutions,
+      Date since,
+      Multimap<Long, ItemIdKey> uncommitted,
+      Runnable onIndexed);
+
   boolean isRoomForItems(int size);
 }
@@ -19,6 +19,7 @@
 package com.tle.freetext;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -161,6 +162,52 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
     schemaService.executeWithSchema(schemaId, syncerFactory.create(institutions, since, this));
   }
 
+  @Override
+  @SuppressWarnings("nls")
+  public void synchronizeRecovered(
+      Collection<Institution> institutions,
+      Date since,
+      Multimap<Long, ItemIdKey> uncommitted,
+      final Runnable onIndexed) {
+    List<IndexedItem> items = Lists.newArrayList();
+    for (Institution institution : institutions) {
+      for (ItemIdKey key : uncommitted.get(institution.getUniqueId())) {
+        // Whether it's still there or not is worked out when it's indexed
+        IndexedItem item = indexedItemFactory.create(key, institution);
+        item.setAdd(true);
+        items.add(item);
+      }
+    }
+    LOGGER.info("Reindexing " + items.size() + " uncommitted items");
+    addAllToQueue(items);
+    synchronizeNew(institutions, since);
+
+    // Everything found is queued by now, wait for the queue to drain
+    syncFullExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              while (!isIdle()) {
+                if (dead) {
+                  return;
+                }
+                Thread.sleep(WAITTIME);
+              }
+              onIndexed.run();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+  }
+
+  private boolean isIdle() {
+    synchronized (listLock) {
+      return waitingList.isEmpty() && indexingMap.isEmpty() && indexedList.isEmpty();
+    }
+  }
+
   @SuppressWarnings("nls")
   private boolean checkSlowIndexes(long now) {
     synchronized (threadingLock) {
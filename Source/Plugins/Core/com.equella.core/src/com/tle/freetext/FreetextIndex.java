@@ -19,10 +19,12 @@
 package com.tle.freetext;
 
 import com.google.common.collect.Multimap;
+import com.tle.annotation.Nullable;
 import com.tle.common.Pair;
 import com.tle.common.searching.Search;
 import com.tle.common.searching.SearchResults;
 import com.tle.common.settings.standard.SearchSettings;
+import com.tle.core.freetext.index.IndexJournal;
 import com.tle.core.freetext.index.ItemIndex;
 import com.tle.core.freetext.indexer.IndexingExtension;
 import com.tle.core.remoting.MatrixResults;
@@ -31,6 +33,7 @@ import it.uniroma3.mat.extendedset.wrappers.LongSet;
 import java.io.File;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /** @author Nicholas Read */
 public interface FreetextIndex {
@@ -76,6 +79,46 @@ public interface FreetextIndex {
 
   int getSynchroniseMinutes();
 
+  /** @return The maximum number of result rows to cache per index, or 0 to disable caching. */
+  int getResultCacheSize();
+
+  /**
+   * @return How many seconds cached results may be used after background index changes, or 0 to
+   *     discard them as soon as the changes are searchable.
+   */
+  int getResultCacheStaleSeconds();
+
+  /** @return The number of popular searches to replay against each new searcher, or 0 for none. */
+  int getWarmQueries();
+
+  /** @return True if changes to the indexes are journalled until they are committed. */
+  boolean isJournalEnabled();
+
+  /** @return True if each institution's items are kept in their own index directories. */
+  boolean isShardByInstitution();
+
+  /**
+   * @return The number of shards the items of very large institutions are spread over, keyed by
+   *     institution unique id. Institutions not listed have a single shard.
+   */
+  Map<Long, Integer> getInstitutionShards();
+
+  /**
+   * Returns the changes that were made to the indexes but not committed before the server was last
+   * stopped. This is only available once after startup.
+   *
+   * @return The combined recovery of every index, or null if it has already been taken or any index
+   *     couldn't be recovered from its journal and a full synchronisation is required.
+   */
+  @Nullable
+  IndexJournal.Recovery takeRecovery();
+
+  /**
+   * Called once the items from {@link #takeRecovery()} have been reindexed. Until then the journals
+   * keep the recovered changes, in case the server stops again first.
+   */
+  void recoveryIndexed();
+
   void prepareItemsForIndexing(Collection<IndexedItem> inditems);
 
   String suggestTerm(Search request, String prefix);
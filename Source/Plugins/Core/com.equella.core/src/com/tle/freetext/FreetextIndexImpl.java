@@ -21,9 +21,11 @@ package com.tle.freetext;
 import com.dytech.devlib.PropBagEx;
 import com.dytech.edge.exceptions.InvalidSearchQueryException;
 import com.dytech.edge.exceptions.SearchingException;
+import com.google.common.base.Splitter;
 import com.google.common.collect.Multimap;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
 import com.tle.beans.item.Item;
 import com.tle.beans.item.ItemPack;
@@ -35,6 +37,7 @@ import com.tle.common.searching.SearchResults;
 import com.tle.common.settings.standard.SearchSettings;
 import com.tle.core.events.services.EventService;
 import com.tle.core.freetext.index.AbstractIndexEngine.IndexBuilder;
+import com.tle.core.freetext.index.IndexJournal;
 import com.tle.core.freetext.index.ItemIndex;
 import com.tle.core.freetext.indexer.IndexingExtension;
 import com.tle.core.guice.Bind;
@@ -62,6 +65,7 @@ import it.uniroma3.mat.extendedset.wrappers.LongSet;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -100,6 +104,30 @@ public class FreetextIndexImpl
   @Named("freetextIndex.synchroiseMinutes")
   private int synchroniseMinutes = 5;
 
+  @Inject(optional = true)
+  @Named("freetextIndex.resultCacheSize")
+  private int resultCacheSize = 10000;
+
+  @Inject(optional = true)
+  @Named("freetextIndex.resultCacheStaleSeconds")
+  private int resultCacheStaleSeconds = 0;
+
+  @Inject(optional = true)
+  @Named("freetextIndex.warmQueries")
+  private int warmQueries = 10;
+
+  @Inject(optional = true)
+  @Named("freetextIndex.journal")
+  private boolean journalEnabled = true;
+
+  @Inject(optional = true)
+  @Named("freetextIndex.shardByInstitution")
+  private boolean shardByInstitution = false;
+
+  @Inject(optional = true)
+  @Named("freetextIndex.institutionShards")
+  private String institutionShards = "";
+
   @Inject
   @Named("freetext.stopwords.file")
   private File stopWordsFile;
@@ -116,6 +144,7 @@ public class FreetextIndexImpl
   private PluginTracker<ItemIndex<? extends FreetextResult>> indexTracker;
 
   private boolean indexesHaveBeenInited;
+  private boolean recoveryTaken;
 
   @Inject
   public FreetextIndexImpl(@Named("freetext.index.location") File indexPath) {
@@ -370,6 +399,78 @@ public class FreetextIndexImpl
     return synchroniseMinutes;
   }
 
+  @Override
+  public int getResultCacheSize() {
+    return resultCacheSize;
+  }
+
+  @Override
+  public int getResultCacheStaleSeconds() {
+    return resultCacheStaleSeconds;
+  }
+
+  @Override
+  public int getWarmQueries() {
+    return warmQueries;
+  }
+
+  @Override
+  public boolean isJournalEnabled() {
+    return journalEnabled;
+  }
+
+  @Override
+  public boolean isShardByInstitution() {
+    return shardByInstitution;
+  }
+
+  @Override
+  public Map<Long, Integer> getInstitutionShards() {
+    Map<Long, Integer> shardCounts = new HashMap<Long, Integer>();
+    for (String shard :
+        Splitter.on(',').trimResults().omitEmptyStrings().split(institutionShards)) {
+      List<String> parts = Splitter.on(':').trimResults().splitToList(shard);
+      if (parts.size() == 2) {
+        try {
+          int count = Integer.parseInt(parts.get(1));
+          if (count > 0) {
+            shardCounts.put(Long.parseLong(parts.get(0)), count);
+            continue;
+          }
+        } catch (NumberFormatException ex) {
+          // Logged below
+        }
+      }
+      LOGGER.warn("Ignoring invalid freetextIndex.institutionShards entry: " + shard);
+    }
+    return shardCounts;
+  }
+
+  @Nullable
+  @Override
+  public synchronized IndexJournal.Recovery takeRecovery() {
+    if (recoveryTaken) {
+      return null;
+    }
+    recoveryTaken = true;
+    IndexJournal.Recovery recovery = null;
+    for (ItemIndex<?> itemIndex : getAllIndexes()) {
+      IndexJournal.Recovery indexRecovery = itemIndex.getRecovery();
+      if (indexRecovery == null) {
+        return null;
+      }
+      recovery = recovery == null ? indexRecovery : recovery.merge(indexRecovery);
+    }
+    return recovery;
+  }
+
+  @Override
+  public void recoveryIndexed() {
+    for (ItemIndex<?> itemIndex : getAllIndexes()) {
+      itemIndex.recoveryIndexed();
+    }
+  }
+
   @Override
   public void institutionEvent(InstitutionEvent event) {
     if (event.getEventType() == InstitutionEventType.DELETED) {
@@ -0,0 +1,379 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.portal.renderer;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.common.NamedThreadFactory;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.UserState;
+import com.tle.core.guice.Bind;
+import com.tle.core.institution.RunAsInstitution;
+import com.tle.web.sections.SectionInfo;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.inject.Singleton;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the slow parts of the dashboard's portlets, such as searches and feed fetches, at the same
+ * time as each other rather than one after the other as each portlet renders. The loads run as the
+ * current user in the current institution.
+ *
+ * <p>Loads run on a small pool, and run on the request's own thread when the pool's queue is full.
+ * Each portlet has a time budget from when its load starts running. A portlet that isn't ready by
+ * then, or whose load is still queued after waiting as long as its budget, is rendered as a
+ * placeholder which fetches the portlet with an ajax request, and that request picks up the load
+ * that is already in flight rather than starting again. The ajax request renders the whole
+ * dashboard, so the other portlets are neither loaded nor rendered by it.
+ *
+ * <p>Load and render times are kept per portlet type, and logged every few minutes.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+@Bind
+@Singleton
+public class PortletContentLoader {
+  private static final Logger LOGGER = Logger.getLogger(PortletContentLoader.class);
+
+  public static final long DEFAULT_BUDGET = TimeUnit.SECONDS.toMillis(3);
+
+  private static final String LOADS_KEY = "$PORTLET_CONTENT_LOADS$";
+  private static final String REQUESTED_KEY = "$PORTLET_CONTENT_REQUESTED$";
+  private static final long STATISTICS_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+  /** How long the request from a placeholder waits for the content */
+  private static final long PLACEHOLDER_WAIT = TimeUnit.SECONDS.toMillis(30);
+
+  @Inject private RunAsInstitution runAs;
+
+  @Inject(optional = true)
+  @Named("portalSettings.contentLoaderThreads")
+  private int loaderThreads = 8;
+
+  @Inject(optional = true)
+  @Named("portalSettings.contentLoaderQueue")
+  private int maxQueued = 32;
+
+  private ThreadPoolExecutor executor;
+
+  /** Loads that ran over budget and are waiting for the placeholder to ask for them */
+  private final Cache<String, Load> overBudget =
+      CacheBuilder.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
+
+  private final ConcurrentMap<String, Timings> timings = new ConcurrentHashMap<String, Timings>();
+  private final AtomicLong nextStatistics =
+      new AtomicLong(System.currentTimeMillis() + STATISTICS_INTERVAL);
+
+  @PostConstruct
+  void setupExecutor() {
+    final int threads = Math.max(1, loaderThreads);
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            1,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueued)),
+            new NamedThreadFactory("PortletContentLoader", true));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Marks the request as the one from a portlet's placeholder, which only wants that portlet. */
+  public void setRequestedContent(SectionInfo info, String portletUuid) {
+    info.setAttribute(REQUESTED_KEY, portletUuid);
+  }
+
+  /**
+   * @return false if the request is from another portlet's placeholder, in which case this
+   *     portlet's content is not needed.
+   */
+  public boolean isContentWanted(SectionInfo info, String portletUuid) {
+    final String requested = info.getAttribute(REQUESTED_KEY);
+    return requested == null || requested.equals(portletUuid);
+  }
+
+  /** Starts loading a portlet's content in the background. */
+  public void startLoad(
+      SectionInfo info, String portletUuid, String portletType, Callable<?> loader, long budget) {
+    Map<String, Load> loads = info.getAttribute(LOADS_KEY);
+    if (loads == null) {
+      loads = new HashMap<String, Load>();
+      info.setAttribute(LOADS_KEY, loads);
+    }
+
+    final String key = getKey(portletUuid);
+    Load load = overBudget.getIfPresent(key);
+    if (load == null) {
+      load = new Load(portletType, budget);
+      try {
+        executor.execute(load.task(CurrentUser.getUserState(), loader));
+      } catch (RejectedExecutionException e) {
+        // The pool is saturated, queueing would only make the portlet wait longer
+        LOGGER.debug("Loading " + portletType + " portlet content on the request thread");
+        load.run(loader);
+      }
+    }
+    loads.put(portletUuid, load);
+  }
+
+  /**
+   * Waits for the portlet's content until its budget runs out.
+   *
+   * @param placeholder Whether this is the request from the portlet's placeholder, which waits
+   *     longer.
+   * @return false if the content isn't ready and a placeholder should be shown instead.
+   */
+  public boolean awaitContent(SectionInfo info, String portletUuid, boolean placeholder) {
+    final Load load = getLoad(info, portletUuid);
+    if (load == null) {
+      return true;
+    }
+
+    try {
+      if (placeholder) {
+        load.future.get(PLACEHOLDER_WAIT, TimeUnit.MILLISECONDS);
+      } else {
+        // The budget only starts once the load is running, but don't wait forever in the queue
+        if (!load.running.await(load.budget, TimeUnit.MILLISECONDS)) {
+          throw new TimeoutException();
+        }
+        final long wait = load.started + load.budget - System.currentTimeMillis();
+        load.future.get(Math.max(0, wait), TimeUnit.MILLISECONDS);
+      }
+    } catch (TimeoutException e) {
+      LOGGER.debug("Portlet " + portletUuid + " ran over its budget of " + load.budget + "ms");
+      getTimings(load.type).placeholders.incrementAndGet();
+      overBudget.put(getKey(portletUuid), load);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      // Thrown again when the content is asked for
+    }
+    overBudget.invalidate(getKey(portletUuid));
+    return true;
+  }
+
+  /**
+   * @param loader Used to load the content on this thread if no load was started for the portlet.
+   * @return The result of the portlet's loader.
+   */
+  @Nullable
+  public Object getContent(SectionInfo info, String portletUuid, Callable<?> loader)
+      throws Exception {
+    final Load load = getLoad(info, portletUuid);
+    if (load == null) {
+      return loader.call();
+    }
+    try {
+      return load.future.get();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      Throwables.propagateIfPossible(cause, Exception.class);
+      throw new RuntimeException(cause);
+    }
+  }
+
+  public void recordRender(String portletType, long millis) {
+    getTimings(portletType).renders.record(millis);
+
+    final long now = System.currentTimeMillis();
+    final long next = nextStatistics.get();
+    if (now >= next && nextStatistics.compareAndSet(next, now + STATISTICS_INTERVAL)) {
+      LOGGER.info(getStatistics());
+    }
+  }
+
+  /** @return The timings so far, keyed by portlet type. */
+  public Map<String, Timings> getTimings() {
+    return ImmutableMap.copyOf(timings);
+  }
+
+  public String getStatistics() {
+    final StringBuilder stats =
+        new StringBuilder("Portlet content: Pool[")
+            .append(executor.getActiveCount())
+            .append(" running, ")
+            .append(executor.getQueue().size())
+            .append(" queued]");
+    for (Map.Entry<String, Timings> entry : getTimings().entrySet()) {
+      final Timings typeTimings = entry.getValue();
+      stats
+          .append(' ')
+          .append(entry.getKey())
+          .append("[Loads ")
+          .append(typeTimings.loads)
+          .append(", Renders ")
+          .append(typeTimings.renders)
+          .append(", Placeholders ")
+          .append(typeTimings.getPlaceholders())
+          .append(']');
+    }
+    return stats.toString();
+  }
+
+  @Nullable
+  private Load getLoad(SectionInfo info, String portletUuid) {
+    final Map<String, Load> loads = info.getAttribute(LOADS_KEY);
+    return loads == null ? null : loads.get(portletUuid);
+  }
+
+  private String getKey(String portletUuid) {
+    return CurrentInstitution.get().getUniqueId()
+        + ":"
+        + CurrentUser.getUserState().getSessionID()
+        + ":"
+        + portletUuid;
+  }
+
+  private Timings getTimings(String portletType) {
+    Timings typeTimings = timings.get(portletType);
+    if (typeTimings == null) {
+      timings.putIfAbsent(portletType, new Timings());
+      typeTimings = timings.get(portletType);
+    }
+    return typeTimings;
+  }
+
+  private final class Load {
+    final String type;
+    final long budget;
+    final CountDownLatch running = new CountDownLatch(1);
+    final SettableFuture<Object> future = SettableFuture.create();
+    volatile long started;
+
+    Load(String type, long budget) {
+      this.type = type;
+      this.budget = budget;
+    }
+
+    Runnable task(final UserState userState, final Callable<?> loader) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          runAs.execute(
+              userState,
+              new Callable<Void>() {
+                @Override
+                public Void call() {
+                  Load.this.run(loader);
+                  return null;
+                }
+              });
+        }
+      };
+    }
+
+    void run(Callable<?> loader) {
+      started = System.currentTimeMillis();
+      running.countDown();
+      try {
+        future.set(loader.call());
+      } catch (Throwable t) {
+        future.setException(t);
+      } finally {
+        final long millis = System.currentTimeMillis() - started;
+        getTimings(type).loads.record(millis);
+        if (LOGGER.isDebugEnabled()) {
+          LOGGER.debug("Loaded " + type + " portlet content in " + millis + "ms");
+        }
+      }
+    }
+  }
+
+  public static class Timings {
+    private final Timing loads = new Timing();
+    private final Timing renders = new Timing();
+    private final AtomicLong placeholders = new AtomicLong();
+
+    /** @return Time from the content load starting to run until it finished. */
+    public Timing getLoads() {
+      return loads;
+    }
+
+    /** @return Time spent rendering the portlet, including any wait for its content. */
+    public Timing getRenders() {
+      return renders;
+    }
+
+    /** @return How often the portlet was shown as a placeholder. */
+    public long getPlaceholders() {
+      return placeholders.get();
+    }
+  }
+
+  public static class Timing {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    void record(long millis) {
+      count.incrementAndGet();
+      totalMillis.addAndGet(millis);
+      long max = maxMillis.get();
+      while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+        max = maxMillis.get();
+      }
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getTotalMillis() {
+      return totalMillis.get();
+    }
+
+    public long getMaxMillis() {
+      return maxMillis.get();
+    }
+
+    @Override
+    public String toString() {
+      final long n = count.get();
+      return n
+          + " avg "
+          + (n == 0 ? 0 : totalMillis.get() / n)
+          + "ms max "
+          + maxMillis.get()
+          + "ms";
+    }
+  }
+}
@@ -18,18 +18,49 @@
 
 package com.tle.web.portal.renderer;
 
+import com.tle.annotation.Nullable;
 import com.tle.common.portal.entity.Portlet;
+import com.tle.web.sections.SectionInfo;
 import com.tle.web.sections.ViewableChildInterface;
 import com.tle.web.sections.generic.AbstractPrototypeSection;
 import com.tle.web.sections.render.HtmlRenderer;
+import java.util.concurrent.Callable;
+import javax.inject.Inject;
 
 public abstract class PortletContentRenderer<M> extends AbstractPrototypeSection<M>
     implements HtmlRenderer, ViewableChildInterface {
   protected Portlet portlet;
 
+  @Inject private PortletContentLoader contentLoader;
+
   public void setPortlet(Portlet portlet) {
     this.portlet = portlet;
     // Dodgy call to prevent #5714
     this.portlet.getAttributes();
   }
+
+  /**
+   * Override to load whatever is slow to get for the portlet, e.g. search results or a remote feed,
+   * alongside the other portlets on the dashboard. The loader is run on another thread as the
+   * current user, so it must not use the SectionInfo. Use getLoadedContent to get the result when
+   * rendering.
+   */
+  @Nullable
+  public Callable<?> createContentLoader(SectionInfo info) {
+    return null;
+  }
+
+  /** @return How long the content loader gets before the portlet is shown as a placeholder. */
+  public long getContentBudget() {
+    return PortletContentLoader.DEFAULT_BUDGET;
+  }
+
+  /**
+   * @return The result of the content loader, which is run now if it wasn't started with the rest
+   *     of the dashboard.
+   */
+  @SuppressWarnings("unchecked")
+  protected <T> T getLoadedContent(SectionInfo info) throws Exception {
+    return (T) contentLoader.getContent(info, portlet.getUuid(), createContentLoader(info));
+  }
 }
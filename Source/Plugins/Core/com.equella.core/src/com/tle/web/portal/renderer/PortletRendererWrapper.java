@@ -18,6 +18,7 @@
 
 package com.tle.web.portal.renderer;
 
+import com.tle.annotation.Nullable;
 import com.tle.common.Check;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.portal.entity.Portlet;
@@ -35,6 +36,9 @@ import com.tle.web.resources.ResourcesService;
 import com.tle.web.sections.SectionInfo;
 import com.tle.web.sections.SectionResult;
 import com.tle.web.sections.SectionTree;
+import com.tle.web.sections.ajax.AjaxGenerator;
+import com.tle.web.sections.ajax.AjaxGenerator.EffectType;
+import com.tle.web.sections.ajax.handler.AjaxFactory;
 import com.tle.web.sections.annotations.EventFactory;
 import com.tle.web.sections.annotations.EventHandlerMethod;
 import com.tle.web.sections.equella.component.Box;
@@ -43,18 +47,22 @@ import com.tle.web.sections.events.js.EventGenerator;
 import com.tle.web.sections.events.js.ParameterizedEvent;
 import com.tle.web.sections.events.js.SubmitValuesFunction;
 import com.tle.web.sections.generic.AbstractPrototypeSection;
+import com.tle.web.sections.jquery.libraries.JQueryCore;
 import com.tle.web.sections.js.JSCallable;
 import com.tle.web.sections.js.generic.OverrideHandler;
 import com.tle.web.sections.js.generic.StatementHandler;
 import com.tle.web.sections.js.generic.function.ExternallyDefinedFunction;
 import com.tle.web.sections.js.generic.function.IncludeFile;
 import com.tle.web.sections.js.generic.function.ReloadFunction;
+import com.tle.web.sections.js.generic.statement.FunctionCallStatement;
 import com.tle.web.sections.js.validators.Confirm;
 import com.tle.web.sections.render.HtmlRenderer;
+import com.tle.web.sections.render.LabelRenderer;
 import com.tle.web.sections.render.PreRenderable;
 import com.tle.web.sections.render.TextLabel;
 import com.tle.web.sections.result.util.KeyLabel;
 import com.tle.web.sections.standard.annotations.Component;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
 
 /** @author aholland */
@@ -72,9 +80,11 @@ public class PortletRendererWrapper
   @Inject private PortletService portletService;
   @Inject private PortletWebService portletWebService;
   @Inject private AccessibilityModeService accessibilityService;
+  @Inject private PortletContentLoader contentLoader;
 
   @ViewFactory private FreemarkerFactory viewFactory;
   @EventFactory private EventGenerator events;
+  @AjaxFactory private AjaxGenerator ajax;
 
   @Component(register = false)
   private Box box;
@@ -82,6 +92,7 @@ public class PortletRendererWrapper
   private String portletUuid;
   private boolean minimised;
   private PortletContentRenderer<?> delegate;
+  private JSCallable loadContentFunction;
 
   @Override
   public final SectionResult renderHtml(RenderEventContext context) {
@@ -108,7 +119,18 @@ public class PortletRendererWrapper
     box.setMinimised(context, (minimised && !accessibilityService.isAccessibilityMode()));
     // box.setDraggable(context, !CurrentUser.wasAutoLoggedIn());
     if (!minimised || accessibilityService.isAccessibilityMode()) {
-      model.setContent(renderFirstResult(context));
+      final long start = System.currentTimeMillis();
+      if (!contentLoader.isContentWanted(context, portletUuid)) {
+        // Another portlet's placeholder is being filled in, this one isn't sent back
+        model.setContent(new LabelRenderer(new KeyLabel(RESOURCES.key("portlet.loading"))));
+      } else if (contentLoader.awaitContent(context, portletUuid, model.isLoadContent())) {
+        model.setContent(renderFirstResult(context));
+        contentLoader.recordRender(portlet.getType(), System.currentTimeMillis() - start);
+      } else {
+        // Too slow, fetch it after the rest of the dashboard has been shown
+        model.setContent(new LabelRenderer(new KeyLabel(RESOURCES.key("portlet.loading"))));
+        JQueryCore.appendReady(context, new FunctionCallStatement(loadContentFunction));
+      }
     }
 
     return viewFactory.createResult("portlet/portlettemplate.ftl", context);
@@ -149,10 +171,39 @@ public class PortletRendererWrapper
     }
     box.setNoMinMaxOnHeader(true);
 
+    loadContentFunction =
+        ajax.getAjaxUpdateDomFunction(
+            tree,
+            null,
+            events.getEventHandler("loadContent"),
+            ajax.getEffectFunction(EffectType.REPLACE_IN_PLACE),
+            updateId);
+
     // Add the portal content as a child section
     tree.registerSections(delegate, id);
   }
 
+  /**
+   * @return The portlet's content loader, or null if it has none or won't be showing its content.
+   */
+  @Nullable
+  public Callable<?> createContentLoader(SectionInfo info) {
+    if ((minimised && !accessibilityService.isAccessibilityMode())
+        || !contentLoader.isContentWanted(info, portletUuid)
+        || !delegate.canView(info)) {
+      return null;
+    }
+    return delegate.createContentLoader(info);
+  }
+
+  public long getContentBudget() {
+    return delegate.getContentBudget();
+  }
+
+  public String getPortletUuid() {
+    return portletUuid;
+  }
+
   protected JSCallable getResultUpdater(SectionTree tree, ParameterizedEvent eventHandler) {
     if (eventHandler == null) {
       return new ReloadFunction(true);
@@ -160,6 +211,12 @@ public class PortletRendererWrapper
     return new SubmitValuesFunction(eventHandler);
   }
 
+  @EventHandlerMethod
+  public void loadContent(SectionInfo info) {
+    getModel(info).setLoadContent(true);
+    contentLoader.setRequestedContent(info, portletUuid);
+  }
+
   @EventHandlerMethod
   public void minimisePortlet(SectionInfo info) {
     minimised = !minimised;
@@ -197,6 +254,15 @@ public class PortletRendererWrapper
     private String uuid;
     private String type;
     private String style;
+    private boolean loadContent;
+
+    public boolean isLoadContent() {
+      return loadContent;
+    }
+
+    public void setLoadContent(boolean loadContent) {
+      this.loadContent = loadContent;
+    }
 
     public String getStyle() {
       return style;
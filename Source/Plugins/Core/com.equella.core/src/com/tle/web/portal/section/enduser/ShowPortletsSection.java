@@ -103,6 +103,8 @@ public class ShowPortletsSection
                 new ObjectExpression("movedCallback", portletMovedFunction)));
       }
 
+      portletWebService.loadPortletContent(context, tree);
+
       final GenericTemplateResult res = new GenericTemplateResult();
       res.addNamedResult(
           CombinedLayout.TOP,
@@ -93,6 +93,14 @@ public interface PortletWebService {
    */
   SectionRenderable renderPortlets(RenderContext info, SectionTree tree, int position);
 
+  /**
+   * Starts loading the content of all the portlets in the tree at once, so that rendering them one
+   * after the other only waits as long as the slowest.
+   *
+   * @param tree Must have been created by buildRendererTree
+   */
+  void loadPortletContent(SectionInfo info, SectionTree tree);
+
   /**
    * Determine if the user has any visible portlets. If not, then the 'welcome to EQUELLA screen
    * will show'
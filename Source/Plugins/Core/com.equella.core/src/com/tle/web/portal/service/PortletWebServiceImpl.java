@@ -44,6 +44,7 @@ import com.tle.web.portal.editor.PortletEditor;
 import com.tle.web.portal.events.PortletsUpdatedEvent;
 import com.tle.web.portal.events.PortletsUpdatedEvent.PortletUpdateEventType;
 import com.tle.web.portal.events.PortletsUpdatedEventListener;
+import com.tle.web.portal.renderer.PortletContentLoader;
 import com.tle.web.portal.renderer.PortletContentRenderer;
 import com.tle.web.portal.renderer.PortletRendererWrapper;
 import com.tle.web.portal.section.common.PortletContributionSection;
@@ -65,6 +66,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
@@ -84,6 +86,7 @@ public class PortletWebServiceImpl
       CacheBuilder.newBuilder().expireAfterAccess(2, TimeUnit.DAYS).build();
 
   @Inject private Provider<PortletRendererWrapper> rendererFactory;
+  @Inject private PortletContentLoader contentLoader;
   @Inject private PortletService portletService;
   @Inject private EventService eventService;
   @Inject private RegistrationController controller;
@@ -436,6 +439,22 @@ public class PortletWebServiceImpl
     return SectionUtils.renderSectionsCombined(info, sectionIds);
   }
 
+  @Override
+  public void loadPortletContent(SectionInfo info, SectionTree tree) {
+    for (String key : new String[] {TOP_PORTLETS_KEY, LEFT_PORTLETS_KEY, RIGHT_PORTLETS_KEY}) {
+      final List<SectionId> sectionIds = tree.getAttribute(key);
+      for (SectionId sectionId : sectionIds) {
+        final PortletRendererWrapper wrapper = (PortletRendererWrapper) sectionId;
+        final Callable<?> loader = wrapper.createContentLoader(info);
+        if (loader != null) {
+          final Portlet portlet = portletService.getByUuid(wrapper.getPortletUuid());
+          contentLoader.startLoad(
+              info, portlet.getUuid(), portlet.getType(), loader, wrapper.getContentBudget());
+        }
+      }
+    }
+  }
+
   @Override
   public boolean hasPortlets(SectionInfo info, SectionTree tree) {
     final List<SectionId> topSectionIds = tree.getAttribute(TOP_PORTLETS_KEY);
@@ -31,16 +31,24 @@ import javax.inject.Singleton;
 @Bind
 @Singleton
 public class PortalStandardConstants {
-  public static final String FEED_CACHE_FILE = "rss.xml"; // $NON-NLS-1$
   private static final int FEED_MAX_RESULTS = 30;
   /** 10MB should be an AMPLE default */
   private static final int FEED_MAX_BYTE_SIZE = 10 * 1024 * 1024;
   /** two hours is a reasonable max session time I'd say */
   private static final long FEED_CACHE_TIMEOUT = TimeUnit.DAYS.toMillis(2);
+  /** Feed hosts that take longer than this to connect or respond are given up on */
+  private static final long FEED_FETCH_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+  /** Feeds that take longer than this to download in total are given up on */
+  private static final long FEED_FETCH_DEADLINE = TimeUnit.SECONDS.toMillis(30);
+  /** How long a dashboard waits on a feed that hasn't been fetched before */
+  private static final long FEED_FIRST_FETCH_WAIT = TimeUnit.SECONDS.toMillis(3);
 
   private int maxRssResults = FEED_MAX_RESULTS;
   private int maxRssByteSize = FEED_MAX_BYTE_SIZE;
   private long rssCacheTimeout = FEED_CACHE_TIMEOUT;
+  private long rssFetchTimeout = FEED_FETCH_TIMEOUT;
+  private long rssFetchDeadline = FEED_FETCH_DEADLINE;
+  private long rssFirstFetchWait = FEED_FIRST_FETCH_WAIT;
 
   public int getMaxRssResults() {
     return maxRssResults;
@@ -65,4 +73,28 @@ public class PortalStandardConstants {
   public void setRssCacheTimeout(long rssCacheTimeout) {
     this.rssCacheTimeout = rssCacheTimeout;
   }
+
+  public long getRssFetchTimeout() {
+    return rssFetchTimeout;
+  }
+
+  public void setRssFetchTimeout(long rssFetchTimeout) {
+    this.rssFetchTimeout = rssFetchTimeout;
+  }
+
+  public long getRssFetchDeadline() {
+    return rssFetchDeadline;
+  }
+
+  public void setRssFetchDeadline(long rssFetchDeadline) {
+    this.rssFetchDeadline = rssFetchDeadline;
+  }
+
+  public long getRssFirstFetchWait() {
+    return rssFirstFetchWait;
+  }
+
+  public void setRssFirstFetchWait(long rssFirstFetchWait) {
+    this.rssFirstFetchWait = rssFirstFetchWait;
+  }
 }
@@ -21,15 +21,14 @@ package com.tle.web.portal.standard.editor;
 import com.dytech.edge.common.Constants;
 import com.tle.common.Check;
 import com.tle.common.portal.entity.Portlet;
-import com.tle.core.filesystem.CachedFile;
 import com.tle.core.guice.Bind;
 import com.tle.core.i18n.BundleNameValue;
 import com.tle.core.portal.service.PortletEditingBean;
-import com.tle.core.services.FileSystemService;
 import com.tle.web.freemarker.FreemarkerFactory;
 import com.tle.web.freemarker.annotations.ViewFactory;
 import com.tle.web.portal.editor.AbstractPortletEditorSection;
 import com.tle.web.portal.standard.PortalStandardConstants;
+import com.tle.web.portal.standard.service.PortletStandardWebService;
 import com.tle.web.resources.PluginResourceHelper;
 import com.tle.web.resources.ResourcesService;
 import com.tle.web.sections.SectionInfo;
@@ -65,7 +64,7 @@ public class RssPortletEditorSection
   @PlugKey("editor.rss.label.titledesc")
   private static String titleAndDescription;
 
-  @Inject private FileSystemService fileService;
+  @Inject private PortletStandardWebService portletWebService;
   @Inject private PortalStandardConstants portalSettings;
 
   @ViewFactory private FreemarkerFactory thisView;
@@ -121,8 +120,7 @@ public class RssPortletEditorSection
     portlet.setAttribute(KEY_TITLEONLY, displayTypeList.getSelectedValueAsString(info));
     // invalidate the cache (if any)
     if (portlet.getId() != 0) {
-      CachedFile rssCache = new CachedFile(portlet.getUuid());
-      fileService.removeFile(rssCache, PortalStandardConstants.FEED_CACHE_FILE);
+      portletWebService.invalidateRssFeed(portlet.getUuid());
     }
   }
 
@@ -33,5 +33,9 @@ public class PortalOptionsModule extends PropertiesModule {
     bindInt("portalSettings.maxRssResults");
     bindInt("portalSettings.maxRssByteSize");
     bindLong("portalSettings.rssCacheTimeout");
+    bindLong("portalSettings.rssFetchTimeout");
+    bindLong("portalSettings.rssFirstFetchWait");
+    bindInt("portalSettings.contentLoaderThreads");
+    bindInt("portalSettings.contentLoaderQueue");
   }
 }
@@ -23,6 +23,7 @@ import com.tle.beans.item.Item;
 import com.tle.beans.item.ItemId;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.portal.entity.impl.PortletRecentContrib;
+import com.tle.common.searching.SearchResults;
 import com.tle.core.guice.Bind;
 import com.tle.core.i18n.BundleCache;
 import com.tle.web.freemarker.FreemarkerFactory;
@@ -56,6 +57,7 @@ import com.tle.web.viewurl.ViewItemUrlFactory;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
 
 /** @author aholland */
@@ -83,9 +85,9 @@ public class RecentContribPortletRenderer
   public SectionRenderable renderHtml(RenderEventContext context) throws Exception {
     final RecentContribPortletRendererModel model = getModel(context);
 
-    PortletRecentContrib extra = (PortletRecentContrib) portlet.getExtraData();
     try {
-      final List<Item> results = portletStandardService.getRecentContributions(extra);
+      final SearchResults<Item> searchResults = getLoadedContent(context);
+      final List<Item> results = searchResults.getResults();
       List<RecentContribResult> resultList = new ArrayList<RecentContribResult>();
       for (Item item : results) {
         if (item == null) {
@@ -124,6 +126,17 @@ public class RecentContribPortletRenderer
     return view.createResult("recentportlet.ftl", context);
   }
 
+  @Override
+  public Callable<?> createContentLoader(SectionInfo info) {
+    final PortletRecentContrib extra = (PortletRecentContrib) portlet.getExtraData();
+    return new Callable<SearchResults<Item>>() {
+      @Override
+      public SearchResults<Item> call() {
+        return portletStandardService.searchRecentContributions(extra);
+      }
+    };
+  }
+
   @EventHandlerMethod
   public void showMore(SectionInfo info) {
     RecentContribPortletRendererModel model = getModel(info);
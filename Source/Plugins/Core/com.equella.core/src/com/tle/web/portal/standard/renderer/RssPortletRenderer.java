@@ -18,26 +18,14 @@
 
 package com.tle.web.portal.standard.renderer;
 
-import com.dytech.edge.common.Constants;
-import com.google.common.io.Closeables;
-import com.rometools.rome.feed.WireFeed;
-import com.rometools.rome.feed.atom.Content;
-import com.rometools.rome.feed.atom.Entry;
-import com.rometools.rome.feed.atom.Feed;
-import com.rometools.rome.feed.atom.Link;
-import com.rometools.rome.feed.rss.Channel;
-import com.rometools.rome.feed.rss.Item;
-import com.rometools.rome.io.WireFeedInput;
-import com.tle.common.util.ByteLimitedInputStream;
-import com.tle.common.util.ByteLimitedInputStream.ByteLimitExceededException;
-import com.tle.core.filesystem.CachedFile;
 import com.tle.core.guice.Bind;
-import com.tle.core.services.FileSystemService;
 import com.tle.web.freemarker.FreemarkerFactory;
 import com.tle.web.freemarker.annotations.ViewFactory;
 import com.tle.web.portal.renderer.PortletContentRenderer;
 import com.tle.web.portal.standard.PortalStandardConstants;
 import com.tle.web.portal.standard.editor.RssPortletEditorSection;
+import com.tle.web.portal.standard.service.PortletStandardWebService;
+import com.tle.web.portal.standard.service.RssFeed;
 import com.tle.web.resources.PluginResourceHelper;
 import com.tle.web.resources.ResourcesService;
 import com.tle.web.sections.SectionInfo;
@@ -62,24 +50,12 @@ import com.tle.web.sections.standard.annotations.Component;
 import com.tle.web.sections.standard.model.HtmlLinkState;
 import com.tle.web.sections.standard.model.SimpleBookmark;
 import com.tle.web.sections.standard.renderers.LinkRenderer;
-import java.io.InputStream;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpMethodBase;
-import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.log4j.Logger;
-import org.jdom2.Document;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.input.sax.XMLReaderJDOMFactory;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
 
 /** @author aholland */
 @SuppressWarnings("nls")
@@ -91,7 +67,7 @@ public class RssPortletRenderer
 
   private static Logger LOGGER = Logger.getLogger(RssPortletRenderer.class);
 
-  @Inject private FileSystemService fileService;
+  @Inject private PortletStandardWebService portletWebService;
   @Inject private PortalStandardConstants portalSettings;
 
   @ViewFactory private FreemarkerFactory view;
@@ -105,163 +81,47 @@ public class RssPortletRenderer
   @Component private Button showLessButton;
 
   @Override
-  @SuppressWarnings("unchecked")
   public SectionRenderable renderHtml(RenderEventContext context) throws Exception {
     final RssPortletRendererModel model = getModel(context);
 
-    CachedFile rssCache = new CachedFile(portlet.getUuid());
-    InputStream cacheStream = null;
     try {
-      final long timeout = portalSettings.getRssCacheTimeout();
-      cacheStream =
-          fileService.retrieveCachedFile(
-              rssCache, PortalStandardConstants.FEED_CACHE_FILE, timeout);
-      if (cacheStream == null) {
-        HttpMethodBase method = new GetMethod(portlet.getConfig());
-        method.setFollowRedirects(true);
-
-        HttpClient client = new HttpClient();
-        client.executeMethod(method);
-
-        try (InputStream remoteStream =
-            new ByteLimitedInputStream(
-                method.getResponseBodyAsStream(), portalSettings.getMaxRssByteSize())) {
-          fileService.write(rssCache, PortalStandardConstants.FEED_CACHE_FILE, remoteStream, false);
-          cacheStream =
-              fileService.retrieveCachedFile(
-                  rssCache, PortalStandardConstants.FEED_CACHE_FILE, timeout);
-        }
+      // Fetched and refreshed in the background, a slow feed host shouldn't hold up the dashboard
+      final RssFeed feed = getLoadedContent(context);
+      if (feed == null) {
+        return new SimpleSectionResult(RESOURCES.getString("rss.error.unavailable"));
       }
-
-      SAXBuilder saxBuilder = createBuilder();
-      final Document doc = saxBuilder.build(cacheStream);
-
-      if (doc.getRootElement().getChildren("tooBig").size() > 0) {
+      if (feed.isTooBig()) {
         return tooBig();
       }
       String titleOnly = portlet.getAttribute(RssPortletEditorSection.KEY_TITLEONLY);
       final boolean showDescription =
           !(titleOnly != null && titleOnly.equals(RssPortletEditorSection.KEY_TITLEONLY));
-      final WireFeed feed = new WireFeedInput().build(doc);
 
-      final List<RssEntry> displayEntries = new ArrayList<RssEntry>();
-      if (feed instanceof Channel) {
-        Channel channel = (Channel) feed;
-
-        model.setTitle(
-            createEntry(
-                channel.getTitle(),
-                channel.getDescription(),
-                channel.getLink(),
-                channel.getPubDate()));
-
-        int maxCounter =
-            (model.isShowMore()
-                ? portalSettings.getMaxRssResults()
-                : Integer.parseInt(portlet.getAttribute(RssPortletEditorSection.KEY_RESULTCOUNT)));
-
-        List<Item> items = channel.getItems();
-        for (Item item : items) {
-          String description = null;
-          if (showDescription) {
-            description = item.getDescription().getValue();
-          }
-          displayEntries.add(
-              createEntry(item.getTitle(), description, item.getLink(), item.getPubDate()));
-          maxCounter--;
-          if (maxCounter == 0) {
-            break;
-          }
-        }
+      model.setTitle(createEntry(feed.getTitle(), true));
 
-      } else if (feed instanceof Feed) {
-        Feed f = (Feed) feed;
+      final int maxCounter =
+          (model.isShowMore()
+              ? portalSettings.getMaxRssResults()
+              : Integer.parseInt(portlet.getAttribute(RssPortletEditorSection.KEY_RESULTCOUNT)));
 
-        String titleLink = "javascript:void(0);";
-        List<Link> altLinks = f.getAlternateLinks();
-        for (Link altLink : altLinks) {
-          if (altLink.getRel() != null && altLink.getRel().equals("self")) {
-            titleLink = altLink.getHref();
-          }
-        }
-        Content subTitle = f.getSubtitle();
-        model.setTitle(
-            createEntry(
-                f.getTitle(),
-                subTitle != null ? subTitle.getValue() : Constants.BLANK,
-                titleLink,
-                f.getUpdated()));
-
-        List<Entry> entries = f.getEntries();
-        for (Entry entry : entries) {
-          String entryLink = "javascript:void(0);";
-          List<Link> entryLinks = entry.getAlternateLinks();
-          for (Link altLink : entryLinks) {
-            if (altLink.getRel() == null || altLink.getRel().equals("alternate")) {
-              entryLink = altLink.getHref();
-            }
-          }
-          String description = null;
-          if (showDescription) {
-            description = entry.getSummary().getValue();
-          }
-          displayEntries.add(
-              createEntry(entry.getTitle(), description, entryLink, entry.getUpdated()));
+      final List<RssEntry> displayEntries = new ArrayList<RssEntry>();
+      for (RssFeed.Entry entry : feed.getEntries()) {
+        if (displayEntries.size() == maxCounter) {
+          break;
         }
+        displayEntries.add(createEntry(entry, showDescription));
       }
       model.setEntries(displayEntries);
 
       return view.createResult("rssportlet.ftl", context);
-    } catch (ByteLimitExceededException limited) {
-      LOGGER.warn(
-          "RSS portlet attempted to download an RSS feed of size greater than "
-              + portalSettings.getMaxRssByteSize()
-              + " bytes");
-      // cache a placeholder so that we don't attempt to keep downloading
-      // massive feeds!
-      fileService.write(
-          rssCache,
-          PortalStandardConstants.FEED_CACHE_FILE,
-          new StringReader("<rss><tooBig>1</tooBig></rss>"),
-          false);
-
-      return tooBig();
     } catch (Exception e) {
       LOGGER.error("Error displaying RSS portlet [" + portlet.getId() + "]", e);
 
       // return a 'cannot display portlet' result
       return new SimpleSectionResult(RESOURCES.getString("generic.error.unspecified"));
-    } finally {
-      Closeables.close(cacheStream, false);
     }
   }
 
-  private SAXBuilder createBuilder() {
-    return new SAXBuilder(
-        new XMLReaderJDOMFactory() {
-          @Override
-          public XMLReader createXMLReader() throws JDOMException {
-            SAXParserFactory fac = SAXParserFactory.newInstance();
-            // All JDOM parsers are namespace aware.
-            fac.setNamespaceAware(true);
-            fac.setValidating(false);
-            try {
-              fac.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-              return fac.newSAXParser().getXMLReader();
-            } catch (ParserConfigurationException | SAXException e) {
-              throw new RuntimeException(e);
-            }
-          }
-
-          @Override
-          public boolean isValidating() {
-            return false;
-          }
-        },
-        null,
-        null);
-  }
-
   @Override
   public boolean canView(SectionInfo info) {
     return true;
@@ -272,17 +132,28 @@ public class RssPortletRenderer
     return new SimpleSectionResult(RESOURCES.getString("rss.error.toobig"));
   }
 
-  private RssEntry createEntry(String title, String description, String url, Date date) {
-    final HtmlLinkState linkState = new HtmlLinkState(new SimpleBookmark(url));
-    final TextLabel label = new TextLabel(title, true);
+  private RssEntry createEntry(RssFeed.Entry entry, boolean showDescription) {
+    final Date date = entry.getDate();
+    final HtmlLinkState linkState = new HtmlLinkState(new SimpleBookmark(entry.getLink()));
+    final TextLabel label = new TextLabel(entry.getTitle(), true);
     linkState.setLabel(label);
     linkState.setTarget("_blank");
     return new RssEntry(
         new LinkRenderer(linkState),
-        description,
+        showDescription ? entry.getDescription() : null,
         date != null ? JQueryTimeAgo.timeAgoTag(date) : null);
   }
 
+  @Override
+  public Callable<?> createContentLoader(SectionInfo info) {
+    return new Callable<RssFeed>() {
+      @Override
+      public RssFeed call() {
+        return portletWebService.getRssFeed(portlet);
+      }
+    };
+  }
+
   @EventHandlerMethod
   public void showMore(SectionInfo info) {
     RssPortletRendererModel model = getModel(info);
@@ -18,11 +18,28 @@
 
 package com.tle.web.portal.standard.service;
 
+import com.tle.annotation.Nullable;
 import com.tle.beans.item.Item;
+import com.tle.common.portal.entity.Portlet;
 import com.tle.common.portal.entity.impl.PortletRecentContrib;
-import java.util.List;
+import com.tle.common.searching.SearchResults;
 
 /** @author aholland */
 public interface PortletStandardWebService {
-  List<Item> getRecentContributions(PortletRecentContrib portlet);
+  /**
+   * Runs the search for a recent contributions portlet. The items themselves are loaded when the
+   * results are first asked for, so the search can be run on another thread.
+   */
+  SearchResults<Item> searchRecentContributions(PortletRecentContrib portlet);
+
+  /**
+   * Gets the last good copy of an RSS portlet's feed, which is refreshed in the background once it
+   * gets old.
+   *
+   * @return The feed, or null if it hasn't been successfully fetched yet.
+   */
+  @Nullable
+  RssFeed getRssFeed(Portlet portlet);
+
+  void invalidateRssFeed(String portletUuid);
 }
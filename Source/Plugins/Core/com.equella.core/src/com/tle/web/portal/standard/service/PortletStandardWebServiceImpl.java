@@ -18,86 +18,319 @@
 
 package com.tle.web.portal.standard.service;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.dytech.edge.common.Constants;
+import com.rometools.rome.feed.WireFeed;
+import com.rometools.rome.feed.atom.Content;
+import com.rometools.rome.feed.atom.Entry;
+import com.rometools.rome.feed.atom.Feed;
+import com.rometools.rome.feed.atom.Link;
+import com.rometools.rome.feed.rss.Channel;
+import com.rometools.rome.feed.rss.Description;
+import com.rometools.rome.io.WireFeedInput;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.beans.item.Item;
 import com.tle.beans.item.ItemStatus;
 import com.tle.common.Check;
+import com.tle.common.NamedThreadFactory;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.portal.entity.Portlet;
 import com.tle.common.portal.entity.impl.PortletRecentContrib;
 import com.tle.common.search.DefaultSearch;
 import com.tle.common.searching.Search.SortType;
 import com.tle.common.searching.SearchResults;
-import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.util.ByteLimitedInputStream;
+import com.tle.common.util.ByteLimitedInputStream.ByteLimitExceededException;
 import com.tle.core.collection.service.ItemDefinitionService;
 import com.tle.core.freetext.service.FreeTextService;
 import com.tle.core.guice.Bind;
+import com.tle.web.portal.standard.PortalStandardConstants;
+import com.tle.web.portal.standard.service.RssFeedCache.Copy;
+import com.tle.web.portal.standard.service.RssFeedCache.Fetcher;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.log4j.Logger;
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.sax.XMLReaderJDOMFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 /** @author aholland */
+@SuppressWarnings("nls")
 @Bind(PortletStandardWebService.class)
 @Singleton
 public class PortletStandardWebServiceImpl implements PortletStandardWebService {
+  private static final Logger LOGGER = Logger.getLogger(PortletStandardWebServiceImpl.class);
+
   private static final int RECENT_MAX_RESULTS = 10;
 
-  private final Cache<String, List<Item>> recentCache =
-      CacheBuilder.newBuilder().softValues().expireAfterAccess(30, TimeUnit.MINUTES).build();
+  private static final int FEED_REFRESH_THREADS = 4;
+  private static final int FEED_MAX_CACHED = 1000;
+  private static final long FEED_RETAIN = TimeUnit.DAYS.toMillis(7);
+  private static final long FEED_RETRY = TimeUnit.SECONDS.toMillis(30);
+  private static final String NO_LINK = "javascript:void(0);";
 
   @Inject private ItemDefinitionService collectionService;
   @Inject private FreeTextService freetextService;
+  @Inject private PortalStandardConstants portalSettings;
+
+  private RssFeedCache<RssFeed> feedCache;
+  /** Aborts fetches that are still going at the deadline */
+  private ScheduledExecutorService deadlines;
+
+  @PostConstruct
+  void setupFeedCache() {
+    ExecutorService refreshers =
+        Executors.newFixedThreadPool(
+            FEED_REFRESH_THREADS, new NamedThreadFactory("RssFeedRefresher", true));
+    deadlines =
+        Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("RssFeedDeadline", true));
+    feedCache =
+        new RssFeedCache<RssFeed>(
+            refreshers,
+            portalSettings.getRssCacheTimeout(),
+            FEED_RETRY,
+            FEED_RETAIN,
+            FEED_MAX_CACHED);
+  }
 
   @Override
-  public List<Item> getRecentContributions(PortletRecentContrib portlet) {
-    final String cacheKey = getRecentContribCacheKey(portlet);
-    List<Item> results = recentCache.getIfPresent(cacheKey);
-    if (results == null) {
-      final DefaultSearch search = new DefaultSearch();
-      final Collection<ItemDefinition> collections = portlet.getCollections();
-      if (!Check.isEmpty(collections)) {
-        search.setCollectionUuids(
-            collectionService.convertToUuids(collectionService.filterSearchable(collections)));
-      }
-      search.setQuery(portlet.getQuery());
-      search.setOwner(portlet.getUserId());
-      search.setSortType(SortType.DATEMODIFIED);
+  public SearchResults<Item> searchRecentContributions(PortletRecentContrib portlet) {
+    final DefaultSearch search = new DefaultSearch();
+    final Collection<ItemDefinition> collections = portlet.getCollections();
+    if (!Check.isEmpty(collections)) {
+      search.setCollectionUuids(
+          collectionService.convertToUuids(collectionService.filterSearchable(collections)));
+    }
+    search.setQuery(portlet.getQuery());
+    search.setOwner(portlet.getUserId());
+    search.setSortType(SortType.DATEMODIFIED);
+
+    String status = portlet.getPortlet().getAttribute("status"); // $NON-NLS-1$
+    if (!Check.isEmpty(status)) {
+      search.setItemStatuses(ItemStatus.valueOf(status.toUpperCase()));
+    }
+    search.setNotItemStatuses(ItemStatus.PERSONAL);
+
+    final int age = portlet.getAgeDays();
+    if (age > 0) {
+      final Date now = new Date();
+      final Date start = new Date(now.getTime() - TimeUnit.DAYS.toMillis(age));
+      search.setDateRange(new Date[] {start, now});
+    }
+
+    return freetextService.search(search, 0, RECENT_MAX_RESULTS);
+  }
+
+  @Override
+  public RssFeed getRssFeed(Portlet portlet) {
+    final String url = portlet.getConfig();
+    return feedCache.getFeed(
+        getRssFeedCacheKey(portlet.getUuid()),
+        url,
+        new FeedFetcher(url),
+        portalSettings.getRssFirstFetchWait());
+  }
+
+  @Override
+  public void invalidateRssFeed(String portletUuid) {
+    feedCache.invalidate(getRssFeedCacheKey(portletUuid));
+  }
+
+  /** Portlets keep their UUIDs when an institution is cloned */
+  private String getRssFeedCacheKey(String portletUuid) {
+    return CurrentInstitution.get().getUniqueId() + ':' + portletUuid;
+  }
 
-      String status = portlet.getPortlet().getAttribute("status"); // $NON-NLS-1$
-      if (!Check.isEmpty(status)) {
-        search.setItemStatuses(ItemStatus.valueOf(status.toUpperCase()));
+  private class FeedFetcher implements Fetcher<RssFeed> {
+    private final String url;
+
+    FeedFetcher(String url) {
+      this.url = url;
+    }
+
+    @Override
+    public Copy<RssFeed> fetch(Copy<RssFeed> current) throws Exception {
+      final GetMethod method = new GetMethod(url);
+      method.setFollowRedirects(true);
+      if (current != null) {
+        if (current.getEtag() != null) {
+          method.setRequestHeader("If-None-Match", current.getEtag());
+        }
+        if (current.getLastModified() != null) {
+          method.setRequestHeader("If-Modified-Since", current.getLastModified());
+        }
       }
-      search.setNotItemStatuses(ItemStatus.PERSONAL);
 
-      final int age = portlet.getAgeDays();
-      if (age > 0) {
-        final Date now = new Date();
-        final Date start = new Date(now.getTime() - TimeUnit.DAYS.toMillis(age));
-        search.setDateRange(new Date[] {start, now});
+      final HttpClient client = new HttpClient();
+      final HttpConnectionManagerParams params = client.getHttpConnectionManager().getParams();
+      final int timeout = (int) portalSettings.getRssFetchTimeout();
+      params.setConnectionTimeout(timeout);
+      params.setSoTimeout(timeout);
+
+      // The timeouts only apply to each read, so a host that trickles the feed out could
+      // otherwise hold on to a refresh thread indefinitely
+      final long deadline = portalSettings.getRssFetchDeadline();
+      final ScheduledFuture<?> abort =
+          deadlines.schedule(
+              new Runnable() {
+                @Override
+                public void run() {
+                  method.abort();
+                }
+              },
+              deadline,
+              TimeUnit.MILLISECONDS);
+      try {
+        final int status = client.executeMethod(method);
+        if (current != null && status == HttpStatus.SC_NOT_MODIFIED) {
+          return null;
+        }
+        if (status != HttpStatus.SC_OK) {
+          throw new IOException("Unexpected response " + status);
+        }
+
+        RssFeed feed;
+        try (InputStream in =
+            new ByteLimitedInputStream(
+                method.getResponseBodyAsStream(), portalSettings.getMaxRssByteSize())) {
+          feed = parseFeed(createBuilder().build(in));
+        } catch (ByteLimitExceededException limited) {
+          LOGGER.warn(
+              "RSS portlet attempted to download an RSS feed of size greater than "
+                  + portalSettings.getMaxRssByteSize()
+                  + " bytes");
+          // cache a placeholder so that we don't attempt to keep downloading
+          // massive feeds!
+          feed = RssFeed.tooBig();
+        }
+        return new Copy<RssFeed>(
+            url, feed, getHeader(method, "ETag"), getHeader(method, "Last-Modified"));
+      } catch (Exception e) {
+        if (method.isAborted()) {
+          throw new IOException("Not downloaded within " + deadline + "ms", e);
+        }
+        throw e;
+      } finally {
+        abort.cancel(false);
+        method.releaseConnection();
       }
+    }
 
-      final SearchResults<Item> searchResults =
-          freetextService.search(search, 0, RECENT_MAX_RESULTS);
-      results = searchResults.getResults();
+    private String getHeader(GetMethod method, String name) {
+      final Header header = method.getResponseHeader(name);
+      return header == null ? null : header.getValue();
+    }
+  }
+
+  private RssFeed parseFeed(Document doc) throws Exception {
+    final WireFeed feed = new WireFeedInput().build(doc);
+    final int maxResults = portalSettings.getMaxRssResults();
+
+    final List<RssFeed.Entry> entries = new ArrayList<RssFeed.Entry>();
+    if (feed instanceof Channel) {
+      final Channel channel = (Channel) feed;
+      for (com.rometools.rome.feed.rss.Item item : channel.getItems()) {
+        if (entries.size() == maxResults) {
+          break;
+        }
+        final Description description = item.getDescription();
+        entries.add(
+            new RssFeed.Entry(
+                item.getTitle(),
+                description != null ? description.getValue() : null,
+                item.getLink(),
+                item.getPubDate()));
+      }
+      return new RssFeed(
+          new RssFeed.Entry(
+              channel.getTitle(),
+              channel.getDescription(),
+              channel.getLink(),
+              channel.getPubDate()),
+          entries);
+    } else if (feed instanceof Feed) {
+      final Feed f = (Feed) feed;
+      String titleLink = NO_LINK;
+      for (Link altLink : f.getAlternateLinks()) {
+        if (altLink.getRel() != null && altLink.getRel().equals("self")) {
+          titleLink = altLink.getHref();
+        }
+      }
 
-      // TODO: use the cache? this will mean new items will be missed
-      // until next login
-      // perhaps have a refresh/update button on the portlet?
-      // recentCache.put(cacheKey, results);
+      for (Entry entry : f.getEntries()) {
+        if (entries.size() == maxResults) {
+          break;
+        }
+        String entryLink = NO_LINK;
+        for (Link altLink : entry.getAlternateLinks()) {
+          if (altLink.getRel() == null || altLink.getRel().equals("alternate")) {
+            entryLink = altLink.getHref();
+          }
+        }
+        final Content summary = entry.getSummary();
+        entries.add(
+            new RssFeed.Entry(
+                entry.getTitle(),
+                summary != null ? summary.getValue() : null,
+                entryLink,
+                entry.getUpdated()));
+      }
+      final Content subTitle = f.getSubtitle();
+      return new RssFeed(
+          new RssFeed.Entry(
+              f.getTitle(),
+              subTitle != null ? subTitle.getValue() : Constants.BLANK,
+              titleLink,
+              f.getUpdated()),
+          entries);
     }
-    return results;
+    throw new IOException("Unsupported feed type " + feed.getFeedType());
   }
 
-  /**
-   * This needs to be a composite of user and portlet, i.e. different users may see different
-   * results
-   *
-   * @return
-   */
-  private String getRecentContribCacheKey(PortletRecentContrib portlet) {
-    return CurrentUser.getUserID() + ':' + portlet.getPortlet().getUuid();
+  private SAXBuilder createBuilder() {
+    return new SAXBuilder(
+        new XMLReaderJDOMFactory() {
+          @Override
+          public XMLReader createXMLReader() throws JDOMException {
+            SAXParserFactory fac = SAXParserFactory.newInstance();
+            // All JDOM parsers are namespace aware.
+            fac.setNamespaceAware(true);
+            fac.setValidating(false);
+            try {
+              fac.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+              return fac.newSAXParser().getXMLReader();
+            } catch (ParserConfigurationException | SAXException e) {
+              throw new RuntimeException(e);
+            }
+          }
+
+          @Override
+          public boolean isValidating() {
+            return false;
+          }
+        },
+        null,
+        null);
   }
 }
@@ -0,0 +1,95 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.portal.standard.service;
+
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/** The parts of an RSS or Atom feed shown by the RSS portlet, parsed once per fetch. */
+@NonNullByDefault
+public class RssFeed {
+  private static final RssFeed TOO_BIG = new RssFeed(null, Collections.<Entry>emptyList(), true);
+
+  @Nullable private final Entry title;
+  private final List<Entry> entries;
+  private final boolean tooBig;
+
+  public RssFeed(Entry title, List<Entry> entries) {
+    this(title, entries, false);
+  }
+
+  private RssFeed(@Nullable Entry title, List<Entry> entries, boolean tooBig) {
+    this.title = title;
+    this.entries = Collections.unmodifiableList(entries);
+    this.tooBig = tooBig;
+  }
+
+  /** @return A placeholder for a feed larger than the configured maximum size. */
+  public static RssFeed tooBig() {
+    return TOO_BIG;
+  }
+
+  @Nullable
+  public Entry getTitle() {
+    return title;
+  }
+
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  public boolean isTooBig() {
+    return tooBig;
+  }
+
+  public static class Entry {
+    private final String title;
+    @Nullable private final String description;
+    private final String link;
+    @Nullable private final Date date;
+
+    public Entry(String title, @Nullable String description, String link, @Nullable Date date) {
+      this.title = title;
+      this.description = description;
+      this.link = link;
+      this.date = date;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    @Nullable
+    public String getDescription() {
+      return description;
+    }
+
+    public String getLink() {
+      return link;
+    }
+
+    @Nullable
+    public Date getDate() {
+      return date;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.portal.standard.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.log4j.Logger;
+
+/**
+ * Holds the last good copy of each feed and refreshes it in the background once it is older than
+ * the refresh interval. Renders get whatever copy is held, even a stale one, so they never wait on
+ * the feed's host once the feed has been fetched. Only one refresh per feed runs at a time. A
+ * failed refresh keeps the last good copy and is retried after a short wait, which doubles with
+ * each failure in a row up to the refresh interval.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class RssFeedCache<F> {
+  private static final Logger LOGGER = Logger.getLogger(RssFeedCache.class);
+
+  public interface Fetcher<F> {
+    /**
+     * @param current The last good copy, to make a conditional request with, or null if there isn't
+     *     one.
+     * @return The new copy, or null if the feed hasn't changed since the current copy.
+     */
+    @Nullable
+    Copy<F> fetch(@Nullable Copy<F> current) throws Exception;
+  }
+
+  public static class Copy<F> {
+    private final String url;
+    private final F feed;
+    @Nullable private final String etag;
+    @Nullable private final String lastModified;
+
+    public Copy(String url, F feed, @Nullable String etag, @Nullable String lastModified) {
+      this.url = url;
+      this.feed = feed;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+
+    public String getUrl() {
+      return url;
+    }
+
+    public F getFeed() {
+      return feed;
+    }
+
+    @Nullable
+    public String getEtag() {
+      return etag;
+    }
+
+    @Nullable
+    public String getLastModified() {
+      return lastModified;
+    }
+  }
+
+  private final Cache<String, Holder> feeds;
+  private final Executor executor;
+  private final long refreshMillis;
+  private final long retryMillis;
+
+  /**
+   * @param executor Runs the refreshes.
+   * @param refreshMillis How long a copy is used before it is refreshed.
+   * @param retryMillis How long to wait before trying again after the first failed refresh.
+   * @param retainMillis How long a feed that isn't being viewed is kept.
+   */
+  public RssFeedCache(
+      Executor executor,
+      long refreshMillis,
+      long retryMillis,
+      long retainMillis,
+      int maximumFeeds) {
+    this.executor = executor;
+    this.refreshMillis = refreshMillis;
+    this.retryMillis = retryMillis;
+    this.feeds =
+        CacheBuilder.newBuilder()
+            .expireAfterAccess(retainMillis, TimeUnit.MILLISECONDS)
+            .maximumSize(maximumFeeds)
+            .build();
+  }
+
+  /**
+   * Gets the last good copy of a feed, starting a refresh if it is due. If there is no copy of the
+   * feed from this URL yet, waits up to waitMillis for it to be fetched.
+   *
+   * @return The feed, or null if it hasn't been fetched (yet).
+   */
+  @Nullable
+  public F getFeed(String key, String url, Fetcher<F> fetcher, long waitMillis) {
+    Holder holder = feeds.asMap().get(key);
+    if (holder == null) {
+      Holder newHolder = new Holder();
+      holder = feeds.asMap().putIfAbsent(key, newHolder);
+      if (holder == null) {
+        holder = newHolder;
+      }
+    }
+
+    Future<?> refresh = holder.refreshIfDue(key, url, fetcher);
+    Copy<F> copy = holder.getCopy(url);
+    if (copy == null && refresh != null) {
+      try {
+        refresh.get(waitMillis, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // Still fetching, it will be there next time
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // Logged by the refresh
+      }
+      copy = holder.getCopy(url);
+    }
+    return copy == null ? null : copy.getFeed();
+  }
+
+  /** Forgets the feed so that it is fetched again the next time it is viewed. */
+  public void invalidate(String key) {
+    feeds.invalidate(key);
+  }
+
+  public void invalidateAll() {
+    feeds.invalidateAll();
+  }
+
+  private final class Holder {
+    @Nullable private volatile Copy<F> copy;
+    @Nullable private String checkedUrl;
+    private long nextCheck;
+    private int failures;
+    @Nullable private FutureTask<Void> refreshing;
+
+    @Nullable
+    Copy<F> getCopy(String url) {
+      final Copy<F> current = copy;
+      return current != null && current.getUrl().equals(url) ? current : null;
+    }
+
+    @Nullable
+    synchronized Future<?> refreshIfDue(
+        final String key, final String url, final Fetcher<F> fetcher) {
+      if (refreshing != null) {
+        return refreshing;
+      }
+      if (url.equals(checkedUrl) && System.currentTimeMillis() < nextCheck) {
+        return null;
+      }
+      final FutureTask<Void> task =
+          new FutureTask<Void>(
+              new Runnable() {
+                @Override
+                public void run() {
+                  refresh(key, url, fetcher);
+                }
+              },
+              null);
+      refreshing = task;
+      executor.execute(task);
+      return task;
+    }
+
+    private void refresh(String key, String url, Fetcher<F> fetcher) {
+      Copy<F> fetched = null;
+      boolean failed = true;
+      try {
+        fetched = fetcher.fetch(getCopy(url));
+        failed = false;
+      } catch (Exception e) {
+        LOGGER.warn("Error refreshing feed " + key + " from " + url + ": " + e.getMessage());
+      } finally {
+        // Anyone who sees the new copy must also see that the refresh is over
+        synchronized (this) {
+          if (fetched != null) {
+            copy = fetched;
+          }
+          if (!url.equals(checkedUrl)) {
+            failures = 0;
+          }
+          failures = failed ? failures + 1 : 0;
+          checkedUrl = url;
+          nextCheck = System.currentTimeMillis() + getWait(failures);
+          refreshing = null;
+        }
+      }
+    }
+
+    private long getWait(int failures) {
+      if (failures == 0) {
+        return refreshMillis;
+      }
+      return Math.min(refreshMillis, retryMillis << Math.min(failures - 1, 16));
+    }
+  }
+}
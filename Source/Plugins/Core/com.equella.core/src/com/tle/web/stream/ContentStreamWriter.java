@@ -18,6 +18,7 @@
 
 package com.tle.web.stream;
 
+import com.google.common.base.Strings;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -27,6 +28,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.inject.Singleton;
@@ -40,18 +50,23 @@ import org.apache.commons.logging.LogFactory;
 @Bind
 @Singleton
 public class ContentStreamWriter {
-  private static final int RANGEBUFFER_SIZE = 16384;
-  private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+  private static final String BYTES_UNIT = "bytes=";
+  private static final Pattern RANGE_PATTERN = Pattern.compile("^(\\d*)-(\\d*)$");
   private static final Log LOGGER = LogFactory.getLog(ContentStreamWriter.class);
 
-  private static final long[] NOT_RANGE_REQUEST =
-      new long[] {
-        -1L, -1L,
-      };
-  private static final long[] INVALID_RANGE_REQUEST =
-      new long[] {
-        -2L, -2L,
-      };
+  /** Requests for more ranges than this are served the whole content instead. */
+  private static final int MAX_RANGES = 32;
+  /**
+   * Ranges of streamed content closer together than this are sent as one part, it's cheaper than
+   * the part headers.
+   */
+  private static final long RANGE_COALESCE_GAP = 80;
+
+  private static final SecureRandom BOUNDARY_RANDOM = new SecureRandom();
+
+  private static final List<ByteRange> NOT_RANGE_REQUEST = Collections.emptyList();
+  private static final List<ByteRange> INVALID_RANGE_REQUEST =
+      Collections.unmodifiableList(new ArrayList<ByteRange>());
 
   @Inject(optional = true)
   @Named("files.useXSendfile")
@@ -137,32 +152,37 @@ public class ContentStreamWriter {
           }
 
           // Check for a range request?
-          final long[] range = getRange(request, contentStream);
+          final List<ByteRange> ranges = getRanges(request, contentStream, isCalculateETag);
 
           // Invalid range request? Setup headers and return
           // serving nothing.
-          if (range == INVALID_RANGE_REQUEST) {
+          if (ranges == INVALID_RANGE_REQUEST) {
             response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
             response.setHeader("Content-Range", "bytes */" + contentLength);
             response.setContentLength(-1);
             return;
           }
 
+          if (ranges.size() > 1) {
+            serveMultipleRanges(response, contentStream, outputStream, ranges);
+            return;
+          }
+
           // Valid range request. Modify headers for partial
           // content and continue to let the content be served.
-          if (range != NOT_RANGE_REQUEST) {
+          final ByteRange range = ranges == NOT_RANGE_REQUEST ? null : ranges.get(0);
+          if (range != null) {
             response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-            response.setContentLength((int) (range[1] - range[0]));
-            response.setHeader(
-                "Content-Range", "bytes " + range[0] + "-" + (range[1] - 1) + "/" + contentLength);
+            response.setContentLengthLong(range.getLength());
+            response.setHeader("Content-Range", range.getContentRange(contentLength));
           }
 
           // Is Tomcat's SendFile support available?
           if (contentLength > 0
               && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))
               && directFile != null) {
-            final long start = range == NOT_RANGE_REQUEST ? 0L : range[0];
-            final long end = range == NOT_RANGE_REQUEST ? contentLength : range[1];
+            final long start = range == null ? 0L : range.start;
+            final long end = range == null ? contentLength : range.end;
 
             request.setAttribute(
                 "org.apache.tomcat.sendfile.filename", directFile.getCanonicalPath());
@@ -180,7 +200,8 @@ public class ContentStreamWriter {
     }
   }
 
-  private long[] getRange(HttpServletRequest request, ContentStream contentStream) {
+  private List<ByteRange> getRanges(
+      HttpServletRequest request, ContentStream contentStream, boolean isCalculateETag) {
     final long contentLength = contentStream.getContentLength();
     if (contentLength < 0) {
       return NOT_RANGE_REQUEST;
@@ -191,23 +212,67 @@ public class ContentStreamWriter {
       return NOT_RANGE_REQUEST;
     }
 
-    long[] range = parseRange(rangeHeader, contentLength);
-    if (range == null) {
+    // The client's copy is out of date, so it gets the whole thing instead
+    if (!isIfRangeSatisfied(request, contentStream, isCalculateETag)) {
+      return NOT_RANGE_REQUEST;
+    }
+
+    List<ByteRange> ranges = parseRanges(rangeHeader, contentLength);
+    if (ranges == null) {
       return INVALID_RANGE_REQUEST;
     }
+    if (ranges.size() > MAX_RANGES) {
+      // Not worth the overhead, and a common way of abusing multipart responses
+      return NOT_RANGE_REQUEST;
+    }
+    return ranges;
+  }
 
-    return range;
+  private boolean isIfRangeSatisfied(
+      HttpServletRequest request, ContentStream contentStream, boolean isCalculateETag) {
+    final String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+
+    if (ifRange.startsWith("W/")) {
+      // Weak entity tags can never be used for ranges
+      return false;
+    }
+
+    if (!ifRange.startsWith("\"")) {
+      try {
+        final long lastModified = contentStream.getLastModified();
+        return request.getDateHeader("If-Range") == lastModified - (lastModified % 1000);
+      } catch (IllegalArgumentException notADate) {
+        // Some clients send back entity tags without the quotes
+      }
+    }
+    return isCalculateETag
+        && unquote(ifRange).equals(unquote(Strings.nullToEmpty(contentStream.calculateETag())));
+  }
+
+  /** Entity tags must be quoted strings, but not all content streams quote them. */
+  static String quote(String etag) {
+    return etag.startsWith("\"") ? etag : '"' + etag + '"';
+  }
+
+  static String unquote(String etag) {
+    if (etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+      return etag.substring(1, etag.length() - 1);
+    }
+    return etag;
   }
 
   private void serveFromStream(
       HttpServletResponse response,
       ContentStream contentStream,
       @Nullable OutputStream outputStream,
-      long[] range)
+      @Nullable ByteRange range)
       throws IOException {
     final OutputStream out = (outputStream == null ? response.getOutputStream() : outputStream);
-    try (InputStream input = contentStream.getInputStream()) {
-      if (range == NOT_RANGE_REQUEST) {
+    if (range == null) {
+      try (InputStream input = contentStream.getInputStream()) {
         // While we may be able to handle range requests when we don't
         // know the content length, it's only really going to get here
         // for dynamically generated content where we usually don't know
@@ -217,52 +282,157 @@ public class ContentStreamWriter {
         out.flush();
         return;
       }
+    }
 
-      // We're here because it's a range request
-      long startByte = range[0];
-      long maxBytes = range[1] - startByte;
-
-      if (input.skip(startByte) != startByte) {
-        throw new IOException("Failed to skip to right part of file");
+    // We're here because it's a range request
+    final File directFile = contentStream.getDirectFile();
+    if (directFile != null) {
+      try (FileChannel channel = FileChannel.open(directFile.toPath(), StandardOpenOption.READ)) {
+        transfer(channel, range, out);
       }
-
-      final byte[] rangeBuffer = new byte[RANGEBUFFER_SIZE];
-      while (maxBytes > 0) {
-        int readBytes = input.read(rangeBuffer, 0, (int) Math.min(maxBytes, RANGEBUFFER_SIZE));
-        if (readBytes == -1) {
-          break;
-        }
-        out.write(rangeBuffer, 0, readBytes);
-        maxBytes -= readBytes;
+    } else {
+      try (InputStream input = contentStream.getInputStream()) {
+        ByteStreams.skipFully(input, range.start);
+        copy(input, range, out);
       }
-      out.flush();
     }
+    out.flush();
   }
 
-  private long[] parseRange(String rangeHeader, long length) {
-    Matcher matcher = RANGE_PATTERN.matcher(rangeHeader);
-    if (!matcher.matches()) {
-      return null;
+  /**
+   * Serves a multipart/byteranges response. Overlapping ranges are always merged so no byte is sent
+   * twice. Files are read at each requested position, other content is read once from start to
+   * finish so the ranges are served in order.
+   */
+  private void serveMultipleRanges(
+      HttpServletResponse response,
+      ContentStream contentStream,
+      @Nullable OutputStream outputStream,
+      List<ByteRange> requested)
+      throws IOException {
+    final long contentLength = contentStream.getContentLength();
+    final File directFile = contentStream.getDirectFile();
+    final List<ByteRange> ranges =
+        ByteRange.coalesce(requested, directFile != null ? 0 : RANGE_COALESCE_GAP);
+    final String boundary = Long.toHexString(BOUNDARY_RANDOM.nextLong());
+
+    final List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+    long length = 0;
+    for (ByteRange range : ranges) {
+      final byte[] partHeader =
+          ("\r\n--"
+                  + boundary
+                  + "\r\nContent-Type: "
+                  + contentStream.getMimeType()
+                  + "\r\nContent-Range: "
+                  + range.getContentRange(contentLength)
+                  + "\r\n\r\n")
+              .getBytes(StandardCharsets.ISO_8859_1);
+      partHeaders.add(partHeader);
+      length += partHeader.length + range.getLength();
     }
+    final byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    length += end.length;
 
-    long start;
-    long end = length;
-    String rangeStart = matcher.group(1);
-    String rangeEnd = matcher.group(2);
-    if (rangeStart.isEmpty()) {
-      start = length - Long.parseLong(rangeEnd);
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setContentLengthLong(length);
+
+    final OutputStream out = (outputStream == null ? response.getOutputStream() : outputStream);
+    if (directFile != null) {
+      try (FileChannel channel = FileChannel.open(directFile.toPath(), StandardOpenOption.READ)) {
+        for (int i = 0; i < ranges.size(); i++) {
+          out.write(partHeaders.get(i));
+          transfer(channel, ranges.get(i), out);
+        }
+      }
     } else {
-      start = Long.parseLong(rangeStart);
-      if (!rangeEnd.isEmpty()) {
-        end = Long.parseLong(rangeEnd) + 1;
+      try (InputStream input = contentStream.getInputStream()) {
+        long position = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+          final ByteRange range = ranges.get(i);
+          ByteStreams.skipFully(input, range.start - position);
+          out.write(partHeaders.get(i));
+          copy(input, range, out);
+          position = range.end;
+        }
       }
     }
+    out.write(end);
+    out.flush();
+  }
+
+  private void transfer(FileChannel channel, ByteRange range, OutputStream out) throws IOException {
+    // Flush anything already buffered, the channel writes straight through
+    out.flush();
+    final WritableByteChannel target = Channels.newChannel(out);
+    long position = range.start;
+    long remaining = range.getLength();
+    while (remaining > 0) {
+      final long sent = channel.transferTo(position, remaining, target);
+      if (sent <= 0) {
+        throw new IOException("File is shorter than expected");
+      }
+      position += sent;
+      remaining -= sent;
+    }
+  }
+
+  private void copy(InputStream input, ByteRange range, OutputStream out) throws IOException {
+    final long copied = ByteStreams.copy(ByteStreams.limit(input, range.getLength()), out);
+    if (copied != range.getLength()) {
+      throw new IOException("Content is shorter than expected");
+    }
+  }
 
-    if (start < 0 || start >= length || end > length || end <= start) {
+  /**
+   * Parses a byte ranges header. Ranges which go past the end of the content are shortened, and
+   * ranges which start after the end are dropped.
+   *
+   * @return null if the header is invalid, or none of the ranges can be satisfied
+   */
+  @Nullable
+  static List<ByteRange> parseRanges(String rangeHeader, long length) {
+    if (!rangeHeader.startsWith(BYTES_UNIT)) {
       return null;
     }
 
-    return new long[] {start, end};
+    final List<ByteRange> ranges = new ArrayList<ByteRange>();
+    for (String spec : rangeHeader.substring(BYTES_UNIT.length()).split(",")) {
+      final Matcher matcher = RANGE_PATTERN.matcher(spec.trim());
+      if (!matcher.matches()) {
+        return null;
+      }
+
+      final String rangeStart = matcher.group(1);
+      final String rangeEnd = matcher.group(2);
+      long start;
+      long end = length;
+      try {
+        if (rangeStart.isEmpty()) {
+          if (rangeEnd.isEmpty()) {
+            return null;
+          }
+          start = Math.max(0, length - Long.parseLong(rangeEnd));
+        } else {
+          start = Long.parseLong(rangeStart);
+          if (!rangeEnd.isEmpty()) {
+            final long last = Long.parseLong(rangeEnd);
+            if (last < start) {
+              return null;
+            }
+            end = Math.min(last + 1, length);
+          }
+        }
+      } catch (NumberFormatException tooBig) {
+        return null;
+      }
+
+      if (start < length && start < end) {
+        ranges.add(new ByteRange(start, end));
+      }
+    }
+    return ranges.isEmpty() ? null : ranges;
   }
 
   protected boolean checkModifiedSince(
@@ -285,7 +455,8 @@ public class ContentStreamWriter {
 
     if (isCalculateETag) {
       final String ifNoneMatch = request.getHeader("If-None-Match");
-      final String etag = contentStream.calculateETag();
+      final String calculated = contentStream.calculateETag();
+      final String etag = calculated != null ? quote(calculated) : null;
       if (ifNoneMatch != null) {
         hasBeenModified = hasBeenModified || (!ifNoneMatch.equals(etag));
       } else {
@@ -298,4 +469,42 @@ public class ContentStreamWriter {
 
     return hasBeenModified;
   }
+
+  /** A range of bytes, with an exclusive end. */
+  static final class ByteRange {
+    final long start;
+    final long end;
+
+    ByteRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    long getLength() {
+      return end - start;
+    }
+
+    String getContentRange(long contentLength) {
+      return "bytes " + start + "-" + (end - 1) + "/" + contentLength;
+    }
+
+    /** Sorts the ranges and merges any that overlap or are within gap bytes of each other. */
+    static List<ByteRange> coalesce(List<ByteRange> ranges, long gap) {
+      final List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+      sorted.sort((r1, r2) -> Long.compare(r1.start, r2.start));
+
+      final List<ByteRange> merged = new ArrayList<ByteRange>();
+      ByteRange current = sorted.get(0);
+      for (ByteRange range : sorted.subList(1, sorted.size())) {
+        if (range.start <= current.end + gap) {
+          current = new ByteRange(current.start, Math.max(current.end, range.end));
+        } else {
+          merged.add(current);
+          current = range;
+        }
+      }
+      merged.add(current);
+      return merged;
+    }
+  }
 }
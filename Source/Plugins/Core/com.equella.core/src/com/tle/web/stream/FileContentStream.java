@@ -48,7 +48,8 @@ public class FileContentStream extends AbstractContentStream {
   public String calculateETag() {
     if (etag == null) {
       try {
-        etag = FileSystemHelper.md5recurse(file, new byte[Short.MAX_VALUE]);
+        // A strong entity tag, so it can be used with If-Range
+        etag = '"' + FileSystemHelper.md5recurse(file, new byte[Short.MAX_VALUE]) + '"';
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
@@ -27,6 +27,7 @@ import static com.tle.common.collection.AttachmentConfigConstants.SHOW_FULLSCREE
 import com.dytech.devlib.PropBagEx;
 import com.dytech.edge.exceptions.AttachmentNotFoundException;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.tle.annotation.NonNullByDefault;
 import com.tle.annotation.Nullable;
 import com.tle.beans.entity.LanguageBundle;
@@ -81,6 +82,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import javax.inject.Inject;
 
 @Bind
@@ -257,8 +259,13 @@ public class AttachmentsSection extends AbstractAttachmentsSection<Item, Attachm
       return true;
     }
 
+    Set<String> urls = Sets.newHashSet();
     for (LinkAttachment link : links) {
-      if (!urlCheckerService.isUrlDisabled(link.getUrl())) {
+      urls.add(link.getUrl());
+    }
+    Set<String> disabled = urlCheckerService.getDisabledUrls(urls);
+    for (LinkAttachment link : links) {
+      if (!Check.isEmpty(link.getUrl()) && !disabled.contains(link.getUrl())) {
         return true;
       }
     }
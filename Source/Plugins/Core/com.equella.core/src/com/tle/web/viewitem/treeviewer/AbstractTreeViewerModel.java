@@ -24,12 +24,14 @@ import com.tle.web.sections.annotations.Bookmarked;
 import com.tle.web.sections.generic.CachedData;
 import com.tle.web.viewurl.ViewItemResource;
 import java.util.List;
+import java.util.Set;
 
 public class AbstractTreeViewerModel {
   private String definition;
   private List<NameValue> tabs;
   private final CachedData<ItemNavigationTree> navigationTree =
       new CachedData<ItemNavigationTree>();
+  private final CachedData<Set<String>> disabledUrls = new CachedData<Set<String>>();
   private ViewItemResource resource;
   private String method;
 
@@ -61,6 +63,10 @@ public class AbstractTreeViewerModel {
     return navigationTree;
   }
 
+  public CachedData<Set<String>> getDisabledUrls() {
+    return disabledUrls;
+  }
+
   public String getDefinition() {
     return definition;
   }
@@ -174,7 +174,7 @@ public abstract class AbstractTreeViewerSection<M extends AbstractTreeViewerMode
     split.setDisplayed(info, item.getNavigationSettings().isShowSplitOption());
 
     ItemNavigationTree tree = getNavigationTree(info);
-    boolean oneAttachment = !moreThanOneNodeWithAttachment(tree.getNavigationMap().values());
+    boolean oneAttachment = !moreThanOneNodeWithAttachment(info, tree.getNavigationMap().values());
     // hide tree if only one attachment
     model.setHideTree(oneAttachment);
     model.setHideNavControls(oneAttachment);
@@ -186,11 +186,11 @@ public abstract class AbstractTreeViewerSection<M extends AbstractTreeViewerMode
       SectionInfo info, Link title, BundleLabel itemName, ViewItemResource resource);
 
   private boolean moreThanOneNodeWithAttachment(
-      @Nullable Collection<ItemNavigationNode> treeNodes) {
+      SectionInfo info, @Nullable Collection<ItemNavigationNode> treeNodes) {
     boolean foundFirst = false;
     if (treeNodes != null) {
       for (ItemNavigationNode node : treeNodes) {
-        if (nodeHasAttachment(node)) {
+        if (nodeHasAttachment(info, node)) {
           if (foundFirst) {
             return true;
           } else {
@@ -269,14 +269,14 @@ public abstract class AbstractTreeViewerSection<M extends AbstractTreeViewerMode
             });
   }
 
-  protected boolean nodeHasAttachment(ItemNavigationNode node) {
+  protected boolean nodeHasAttachment(SectionInfo info, ItemNavigationNode node) {
     if (node.getTabs() != null) {
       for (ItemNavigationTab tab : node.getTabs()) {
         Attachment attachment = tab.getAttachment();
         if (attachment != null) {
           // if it's a Link, check if it's disabled
           if (attachment instanceof LinkAttachment
-              && urlCheckerService.isUrlDisabled(((LinkAttachment) attachment).getUrl())) {
+              && isLinkDisabled(info, ((LinkAttachment) attachment).getUrl())) {
             continue;
           }
           return true;
@@ -286,6 +286,34 @@ public abstract class AbstractTreeViewerSection<M extends AbstractTreeViewerMode
     return false;
   }
 
+  private boolean isLinkDisabled(SectionInfo info, String url) {
+    if (Check.isEmpty(url)) {
+      return true;
+    }
+    return getModel(info)
+        .getDisabledUrls()
+        .get(
+            info,
+            new CacheFiller<Set<String>>() {
+              @Override
+              public Set<String> get(SectionInfo ifo) {
+                // Look up every link in the tree at once rather than one node at a time
+                Set<String> urls = new HashSet<String>();
+                for (ItemNavigationNode node : getNavigationTree(ifo).getNavigationMap().values()) {
+                  if (node.getTabs() != null) {
+                    for (ItemNavigationTab tab : node.getTabs()) {
+                      if (tab.getAttachment() instanceof LinkAttachment) {
+                        urls.add(((LinkAttachment) tab.getAttachment()).getUrl());
+                      }
+                    }
+                  }
+                }
+                return urlCheckerService.getDisabledUrls(urls);
+              }
+            })
+        .contains(url);
+  }
+
   public static List<TreeNode> addChildNodes(
       List<ItemNavigationNode> nodes,
       ItemNavigationTree tree,
@@ -336,7 +364,7 @@ public abstract class AbstractTreeViewerSection<M extends AbstractTreeViewerMode
               @Nullable
               @Override
               public String getUrlForNode(ItemNavigationNode node) {
-                if (nodeHasAttachment(node)) {
+                if (nodeHasAttachment(info, node)) {
                   return new BookmarkAndModify(
                           info, events.getNamedModifier("viewNode", node.getUuid()))
                       .getHref();
@@ -0,0 +1,110 @@
+package com.tle.core.connectors.canvas.service;
+
+import com.google.common.base.Function;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tle.core.connectors.canvas.service.CanvasListingCache.CachedPage;
+import com.tle.core.services.http.Request;
+import com.tle.core.services.http.Response;
+import com.tle.core.services.impl.HttpServiceImpl;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CanvasListingCacheTest {
+  private static final String MODULES = "[{\"id\":\"1\",\"name\":\"Week 1\"}]";
+
+  private HttpServer server;
+  private String baseUrl;
+  private final AtomicInteger fullResponses = new AtomicInteger();
+  private final AtomicInteger notModifiedResponses = new AtomicInteger();
+  private volatile String etag = "\"v1\"";
+
+  private HttpServiceImpl httpService;
+  private Function<Request, Response> executor;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/api/v1/courses/1/modules", new ModulesHandler());
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+    httpService = new HttpServiceImpl();
+    executor =
+        new Function<Request, Response>() {
+          @Override
+          public Response apply(Request request) {
+            return httpService.getWebContent(request, null);
+          }
+        };
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void freshPagesAreNotRequested() {
+    CanvasListingCache cache = new CanvasListingCache(60000, 60000, 100);
+    for (int i = 0; i < 10; i++) {
+      CachedPage page = getModules(cache);
+      Assert.assertEquals(MODULES, page.getBody());
+    }
+    Assert.assertEquals(1, fullResponses.get());
+    Assert.assertEquals(9, cache.getHitCount());
+  }
+
+  @Test
+  public void stalePagesAreRevalidated() {
+    CanvasListingCache cache = new CanvasListingCache(0, 60000, 100);
+    getModules(cache);
+    CachedPage page = getModules(cache);
+    Assert.assertEquals(MODULES, page.getBody());
+    Assert.assertEquals("<next>; rel=\"next\"", page.getLink());
+    Assert.assertEquals(1, fullResponses.get());
+    Assert.assertEquals(1, notModifiedResponses.get());
+    Assert.assertEquals(1, cache.getRevalidationCount());
+
+    // Changed on the server
+    etag = "\"v2\"";
+    page = getModules(cache);
+    Assert.assertEquals("\"v2\"", page.getEtag());
+    Assert.assertEquals(2, fullResponses.get());
+  }
+
+  private CachedPage getModules(CanvasListingCache cache) {
+    String url = baseUrl + "/api/v1/courses/1/modules";
+    return cache.getPage(url, new Request(url), executor);
+  }
+
+  private class ModulesHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String currentEtag = etag;
+      exchange.getResponseHeaders().add("ETag", currentEtag);
+      exchange.getResponseHeaders().add("Link", "<next>; rel=\"next\"");
+      if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        notModifiedResponses.incrementAndGet();
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+      fullResponses.incrementAndGet();
+      byte[] body = MODULES.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+}
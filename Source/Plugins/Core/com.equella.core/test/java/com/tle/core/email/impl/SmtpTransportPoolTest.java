@@ -0,0 +1,184 @@
+package com.tle.core.email.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.Message.RecipientType;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmtpTransportPoolTest {
+  private FakeSmtpServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new FakeSmtpServer();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void reusesConnection() throws Exception {
+    SmtpTransportPool pool = new SmtpTransportPool(createSession());
+    int count = 50;
+    for (int i = 0; i < count; i++) {
+      pool.send(createMessage(pool.getSession(), i));
+    }
+    pool.close();
+
+    Assert.assertEquals(count, server.awaitMessages(count));
+    Assert.assertEquals(1, pool.getConnectionsOpened());
+    Assert.assertEquals(count, pool.getMessagesSent());
+  }
+
+  @Test
+  public void reconnectsWhenServerDropsConnection() throws Exception {
+    server.dropAfterMessage = true;
+    SmtpTransportPool pool = new SmtpTransportPool(createSession());
+    for (int i = 0; i < 3; i++) {
+      pool.send(createMessage(pool.getSession(), i));
+    }
+    pool.close();
+
+    Assert.assertEquals(3, server.awaitMessages(3));
+    Assert.assertEquals(3, pool.getConnectionsOpened());
+  }
+
+  @Test
+  public void keepsConnectionWhenAddressRejected() throws Exception {
+    SmtpTransportPool pool = new SmtpTransportPool(createSession());
+    MimeMessage rejected = createMessage(pool.getSession(), 0);
+    rejected.setRecipient(RecipientType.TO, new InternetAddress("rejected@example.com"));
+    try {
+      pool.send(rejected);
+      Assert.fail("Address should have been rejected");
+    } catch (SendFailedException ex) {
+      // Expected
+    }
+    pool.send(createMessage(pool.getSession(), 1));
+    pool.close();
+
+    Assert.assertEquals(1, server.awaitMessages(1));
+    Assert.assertEquals(1, pool.getConnectionsOpened());
+  }
+
+  private Session createSession() {
+    Properties props = new Properties();
+    props.put("mail.transport.protocol", "smtp");
+    props.put("mail.host", "localhost");
+    props.put("mail.smtp.port", Integer.toString(server.getPort()));
+    props.put("mail.from", "sender@example.com");
+    return Session.getInstance(props);
+  }
+
+  private MimeMessage createMessage(Session session, int i) throws Exception {
+    MimeMessage message = new MimeMessage(session);
+    message.setFrom(new InternetAddress("sender@example.com"));
+    message.addRecipient(RecipientType.TO, new InternetAddress("user" + i + "@example.com"));
+    message.setSubject("Notification " + i);
+    message.setText("Message " + i);
+    return message;
+  }
+
+  /** Just enough of an SMTP server to accept messages. */
+  private static class FakeSmtpServer implements Runnable {
+    private final ServerSocket serverSocket = new ServerSocket(0);
+    private final AtomicInteger messages = new AtomicInteger();
+    volatile boolean dropAfterMessage;
+
+    FakeSmtpServer() throws IOException {
+      Thread thread = new Thread(this, "Fake SMTP server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    int awaitMessages(int expected) throws InterruptedException {
+      long end = System.currentTimeMillis() + 5000;
+      while (messages.get() < expected && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+      return messages.get();
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+
+    @Override
+    public void run() {
+      while (!serverSocket.isClosed()) {
+        try {
+          final Socket socket = serverSocket.accept();
+          Thread client =
+              new Thread(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      handle(socket);
+                    }
+                  });
+          client.setDaemon(true);
+          client.start();
+        } catch (IOException e) {
+          return;
+        }
+      }
+    }
+
+    private void handle(Socket socket) {
+      try (Socket s = socket) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8"));
+        Writer out = new OutputStreamWriter(s.getOutputStream(), "UTF-8");
+        reply(out, "220 localhost");
+        String line;
+        while ((line = in.readLine()) != null) {
+          String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line;
+          if (command.equals("DATA")) {
+            reply(out, "354 End data with <CR><LF>.<CR><LF>");
+            while ((line = in.readLine()) != null && !line.equals(".")) {
+              // Discard the message content
+            }
+            messages.incrementAndGet();
+            reply(out, "250 OK");
+            if (dropAfterMessage) {
+              return;
+            }
+          } else if (command.equals("RCPT") && line.contains("rejected@")) {
+            reply(out, "550 No such user");
+          } else if (command.equals("QUIT")) {
+            reply(out, "221 Bye");
+            return;
+          } else {
+            reply(out, "250 OK");
+          }
+        }
+      } catch (IOException e) {
+        // Client went away
+      }
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+      out.write(reply + "\r\n");
+      out.flush();
+    }
+  }
+}
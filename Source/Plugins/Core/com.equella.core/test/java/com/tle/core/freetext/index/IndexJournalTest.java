@@ -0,0 +1,137 @@
+package com.tle.core.freetext.index;
+
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
+import com.tle.beans.item.ItemIdKey;
+import com.tle.core.freetext.index.IndexJournal.Entry;
+import com.tle.core.freetext.index.IndexJournal.Operation;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexJournalTest {
+  private static final ItemIdKey ITEM1 = new ItemIdKey(1, "uuid-1", 1);
+  private static final ItemIdKey ITEM2 = new ItemIdKey(2, "uuid-2", 3);
+
+  private File indexPath;
+
+  @Before
+  public void setUp() {
+    indexPath = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : indexPath.listFiles()) {
+      file.delete();
+    }
+    indexPath.delete();
+  }
+
+  @Test
+  public void newIndexHasNoRecovery() throws Exception {
+    IndexJournal journal = IndexJournal.open(indexPath, Collections.<String, String>emptyMap());
+    Assert.assertNull(journal.getRecovery());
+    journal.close();
+  }
+
+  @Test
+  public void uncommittedChangesAreRecovered() throws Exception {
+    IndexJournal journal = IndexJournal.open(indexPath, Collections.<String, String>emptyMap());
+    journal.write(Collections.singletonList(new Entry(Operation.ADD, 1, 10, ITEM1)));
+    Map<String, String> commit = journal.startCommit();
+    journal.committed(commit);
+    journal.write(Arrays.asList(new Entry(Operation.REMOVE, 2, 20, ITEM2)));
+    journal.close();
+
+    IndexJournal reopened = IndexJournal.open(indexPath, commit);
+    IndexJournal.Recovery recovery = reopened.getRecovery();
+    Assert.assertNotNull(recovery);
+    Assert.assertEquals(1, recovery.getEntries().size());
+    Entry entry = recovery.getEntries().iterator().next();
+    Assert.assertEquals(Operation.REMOVE, entry.getOperation());
+    Assert.assertEquals(20, entry.getInstitutionId());
+    Assert.assertEquals(ITEM2, entry.getItemIdKey());
+    Assert.assertEquals(2, entry.getGeneration());
+    Assert.assertEquals(Collections.singleton(ITEM2), recovery.getUncommittedItems().get(20L));
+    reopened.close();
+  }
+
+  @Test
+  public void entriesWithoutUuidAreRecovered() throws Exception {
+    ItemIdKey keyOnly = new ItemIdKey(3, null, 0);
+    IndexJournal journal = IndexJournal.open(indexPath, Collections.<String, String>emptyMap());
+    Map<String, String> commit = journal.startCommit();
+    journal.write(
+        Arrays.asList(
+            new Entry(Operation.REMOVE, 1, 10, keyOnly), new Entry(Operation.ADD, 1, 10, ITEM1)));
+    journal.close();
+
+    IndexJournal reopened = IndexJournal.open(indexPath, commit);
+    IndexJournal.Recovery recovery = reopened.getRecovery();
+    Assert.assertNotNull(recovery);
+    Assert.assertEquals(2, recovery.getEntries().size());
+    Entry first = recovery.getEntries().iterator().next();
+    Assert.assertEquals(3, first.getItemIdKey().getKey());
+    Assert.assertNull(first.getItemIdKey().getUuid());
+    Assert.assertEquals(ITEM1, Iterables.getLast(recovery.getEntries()).getItemIdKey());
+    reopened.close();
+  }
+
+  @Test
+  public void failedCommitKeepsChanges() throws Exception {
+    IndexJournal journal = IndexJournal.open(indexPath, Collections.<String, String>emptyMap());
+    Map<String, String> lastCommit = journal.startCommit();
+    journal.write(Collections.singletonList(new Entry(Operation.ADD, 1, 10, ITEM1)));
+    // Never makes it to disk
+    journal.startCommit();
+    journal.write(Collections.singletonList(new Entry(Operation.ADD, 2, 10, ITEM2)));
+    journal.close();
+
+    IndexJournal reopened = IndexJournal.open(indexPath, lastCommit);
+    IndexJournal.Recovery recovery = reopened.getRecovery();
+    Assert.assertNotNull(recovery);
+    Assert.assertEquals(2, recovery.getEntries().size());
+    reopened.close();
+  }
+
+  @Test
+  public void recoveryIsKeptUntilIndexed() throws Exception {
+    IndexJournal journal = IndexJournal.open(indexPath, Collections.<String, String>emptyMap());
+    Map<String, String> commit = journal.startCommit();
+    journal.committed(commit);
+    journal.write(Collections.singletonList(new Entry(Operation.ADD, 1, 10, ITEM1)));
+    journal.close();
+
+    // Committed again before the recovered item is reindexed, then stopped
+    IndexJournal recovering = IndexJournal.open(indexPath, commit);
+    Date commitDate = recovering.getRecovery().getCommitDate();
+    recovering.write(Collections.singletonList(new Entry(Operation.ADD, 2, 10, ITEM2)));
+    Map<String, String> recoveringCommit = recovering.startCommit();
+    recovering.committed(recoveringCommit);
+    recovering.close();
+
+    IndexJournal reopened = IndexJournal.open(indexPath, recoveringCommit);
+    IndexJournal.Recovery recovery = reopened.getRecovery();
+    Assert.assertNotNull(recovery);
+    Assert.assertEquals(commitDate, recovery.getCommitDate());
+    Assert.assertEquals(2, recovery.getEntries().size());
+    Assert.assertEquals(ITEM1, recovery.getEntries().iterator().next().getItemIdKey());
+
+    // Once reindexed, the next commit lets them go
+    reopened.recoveryIndexed();
+    Map<String, String> indexedCommit = reopened.startCommit();
+    reopened.committed(indexedCommit);
+    reopened.close();
+
+    IndexJournal indexed = IndexJournal.open(indexPath, indexedCommit);
+    Assert.assertTrue(indexed.getRecovery().getEntries().isEmpty());
+    indexed.close();
+  }
+}
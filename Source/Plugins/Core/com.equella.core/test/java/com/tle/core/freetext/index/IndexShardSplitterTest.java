@@ -0,0 +1,87 @@
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.google.common.collect.ImmutableMap;
+import com.tle.freetext.LuceneConstants;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexShardSplitterTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shardNames() {
+    Assert.assertEquals("inst_7", AbstractIndexEngine.getShardName(7, 123, 1));
+    Assert.assertEquals("inst_7_3of4", AbstractIndexEngine.getShardName(7, 123, 4));
+    Assert.assertEquals("inst_7_1of4", AbstractIndexEngine.getShardName(7, -123, 4));
+  }
+
+  @Test
+  public void shardInstitutions() {
+    Assert.assertEquals(Long.valueOf(7), AbstractIndexEngine.getShardInstitution("inst_7"));
+    Assert.assertEquals(Long.valueOf(7), AbstractIndexEngine.getShardInstitution("inst_7_3of4"));
+    Assert.assertNull(AbstractIndexEngine.getShardInstitution("main"));
+  }
+
+  @Test
+  public void splitByInstitutionAndHash() throws Exception {
+    File indexPath = new File(folder.getRoot(), "index");
+    try (Directory directory = FSDirectory.open(indexPath);
+        IndexWriter writer =
+            new IndexWriter(
+                directory,
+                new IndexWriterConfig(LuceneConstants.LATEST_VERSION, new KeywordAnalyzer()))) {
+      for (int i = 1; i <= 3; i++) {
+        writer.addDocument(document(1, i));
+      }
+      for (int i = 1; i <= 5; i++) {
+        writer.addDocument(document(2, i));
+      }
+      // Deleted documents aren't copied to any shard
+      writer.deleteDocuments(new Term(FreeTextQuery.FIELD_ID, "2"));
+    }
+
+    Map<String, Integer> written =
+        IndexShardSplitter.split(indexPath, Collections.singletonMap(2L, 2));
+    Assert.assertEquals(ImmutableMap.of("inst_1", 2, "inst_2_0of2", 1, "inst_2_1of2", 3), written);
+
+    File shardsPath = AbstractIndexEngine.getShardsPath(indexPath);
+    try (Directory directory = FSDirectory.open(new File(shardsPath, "inst_2_1of2"));
+        IndexReader reader = IndexReader.open(directory)) {
+      Assert.assertEquals(3, reader.numDocs());
+      for (int doc = 0; doc < reader.maxDoc(); doc++) {
+        Document document = reader.document(doc);
+        Assert.assertEquals("2", document.get(FreeTextQuery.FIELD_INSTITUTION));
+        Assert.assertEquals(1, Long.parseLong(document.get(FreeTextQuery.FIELD_ID)) % 2);
+      }
+    }
+  }
+
+  private static Document document(long institution, long id) {
+    Document document = new Document();
+    document.add(
+        new Field(
+            FreeTextQuery.FIELD_INSTITUTION,
+            Long.toString(institution),
+            Field.Store.YES,
+            Field.Index.NOT_ANALYZED));
+    document.add(
+        new Field(
+            FreeTextQuery.FIELD_ID, Long.toString(id), Field.Store.YES, Field.Index.NOT_ANALYZED));
+    return document;
+  }
+}
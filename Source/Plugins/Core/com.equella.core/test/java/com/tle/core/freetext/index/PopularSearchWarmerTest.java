@@ -0,0 +1,65 @@
+package com.tle.core.freetext.index;
+
+import com.tle.freetext.LuceneConstants;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PopularSearchWarmerTest {
+  @Test
+  public void institutionShardsOnlyReplayTheirOwnSearches() throws Exception {
+    PopularSearchWarmer warmer = new PopularSearchWarmer(10);
+    warmer.record(1, query("apple"), null, Sort.RELEVANCE);
+    for (int i = 0; i < 4; i++) {
+      warmer.record(2, query("banana"), null, Sort.RELEVANCE);
+    }
+
+    RAMDirectory directory = new RAMDirectory();
+    new IndexWriter(
+            directory, new IndexWriterConfig(LuceneConstants.LATEST_VERSION, new KeywordAnalyzer()))
+        .close();
+    try (IndexReader reader = IndexReader.open(directory)) {
+      RecordingSearcher searcher = new RecordingSearcher(reader);
+      warmer.warm(searcher, 2L);
+      Assert.assertEquals(Arrays.asList("body:banana"), searcher.queries);
+
+      // The main shard holds every institution. Only the searches replayed above have decayed.
+      searcher.queries.clear();
+      warmer.warm(searcher, null);
+      Assert.assertEquals(Arrays.asList("body:banana", "body:apple"), searcher.queries);
+    }
+  }
+
+  private static Query query(String text) {
+    return new TermQuery(new Term("body", text));
+  }
+
+  private static class RecordingSearcher extends IndexSearcher {
+    final List<String> queries = new ArrayList<String>();
+
+    RecordingSearcher(IndexReader reader) {
+      super(reader);
+    }
+
+    @Override
+    public TopFieldDocs search(Query query, Filter filter, int n, Sort sort) throws IOException {
+      queries.add(query.toString());
+      return super.search(query, filter, n, sort);
+    }
+  }
+}
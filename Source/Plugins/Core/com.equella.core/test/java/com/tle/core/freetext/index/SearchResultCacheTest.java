@@ -0,0 +1,93 @@
+package com.tle.core.freetext.index;
+
+import com.tle.beans.Institution;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.search.DefaultSearch;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.SystemUserState;
+import com.tle.core.freetext.index.SearchResultCache.CachedHit;
+import com.tle.core.freetext.index.SearchResultCache.CachedHits;
+import java.util.Collections;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SearchResultCacheTest {
+  private final Institution institution1 = createInstitution(1);
+  private final Institution institution2 = createInstitution(2);
+
+  private SearchResultCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new SearchResultCache(100, 0);
+    CurrentUser.setUserState(new SystemUserState(null));
+  }
+
+  @After
+  public void tearDown() {
+    CurrentInstitution.set(null);
+    CurrentUser.setUserState(null);
+  }
+
+  @Test
+  public void backgroundSearchesAreCached() {
+    CurrentInstitution.set(null);
+    String key = getKey();
+    Assert.assertNotNull(key);
+    Assert.assertNull(cache.get(key, 1, 0));
+    cache.put(key, createHits(1));
+    Assert.assertNotNull(cache.get(key, 1, 0));
+  }
+
+  @Test
+  public void newReaderOnlyFlushesItsOwnInstitution() {
+    CurrentInstitution.set(institution1);
+    String key1 = getKey();
+    cache.get(key1, 5, 0);
+    cache.put(key1, createHits(5));
+
+    CurrentInstitution.set(institution2);
+    String key2 = getKey();
+    Assert.assertNotEquals(key1, key2);
+    cache.get(key2, 3, 0);
+    cache.put(key2, createHits(3));
+
+    // Institution 1's shard is reopened
+    CurrentInstitution.set(institution1);
+    Assert.assertNull(cache.get(key1, 6, 0));
+
+    CurrentInstitution.set(institution2);
+    Assert.assertNotNull(cache.get(key2, 3, 0));
+    Assert.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void olderReaderDoesNotFlush() {
+    CurrentInstitution.set(institution1);
+    String key = getKey();
+    cache.get(key, 5, 0);
+    cache.put(key, createHits(5));
+
+    // A search still running on the previous searcher
+    Assert.assertNull(cache.get(key, 4, 0));
+    Assert.assertNotNull(cache.get(key, 5, 0));
+  }
+
+  private String getKey() {
+    return cache.getKey(new DefaultSearch(), new MatchAllDocsQuery(), new Sort(), 0, 10, false);
+  }
+
+  private static CachedHits createHits(long readerVersion) {
+    return new CachedHits(readerVersion, 0, 0, 0, Collections.<CachedHit>emptyList());
+  }
+
+  private static Institution createInstitution(long uniqueId) {
+    Institution institution = new Institution();
+    institution.setUniqueId(uniqueId);
+    return institution;
+  }
+}
@@ -0,0 +1,154 @@
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.common.Triple;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.common.usermanagement.user.DefaultUserState;
+import com.tle.core.freetext.filters.SecurityFilter;
+import com.tle.freetext.LuceneConstants;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.OpenBitSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardedSearchTest {
+  private static final String ACL_TYPE = "D";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private TestIndexEngine engine;
+
+  @Before
+  public void setUp() throws Exception {
+    File indexPath = new File(folder.getRoot(), "index");
+    try (Directory directory = FSDirectory.open(indexPath);
+        IndexWriter writer =
+            new IndexWriter(
+                directory,
+                new IndexWriterConfig(LuceneConstants.LATEST_VERSION, new KeywordAnalyzer()))) {
+      for (int i = 1; i <= 20; i++) {
+        // Expression 5 is granted on the multiples of three, and revoked from the multiples of six
+        writer.addDocument(document(i, i % 3 == 0 ? (i % 6 == 0 ? "0R" : "1G") : null));
+      }
+    }
+    IndexShardSplitter.split(indexPath, Collections.singletonMap(2L, 3));
+
+    engine = new TestIndexEngine();
+    engine.setIndexPath(indexPath);
+    engine.setSharding(true, Collections.singletonMap(2L, 3));
+    engine.setJournalEnabled(false);
+    engine.setAnalyzerLanguage("en");
+    engine.afterPropertiesSet();
+
+    DefaultUserState user = new DefaultUserState();
+    user.setAclExpressions(
+        new Triple<Collection<Long>, Collection<Long>, Collection<Long>>(
+            Collections.singleton(5L), null, null));
+    CurrentUser.setUserState(user);
+  }
+
+  @After
+  public void tearDown() {
+    CurrentUser.setUserState(null);
+  }
+
+  @Test
+  public void restrictedUserOnlySeesGrantedItemsInEveryShard() {
+    Assert.assertEquals(3, engine.getInstitutionShards(2L).size());
+
+    final SecurityFilter filter = new SecurityFilter(ACL_TYPE);
+    Set<Long> found =
+        engine.search(
+            new AbstractIndexEngine.Searcher<Set<Long>>() {
+              @Override
+              public Set<Long> search(IndexSearcher searcher) throws IOException {
+                ScoreDoc[] hits = searcher.search(new MatchAllDocsQuery(), filter, 100).scoreDocs;
+                return ids(searcher.getIndexReader(), hits);
+              }
+            });
+    Assert.assertEquals(new TreeSet<Long>(Arrays.asList(3L, 9L, 15L)), found);
+  }
+
+  @Test
+  public void collectedResultsUseTopLevelDocIds() {
+    final SecurityFilter filter = new SecurityFilter(ACL_TYPE);
+    filter.setOnlyCollectResults(true);
+    Set<Long> found =
+        engine.search(
+            new AbstractIndexEngine.Searcher<Set<Long>>() {
+              @Override
+              public Set<Long> search(IndexSearcher searcher) throws IOException {
+                IndexReader reader = searcher.getIndexReader();
+                ScoreDoc[] hits = searcher.search(new MatchAllDocsQuery(), filter, 100).scoreDocs;
+                Assert.assertEquals(20, hits.length);
+
+                OpenBitSet results = filter.getResults(reader);
+                Set<Long> ids = new TreeSet<Long>();
+                for (ScoreDoc hit : hits) {
+                  if (results.get(hit.doc)) {
+                    ids.add(Long.parseLong(reader.document(hit.doc).get(FreeTextQuery.FIELD_ID)));
+                  }
+                }
+                return ids;
+              }
+            });
+    Assert.assertEquals(new TreeSet<Long>(Arrays.asList(3L, 9L, 15L)), found);
+  }
+
+  private static Set<Long> ids(IndexReader reader, ScoreDoc[] hits) throws IOException {
+    Set<Long> ids = new TreeSet<Long>();
+    for (ScoreDoc hit : hits) {
+      ids.add(Long.parseLong(reader.document(hit.doc).get(FreeTextQuery.FIELD_ID)));
+    }
+    return ids;
+  }
+
+  private static Document document(long id, String acl) {
+    Document document = new Document();
+    document.add(
+        new Field(FreeTextQuery.FIELD_INSTITUTION, "2", Field.Store.YES, Field.Index.NOT_ANALYZED));
+    document.add(
+        new Field(
+            FreeTextQuery.FIELD_ID, Long.toString(id), Field.Store.YES, Field.Index.NOT_ANALYZED));
+    if (acl != null) {
+      document.add(new Field(ACL_TYPE + 5, acl, Field.Store.NO, Field.Index.NOT_ANALYZED));
+    }
+    return document;
+  }
+
+  private static class TestIndexEngine extends AbstractIndexEngine {
+    @Override
+    protected Map<String, Analyzer> getAnalyzerFieldMap(
+        Analyzer autoComplete, Analyzer nonStemmed) {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public void checkHealth() {
+      // Nothing to check
+    }
+  }
+}
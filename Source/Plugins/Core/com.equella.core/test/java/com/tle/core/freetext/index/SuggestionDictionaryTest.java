@@ -0,0 +1,127 @@
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.core.freetext.index.SuggestionDictionary.Suggestion;
+import com.tle.freetext.LuceneConstants;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SuggestionDictionaryTest {
+  @Test
+  public void heaviestCompletionsFirst() throws Exception {
+    SuggestionDictionary dictionary =
+        build(
+            document("1", "c1", "apple", "apricot"),
+            document("1", "c1", "apple", "banana"),
+            document("1", "c2", "apple", "apricot"),
+            document("1", "c2", "avocado"),
+            document("2", "c1", "avocado", "apricot"));
+
+    boolean[] all = dictionary.getGroups("1", null);
+    Assert.assertEquals(
+        Arrays.asList("apple", "apricot"), terms(dictionary.suggest("ap", all, 10)));
+    Assert.assertEquals(Arrays.asList("apple", "apricot"), terms(dictionary.suggest("a", all, 2)));
+    Assert.assertEquals(Arrays.asList("apricot"), terms(dictionary.suggest("apr", all, 10)));
+    Assert.assertEquals(3, dictionary.suggest("app", all, 1).get(0).getWeight());
+    Assert.assertTrue(dictionary.suggest("c", all, 10).isEmpty());
+  }
+
+  @Test
+  public void restrictedToInstitutionAndCollections() throws Exception {
+    SuggestionDictionary dictionary =
+        build(
+            document("1", "c1", "apple"),
+            document("1", "c2", "avocado"),
+            document("1", "c2", "avocado"),
+            document("2", "c1", "apricot"));
+
+    Assert.assertEquals(
+        Arrays.asList("apple"),
+        terms(dictionary.suggest("a", dictionary.getGroups("1", Collections.singleton("c1")), 5)));
+    Assert.assertEquals(
+        Arrays.asList("avocado", "apple"),
+        terms(dictionary.suggest("a", dictionary.getGroups("1", null), 5)));
+    Assert.assertEquals(
+        Arrays.asList("apricot"),
+        terms(dictionary.suggest("a", dictionary.getGroups("2", null), 5)));
+  }
+
+  @Test
+  public void largePrefixRangeUsesWeightOrder() throws Exception {
+    List<Document> documents = new ArrayList<Document>();
+    for (int i = 0; i < 500; i++) {
+      documents.add(document("1", "c1", "term" + i));
+    }
+    for (int i = 0; i < 5; i++) {
+      documents.add(document("1", "c1", "term250"));
+    }
+    documents.add(document("1", "c1", "term300"));
+    documents.add(document("1", "c1", "term300"));
+    // Heavier overall, but not in the institution being suggested for
+    documents.add(document("2", "c1", "term100"));
+    documents.add(document("2", "c1", "term100"));
+    documents.add(document("2", "c1", "term100"));
+    SuggestionDictionary dictionary = build(documents.toArray(new Document[documents.size()]));
+
+    List<Suggestion> top = dictionary.suggest("te", dictionary.getGroups("1", null), 2);
+    Assert.assertEquals(Arrays.asList("term250", "term300"), terms(top));
+    Assert.assertEquals(6, top.get(0).getWeight());
+  }
+
+  private static SuggestionDictionary build(Document... documents) throws Exception {
+    try (Directory directory = new RAMDirectory()) {
+      try (IndexWriter writer =
+          new IndexWriter(
+              directory,
+              new IndexWriterConfig(LuceneConstants.LATEST_VERSION, new KeywordAnalyzer()))) {
+        for (Document document : documents) {
+          writer.addDocument(document);
+        }
+      }
+      try (IndexReader reader = IndexReader.open(directory)) {
+        IndexReader[] segments = reader.getSequentialSubReaders();
+        Assert.assertEquals(1, segments.length);
+        return SuggestionDictionary.build(segments[0]);
+      }
+    }
+  }
+
+  private static Document document(String institution, String collection, String... words) {
+    Document document = new Document();
+    document.add(
+        new Field(
+            FreeTextQuery.FIELD_INSTITUTION,
+            institution,
+            Field.Store.NO,
+            Field.Index.NOT_ANALYZED));
+    document.add(
+        new Field(
+            FreeTextQuery.FIELD_ITEMDEFID, collection, Field.Store.NO, Field.Index.NOT_ANALYZED));
+    for (String word : words) {
+      document.add(
+          new Field(
+              FreeTextQuery.FIELD_BODY_NOSTEM, word, Field.Store.NO, Field.Index.NOT_ANALYZED));
+    }
+    return document;
+  }
+
+  private static List<String> terms(List<Suggestion> suggestions) {
+    List<String> terms = new ArrayList<String>();
+    for (Suggestion suggestion : suggestions) {
+      terms.add(suggestion.getTerm());
+    }
+    return terms;
+  }
+}
@@ -0,0 +1,207 @@
+package com.tle.core.harvester;
+
+import com.tle.core.harvester.old.LearningObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HarvestPipelineTest {
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void ingestsInOrderAndCheckpointsEachBatch() throws Exception {
+    RecordingStages stages = new RecordingStages();
+    int end = new HarvestPipeline(executor, 10, 25).run(objects(0, 35).iterator(), 0, stages);
+
+    Assert.assertEquals(35, end);
+    Assert.assertEquals(ids(0, 35), stages.ingested);
+    Assert.assertEquals("[10:lo9, 20:lo19, 30:lo29, 35:lo34]", stages.checkpoints.toString());
+  }
+
+  @Test
+  public void resumesFromPosition() throws Exception {
+    RecordingStages stages = new RecordingStages();
+    int end = new HarvestPipeline(executor, 10, 20).run(objects(20, 35).iterator(), 20, stages);
+
+    Assert.assertEquals(35, end);
+    Assert.assertEquals(ids(20, 35), stages.ingested);
+    Assert.assertEquals("[30:lo29, 35:lo34]", stages.checkpoints.toString());
+  }
+
+  @Test
+  public void failuresDoNotStopTheHarvest() throws Exception {
+    RecordingStages stages = new RecordingStages();
+    stages.failPrepare = "lo3";
+    stages.failFetch = "lo5";
+    stages.upToDate = "lo7";
+    new HarvestPipeline(executor, 5, 10).run(objects(0, 10).iterator(), 0, stages);
+
+    List<String> expected = ids(0, 10);
+    expected.removeAll(Arrays.asList("lo3", "lo5", "lo7"));
+    Assert.assertEquals(expected, stages.ingested);
+    Assert.assertEquals("[lo3, lo5]", stages.failed.toString());
+    Assert.assertEquals("[lo5]", stages.abandoned.toString());
+    Assert.assertEquals("[5:lo4, 10:lo9]", stages.checkpoints.toString());
+  }
+
+  @Test
+  public void duplicateIdentifiersWaitForTheEarlierCopy() throws Exception {
+    List<LearningObject> objects = objects(0, 6);
+    objects.add(3, new LearningObject("lo1", "Object 1 again", new Date(), false));
+
+    RecordingStages stages =
+        new RecordingStages() {
+          @Override
+          public LearningObject prepare(LearningObject lobject) throws Exception {
+            if (lobject.getTitle().endsWith("again")) {
+              // The first copy must have been ingested before the second is looked up
+              Assert.assertTrue(ingested.contains("lo1"));
+            }
+            return super.prepare(lobject);
+          }
+        };
+    int end = new HarvestPipeline(executor, 2, 10).run(objects.iterator(), 0, stages);
+
+    Assert.assertEquals(7, end);
+    Assert.assertEquals("[lo0, lo1, lo2, lo1, lo3, lo4, lo5]", stages.ingested.toString());
+  }
+
+  @Test
+  public void abandonsPreparedWorkWhenStopped() throws Exception {
+    RecordingStages stages =
+        new RecordingStages() {
+          @Override
+          public void checkpoint(int position, LearningObject last) {
+            throw new IllegalStateException("stopped");
+          }
+        };
+    try {
+      new HarvestPipeline(executor, 5, 10).run(objects(0, 20).iterator(), 0, stages);
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+      // Stopped after the first batch
+    }
+
+    Assert.assertEquals(ids(0, 5), stages.ingested);
+    Assert.assertEquals(ids(5, 10), stages.abandoned);
+  }
+
+  @Test
+  public void onlyPreparesAheadOfIngestion() throws Exception {
+    final AtomicInteger enumerated = new AtomicInteger();
+    final Iterator<LearningObject> all = objects(0, 1000).iterator();
+    Iterator<LearningObject> counting =
+        new Iterator<LearningObject>() {
+          @Override
+          public boolean hasNext() {
+            return all.hasNext();
+          }
+
+          @Override
+          public LearningObject next() {
+            enumerated.incrementAndGet();
+            return all.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+
+    RecordingStages stages =
+        new RecordingStages() {
+          @Override
+          public void ingest(LearningObject work) {
+            super.ingest(work);
+            // Never more than the window ahead of what has been ingested
+            Assert.assertTrue(enumerated.get() - ingested.size() < 20);
+          }
+        };
+    new HarvestPipeline(executor, 10, 20).run(counting, 0, stages);
+    Assert.assertEquals(1000, stages.ingested.size());
+  }
+
+  private static List<LearningObject> objects(int from, int to) {
+    List<LearningObject> objects = new ArrayList<LearningObject>();
+    for (int i = from; i < to; i++) {
+      objects.add(new LearningObject("lo" + i, "Object " + i, new Date(), false));
+    }
+    return objects;
+  }
+
+  private static List<String> ids(int from, int to) {
+    List<String> ids = new ArrayList<String>();
+    for (int i = from; i < to; i++) {
+      ids.add("lo" + i);
+    }
+    return ids;
+  }
+
+  private static class RecordingStages implements HarvestPipeline.Stages<LearningObject> {
+    final List<String> ingested = Collections.synchronizedList(new ArrayList<String>());
+    final List<String> checkpoints = new ArrayList<String>();
+    final List<String> failed = new ArrayList<String>();
+    final List<String> abandoned = new ArrayList<String>();
+    String failPrepare;
+    String failFetch;
+    String upToDate;
+
+    @Override
+    public LearningObject prepare(LearningObject lobject) throws Exception {
+      if (lobject.getIdentifier().equals(failPrepare)) {
+        throw new Exception("prepare");
+      }
+      return lobject.getIdentifier().equals(upToDate) ? null : lobject;
+    }
+
+    @Override
+    public void fetch(LearningObject work) throws Exception {
+      // Finish out of order
+      Thread.sleep(Math.abs(work.getIdentifier().hashCode() % 3));
+      if (work.getIdentifier().equals(failFetch)) {
+        throw new Exception("fetch");
+      }
+    }
+
+    @Override
+    public void ingest(LearningObject work) {
+      ingested.add(work.getIdentifier());
+    }
+
+    @Override
+    public void checkpoint(int position, LearningObject last) {
+      checkpoints.add(position + ":" + last.getIdentifier());
+    }
+
+    @Override
+    public void failed(LearningObject lobject, Exception ex) {
+      failed.add(lobject.getIdentifier());
+    }
+
+    @Override
+    public void abandon(LearningObject work) {
+      abandoned.add(work.getIdentifier());
+    }
+  }
+}
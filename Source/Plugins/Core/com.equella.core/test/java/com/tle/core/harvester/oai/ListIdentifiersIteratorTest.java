@@ -0,0 +1,119 @@
+package com.tle.core.harvester.oai;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tle.core.harvester.oai.data.Header;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Runs against a local OAI-PMH repository serving synthetic records. */
+public class ListIdentifiersIteratorTest {
+  private static final int PAGE_SIZE = 10;
+
+  private HttpServer server;
+  private OAIClient client;
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile int records;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/oai", new OAIHandler());
+    server.start();
+    client = new OAIClient(new URL("http://localhost:" + server.getAddress().getPort() + "/oai"));
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void pagesAreFetchedAsTheyAreNeeded() throws Exception {
+    records = 35;
+    ListIdentifiersIterator headers =
+        ListIdentifiersIterator.start(client, null, "2020-01-01", null, "oai_dc");
+    Assert.assertEquals(1, requests.get());
+
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      ids.add(headers.next().getIdentifier());
+    }
+    Assert.assertEquals(1, requests.get());
+
+    while (headers.hasNext()) {
+      Header header = headers.next();
+      ids.add(header.getIdentifier());
+    }
+    Assert.assertEquals(4, requests.get());
+    Assert.assertEquals(35, ids.size());
+    Assert.assertEquals("oai:test:0", ids.get(0));
+    Assert.assertEquals("oai:test:34", ids.get(34));
+  }
+
+  @Test
+  public void noRecordsIsEmpty() throws Exception {
+    records = 0;
+    Assert.assertFalse(
+        ListIdentifiersIterator.start(client, null, "2020-01-01", null, "oai_dc").hasNext());
+  }
+
+  private class OAIHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      String query = exchange.getRequestURI().getQuery();
+      int offset = 0;
+      int tokenIndex = query.indexOf("resumptionToken=");
+      if (tokenIndex >= 0) {
+        offset = Integer.parseInt(query.substring(tokenIndex + "resumptionToken=".length()));
+      }
+
+      StringBuilder xml = new StringBuilder();
+      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      xml.append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">");
+      xml.append("<responseDate>2020-01-01T00:00:00Z</responseDate>");
+      xml.append("<request verb=\"ListIdentifiers\">http://localhost/oai</request>");
+      if (records == 0) {
+        xml.append("<error code=\"noRecordsMatch\">No matching records</error>");
+      } else {
+        xml.append("<ListIdentifiers>");
+        int end = Math.min(records, offset + PAGE_SIZE);
+        for (int i = offset; i < end; i++) {
+          xml.append("<header><identifier>oai:test:")
+              .append(i)
+              .append("</identifier><datestamp>2020-01-02</datestamp></header>");
+        }
+        xml.append("<resumptionToken completeListSize=\"")
+            .append(records)
+            .append("\" cursor=\"")
+            .append(offset)
+            .append("\">");
+        if (end < records) {
+          xml.append(end);
+        }
+        xml.append("</resumptionToken>");
+        xml.append("</ListIdentifiers>");
+      }
+      xml.append("</OAI-PMH>");
+
+      byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=UTF-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.tle.core.item.service.impl;
+
+import com.dytech.devlib.PropBagEx;
+import com.tle.beans.item.Item;
+import com.tle.beans.item.ItemXml;
+import java.util.Date;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ItemXmlCacheTest {
+  private static final String XML = "<xml><item><name>Apple</name></item></xml>";
+
+  @Test
+  public void parsedOnceUntilModified() {
+    ItemXmlCache cache = new ItemXmlCache(10000, 5);
+    Item item = item(1, XML);
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals("Apple", cache.getXml(item).getNode("item/name"));
+    }
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(4, cache.getHitCount());
+    Assert.assertEquals(
+        "Item XML cache: Entries[1] Hits[4] Misses[1] Hit rate[80%]", cache.getStatistics());
+
+    item.setDateModified(new Date(2000));
+    item.getItemXml().setXml("<xml><item><name>Banana</name></item></xml>");
+    Assert.assertEquals("Banana", cache.getXml(item).getNode("item/name"));
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void unsavedChangesAreSeen() {
+    ItemXmlCache cache = new ItemXmlCache(10000, 5);
+    Item item = item(1, XML);
+    cache.getXml(item);
+
+    // Same modification date but the XML has been changed in memory
+    item.getItemXml().setXml("<xml><item><name>Cherry</name></item></xml>");
+    Assert.assertEquals("Cherry", cache.getXml(item).getNode("item/name"));
+  }
+
+  @Test
+  public void callersCannotChangeTheCachedCopy() {
+    ItemXmlCache cache = new ItemXmlCache(10000, 5);
+    Item item = item(1, XML);
+
+    PropBagEx first = cache.getXml(item);
+    first.setNode("item/name", "Changed");
+    first.createNode("item/extra", "value");
+
+    PropBagEx second = cache.getXml(item);
+    Assert.assertEquals("Apple", second.getNode("item/name"));
+    Assert.assertFalse(second.nodeExists("item/extra"));
+    Assert.assertEquals(XML, second.toString());
+  }
+
+  @Test
+  public void unsavedItemsAreNotCached() {
+    ItemXmlCache cache = new ItemXmlCache(10000, 5);
+    Item item = item(0, XML);
+    cache.getXml(item);
+    cache.getXml(item);
+    Assert.assertEquals(0, cache.getHitCount());
+    Assert.assertEquals(0, cache.getMissCount());
+  }
+
+  @Test
+  public void weighedByDocumentSize() {
+    String xml = "<xml><item><name>Apple</name></item></xml>";
+    Assert.assertEquals(xml.length() * 4 + 6 * 48, ItemXmlCache.estimateBytes(xml));
+
+    // Only room for one document
+    ItemXmlCache cache = new ItemXmlCache(ItemXmlCache.estimateBytes(xml) + 10, 5);
+    cache.getXml(item(1, xml));
+    cache.getXml(item(2, xml));
+    cache.getXml(item(1, xml));
+    Assert.assertEquals(3, cache.getMissCount());
+  }
+
+  private static Item item(long id, String xml) {
+    Item item = new Item();
+    item.setId(id);
+    item.setDateModified(new Date(1000));
+    ItemXml itemXml = new ItemXml();
+    itemXml.setXml(xml);
+    item.setItemXml(itemXml);
+    return item;
+  }
+}
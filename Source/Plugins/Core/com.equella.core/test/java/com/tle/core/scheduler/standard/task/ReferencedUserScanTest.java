@@ -0,0 +1,125 @@
+package com.tle.core.scheduler.standard.task;
+
+import com.tle.core.scheduler.standard.task.ReferencedUserScan.ReferencedUserSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReferencedUserScanTest {
+  @Test
+  public void pagesThroughEverySource() {
+    RecordingScan scan = new RecordingScan(3);
+    int checked =
+        scan.run(
+            Arrays.asList(
+                source("a", "u1", "u2", "u3", "u4", "u5", "u6", "u7"), source("b", "u8", "u9")));
+
+    Assert.assertEquals(9, checked);
+    Assert.assertEquals(
+        Arrays.asList(
+            Arrays.asList("u1", "u2", "u3"),
+            Arrays.asList("u4", "u5", "u6"),
+            Arrays.asList("u7"),
+            Arrays.asList("u8", "u9")),
+        scan.pages);
+    Assert.assertEquals(Arrays.asList("a|u3", "a|u6", "a|u7", "b|u9"), scan.saved);
+    Assert.assertNull(scan.checkpoint);
+  }
+
+  @Test
+  public void fullLastPageEndsOnEmptyPage() {
+    RecordingScan scan = new RecordingScan(2);
+    Assert.assertEquals(4, scan.run(Arrays.asList(source("a", "u1", "u2", "u3", "u4"))));
+    Assert.assertEquals(2, scan.pages.size());
+    Assert.assertNull(scan.checkpoint);
+  }
+
+  @Test
+  public void resumesFromCheckpoint() {
+    List<ReferencedUserSource> sources =
+        Arrays.asList(source("a", "u1", "u2"), source("b", "x1", "x2", "x3", "x4", "x5"));
+    RecordingScan interrupted = new RecordingScan(2);
+    interrupted.failOnPage = 3;
+    try {
+      interrupted.run(sources);
+      Assert.fail("Scan should have been interrupted");
+    } catch (IllegalStateException expected) {
+      // Server went down
+    }
+    Assert.assertEquals("b|x2", interrupted.checkpoint);
+
+    RecordingScan resumed = new RecordingScan(2);
+    resumed.checkpoint = interrupted.checkpoint;
+    Assert.assertEquals(3, resumed.run(sources));
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList("x3", "x4"), Arrays.asList("x5")), resumed.pages);
+    Assert.assertNull(resumed.checkpoint);
+  }
+
+  @Test
+  public void unknownCheckpointStartsAgain() {
+    RecordingScan scan = new RecordingScan(2);
+    scan.checkpoint = "removed|u5";
+    Assert.assertEquals(2, scan.run(Arrays.asList(source("a", "u1", "u2"))));
+    Assert.assertEquals(Arrays.asList(Arrays.asList("u1", "u2")), scan.pages);
+  }
+
+  private static ReferencedUserSource source(String name, String... users) {
+    final TreeSet<String> sorted = new TreeSet<String>(Arrays.asList(users));
+    return new ReferencedUserSource(name) {
+      @Override
+      public List<String> getReferencedUsers(String afterUserId, int maxResults) {
+        List<String> page = new ArrayList<String>();
+        if ("".equals(afterUserId)) {
+          // Like Oracle, where an empty string is null and nothing compares greater than it
+          return page;
+        }
+        for (String user : afterUserId == null ? sorted : sorted.tailSet(afterUserId, false)) {
+          if (page.size() == maxResults) {
+            break;
+          }
+          page.add(user);
+        }
+        return page;
+      }
+    };
+  }
+
+  private static class RecordingScan extends ReferencedUserScan {
+    final List<List<String>> pages = new ArrayList<List<String>>();
+    final List<String> saved = new ArrayList<String>();
+    String checkpoint;
+    int failOnPage = -1;
+
+    RecordingScan(int chunkSize) {
+      super(chunkSize);
+    }
+
+    @Override
+    protected String loadCheckpoint() {
+      return checkpoint;
+    }
+
+    @Override
+    protected void saveCheckpoint(String checkpoint) {
+      this.checkpoint = checkpoint;
+      saved.add(checkpoint);
+    }
+
+    @Override
+    protected void clearCheckpoint() {
+      checkpoint = null;
+    }
+
+    @Override
+    protected void checkUsers(List<String> users) {
+      if (pages.size() + 1 == failOnPage) {
+        throw new IllegalStateException();
+      }
+      pages.add(users);
+    }
+  }
+}
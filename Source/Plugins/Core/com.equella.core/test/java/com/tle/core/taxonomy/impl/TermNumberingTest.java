@@ -0,0 +1,66 @@
+package com.tle.core.taxonomy.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TermNumberingTest {
+  // A
+  //   A1
+  //     A1a
+  //   A2
+  // B
+  // C
+  //   C1
+  private static final int[] PARENTS = {-1, 0, 1, 0, -1, -1, 5};
+
+  @Test
+  public void leavesAreTight() {
+    TermNumbering numbering = TermNumbering.number(PARENTS, 0);
+    boolean[] hasChildren = new boolean[PARENTS.length];
+    for (int parent : PARENTS) {
+      if (parent >= 0) {
+        hasChildren[parent] = true;
+      }
+    }
+    for (int i = 0; i < PARENTS.length; i++) {
+      int width = numbering.getRight(i) - numbering.getLeft(i);
+      if (hasChildren[i]) {
+        Assert.assertTrue(width > 1);
+      } else {
+        Assert.assertEquals(1, width);
+      }
+    }
+  }
+
+  @Test
+  public void termsAreNestedWithGaps() {
+    int start = 100;
+    TermNumbering numbering = TermNumbering.number(PARENTS, start);
+    for (int i = 0; i < PARENTS.length; i++) {
+      int left = numbering.getLeft(i);
+      int right = numbering.getRight(i);
+      Assert.assertTrue(left >= start + TermNumbering.SPACING);
+      Assert.assertTrue(right < start + numbering.getWidth());
+
+      int parent = PARENTS[i];
+      if (parent >= 0) {
+        Assert.assertTrue(numbering.getLeft(parent) + TermNumbering.SPACING < left);
+        Assert.assertTrue(right + TermNumbering.SPACING < numbering.getRight(parent));
+      }
+      for (int j = i + 1; j < PARENTS.length; j++) {
+        // Later terms are either inside this one, or after it with a gap in between
+        int otherLeft = numbering.getLeft(j);
+        if (otherLeft > right) {
+          Assert.assertTrue(otherLeft - right > TermNumbering.SPACING);
+        } else {
+          Assert.assertTrue(numbering.getRight(j) < right);
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void childMustFollowParent() {
+    TermNumbering.number(new int[] {-1, -1, 0}, 0);
+  }
+}
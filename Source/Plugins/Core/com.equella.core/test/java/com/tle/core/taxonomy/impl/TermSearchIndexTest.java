@@ -0,0 +1,82 @@
+package com.tle.core.taxonomy.impl;
+
+import com.tle.common.Pair;
+import com.tle.common.taxonomy.SelectionRestriction;
+import com.tle.core.taxonomy.TermResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TermSearchIndexTest {
+  private static TermSearchIndex index() {
+    return TermSearchIndex.build(
+        Arrays.asList(
+            new TermResult("Animals", "Animals", false, "1"),
+            new TermResult("Cats", "Animals\\Cats", false, "2"),
+            new TermResult("Lions", "Animals\\Cats\\Lions", true, "3"),
+            new TermResult("Dogs", "Animals\\Dogs", true, "4"),
+            new TermResult("Plants", "Plants", true, "5")));
+  }
+
+  @Test
+  public void prefixSearch() {
+    Pair<Long, List<TermResult>> results =
+        index().search("ca*", SelectionRestriction.UNRESTRICTED, -1, false);
+    Assert.assertEquals(1, results.getFirst().longValue());
+    Assert.assertEquals("Animals\\Cats", results.getSecond().get(0).getFullTerm());
+
+    results = index().search("animals\\*", SelectionRestriction.UNRESTRICTED, 2, true);
+    Assert.assertEquals(3, results.getFirst().longValue());
+    Assert.assertEquals(Arrays.asList("Animals\\Cats", "Animals\\Cats\\Lions"), fullTerms(results));
+  }
+
+  @Test
+  public void infixSearchWithRestrictions() {
+    TermSearchIndex index = index();
+    Assert.assertEquals(
+        Arrays.asList("Animals\\Dogs", "Animals\\Cats\\Lions"),
+        fullTerms(index.search("*O*", SelectionRestriction.UNRESTRICTED, -1, false)));
+    Assert.assertEquals(
+        Arrays.asList("Animals\\Cats\\Lions", "Animals\\Dogs", "Plants"),
+        fullTerms(index.search("*", SelectionRestriction.LEAF_ONLY, -1, true)));
+    Assert.assertEquals(
+        Arrays.asList("Animals", "Plants"),
+        fullTerms(index.search("*a*s", SelectionRestriction.TOP_LEVEL_ONLY, -1, true)));
+    Assert.assertEquals(
+        Arrays.asList("Animals\\Dogs"),
+        fullTerms(index.search("d_g*", SelectionRestriction.UNRESTRICTED, -1, false)));
+  }
+
+  @Test
+  public void incrementalChanges() {
+    TermSearchIndex index = index().withTerm("Plants\\Trees", "6");
+    Assert.assertEquals(
+        Arrays.asList("Animals\\Cats\\Lions", "Animals\\Dogs", "Plants\\Trees"),
+        fullTerms(index.search("*", SelectionRestriction.LEAF_ONLY, -1, true)));
+
+    index = index.withBranchMoved("Animals\\Cats", "Plants\\Felines");
+    Assert.assertEquals(
+        Arrays.asList("Plants\\Felines\\Lions"),
+        fullTerms(index.search("*lions", SelectionRestriction.UNRESTRICTED, -1, true)));
+    Assert.assertEquals(
+        0,
+        index.search("cats", SelectionRestriction.UNRESTRICTED, -1, false).getFirst().longValue());
+
+    index = index.withoutBranch("Animals\\Dogs");
+    // Animals has no children left
+    Assert.assertEquals(
+        Arrays.asList("Animals", "Plants\\Felines\\Lions", "Plants\\Trees"),
+        fullTerms(index.search("*", SelectionRestriction.LEAF_ONLY, -1, true)));
+    Assert.assertEquals(5, index.size());
+  }
+
+  private static List<String> fullTerms(Pair<Long, List<TermResult>> results) {
+    List<String> fullTerms = new ArrayList<String>();
+    for (TermResult result : results.getSecond()) {
+      fullTerms.add(result.getFullTerm());
+    }
+    return fullTerms;
+  }
+}
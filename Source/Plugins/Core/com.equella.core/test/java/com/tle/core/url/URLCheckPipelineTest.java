@@ -0,0 +1,232 @@
+package com.tle.core.url;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tle.beans.ReferencedURL;
+import com.tle.core.url.URLCheckPipeline.Stats;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class URLCheckPipelineTest {
+  private StandIn fast;
+  private StandIn slow;
+  private StandIn failing;
+  private ListeningExecutorService executor;
+
+  private final List<ReferencedURL> saved = Collections.synchronizedList(Lists.newArrayList());
+  private final List<Integer> batchSizes = Lists.newArrayList();
+
+  @Before
+  public void setUp() throws Exception {
+    fast = new StandIn(0, 200);
+    slow = new StandIn(300, 200);
+    failing = new StandIn(0, 500);
+    executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+  }
+
+  @After
+  public void tearDown() {
+    fast.stop();
+    slow.stop();
+    failing.stop();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void resultsAreSavedInBatches() throws Exception {
+    List<ReferencedURL> urls = Lists.newArrayList();
+    urls.addAll(fast.urls(30));
+    urls.addAll(failing.urls(5));
+
+    Stats stats = pipeline(20, 5, 0, 10).run(urls.iterator());
+
+    Assert.assertEquals(35, stats.getChecked());
+    Assert.assertEquals(5, stats.getFailed());
+    Assert.assertEquals(0, stats.getErrors());
+    Assert.assertEquals(2, stats.getHosts());
+    Assert.assertEquals(35, saved.size());
+    for (int size : batchSizes) {
+      Assert.assertTrue(size <= 10);
+    }
+    Assert.assertTrue(batchSizes.size() < 35);
+  }
+
+  @Test
+  public void slowHostDoesNotHoldUpOthers() throws Exception {
+    List<ReferencedURL> urls = Lists.newArrayList();
+    urls.addAll(slow.urls(10));
+    urls.addAll(fast.urls(20));
+
+    Stats stats = pipeline(4, 2, 0, 1).run(urls.iterator());
+
+    Assert.assertEquals(30, stats.getChecked());
+    Assert.assertTrue(slow.maxConcurrent.get() <= 2);
+    Assert.assertTrue(fast.maxConcurrent.get() <= 2);
+    // All the fast host's URLs are done while the slow host is still working through its own
+    int fastDone = 0;
+    int slowDone = 0;
+    for (ReferencedURL rurl : saved) {
+      if (rurl.getUrl().startsWith(fast.base)) {
+        fastDone++;
+        if (fastDone == 20) {
+          break;
+        }
+      } else {
+        slowDone++;
+      }
+    }
+    Assert.assertTrue("Slow URLs done before fast ones: " + slowDone, slowDone < 6);
+  }
+
+  @Test
+  public void hostsAreGivenADelayBetweenChecks() throws Exception {
+    Stats stats = pipeline(10, 2, 100, 10).run(fast.urls(5).iterator());
+
+    Assert.assertEquals(5, stats.getChecked());
+    Assert.assertTrue(stats.getDuration() >= 400);
+    Assert.assertTrue(fast.maxConcurrent.get() <= 2);
+  }
+
+  @Test
+  public void checkerErrorsAreCounted() throws Exception {
+    URLCheckPipeline pipeline =
+        new URLCheckPipeline(
+            new URLCheckPipeline.Checker() {
+              @Override
+              public ListenableFuture<ReferencedURL> check(ReferencedURL rurl) {
+                throw new IllegalStateException("Broken checker");
+              }
+            },
+            new Saver(),
+            10,
+            2,
+            0,
+            100,
+            10);
+    Stats stats = pipeline.run(fast.urls(3).iterator());
+    Assert.assertEquals(0, stats.getChecked());
+    Assert.assertEquals(3, stats.getErrors());
+    Assert.assertTrue(saved.isEmpty());
+  }
+
+  @Test
+  public void hostKeys() {
+    Assert.assertEquals(
+        URLCheckPipeline.getHostKey("http://Example.com/a"),
+        URLCheckPipeline.getHostKey("http://example.com/b?c"));
+    Assert.assertNotEquals(
+        URLCheckPipeline.getHostKey("http://example.com:8080/a"),
+        URLCheckPipeline.getHostKey("http://example.com/a"));
+    Assert.assertEquals("not a url", URLCheckPipeline.getHostKey("not a url"));
+  }
+
+  private URLCheckPipeline pipeline(int maxConcurrent, int maxPerHost, long delay, int batch) {
+    return new URLCheckPipeline(
+        new URLCheckPipeline.Checker() {
+          @Override
+          public ListenableFuture<ReferencedURL> check(final ReferencedURL rurl) {
+            return executor.submit(
+                new Callable<ReferencedURL>() {
+                  @Override
+                  public ReferencedURL call() throws IOException {
+                    HttpURLConnection conn =
+                        (HttpURLConnection) new URL(rurl.getUrl()).openConnection();
+                    conn.setRequestMethod("HEAD");
+                    int code = conn.getResponseCode();
+                    conn.disconnect();
+                    rurl.setStatus(code);
+                    rurl.setSuccess(code == 200);
+                    rurl.setLastChecked(new Date());
+                    return rurl;
+                  }
+                });
+          }
+        },
+        new Saver(),
+        maxConcurrent,
+        maxPerHost,
+        delay,
+        100,
+        batch);
+  }
+
+  private class Saver implements URLCheckPipeline.ResultHandler {
+    @Override
+    public void checked(List<ReferencedURL> rurls) {
+      batchSizes.add(rurls.size());
+      saved.addAll(rurls);
+    }
+  }
+
+  /** A host that answers every request with the same status after a delay. */
+  private static class StandIn implements HttpHandler {
+    final HttpServer server;
+    final String base;
+    final long delay;
+    final int status;
+    final AtomicInteger concurrent = new AtomicInteger();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    StandIn(long delay, int status) throws IOException {
+      this.delay = delay;
+      this.status = status;
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", this);
+      server.setExecutor(Executors.newCachedThreadPool());
+      server.start();
+      base = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    List<ReferencedURL> urls(int count) {
+      List<ReferencedURL> urls = Lists.newArrayList();
+      for (int i = 0; i < count; i++) {
+        ReferencedURL rurl = new ReferencedURL();
+        rurl.setUrl(base + i);
+        rurl.setLastChecked(new Date(0));
+        urls.add(rurl);
+      }
+      return urls;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int now = concurrent.incrementAndGet();
+      int max;
+      while ((max = maxConcurrent.get()) < now && !maxConcurrent.compareAndSet(max, now)) {
+        // Try again
+      }
+      try {
+        if (delay > 0) {
+          Thread.sleep(delay);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        concurrent.decrementAndGet();
+      }
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    }
+
+    void stop() {
+      server.stop(0);
+    }
+  }
+}
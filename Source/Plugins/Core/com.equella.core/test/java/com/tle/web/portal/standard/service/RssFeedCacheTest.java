@@ -0,0 +1,197 @@
+package com.tle.web.portal.standard.service;
+
+import com.tle.web.portal.standard.service.RssFeedCache.Copy;
+import com.tle.web.portal.standard.service.RssFeedCache.Fetcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RssFeedCacheTest {
+  private static final String URL = "http://feeds.example.com/rss";
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void fetchedOnceUntilDue() {
+    RssFeedCache<String> cache = new RssFeedCache<String>(executor, 60000, 0, 60000, 10);
+    StandInFeed feed = new StandInFeed();
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+    Assert.assertEquals(1, feed.fetches.get());
+  }
+
+  @Test
+  public void staleCopyIsServedWhileRevalidating() throws Exception {
+    RssFeedCache<String> cache = new RssFeedCache<String>(executor, 0, 0, 60000, 10);
+    StandInFeed feed = new StandInFeed();
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+
+    // A slow host doesn't hold up anyone, and only gets asked once
+    feed.block();
+    feed.version = "v2";
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+    }
+    feed.release();
+    feed.awaitFetches(2);
+    Assert.assertEquals(2, feed.fetches.get());
+    Assert.assertEquals(Collections.singletonList("\"v1\""), feed.conditionalEtags);
+
+    Assert.assertEquals("v2", waitFor(cache, feed, "v2"));
+  }
+
+  @Test
+  public void notModifiedKeepsTheCopy() throws Exception {
+    RssFeedCache<String> cache = new RssFeedCache<String>(executor, 0, 0, 60000, 10);
+    StandInFeed feed = new StandInFeed();
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+    cache.getFeed("p1", URL, feed, 5000);
+    feed.awaitFetches(2);
+    Assert.assertEquals(1, feed.notModified.get());
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+  }
+
+  @Test
+  public void failuresKeepTheLastGoodCopy() throws Exception {
+    RssFeedCache<String> cache = new RssFeedCache<String>(executor, 0, 0, 60000, 10);
+    StandInFeed feed = new StandInFeed();
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+    feed.failing = true;
+    cache.getFeed("p1", URL, feed, 5000);
+    feed.awaitFetches(2);
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+  }
+
+  @Test
+  public void failuresAreRetriedWithBackoff() throws Exception {
+    RssFeedCache<String> cache = new RssFeedCache<String>(executor, 60000, 200, 60000, 10);
+    StandInFeed feed = new StandInFeed();
+    feed.failing = true;
+    Assert.assertNull(cache.getFeed("p1", URL, feed, 5000));
+    Assert.assertNull(cache.getFeed("p1", URL, feed, 5000));
+    Assert.assertEquals(1, feed.fetches.get());
+
+    // Tried again well before the refresh interval, then waits twice as long
+    Thread.sleep(300);
+    Assert.assertNull(cache.getFeed("p1", URL, feed, 5000));
+    Assert.assertEquals(2, feed.fetches.get());
+    Thread.sleep(300);
+    Assert.assertNull(cache.getFeed("p1", URL, feed, 5000));
+    Assert.assertEquals(2, feed.fetches.get());
+
+    feed.failing = false;
+    Thread.sleep(200);
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+    Assert.assertEquals(3, feed.fetches.get());
+  }
+
+  @Test
+  public void firstFetchOnlyWaitedForBriefly() throws Exception {
+    RssFeedCache<String> cache = new RssFeedCache<String>(executor, 60000, 0, 60000, 10);
+    StandInFeed feed = new StandInFeed();
+    feed.block();
+    long start = System.currentTimeMillis();
+    Assert.assertNull(cache.getFeed("p1", URL, feed, 100));
+    Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+    feed.release();
+    Assert.assertEquals("v1", waitFor(cache, feed, "v1"));
+    Assert.assertEquals(1, feed.fetches.get());
+  }
+
+  @Test
+  public void changedUrlIsFetchedAgain() {
+    RssFeedCache<String> cache = new RssFeedCache<String>(executor, 60000, 0, 60000, 10);
+    StandInFeed feed = new StandInFeed();
+    Assert.assertEquals("v1", cache.getFeed("p1", URL, feed, 5000));
+    StandInFeed moved = new StandInFeed(URL + "?new");
+    moved.version = "v2";
+    Assert.assertEquals("v2", cache.getFeed("p1", URL + "?new", moved, 5000));
+    Assert.assertEquals(1, moved.fetches.get());
+  }
+
+  private String waitFor(RssFeedCache<String> cache, StandInFeed feed, String expected)
+      throws InterruptedException {
+    String value = null;
+    for (int i = 0; i < 100 && !expected.equals(value); i++) {
+      value = cache.getFeed("p1", URL, feed, 5000);
+      Thread.sleep(20);
+    }
+    return value;
+  }
+
+  /** Behaves like a feed host that supports ETags. */
+  private static class StandInFeed implements Fetcher<String> {
+    private final String url;
+    final AtomicInteger fetches = new AtomicInteger();
+    final AtomicInteger notModified = new AtomicInteger();
+    final List<String> conditionalEtags = Collections.synchronizedList(new ArrayList<String>());
+    volatile String version = "v1";
+    volatile boolean failing;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private final Object done = new Object();
+
+    StandInFeed() {
+      this(URL);
+    }
+
+    StandInFeed(String url) {
+      this.url = url;
+    }
+
+    void block() {
+      gate = new CountDownLatch(1);
+    }
+
+    void release() {
+      gate.countDown();
+    }
+
+    void awaitFetches(int count) throws InterruptedException {
+      synchronized (done) {
+        long end = System.currentTimeMillis() + 5000;
+        while (fetches.get() < count && System.currentTimeMillis() < end) {
+          done.wait(100);
+        }
+      }
+      // Let the refresh finish recording what it fetched
+      Thread.sleep(50);
+    }
+
+    @Override
+    public Copy<String> fetch(Copy<String> current) throws Exception {
+      gate.await(5, TimeUnit.SECONDS);
+      try {
+        if (failing) {
+          throw new Exception("Connection refused");
+        }
+        String etag = "\"" + version + "\"";
+        if (current != null) {
+          conditionalEtags.add(current.getEtag());
+          if (etag.equals(current.getEtag())) {
+            notModified.incrementAndGet();
+            return null;
+          }
+        }
+        return new Copy<String>(url, version, etag, null);
+      } finally {
+        synchronized (done) {
+          fetches.incrementAndGet();
+          done.notifyAll();
+        }
+      }
+    }
+  }
+}
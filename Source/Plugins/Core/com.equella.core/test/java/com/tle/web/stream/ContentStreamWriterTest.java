@@ -0,0 +1,205 @@
+package com.tle.web.stream;
+
+import com.google.common.io.Files;
+import com.tle.web.stream.ContentStreamWriter.ByteRange;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentStreamWriterTest {
+  private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("content", ".txt");
+    Files.write(CONTENT.getBytes(StandardCharsets.UTF_8), file);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void etagIfRangeRoundTrip() {
+    ContentStreamWriter writer = new ContentStreamWriter();
+    FakeResponse first = serve(writer, new FakeRequest());
+    Assert.assertEquals(HttpServletResponse.SC_OK, first.status);
+    String etag = first.headers.get("ETag");
+    Assert.assertTrue(etag, etag.startsWith("\"") && etag.endsWith("\""));
+
+    FakeResponse resumed = serve(writer, new FakeRequest("Range", "bytes=10-", "If-Range", etag));
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, resumed.status);
+    Assert.assertEquals(CONTENT.substring(10), resumed.body());
+
+    FakeResponse unquoted =
+        serve(
+            writer,
+            new FakeRequest(
+                "Range", "bytes=10-", "If-Range", etag.substring(1, etag.length() - 1)));
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, unquoted.status);
+
+    FakeResponse changed =
+        serve(writer, new FakeRequest("Range", "bytes=10-", "If-Range", "\"other\""));
+    Assert.assertEquals(HttpServletResponse.SC_OK, changed.status);
+    Assert.assertEquals(CONTENT, changed.body());
+
+    FakeResponse weak =
+        serve(writer, new FakeRequest("Range", "bytes=10-", "If-Range", "W/" + etag));
+    Assert.assertEquals(HttpServletResponse.SC_OK, weak.status);
+  }
+
+  @Test
+  public void overlappingFileRangesAreMerged() {
+    FakeResponse response =
+        serve(new ContentStreamWriter(), new FakeRequest("Range", "bytes=20-29,0-9,5-14"));
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+    String body = response.body();
+    Assert.assertTrue(
+        body, body.contains("Content-Range: bytes 0-14/36\r\n\r\n0123456789abcde\r\n"));
+    Assert.assertTrue(body, body.contains("Content-Range: bytes 20-29/36\r\n\r\nklmnopqrst\r\n"));
+    Assert.assertEquals(2, body.split("Content-Range").length - 1);
+  }
+
+  @Test
+  public void parseSingleRanges() {
+    assertRanges(ContentStreamWriter.parseRanges("bytes=0-99", 1000), 0, 100);
+    assertRanges(ContentStreamWriter.parseRanges("bytes=500-", 1000), 500, 1000);
+    assertRanges(ContentStreamWriter.parseRanges("bytes=-100", 1000), 900, 1000);
+    // Shortened to the end of the content
+    assertRanges(ContentStreamWriter.parseRanges("bytes=900-2000", 1000), 900, 1000);
+    assertRanges(ContentStreamWriter.parseRanges("bytes=-2000", 1000), 0, 1000);
+  }
+
+  @Test
+  public void parseMultipleRanges() {
+    assertRanges(
+        ContentStreamWriter.parseRanges("bytes=0-0, 500-599,-1", 1000), 0, 1, 500, 600, 999, 1000);
+    // Unsatisfiable ranges are dropped
+    assertRanges(ContentStreamWriter.parseRanges("bytes=0-9,5000-6000", 1000), 0, 10);
+  }
+
+  @Test
+  public void invalidRanges() {
+    Assert.assertNull(ContentStreamWriter.parseRanges("bytes=1000-", 1000));
+    Assert.assertNull(ContentStreamWriter.parseRanges("bytes=5-4", 1000));
+    Assert.assertNull(ContentStreamWriter.parseRanges("bytes=-", 1000));
+    Assert.assertNull(ContentStreamWriter.parseRanges("items=0-5", 1000));
+    Assert.assertNull(ContentStreamWriter.parseRanges("bytes=0-5,x", 1000));
+    Assert.assertNull(ContentStreamWriter.parseRanges("bytes=99999999999999999999-", 1000));
+  }
+
+  @Test
+  public void coalesce() {
+    List<ByteRange> ranges =
+        ByteRange.coalesce(
+            Arrays.asList(
+                new ByteRange(500, 600),
+                new ByteRange(0, 100),
+                new ByteRange(50, 150),
+                new ByteRange(160, 200)),
+            20);
+    assertRanges(ranges, 0, 200, 500, 600);
+  }
+
+  private static void assertRanges(List<ByteRange> ranges, long... bounds) {
+    Assert.assertNotNull(ranges);
+    Assert.assertEquals(bounds.length / 2, ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      Assert.assertEquals(bounds[i * 2], ranges.get(i).start);
+      Assert.assertEquals(bounds[i * 2 + 1], ranges.get(i).end);
+    }
+  }
+
+  private FakeResponse serve(ContentStreamWriter writer, FakeRequest request) {
+    FakeResponse response = new FakeResponse();
+    writer.outputStream(
+        request.proxy(),
+        response.proxy(),
+        new FileContentStream(file, "content.txt", "text/plain"),
+        response.out,
+        true);
+    return response;
+  }
+
+  private static class FakeRequest implements InvocationHandler {
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    FakeRequest(String... headers) {
+      for (int i = 0; i < headers.length; i += 2) {
+        this.headers.put(headers[i], headers[i + 1]);
+      }
+    }
+
+    HttpServletRequest proxy() {
+      return (HttpServletRequest)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(), new Class<?>[] {HttpServletRequest.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "getMethod":
+          return "GET";
+        case "getHeader":
+          return headers.get(args[0]);
+        case "getDateHeader":
+          String value = headers.get(args[0]);
+          if (value == null) {
+            return -1L;
+          }
+          throw new IllegalArgumentException(value);
+        default:
+          return null;
+      }
+    }
+  }
+
+  private static class FakeResponse implements InvocationHandler {
+    final Map<String, String> headers = new HashMap<String, String>();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int status;
+
+    HttpServletResponse proxy() {
+      return (HttpServletResponse)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(), new Class<?>[] {HttpServletResponse.class}, this);
+    }
+
+    String body() {
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "setStatus":
+          status = (Integer) args[0];
+          break;
+        case "setHeader":
+        case "addHeader":
+          headers.put((String) args[0], (String) args[1]);
+          break;
+        default:
+          break;
+      }
+      return null;
+    }
+  }
+}
@@ -23,6 +23,8 @@
 	<#else>
 		<#if m.showReport>
 			<iframe id="reportFrame" src="${m.reportUrl}" style="width: 100%; height:95%;"></iframe>
+		<#elseif m.progress??>
+			<div class="report-progress"><@render m.progress/></div>
 		</#if>
 	</#if>
 </@a.div>
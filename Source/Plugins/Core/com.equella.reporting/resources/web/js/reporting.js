@@ -34,3 +34,7 @@ function popupReport(url)
 	window.open(url,name,'scrollbars=yes,menubar=no,height='+h+',width='+w+',top='+ch+',left='+cw+',resizable=yes,toolbar=no,status=no');
 }
 
+function pollReport(poll, delay)
+{
+	setTimeout(poll, delay);
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.reporting;
+
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.common.usermanagement.user.UserState;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.birt.report.engine.api.IHTMLActionHandler;
+
+/**
+ * A queued run of a report. Every request for the same output while the report is running shares
+ * the one job, so the page can poll it rather than holding a request thread for the whole run.
+ */
+@NonNullByDefault
+public class ReportJob {
+  public enum Status {
+    QUEUED,
+    RUNNING,
+    FINISHED,
+    FAILED
+  }
+
+  private final String id;
+  private final String userId;
+  private final String outputFile;
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  // What to run, not needed once the job has finished
+  @Nullable private Request request;
+
+  private volatile Status status;
+  private volatile long started;
+  @Nullable private volatile Throwable error;
+
+  ReportJob(String id, String userId, String outputFile, @Nullable Request request) {
+    this.id = id;
+    this.userId = userId;
+    this.outputFile = outputFile;
+    this.request = request;
+    this.status = request != null ? Status.QUEUED : Status.FINISHED;
+    if (request == null) {
+      done.countDown();
+    }
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getUserId() {
+    return userId;
+  }
+
+  /** @return The name of the generated file in the report's cache folder. */
+  public String getOutputFile() {
+    return outputFile;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public boolean isDone() {
+    return status == Status.FINISHED || status == Status.FAILED;
+  }
+
+  /** @return How long the report has been running for, or zero if it is still queued. */
+  public long getRunningMillis() {
+    long start = started;
+    return start == 0 ? 0 : System.currentTimeMillis() - start;
+  }
+
+  @Nullable
+  public Throwable getError() {
+    return error;
+  }
+
+  /** @return true if the job finished (successfully or not) within the time given */
+  public boolean await(long millis) throws InterruptedException {
+    return done.await(millis, TimeUnit.MILLISECONDS);
+  }
+
+  @Nullable
+  synchronized Request getRequest() {
+    return request;
+  }
+
+  void started() {
+    started = System.currentTimeMillis();
+    status = Status.RUNNING;
+  }
+
+  synchronized void finished(@Nullable Throwable t) {
+    error = t;
+    status = t == null ? Status.FINISHED : Status.FAILED;
+    request = null;
+    done.countDown();
+  }
+
+  static class Request {
+    final UserState userState;
+    final long reportId;
+    @Nullable final String designFile;
+    final String format;
+    @Nullable final IHTMLActionHandler actionHandler;
+    final Map<String, String[]> parameters;
+    final Map<String, String[]> parameterDisplayTexts;
+    final Locale locale;
+
+    Request(
+        UserState userState,
+        long reportId,
+        @Nullable String designFile,
+        String format,
+        @Nullable IHTMLActionHandler actionHandler,
+        Map<String, String[]> parameters,
+        Map<String, String[]> parameterDisplayTexts,
+        Locale locale) {
+      this.userState = userState;
+      this.reportId = reportId;
+      this.designFile = designFile;
+      this.format = format;
+      this.actionHandler = actionHandler;
+      this.parameters = parameters;
+      this.parameterDisplayTexts = parameterDisplayTexts;
+      this.locale = locale;
+    }
+  }
+}
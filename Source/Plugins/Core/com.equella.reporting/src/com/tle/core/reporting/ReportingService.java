@@ -18,11 +18,11 @@
 
 package com.tle.core.reporting;
 
+import com.tle.annotation.Nullable;
 import com.tle.beans.entity.report.Report;
 import com.tle.common.reporting.RemoteReportingService;
 import com.tle.core.entity.EntityEditingBean;
 import com.tle.core.entity.service.AbstractEntityService;
-import com.tle.web.sections.SectionInfo;
 import java.util.List;
 import java.util.Map;
 import org.eclipse.birt.report.engine.api.IGetParameterDefinitionTask;
@@ -36,9 +36,17 @@ public interface ReportingService
   // @SecureOnReturn(priv = ReportPrivileges.EXECUTE_REPORT)
   List<Report> enumerateExecutable();
 
+  /**
+   * Queues the report to be run, or returns the job already running for the same output. The job is
+   * already finished if there is a fresh enough copy of the output in the cache.
+   *
+   * @param actionHandler Used on the reporting thread, so must not hold on to anything from the
+   *     request such as entities or the session.
+   * @throws com.tle.common.reporting.ReportingException if too many reports are already waiting to
+   *     run
+   */
   // @SecureOnCall(priv = ReportPrivileges.EXECUTE_REPORT)
-  String executeReport(
-      SectionInfo info,
+  ReportJob submitReport(
       Report report,
       String designFile,
       String format,
@@ -47,6 +55,10 @@ public interface ReportingService
       Map<String, String[]> parameterDisplayText,
       boolean forceExecution);
 
+  /** @return The job, or null if it has expired or belongs to another user */
+  @Nullable
+  ReportJob getReportJob(String jobId);
+
   String findDesignFile(Report report, String filename);
 
   Report getReportForFilename(String filename);
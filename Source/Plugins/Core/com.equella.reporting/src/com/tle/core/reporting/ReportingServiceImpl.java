@@ -20,12 +20,20 @@ package com.tle.core.reporting;
 
 import com.dytech.devlib.PropBagEx;
 import com.dytech.edge.exceptions.RuntimeApplicationException;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.tle.annotation.Nullable;
 import com.tle.beans.entity.report.Report;
 import com.tle.common.Check;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.beans.exception.ValidationError;
 import com.tle.common.filesystem.handle.StagingFile;
 import com.tle.common.i18n.CurrentLocale;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.reporting.RemoteReportingService;
 import com.tle.common.reporting.ReportingException;
 import com.tle.common.reporting.ReportingException.Type;
@@ -37,6 +45,9 @@ import com.tle.core.entity.service.impl.AbstractEntityServiceImpl;
 import com.tle.core.filesystem.CachedFile;
 import com.tle.core.filesystem.EntityFile;
 import com.tle.core.guice.Bind;
+import com.tle.core.i18n.ServerSideLocaleImplementation;
+import com.tle.core.i18n.ServerSideLocaleImplementation.ThreadLocale;
+import com.tle.core.institution.RunAsInstitution;
 import com.tle.core.plugins.PluginService;
 import com.tle.core.reporting.dao.ReportingDao;
 import com.tle.core.security.impl.SecureEntity;
@@ -47,8 +58,6 @@ import com.tle.core.services.ValidationHelper;
 import com.tle.core.settings.service.ConfigurationService;
 import com.tle.core.util.archive.ArchiveType;
 import com.tle.reporting.LearningEdgeOdaDelegate;
-import com.tle.web.sections.SectionInfo;
-import com.tle.web.sections.SectionUtils;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -56,11 +65,23 @@ import java.io.OutputStream;
 import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -94,6 +115,7 @@ import org.eclipse.birt.report.model.api.elements.DesignChoiceConstants;
 import org.eclipse.birt.report.model.api.util.ParameterValidationUtil;
 import org.java.plugin.util.IoUtil;
 import org.mozilla.javascript.Context;
+import org.springframework.transaction.annotation.Transactional;
 
 @SuppressWarnings("nls")
 @SecureEntity(RemoteReportingService.ENTITY_TYPE)
@@ -108,18 +130,46 @@ public class ReportingServiceImpl
 
   private static final long CACHE_TIME = TimeUnit.MINUTES.toMillis(30);
 
+  // Reports can hold a database connection for minutes at a time, so only this many run at once
+  private static final int MAX_RUNNING_REPORTS = 2;
+  private static final int MAX_QUEUED_REPORTS = 20;
+  private static final int MAX_CACHED_DESIGNS = 50;
+
   private final ReportingDao reportingDao;
   private IReportEngine reportEngine;
 
+  private final Cache<String, IReportRunnable> designCache =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_DESIGNS)
+          .expireAfterWrite(CACHE_TIME, TimeUnit.MILLISECONDS)
+          .build();
+  // Kept for as long as somebody is still polling, however long the report takes to run
+  private final Cache<String, ReportJob> jobs =
+      CacheBuilder.newBuilder().expireAfterAccess(CACHE_TIME, TimeUnit.MILLISECONDS).build();
+  private final ConcurrentMap<String, ReportJob> runningJobs =
+      new ConcurrentHashMap<String, ReportJob>();
+  private final ThreadPoolExecutor reportExecutor;
+
   @Inject private LearningEdgeOdaDelegate odaInterface;
   @Inject private PluginService pluginService;
   @Inject private ConfigurationService configService;
+  @Inject private RunAsInstitution runAs;
+  @Inject private ServerSideLocaleImplementation localeImplementation;
 
   @Inject
   public ReportingServiceImpl(ReportingDao dao) {
     super(Node.REPORT, dao);
 
     this.reportingDao = dao;
+    this.reportExecutor =
+        new ThreadPoolExecutor(
+            MAX_RUNNING_REPORTS,
+            MAX_RUNNING_REPORTS,
+            1,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REPORTS),
+            new NamedThreadFactory("ReportingService", true));
+    reportExecutor.allowCoreThreadTimeOut(true);
   }
 
   @SecureOnReturn(priv = ReportPrivileges.EXECUTE_REPORT)
@@ -227,8 +277,7 @@ public class ReportingServiceImpl
 
   @Override
   @SecureOnCall(priv = ReportPrivileges.EXECUTE_REPORT)
-  public String executeReport(
-      SectionInfo info,
+  public ReportJob submitReport(
       Report report,
       String designFile,
       String format,
@@ -236,6 +285,77 @@ public class ReportingServiceImpl
       Map<String, String[]> parameters,
       Map<String, String[]> parameterDisplayTexts,
       boolean forceExecution) {
+    final String userId = CurrentUser.getUserID();
+    final Locale locale = CurrentLocale.getLocale();
+    final String outfile =
+        getOutputFilename(
+            userId, report, designFile, format, parameters, parameterDisplayTexts, locale);
+    final String key =
+        CurrentInstitution.get().getUniqueId() + ":" + report.getUuid() + "/" + outfile;
+
+    // The output depends on nothing but the key, so anyone asking for the same thing (forced or
+    // not) can share a run that has already started
+    ReportJob job = runningJobs.get(key);
+    if (job != null) {
+      return job;
+    }
+    if (!forceExecution
+        && fileSystemService.isFileCached(new CachedFile(report.getUuid()), outfile, CACHE_TIME)) {
+      return new ReportJob(UUID.randomUUID().toString(), userId, outfile, null);
+    }
+
+    ReportJob newJob =
+        new ReportJob(
+            UUID.randomUUID().toString(),
+            userId,
+            outfile,
+            new ReportJob.Request(
+                CurrentUser.getUserState(),
+                report.getId(),
+                designFile,
+                format,
+                actionHandler,
+                new HashMap<String, String[]>(parameters),
+                new HashMap<String, String[]>(parameterDisplayTexts),
+                locale));
+    job = runningJobs.putIfAbsent(key, newJob);
+    if (job != null) {
+      return job;
+    }
+    jobs.put(newJob.getId(), newJob);
+    try {
+      reportExecutor.execute(new ReportTask(key, newJob));
+    } catch (RejectedExecutionException e) {
+      runningJobs.remove(key, newJob);
+      jobs.invalidate(newJob.getId());
+      throw new ReportingException(
+          "Too many reports are waiting to run, please try again later", Type.BUSY);
+    }
+    return newJob;
+  }
+
+  @Nullable
+  @Override
+  public ReportJob getReportJob(String jobId) {
+    ReportJob job = jobs.getIfPresent(jobId);
+    if (job == null || !job.getUserId().equals(CurrentUser.getUserID())) {
+      return null;
+    }
+    return job;
+  }
+
+  /**
+   * The name includes a digest of everything that can change the output, so that one set of
+   * parameters can never be served another's cached report.
+   */
+  private static String getOutputFilename(
+      String userId,
+      Report report,
+      @Nullable String designFile,
+      String format,
+      Map<String, String[]> parameters,
+      Map<String, String[]> parameterDisplayTexts,
+      Locale locale) {
     String extension = ".html";
     if (format.equals(IRenderOption.OUTPUT_FORMAT_PDF)) {
       extension = ".pdf";
@@ -245,33 +365,72 @@ public class ReportingServiceImpl
       extension = ".doc";
     }
 
-    // some hash of the parameters
-    final String hash =
-        report.getUuid()
-            + SectionUtils.getParameterString(
-                SectionUtils.getParameterNameValues(parameters, false))
-            + CurrentUser.getUserID();
+    final Date modified = report.getDateModified();
+    final StringBuilder key = new StringBuilder();
+    appendKey(key, userId);
+    appendKey(key, report.getUuid());
+    appendKey(key, modified == null ? null : Long.toString(modified.getTime()));
+    appendKey(key, designFile);
+    appendKey(key, format);
+    appendKey(key, locale.toString());
+    appendKey(key, parameters);
+    appendKey(key, parameterDisplayTexts);
+
     String outName = designFile != null ? designFile.replace('/', '_') : "report";
-    final String outfile = outName + Math.abs(hash.hashCode() % 10000) + extension;
-    String reportSignature = report.getReportSignature() + ", format=[" + format + "]";
-    try {
-      final CachedFile entityFile = new CachedFile(report.getUuid());
-
-      if (forceExecution && fileSystemService.fileExists(entityFile, outfile)) {
-        // sometimes it can't be deleted because it's still serving the
-        // last one.
-        // would be cool to do some sort of file-lock capability in
-        // fileSystemService
-        fileSystemService.removeFile(entityFile, outfile);
+    return outName + '-' + Hashing.sha256().hashString(key, StandardCharsets.UTF_8) + extension;
+  }
+
+  private static void appendKey(StringBuilder key, @Nullable String value) {
+    // Length prefixed so that no value can run into the next one
+    if (value == null) {
+      key.append('-');
+    } else {
+      key.append(value.length()).append(':').append(value);
+    }
+  }
+
+  private static void appendKey(StringBuilder key, Map<String, String[]> parameters) {
+    Map<String, String[]> sorted = new TreeMap<String, String[]>(parameters);
+    key.append(sorted.size()).append('{');
+    for (Map.Entry<String, String[]> entry : sorted.entrySet()) {
+      appendKey(key, entry.getKey());
+      String[] values = entry.getValue();
+      if (values == null) {
+        key.append('-');
+      } else {
+        key.append(values.length).append('[');
+        for (String value : values) {
+          appendKey(key, value);
+        }
       }
+    }
+  }
 
-      // if this file exists, serve it
-      if (!fileSystemService.isFileCached(entityFile, outfile, CACHE_TIME)) {
-        final IReportEngine engine = getReportEngine();
+  /**
+   * Runs a queued report on one of the reporting threads. Only public so that it gets its own
+   * transaction, use {@link #submitReport} instead.
+   */
+  @Transactional
+  public void runReportJob(ReportJob job) {
+    final ReportJob.Request request = job.getRequest();
+    if (request == null) {
+      return;
+    }
+    job.started();
+
+    // Loaded afresh in this thread's session, the request's copy belongs to another
+    final Report report = get(request.reportId);
+    final String outfile = job.getOutputFile();
+    final String partfile = outfile + '.' + job.getId();
+    String reportSignature = report.getReportSignature() + ", format=[" + request.format + "]";
+    final CachedFile entityFile = new CachedFile(report.getUuid());
+    try {
+      final IReportEngine engine = getReportEngine();
 
-        LOGGER.info("Started Report - " + reportSignature);
-        final IReportRunnable design = getReportDesign(engine, report, designFile);
-        final IRunAndRenderTask task = engine.createRunAndRenderTask(design);
+      LOGGER.info("Started Report - " + reportSignature);
+      final IReportRunnable design = getReportDesign(engine, report, request.designFile);
+      final IRunAndRenderTask task = engine.createRunAndRenderTask(design);
+      try {
         RenderOption options = new RenderOption();
 
         HTMLRenderOption html = new HTMLRenderOption(options);
@@ -285,10 +444,11 @@ public class ReportingServiceImpl
         HashMap<String, Object> contextMap = new HashMap<String, Object>();
         contextMap.put(com.tle.reporting.Constants.DELEGATE_APP_CONTEXT_KEY, odaInterface);
         task.setAppContext(contextMap);
-        task.setParameterValues(prepareReportParameters(engine, design, parameters));
+        task.setParameterValues(
+            prepareReportParameters(engine, design, request.parameters, request.locale));
 
-        for (String key : parameters.keySet()) {
-          String[] texts = parameterDisplayTexts.get(key);
+        for (String key : request.parameters.keySet()) {
+          String[] texts = request.parameterDisplayTexts.get(key);
           if (texts == null) {
             Object value = task.getParameterValue(key);
             // This could be anything, or an array of multiple types
@@ -315,21 +475,24 @@ public class ReportingServiceImpl
           }
         }
 
+        // Written to the side so nobody is served a half finished report
         try (OutputStream out =
-            getFileSystemService().getOutputStream(entityFile, outfile, false)) {
-          options.setActionHandler(actionHandler != null ? actionHandler : new HTMLActionHandler());
+            getFileSystemService().getOutputStream(entityFile, partfile, false)) {
+          options.setActionHandler(
+              request.actionHandler != null ? request.actionHandler : new HTMLActionHandler());
           options.setOutputStream(out);
-          options.setOutputFormat(format);
+          options.setOutputFormat(request.format);
 
           task.setRenderOption(options);
-          task.setLocale(CurrentLocale.getLocale());
+          task.setLocale(request.locale);
           task.run();
-          task.close();
-
-          LOGGER.info("Finished report - " + reportSignature);
         }
+      } finally {
+        task.close();
       }
-      return outfile;
+      replaceFile(entityFile, partfile, outfile);
+
+      LOGGER.info("Finished report - " + reportSignature);
     } catch (BirtException be) {
       LOGGER.warn("Failed running report - " + reportSignature);
       throw new RuntimeException(be);
@@ -339,8 +502,11 @@ public class ReportingServiceImpl
     } catch (Exception e) {
       LOGGER.warn("Failed running report - " + reportSignature);
       throw new RuntimeException(
-          "executeReport threw up (not BirtException nor IOException) ...", e.getCause());
+          "runReportJob threw up (not BirtException nor IOException) ...", e.getCause());
     } finally {
+      if (fileSystemService.fileExists(entityFile, partfile)) {
+        fileSystemService.removeFile(entityFile, partfile);
+      }
       // Birt is not exiting the context...
       while (Context.getCurrentContext() != null) {
         Context.exit();
@@ -348,51 +514,142 @@ public class ReportingServiceImpl
     }
   }
 
-  private IReportRunnable getReportDesign(IReportEngine engine, Report report, String designFile)
+  private void replaceFile(CachedFile entityFile, String from, String to) throws IOException {
+    if (!fileSystemService.rename(entityFile, from, to)) {
+      // Windows won't rename over the top of an existing file
+      fileSystemService.removeFile(entityFile, to);
+      if (!fileSystemService.rename(entityFile, from, to)) {
+        throw new IOException("Could not save report output to " + to);
+      }
+    }
+  }
+
+  private class ReportTask implements Runnable {
+    private final String key;
+    private final ReportJob job;
+    private final ClassLoader classLoader;
+    private final ThreadLocale locale;
+
+    public ReportTask(String key, ReportJob job) {
+      this.key = key;
+      this.job = job;
+      // BIRT looks things up through the context class loader
+      this.classLoader = Thread.currentThread().getContextClassLoader();
+      // Messages from the report's data sources should be in the submitting user's language
+      this.locale = localeImplementation.captureThreadLocals();
+    }
+
+    @Override
+    public void run() {
+      final Thread thread = Thread.currentThread();
+      final ClassLoader oldLoader = thread.getContextClassLoader();
+      thread.setContextClassLoader(classLoader);
+      try {
+        ReportJob.Request request = job.getRequest();
+        if (request != null) {
+          runAs.execute(
+              request.userState,
+              new Callable<Void>() {
+                @Override
+                public Void call() {
+                  localeImplementation.restoreThreadLocals(locale);
+                  try {
+                    runReportJob(job);
+                  } finally {
+                    localeImplementation.restoreThreadLocals(null);
+                  }
+                  return null;
+                }
+              });
+        }
+        job.finished(null);
+      } catch (Throwable t) {
+        LOGGER.error("Error running report", t);
+        // Unwrap the RunAsInstitution exception
+        job.finished(t.getCause() != null ? t.getCause() : t);
+      } finally {
+        runningJobs.remove(key, job);
+        thread.setContextClassLoader(oldLoader);
+      }
+    }
+  }
+
+  private IReportRunnable getReportDesign(
+      final IReportEngine engine, final Report report, @Nullable String designFile)
       throws IOException, EngineException {
     final String design = (designFile == null ? report.getFilename() : designFile);
+    final Date modified = report.getDateModified();
+    final String key =
+        CurrentInstitution.get().getUniqueId()
+            + ":"
+            + report.getUuid()
+            + ":"
+            + (modified == null ? 0 : modified.getTime())
+            + ":"
+            + design;
+    try {
+      return designCache.get(
+          key,
+          new Callable<IReportRunnable>() {
+            @Override
+            public IReportRunnable call() throws Exception {
+              return openReportDesign(engine, report, design);
+            }
+          });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.propagateIfInstanceOf(cause, IOException.class);
+      Throwables.propagateIfInstanceOf(cause, EngineException.class);
+      throw Throwables.propagate(cause);
+    }
+  }
+
+  private IReportRunnable openReportDesign(IReportEngine engine, Report report, String design)
+      throws IOException, EngineException {
     final EntityFile file = new EntityFile(report);
-    final InputStream inStream = getFileSystemService().read(file, design);
     final int lastSlash = design.indexOf('/');
     final String folder = (lastSlash > -1 ? design.substring(0, lastSlash + 1) : "");
 
-    return engine.openReportDesign(
-        null,
-        inStream,
-        new IResourceLocator() {
-          @Override
-          public URL findResource(
-              ModuleHandle module,
-              String filename,
-              int arg2,
-              @SuppressWarnings("rawtypes") Map arg3) {
-            return findResource(module, filename, arg2);
-          }
+    try (InputStream inStream = getFileSystemService().read(file, design)) {
+      return engine.openReportDesign(
+          null,
+          inStream,
+          new IResourceLocator() {
+            @Override
+            public URL findResource(
+                ModuleHandle module,
+                String filename,
+                int arg2,
+                @SuppressWarnings("rawtypes") Map arg3) {
+              return findResource(module, filename, arg2);
+            }
 
-          @Override
-          public URL findResource(ModuleHandle module, String filename, int arg2) {
-            try {
-              FileSystemService fsys = getFileSystemService();
-              String fullFile = folder + filename;
-              if (fsys.fileExists(file, fullFile)) {
-                return fsys.getExternalFile(file, fullFile).toURI().toURL();
-              }
-              Report otherReport = getReportForFilename(filename);
-              if (otherReport != null) {
-                return fsys.getExternalFile(new EntityFile(otherReport), otherReport.getFilename())
-                    .toURI()
-                    .toURL();
+            @Override
+            public URL findResource(ModuleHandle module, String filename, int arg2) {
+              try {
+                FileSystemService fsys = getFileSystemService();
+                String fullFile = folder + filename;
+                if (fsys.fileExists(file, fullFile)) {
+                  return fsys.getExternalFile(file, fullFile).toURI().toURL();
+                }
+                Report otherReport = getReportForFilename(filename);
+                if (otherReport != null) {
+                  return fsys.getExternalFile(
+                          new EntityFile(otherReport), otherReport.getFilename())
+                      .toURI()
+                      .toURL();
+                }
+                return null;
+              } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
               }
-              return null;
-            } catch (MalformedURLException e) {
-              throw new RuntimeException(e);
             }
-          }
-        });
+          });
+    }
   }
 
   private Map<String, ?> prepareReportParameters(
-      IReportEngine engine, IReportRunnable design, Map<String, String[]> parameters)
+      IReportEngine engine, IReportRunnable design, Map<String, String[]> parameters, Locale locale)
       throws BirtException {
     Map<String, Object> results = new HashMap<String, Object>();
 
@@ -412,10 +669,7 @@ public class ReportingServiceImpl
           for (int i = 0; i < currentValue.length; i++) {
             converted[i] =
                 ParameterValidationUtil.validate(
-                    dataType,
-                    getDefaultDateFormat(dataType),
-                    currentValue[i],
-                    CurrentLocale.getLocale());
+                    dataType, getDefaultDateFormat(dataType), currentValue[i], locale);
           }
           if (scalar.getScalarParameterType().equals("multi-value")) {
             results.put(paramName, converted);
@@ -442,6 +696,24 @@ public class ReportingServiceImpl
     return defFormat;
   }
 
+  @Override
+  protected void afterSaveFiles(
+      @Nullable StagingFile staging,
+      EntityFile files,
+      boolean commit,
+      boolean lockAfterwards,
+      Report newEntity) {
+    super.afterSaveFiles(staging, files, commit, lockAfterwards, newEntity);
+    // Other reports may use this one as a library
+    designCache.invalidateAll();
+  }
+
+  @Override
+  protected void afterDelete(Report entity) {
+    super.afterDelete(entity);
+    designCache.invalidateAll();
+  }
+
   @Override
   public Report getReportForFilename(String filename) {
     return reportingDao.findByReportFilename(filename);
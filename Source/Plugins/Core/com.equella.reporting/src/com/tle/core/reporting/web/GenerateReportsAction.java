@@ -21,13 +21,13 @@ package com.tle.core.reporting.web;
 import com.dytech.devlib.PropBagEx;
 import com.dytech.edge.wizard.beans.DefaultWizardPage;
 import com.dytech.edge.wizard.beans.control.WizardControl;
+import com.google.common.base.Throwables;
 import com.tle.beans.entity.report.Report;
 import com.tle.common.NameValue;
-import com.tle.common.URLUtils;
-import com.tle.common.Utils;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.core.i18n.BundleCache;
 import com.tle.core.institution.InstitutionService;
+import com.tle.core.reporting.ReportJob;
 import com.tle.core.reporting.ReportingService;
 import com.tle.core.reporting.birttypes.AbstractBirtType;
 import com.tle.core.reporting.birttypes.BirtTypeUtils;
@@ -61,6 +61,7 @@ import com.tle.web.sections.header.FormTag;
 import com.tle.web.sections.jquery.libraries.JQueryCore;
 import com.tle.web.sections.js.JSCallable;
 import com.tle.web.sections.js.generic.OverrideHandler;
+import com.tle.web.sections.js.generic.function.AnonymousFunction;
 import com.tle.web.sections.js.generic.function.ExternallyDefinedFunction;
 import com.tle.web.sections.js.generic.function.IncludeFile;
 import com.tle.web.sections.js.generic.statement.FunctionCallStatement;
@@ -90,26 +91,26 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
-import org.eclipse.birt.report.engine.api.IAction;
 import org.eclipse.birt.report.engine.api.IGetParameterDefinitionTask;
-import org.eclipse.birt.report.engine.api.IHTMLActionHandler;
 import org.eclipse.birt.report.engine.api.IParameterDefn;
 import org.eclipse.birt.report.engine.api.IParameterDefnBase;
 import org.eclipse.birt.report.engine.api.IParameterGroupDefn;
 import org.eclipse.birt.report.engine.api.IScalarParameterDefn;
-import org.eclipse.birt.report.engine.api.script.IReportContext;
-import org.eclipse.birt.report.model.api.util.ParameterValidationUtil;
 
 @SuppressWarnings("nls")
 public class GenerateReportsAction extends AbstractPrototypeSection<ReportingForm>
     implements HtmlRenderer {
-  private static final String PFX_PARAM = "p.";
+  static final String PFX_PARAM = "p.";
   private static final String PFX_PARAM_TEXT = "pt.";
 
+  // How long a request waits for the report before showing progress instead
+  private static final long REPORT_WAIT = TimeUnit.SECONDS.toMillis(5);
+  private static final long POLL_INTERVAL = TimeUnit.SECONDS.toMillis(2);
+
   static {
     PluginResourceHandler.init(GenerateReportsAction.class);
   }
@@ -132,6 +133,12 @@ public class GenerateReportsAction extends AbstractPrototypeSection<ReportingFor
   @PlugKey("reportformat")
   private static Label LABEL_FORMAT;
 
+  @PlugKey("progress.queued")
+  private static Label LABEL_QUEUED;
+
+  @PlugKey("progress.running")
+  private static String KEY_RUNNING;
+
   @PlugURL("js/reporting.js")
   private static String URL_REPORTING_JS;
 
@@ -144,6 +151,9 @@ public class GenerateReportsAction extends AbstractPrototypeSection<ReportingFor
   private static final JSCallable PRINT_REPORT =
       new ExternallyDefinedFunction("printReport", INCLUDE_FILE);
 
+  private static final JSCallable POLL_REPORT =
+      new ExternallyDefinedFunction("pollReport", INCLUDE_FILE);
+
   @Inject private BundleCache bundleCache;
   @Inject private WizardPageService wizardPageService;
   @Inject private ReportingService reportingService;
@@ -178,6 +188,7 @@ public class GenerateReportsAction extends AbstractPrototypeSection<ReportingFor
   private Table reportTable;
 
   private JSCallable showReportFunction;
+  private JSCallable pollReportFunction;
   private JSCallable refreshParametersFunction;
 
   @Override
@@ -223,6 +234,14 @@ public class GenerateReportsAction extends AbstractPrototypeSection<ReportingFor
             ajax.getEffectFunction(EffectType.FADEOUTIN),
             "reportContent",
             "report-button-bar");
+    pollReportFunction =
+        ajax.getAjaxUpdateDomFunction(
+            tree,
+            this,
+            events.getEventHandler("pollReport"),
+            ajax.getEffectFunction(EffectType.REPLACE_IN_PLACE),
+            "reportContent",
+            "report-button-bar");
     forceRegenButton.setClickHandler(showReportFunction, true);
     printButton.setClickHandler(new OverrideHandler(PRINT_REPORT, "reportFrame"));
 
@@ -312,6 +331,20 @@ public class GenerateReportsAction extends AbstractPrototypeSection<ReportingFor
       }
 
       model.setReportUrl(new URL(institutionService.getInstitutionUrl(), url.toString()).getFile());
+    } else if (model.getReportJob() != null) {
+      ReportJob job = model.getReportJob();
+      if (job.getStatus() == ReportJob.Status.QUEUED) {
+        model.setProgress(new LabelRenderer(LABEL_QUEUED));
+      } else {
+        model.setProgress(
+            new LabelRenderer(
+                new KeyLabel(
+                    KEY_RUNNING, TimeUnit.MILLISECONDS.toSeconds(job.getRunningMillis()))));
+      }
+      JQueryCore.appendReady(
+          context,
+          new FunctionCallStatement(
+              POLL_REPORT, new AnonymousFunction(pollReportFunction, job.getId()), POLL_INTERVAL));
     } else {
       JQueryCore.appendReady(context, new FunctionCallStatement(showReportFunction, false));
     }
@@ -329,20 +362,48 @@ public class GenerateReportsAction extends AbstractPrototypeSection<ReportingFor
   @EventHandlerMethod
   public void showReport(SectionInfo info, boolean forceExecution) throws Exception {
     ReportingForm model = getModel(info);
-    model.setShowReport(true);
 
     Report report = getReport(info);
-    String generatedReportId =
-        reportingService.executeReport(
-            info,
+    ReportJob job =
+        reportingService.submitReport(
             report,
             model.getDesignFile(),
             formatList.getSelectedValueAsString(info),
-            new LinkHandler(report),
+            new ReportLinkHandler(
+                reportingService,
+                report.getId(),
+                CurrentLocale.getLocale(),
+                CurrentLocale.getFormatForKey(ALERT_UPLOAD)),
             model.getParameters(),
             model.getParameterDisplayTexts(),
             forceExecution);
-    model.setGeneratedReportId(generatedReportId);
+    waitForReport(info, job);
+  }
+
+  @EventHandlerMethod
+  public void pollReport(SectionInfo info, String jobId) throws Exception {
+    ReportJob job = reportingService.getReportJob(jobId);
+    if (job == null) {
+      // Long gone, start again (most likely from the cache)
+      showReport(info, false);
+    } else {
+      waitForReport(info, job);
+    }
+  }
+
+  private void waitForReport(SectionInfo info, ReportJob job) throws Exception {
+    ReportingForm model = getModel(info);
+    if (!job.await(REPORT_WAIT)) {
+      model.setReportJob(job);
+      return;
+    }
+    Throwable error = job.getError();
+    if (error != null) {
+      Throwables.propagateIfPossible(error, Exception.class);
+      throw new RuntimeException(error);
+    }
+    model.setShowReport(true);
+    model.setGeneratedReportId(job.getOutputFile());
   }
 
   /**
@@ -528,132 +589,6 @@ public class GenerateReportsAction extends AbstractPrototypeSection<ReportingFor
     }
   }
 
-  public static class ReportDesignHandle {
-    private final Report report;
-    private final String filename;
-
-    public ReportDesignHandle(Report report, String filename) {
-      this.report = report;
-      this.filename = filename;
-    }
-
-    public Report getReport() {
-      return report;
-    }
-
-    public String getFilename() {
-      return filename;
-    }
-  }
-
-  public class LinkHandler implements IHTMLActionHandler {
-    private final Map<String, ReportDesignHandle> reportNameMap =
-        new HashMap<String, ReportDesignHandle>();
-    private final Map<String, Collection<IParameterDefn>> paramMap =
-        new HashMap<String, Collection<IParameterDefn>>();
-    private final Report currentReport;
-
-    public LinkHandler(Report report) {
-      this.currentReport = report;
-    }
-
-    @Override
-    public String getURL(IAction arg0, Object arg1) {
-      return null;
-    }
-
-    @Override
-    public String getURL(IAction action, IReportContext context) {
-      if (action == null) {
-        return null;
-      }
-      String url = null;
-      switch (action.getType()) {
-        case IAction.ACTION_BOOKMARK:
-          if (action.getActionString() != null) {
-            url = "#" + action.getActionString();
-          }
-          break;
-        case IAction.ACTION_HYPERLINK:
-          url = action.getActionString();
-          break;
-        case IAction.ACTION_DRILLTHROUGH:
-          url = buildDrillAction(action);
-          break;
-        default:
-          assert false;
-      }
-      return url;
-    }
-
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private String buildDrillAction(IAction action) {
-      ReportDesignHandle reportHandle = null;
-      String reportName = action.getReportName();
-      if (!reportNameMap.containsKey(reportName)) {
-        String designFile = reportingService.findDesignFile(currentReport, reportName);
-        if (designFile != null) {
-          reportHandle = new ReportDesignHandle(currentReport, designFile);
-        } else {
-          Report report = reportingService.getReportForFilename(reportName);
-          if (report != null) {
-            reportHandle = new ReportDesignHandle(report, null);
-          }
-        }
-        reportNameMap.put(reportName, reportHandle);
-        if (reportHandle != null) {
-          IGetParameterDefinitionTask paramTask =
-              reportingService.createReportParametersTask(
-                  reportHandle.getReport(), reportHandle.getFilename());
-          paramMap.put(reportName, paramTask.getParameterDefns(false));
-          paramTask.close();
-        }
-      } else {
-        reportHandle = reportNameMap.get(reportName);
-      }
-      if (reportHandle == null) {
-        String alertMsg = CurrentLocale.get(ALERT_UPLOAD, reportName);
-        return "javascript:alert('" + Utils.jsescape(alertMsg) + "');";
-      }
-      Map params = action.getParameterBindings();
-      Collection<IParameterDefn> parameterDefns = paramMap.get(reportName);
-      HashMap<String, String> urlParams = new LinkedHashMap<String, String>();
-      urlParams.put("reportUuid", reportHandle.getReport().getUuid());
-      urlParams.put("df", reportHandle.getFilename());
-      urlParams.put("format", action.getFormat());
-      for (IParameterDefn def : parameterDefns) {
-        String paramName = def.getName();
-        Object reportParam = params.get(paramName);
-        if (reportParam != null) {
-          if (reportParam instanceof Collection) {
-            reportParam = ((Collection<?>) reportParam).iterator().next();
-          }
-          String strValue =
-              ParameterValidationUtil.getDisplayValue(
-                  def.getTypeName(),
-                  getParameterFormat((IScalarParameterDefn) def),
-                  reportParam,
-                  CurrentLocale.getLocale());
-          urlParams.put(PFX_PARAM + paramName, strValue);
-        }
-      }
-      return "../../access/reports.do?" + URLUtils.getParameterString(urlParams);
-    }
-  }
-
-  protected String getParameterFormat(IScalarParameterDefn scalarDef) {
-    switch (scalarDef.getDataType()) {
-      case IParameterDefn.TYPE_DATE_TIME:
-        return ParameterValidationUtil.DEFAULT_DATETIME_FORMAT;
-      case IParameterDefn.TYPE_DATE:
-        return ParameterValidationUtil.DEFAULT_DATE_FORMAT;
-      case IParameterDefn.TYPE_TIME:
-        return ParameterValidationUtil.DEFAULT_TIME_FORMAT;
-      default:
-        return null;
-    }
-  }
-
   public class ParametersHandler implements BookmarkEventListener, ParametersEventListener {
 
     public static final String WIZARD_SUBMITTED = "wizardSubmitted";
@@ -0,0 +1,192 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.reporting.web;
+
+import com.tle.beans.entity.report.Report;
+import com.tle.common.URLUtils;
+import com.tle.common.Utils;
+import com.tle.core.reporting.ReportingService;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.eclipse.birt.report.engine.api.IAction;
+import org.eclipse.birt.report.engine.api.IGetParameterDefinitionTask;
+import org.eclipse.birt.report.engine.api.IHTMLActionHandler;
+import org.eclipse.birt.report.engine.api.IParameterDefn;
+import org.eclipse.birt.report.engine.api.IScalarParameterDefn;
+import org.eclipse.birt.report.engine.api.script.IReportContext;
+import org.eclipse.birt.report.model.api.util.ParameterValidationUtil;
+
+/**
+ * Builds the links in a generated HTML report, with drill throughs going back to the report viewer.
+ * Reports are generated on a background thread, so this holds nothing from the request that
+ * submitted the report. The report is looked up by id when the first drill through is built, and
+ * the locale and message are the submitting user's.
+ */
+@SuppressWarnings("nls")
+public class ReportLinkHandler implements IHTMLActionHandler {
+  private final ReportingService reportingService;
+  private final long reportId;
+  private final Locale locale;
+  private final String missingReportFormat;
+
+  private final Map<String, ReportDesignHandle> reportNameMap =
+      new HashMap<String, ReportDesignHandle>();
+  private final Map<String, Collection<IParameterDefn>> paramMap =
+      new HashMap<String, Collection<IParameterDefn>>();
+  private Report currentReport;
+
+  /**
+   * @param missingReportFormat The message shown when a drill through names a report that hasn't
+   *     been uploaded, with the report's name as argument {0}.
+   */
+  public ReportLinkHandler(
+      ReportingService reportingService, long reportId, Locale locale, String missingReportFormat) {
+    this.reportingService = reportingService;
+    this.reportId = reportId;
+    this.locale = locale;
+    this.missingReportFormat = missingReportFormat;
+  }
+
+  @Override
+  public String getURL(IAction arg0, Object arg1) {
+    return null;
+  }
+
+  @Override
+  public String getURL(IAction action, IReportContext context) {
+    if (action == null) {
+      return null;
+    }
+    String url = null;
+    switch (action.getType()) {
+      case IAction.ACTION_BOOKMARK:
+        if (action.getActionString() != null) {
+          url = "#" + action.getActionString();
+        }
+        break;
+      case IAction.ACTION_HYPERLINK:
+        url = action.getActionString();
+        break;
+      case IAction.ACTION_DRILLTHROUGH:
+        url = buildDrillAction(action);
+        break;
+      default:
+        assert false;
+    }
+    return url;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private String buildDrillAction(IAction action) {
+    ReportDesignHandle reportHandle = null;
+    String reportName = action.getReportName();
+    if (!reportNameMap.containsKey(reportName)) {
+      Report report = getCurrentReport();
+      String designFile = reportingService.findDesignFile(report, reportName);
+      if (designFile != null) {
+        reportHandle = new ReportDesignHandle(report, designFile);
+      } else {
+        Report otherReport = reportingService.getReportForFilename(reportName);
+        if (otherReport != null) {
+          reportHandle = new ReportDesignHandle(otherReport, null);
+        }
+      }
+      reportNameMap.put(reportName, reportHandle);
+      if (reportHandle != null) {
+        IGetParameterDefinitionTask paramTask =
+            reportingService.createReportParametersTask(
+                reportHandle.getReport(), reportHandle.getFilename());
+        paramMap.put(reportName, paramTask.getParameterDefns(false));
+        paramTask.close();
+      }
+    } else {
+      reportHandle = reportNameMap.get(reportName);
+    }
+    if (reportHandle == null) {
+      String alertMsg =
+          new MessageFormat(missingReportFormat, locale).format(new Object[] {reportName});
+      return "javascript:alert('" + Utils.jsescape(alertMsg) + "');";
+    }
+    Map params = action.getParameterBindings();
+    Collection<IParameterDefn> parameterDefns = paramMap.get(reportName);
+    HashMap<String, String> urlParams = new LinkedHashMap<String, String>();
+    urlParams.put("reportUuid", reportHandle.getReport().getUuid());
+    urlParams.put("df", reportHandle.getFilename());
+    urlParams.put("format", action.getFormat());
+    for (IParameterDefn def : parameterDefns) {
+      String paramName = def.getName();
+      Object reportParam = params.get(paramName);
+      if (reportParam != null) {
+        if (reportParam instanceof Collection) {
+          reportParam = ((Collection<?>) reportParam).iterator().next();
+        }
+        String strValue =
+            ParameterValidationUtil.getDisplayValue(
+                def.getTypeName(),
+                getParameterFormat((IScalarParameterDefn) def),
+                reportParam,
+                locale);
+        urlParams.put(GenerateReportsAction.PFX_PARAM + paramName, strValue);
+      }
+    }
+    return "../../access/reports.do?" + URLUtils.getParameterString(urlParams);
+  }
+
+  private Report getCurrentReport() {
+    if (currentReport == null) {
+      currentReport = reportingService.get(reportId);
+    }
+    return currentReport;
+  }
+
+  private String getParameterFormat(IScalarParameterDefn scalarDef) {
+    switch (scalarDef.getDataType()) {
+      case IParameterDefn.TYPE_DATE_TIME:
+        return ParameterValidationUtil.DEFAULT_DATETIME_FORMAT;
+      case IParameterDefn.TYPE_DATE:
+        return ParameterValidationUtil.DEFAULT_DATE_FORMAT;
+      case IParameterDefn.TYPE_TIME:
+        return ParameterValidationUtil.DEFAULT_TIME_FORMAT;
+      default:
+        return null;
+    }
+  }
+
+  private static class ReportDesignHandle {
+    private final Report report;
+    private final String filename;
+
+    ReportDesignHandle(Report report, String filename) {
+      this.report = report;
+      this.filename = filename;
+    }
+
+    public Report getReport() {
+      return report;
+    }
+
+    public String getFilename() {
+      return filename;
+    }
+  }
+}
@@ -19,9 +19,11 @@
 package com.tle.core.reporting.web;
 
 import com.tle.beans.entity.report.Report;
+import com.tle.core.reporting.ReportJob;
 import com.tle.core.reporting.birttypes.AbstractBirtType;
 import com.tle.web.sections.annotations.Bookmarked;
 import com.tle.web.sections.generic.CachedData;
+import com.tle.web.sections.render.SectionRenderable;
 import com.tle.web.wizard.page.ControlResult;
 import com.tle.web.wizard.page.WizardPage;
 import java.util.List;
@@ -42,6 +44,8 @@ public class ReportingForm {
   private boolean containsParameters;
   private String reportUrl;
   private boolean hasGroups;
+  private ReportJob reportJob;
+  private SectionRenderable progress;
 
   private final CachedData<Report> reportCached = new CachedData<Report>();
   private final CachedData<WizardPage> wizardPage = new CachedData<WizardPage>();
@@ -175,6 +179,22 @@ public class ReportingForm {
     this.parametersValid = parametersValid;
   }
 
+  public ReportJob getReportJob() {
+    return reportJob;
+  }
+
+  public void setReportJob(ReportJob reportJob) {
+    this.reportJob = reportJob;
+  }
+
+  public SectionRenderable getProgress() {
+    return progress;
+  }
+
+  public void setProgress(SectionRenderable progress) {
+    this.progress = progress;
+  }
+
   public boolean isShowWizard() {
     return !parametersValid || forceParams;
   }
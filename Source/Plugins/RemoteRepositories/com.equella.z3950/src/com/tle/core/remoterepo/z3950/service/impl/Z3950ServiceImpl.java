@@ -20,11 +20,13 @@ package com.tle.core.remoterepo.z3950.service.impl;
 
 import com.dytech.devlib.PropBagEx;
 import com.dytech.devlib.PropBagEx.PropBagIterator;
+import com.tle.annotation.Nullable;
 import com.tle.beans.entity.FederatedSearch;
 import com.tle.beans.search.Z3950Settings;
 import com.tle.beans.search.Z3950Settings.AttributeProfile;
 import com.tle.common.Check;
 import com.tle.common.NameValue;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.i18n.LangUtils;
 import com.tle.core.fedsearch.GenericRecord;
@@ -41,10 +43,16 @@ import com.tle.core.remoterepo.z3950.Z3950Constants.Use;
 import com.tle.core.remoterepo.z3950.Z3950SearchResult;
 import com.tle.core.remoterepo.z3950.Z3950SearchResults;
 import com.tle.core.remoterepo.z3950.service.Z3950Service;
+import com.tle.core.remoterepo.z3950.service.impl.Z3950SessionPool.Connection;
+import com.tle.core.remoterepo.z3950.service.impl.Z3950SessionPool.Connector;
+import com.tle.core.remoterepo.z3950.service.impl.Z3950SessionPool.Page;
 import com.tle.web.resources.PluginResourceHelper;
 import com.tle.web.resources.ResourcesService;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
 import org.jafer.exception.JaferException;
@@ -76,6 +84,33 @@ public class Z3950ServiceImpl implements Z3950Service {
   // ANY, EQUALS, ANY, ?, NONE, INCOMPLETE
   private static final String QUERY_CONNECTION = "1016.3.3.2.100.1";
 
+  private static final int MAX_SESSIONS = 50;
+  private static final long MAX_SESSION_IDLE = TimeUnit.MINUTES.toMillis(5);
+  private static final int READ_AHEAD = 20;
+  private static final int MAX_RECORDS_PER_SESSION = 500;
+
+  private final Z3950SessionPool<Field> sessionPool =
+      new Z3950SessionPool<Field>(
+          MAX_SESSIONS, MAX_SESSION_IDLE, READ_AHEAD, MAX_RECORDS_PER_SESSION);
+
+  private final ScheduledExecutorService sessionCleaner =
+      Executors.newSingleThreadScheduledExecutor(
+          new NamedThreadFactory("Z3950SessionCleaner", true));
+
+  public Z3950ServiceImpl() {
+    // Close idle sessions even when nobody is searching
+    sessionCleaner.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            sessionPool.cleanUp();
+          }
+        },
+        1,
+        1,
+        TimeUnit.MINUTES);
+  }
+
   @SuppressWarnings("null")
   @Override
   public Z3950SearchResults search(
@@ -97,47 +132,35 @@ public class Z3950ServiceImpl implements Z3950Service {
       }
     }
 
-    WrappedClient wc = null;
     try {
       // qs can conceivably be null here for an advanced search EQ-200
       if (qs != null) {
         qs = qs.trim();
       }
-      wc = makeClientForQuery(z3950Search, perpage, qs, advanced, false);
-
-      // NOTE: The first result is 1 NOT 0
-      final int start = offset + 1;
-      int end = start + perpage - 1;
-      if (end > wc.numResults) {
-        end = wc.numResults;
-      }
-      int count = end - start + 1;
-      if (count < 0) {
-        count = 0;
-      }
-
-      final List<Z3950SearchResult> results = new ArrayList<Z3950SearchResult>(count);
-      for (int i = start; i <= end; i++) {
-        wc.client.setRecordCursor(i);
-        try {
-          final Z3950SearchResult result =
-              convertFieldToResult(wc.client.getCurrentRecord(), i - 1);
-          results.add(result);
-        } catch (NullPointerException n) // NOSONAR
-        {
-          // this is actually required because BEREncoding sometimes
-          // throws null pointers when it can't
-          // read from the stream it's given...
+      final Page<Field> page =
+          sessionPool.getPage(
+              getSessionKey(z3950Search, qs, advanced, false),
+              getConnector(z3950Search, qs, advanced, false),
+              offset,
+              perpage);
+
+      final List<Field> fields = page.getRecords();
+      final List<Z3950SearchResult> results = new ArrayList<Z3950SearchResult>(fields.size());
+      for (int i = 0; i < fields.size(); i++) {
+        final Field field = fields.get(i);
+        if (field == null) {
           LOGGER.warn(
               "Error getting search result for "
                   + CurrentLocale.get(z3950Search.getName())
                   + " (Index: "
-                  + (i - 1)
+                  + (offset + i)
                   + ")");
+        } else {
+          results.add(convertFieldToResult(field, offset + i));
         }
       }
 
-      return new Z3950SearchResults(results, count, offset, wc.numResults);
+      return new Z3950SearchResults(results, fields.size(), offset, page.getTotal());
     } catch (Exception e) {
       LOGGER.debug("Error executing search", e);
       throw new RuntimeException(
@@ -146,14 +169,6 @@ public class Z3950ServiceImpl implements Z3950Service {
               + ": "
               + e.getMessage(),
           e);
-    } finally {
-      if (wc != null) {
-        try {
-          wc.client.close();
-        } catch (Exception e) {
-          // Ignore
-        }
-      }
     }
   }
 
@@ -164,16 +179,115 @@ public class Z3950ServiceImpl implements Z3950Service {
       int index,
       AdvancedSearchOptions advanced,
       boolean useImportSchema) {
-    WrappedClient wc;
     try {
-      wc = makeClientForQuery(z3950Search, 1, qs, advanced, useImportSchema);
-      wc.client.setRecordCursor(index + 1);
-      return convertFieldToFullRecord(wc.client.getCurrentRecord(), index);
+      if (qs != null) {
+        qs = qs.trim();
+      }
+      final Page<Field> page =
+          sessionPool.getPage(
+              getSessionKey(z3950Search, qs, advanced, useImportSchema),
+              getConnector(z3950Search, qs, advanced, useImportSchema),
+              index,
+              1);
+      final Field field = page.getRecords().isEmpty() ? null : page.getRecords().get(0);
+      if (field == null) {
+        throw new RuntimeException(
+            "Could not read record " + index + " from " + CurrentLocale.get(z3950Search.getName()));
+      }
+      return convertFieldToFullRecord(field, index);
+    } catch (RuntimeException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Sessions are shared by anyone running the same query against the same settings, the results
+   * don't depend on who is asking.
+   */
+  private String getSessionKey(
+      FederatedSearch z3950Search,
+      @Nullable String query,
+      @Nullable AdvancedSearchOptions advanced,
+      boolean useConfiguredImportSchema) {
+    final StringBuilder key = new StringBuilder();
+    key.append(z3950Search.getUuid())
+        .append('|')
+        .append(z3950Search.getDateModified())
+        .append('|')
+        .append(useConfiguredImportSchema)
+        .append('|')
+        .append(query);
+    if (advanced != null) {
+      for (ExtraQuery extra : advanced.getExtra()) {
+        key.append('|')
+            .append(extra.getOperator())
+            .append(':')
+            .append(extra.getAttributes())
+            .append(':')
+            .append(extra.getTerm());
+      }
+    }
+    return key.toString();
+  }
+
+  private Connector<Field> getConnector(
+      final FederatedSearch z3950Search,
+      final String query,
+      final AdvancedSearchOptions advanced,
+      final boolean useConfiguredImportSchema) {
+    return new Connector<Field>() {
+      @Override
+      public Connection<Field> connect() throws Exception {
+        return new ClientConnection(
+            makeClientForQuery(z3950Search, 1, query, advanced, useConfiguredImportSchema));
+      }
+    };
+  }
+
+  private static class ClientConnection implements Connection<Field> {
+    private final WrappedClient wc;
+
+    ClientConnection(WrappedClient wc) {
+      this.wc = wc;
+    }
+
+    @Override
+    public int getResultCount() {
+      return wc.numResults;
+    }
+
+    @Override
+    public List<Field> present(int start, int count) throws JaferException {
+      // The client presents fetchSize records from the server when moving to one it doesn't have
+      wc.client.setFetchSize(count);
+      final List<Field> fields = new ArrayList<Field>(count);
+      for (int i = start; i < start + count; i++) {
+        wc.client.setRecordCursor(i);
+        try {
+          fields.add(wc.client.getCurrentRecord());
+        } catch (NullPointerException n) // NOSONAR
+        {
+          // this is actually required because BEREncoding sometimes
+          // throws null pointers when it can't
+          // read from the stream it's given...
+          fields.add(null);
+        }
+      }
+      return fields;
+    }
+
+    @Override
+    public void close() {
+      try {
+        wc.client.close();
+      } catch (Exception e) {
+        // Ignore
+      }
+    }
+  }
+
   protected WrappedClient makeClientForQuery(
       FederatedSearch z3950Search,
       int fetchSize,
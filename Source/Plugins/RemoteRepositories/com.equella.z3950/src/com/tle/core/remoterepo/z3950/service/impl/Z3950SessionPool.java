@@ -0,0 +1,238 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.remoterepo.z3950.service.impl;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps Z39.50 connections open along with the result set of the query they ran, so that paging
+ * through results and then viewing one of them doesn't re-run the query against the server each
+ * time. Records are presented in bulk, reading ahead of the page that was asked for, and kept with
+ * the session until it is evicted.
+ *
+ * <p>Sessions are keyed by whatever identifies the query, and are closed once they have been idle
+ * for a while or when there are too many of them.
+ */
+@NonNullByDefault
+@SuppressWarnings("nls")
+public class Z3950SessionPool<R> {
+  private static final Logger LOGGER = Logger.getLogger(Z3950SessionPool.class);
+
+  /** A connection that has submitted its query and holds the result set on the server. */
+  public interface Connection<R> {
+    int getResultCount();
+
+    /**
+     * @param start The 1-based position of the first record.
+     * @return The records, with null for any that could not be read.
+     */
+    List<R> present(int start, int count) throws Exception;
+
+    void close();
+  }
+
+  public interface Connector<R> {
+    /** Opens a connection and submits the query. */
+    Connection<R> connect() throws Exception;
+  }
+
+  private final Cache<String, Session<R>> sessions;
+  private final int readAhead;
+  private final int maxRecordsPerSession;
+
+  /**
+   * @param readAhead How many records past the requested page to present at the same time.
+   * @param maxRecordsPerSession How many presented records to keep for each session.
+   */
+  public Z3950SessionPool(
+      int maxSessions, long maxIdleMillis, int readAhead, int maxRecordsPerSession) {
+    this.readAhead = readAhead;
+    this.maxRecordsPerSession = maxRecordsPerSession;
+    this.sessions =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSessions)
+            .expireAfterAccess(maxIdleMillis, TimeUnit.MILLISECONDS)
+            .removalListener(
+                new RemovalListener<String, Session<R>>() {
+                  @Override
+                  public void onRemoval(RemovalNotification<String, Session<R>> notification) {
+                    notification.getValue().close();
+                  }
+                })
+            .build();
+  }
+
+  /**
+   * Gets a page of records from the session for the given key, connecting and submitting the query
+   * if there isn't an open session for it. A reused session that fails is assumed to have been
+   * dropped by the server and is replaced once before giving up.
+   *
+   * @param offset The 0-based index of the first record.
+   */
+  public Page<R> getPage(String key, Connector<R> connector, int offset, int count)
+      throws Exception {
+    boolean retried = false;
+    while (true) {
+      Session<R> session = getSession(key, connector);
+      boolean reused = session.isUsed();
+      try {
+        Page<R> page = session.getPage(offset, count, readAhead);
+        if (page != null) {
+          return page;
+        }
+        // Closed by eviction after we got hold of it
+      } catch (Exception ex) {
+        sessions.asMap().remove(key, session);
+        if (!reused || retried) {
+          throw ex;
+        }
+        retried = true;
+        LOGGER.debug("Z39.50 session failed, reconnecting: " + ex.getMessage());
+      }
+    }
+  }
+
+  private Session<R> getSession(String key, final Connector<R> connector) throws Exception {
+    try {
+      return sessions.get(
+          key,
+          new Callable<Session<R>>() {
+            @Override
+            public Session<R> call() throws Exception {
+              return new Session<R>(connector.connect(), maxRecordsPerSession);
+            }
+          });
+    } catch (ExecutionException | UncheckedExecutionException ex) {
+      Throwables.propagateIfPossible(ex.getCause(), Exception.class);
+      throw ex;
+    }
+  }
+
+  /** Closes any sessions that have been idle for too long. */
+  public void cleanUp() {
+    sessions.cleanUp();
+  }
+
+  /** Closes all sessions. */
+  public void clear() {
+    sessions.invalidateAll();
+  }
+
+  public long size() {
+    return sessions.size();
+  }
+
+  public static final class Page<R> {
+    private final List<R> records;
+    private final int total;
+
+    public Page(List<R> records, int total) {
+      this.records = Collections.unmodifiableList(records);
+      this.total = total;
+    }
+
+    /** @return The records in the page, with null for any that could not be read. */
+    public List<R> getRecords() {
+      return records;
+    }
+
+    public int getTotal() {
+      return total;
+    }
+  }
+
+  private static final class Session<R> {
+    private final Connection<R> connection;
+    private final Map<Integer, R> records;
+    private boolean used;
+    private boolean closed;
+
+    Session(Connection<R> connection, final int maxRecords) {
+      this.connection = connection;
+      this.records =
+          new LinkedHashMap<Integer, R>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, R> eldest) {
+              return size() > maxRecords;
+            }
+          };
+    }
+
+    synchronized boolean isUsed() {
+      return used;
+    }
+
+    @Nullable
+    synchronized Page<R> getPage(int offset, int count, int readAhead) throws Exception {
+      if (closed) {
+        return null;
+      }
+      used = true;
+
+      // NOTE: The first result is 1 NOT 0
+      final int total = connection.getResultCount();
+      final int start = offset + 1;
+      final int end = Math.min(total, start + count - 1);
+      for (int i = start; i <= end; i++) {
+        if (!records.containsKey(i)) {
+          int fetchEnd = Math.min(total, end + readAhead);
+          List<R> fetched = connection.present(i, fetchEnd - i + 1);
+          for (int j = 0; j < fetched.size(); j++) {
+            records.put(i + j, fetched.get(j));
+          }
+          break;
+        }
+      }
+
+      List<R> page = new ArrayList<R>(Math.max(0, end - start + 1));
+      for (int i = start; i <= end; i++) {
+        page.add(records.get(i));
+      }
+      return new Page<R>(page, total);
+    }
+
+    synchronized void close() {
+      if (!closed) {
+        closed = true;
+        records.clear();
+        try {
+          connection.close();
+        } catch (Exception e) {
+          // Ignore
+        }
+      }
+    }
+  }
+}
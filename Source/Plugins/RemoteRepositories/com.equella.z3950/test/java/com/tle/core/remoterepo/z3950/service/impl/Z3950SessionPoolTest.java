@@ -0,0 +1,141 @@
+package com.tle.core.remoterepo.z3950.service.impl;
+
+import com.tle.core.remoterepo.z3950.service.impl.Z3950SessionPool.Connection;
+import com.tle.core.remoterepo.z3950.service.impl.Z3950SessionPool.Connector;
+import com.tle.core.remoterepo.z3950.service.impl.Z3950SessionPool.Page;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Z3950SessionPoolTest {
+  private final Responder responder = new Responder(95);
+
+  @Test
+  public void pagesReuseTheResultSet() throws Exception {
+    Z3950SessionPool<String> pool = new Z3950SessionPool<String>(10, 60000, 10, 500);
+
+    Page<String> page = pool.getPage("q", responder, 0, 10);
+    Assert.assertEquals(95, page.getTotal());
+    Assert.assertEquals("record1", page.getRecords().get(0));
+    Assert.assertEquals(10, page.getRecords().size());
+
+    // Read ahead covers the second page
+    page = pool.getPage("q", responder, 10, 10);
+    Assert.assertEquals("record11", page.getRecords().get(0));
+    Assert.assertEquals(1, responder.queries);
+    Assert.assertEquals(Arrays.asList("1+20"), responder.presents);
+
+    // Viewing a single record comes from the same result set
+    page = pool.getPage("q", responder, 4, 1);
+    Assert.assertEquals(Arrays.asList("record5"), page.getRecords());
+
+    page = pool.getPage("q", responder, 90, 10);
+    Assert.assertEquals(5, page.getRecords().size());
+    Assert.assertEquals("record95", page.getRecords().get(4));
+    Assert.assertEquals(1, responder.queries);
+    Assert.assertEquals(Arrays.asList("1+20", "91+5"), responder.presents);
+  }
+
+  @Test
+  public void differentQueriesGetTheirOwnSessions() throws Exception {
+    Z3950SessionPool<String> pool = new Z3950SessionPool<String>(1, 60000, 0, 500);
+    pool.getPage("a", responder, 0, 10);
+    pool.getPage("b", responder, 0, 10);
+    Assert.assertEquals(2, responder.queries);
+    // Only room for one
+    Assert.assertEquals(1, responder.closed);
+    Assert.assertEquals(1, pool.size());
+  }
+
+  @Test
+  public void idleSessionsAreClosed() throws Exception {
+    Z3950SessionPool<String> pool = new Z3950SessionPool<String>(10, 50, 0, 500);
+    pool.getPage("q", responder, 0, 10);
+    Thread.sleep(100);
+    pool.cleanUp();
+    Assert.assertEquals(1, responder.closed);
+    Assert.assertEquals(0, pool.size());
+
+    pool.getPage("q", responder, 0, 10);
+    Assert.assertEquals(2, responder.queries);
+  }
+
+  @Test
+  public void droppedSessionsAreReconnected() throws Exception {
+    Z3950SessionPool<String> pool = new Z3950SessionPool<String>(10, 60000, 0, 500);
+    pool.getPage("q", responder, 0, 10);
+
+    responder.dropConnections();
+    Page<String> page = pool.getPage("q", responder, 10, 10);
+    Assert.assertEquals("record11", page.getRecords().get(0));
+    Assert.assertEquals(2, responder.queries);
+    Assert.assertEquals(1, responder.closed);
+  }
+
+  @Test
+  public void unreadableRecordsAreNull() throws Exception {
+    responder.unreadable = 3;
+    Z3950SessionPool<String> pool = new Z3950SessionPool<String>(10, 60000, 0, 500);
+    Page<String> page = pool.getPage("q", responder, 0, 5);
+    Assert.assertEquals(
+        Arrays.asList("record1", "record2", null, "record4", "record5"), page.getRecords());
+  }
+
+  /** Stands in for a Z39.50 server, counting the searches and presents sent to it. */
+  private static class Responder implements Connector<String> {
+    private final int results;
+    private final List<ResultSet> open = new ArrayList<ResultSet>();
+    int queries;
+    int closed;
+    int unreadable;
+    final List<String> presents = new ArrayList<String>();
+
+    Responder(int results) {
+      this.results = results;
+    }
+
+    void dropConnections() {
+      for (ResultSet resultSet : open) {
+        resultSet.dropped = true;
+      }
+    }
+
+    @Override
+    public Connection<String> connect() {
+      queries++;
+      ResultSet resultSet = new ResultSet();
+      open.add(resultSet);
+      return resultSet;
+    }
+
+    private class ResultSet implements Connection<String> {
+      boolean dropped;
+
+      @Override
+      public int getResultCount() {
+        return results;
+      }
+
+      @Override
+      public List<String> present(int start, int count) throws Exception {
+        if (dropped) {
+          throw new Exception("Connection reset");
+        }
+        presents.add(start + "+" + count);
+        List<String> records = new ArrayList<String>();
+        for (int i = start; i < start + count; i++) {
+          records.add(i == unreadable ? null : "record" + i);
+        }
+        return records;
+      }
+
+      @Override
+      public void close() {
+        closed++;
+        open.remove(this);
+      }
+    }
+  }
+}
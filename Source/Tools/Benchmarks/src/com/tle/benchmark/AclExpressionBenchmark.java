@@ -0,0 +1,82 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.tle.common.Triple;
+import com.tle.common.usermanagement.user.DefaultUserState;
+import com.tle.core.security.impl.AclExpressionEvaluator;
+import com.tle.core.security.impl.TLEAclManagerImpl;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Resolving the ACL expressions that apply to a user, which the ACL manager does for every new
+ * session and whenever a user's groups change, and which every privilege check depends on. The
+ * expression table is in memory, so this measures matching and evaluation rather than the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AclExpressionBenchmark {
+  @Param({"1", "10", "50"})
+  public int groups;
+
+  private TLEAclManagerImpl aclManager;
+  private DefaultUserState user;
+  private String[] expressions;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    aclManager = BenchmarkUsers.aclManager();
+    user = BenchmarkUsers.user(7, groups, 3);
+    expressions = new String[SyntheticItems.EXPRESSIONS];
+    for (int i = 0; i < expressions.length; i++) {
+      expressions[i] = SyntheticItems.expression(i);
+    }
+  }
+
+  @Benchmark
+  public Triple<Collection<Long>, Collection<Long>, Collection<Long>> resolveExpressions() {
+    return aclManager.getAclExpressions(user, true);
+  }
+
+  @Benchmark
+  public void evaluateAllExpressions(Blackhole blackhole) {
+    AclExpressionEvaluator evaluator = new AclExpressionEvaluator();
+    for (String expression : expressions) {
+      blackhole.consume(evaluator.evaluate(expression, user, false, true));
+    }
+  }
+}
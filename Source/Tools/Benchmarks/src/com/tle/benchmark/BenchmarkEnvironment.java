@@ -0,0 +1,76 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.tle.common.Pair;
+import com.tle.common.i18n.CurrentLocale;
+import com.tle.common.i18n.CurrentLocale.AbstractCurrentLocale;
+import com.tle.common.i18n.CurrentTimeZone;
+import com.tle.common.i18n.CurrentTimeZone.AbstractCurrentTimeZone;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.TimeZone;
+
+/**
+ * Stands in for the parts of the server the benchmarked code expects, which are normally provided
+ * by plugins. Everything runs in English and UTC so results don't depend on the machine.
+ */
+public final class BenchmarkEnvironment {
+  private static boolean initialised;
+
+  private BenchmarkEnvironment() {
+    throw new Error();
+  }
+
+  public static synchronized void initialise() {
+    if (initialised) {
+      return;
+    }
+    CurrentLocale.initialise(
+        new AbstractCurrentLocale() {
+          @Override
+          public Locale getLocale() {
+            return Locale.ENGLISH;
+          }
+
+          @Override
+          public ResourceBundle getResourceBundle() {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          protected Pair<Locale, String> resolveKey(String key) {
+            return new Pair<Locale, String>(Locale.ENGLISH, key);
+          }
+
+          @Override
+          public boolean isRightToLeft() {
+            return false;
+          }
+        });
+    CurrentTimeZone.initialise(
+        new AbstractCurrentTimeZone() {
+          @Override
+          public TimeZone get() {
+            return TimeZone.getTimeZone("UTC");
+          }
+        });
+    initialised = true;
+  }
+}
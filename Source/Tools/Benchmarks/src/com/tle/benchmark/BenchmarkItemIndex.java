@@ -0,0 +1,117 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.tle.beans.item.ItemIdKey;
+import com.tle.common.settings.standard.SearchSettings;
+import com.tle.core.freetext.index.ItemIndex;
+import com.tle.core.services.item.FreetextResult;
+import com.tle.freetext.FreetextIndex;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import org.apache.lucene.document.Document;
+
+/**
+ * The item index the server searches, opened over a generated dataset. The settings normally read
+ * from the freetext index service are fixed here: English analysis, AND as the default operator, no
+ * journal, no sharding, no result cache and no query warming, so that each run measures the search
+ * itself.
+ */
+@SuppressWarnings("nls")
+public class BenchmarkItemIndex extends ItemIndex<FreetextResult> {
+  public static BenchmarkItemIndex open(Dataset dataset) throws IOException {
+    BenchmarkItemIndex index = new BenchmarkItemIndex();
+    index.setIndexPath(dataset.getIndexPath());
+    index.setAnalyzerLanguage("en");
+    if (!dataset.isBuilt()) {
+      dataset.build(index.getAnalyser());
+    }
+    index.afterPropertiesSet();
+    return index;
+  }
+
+  /** Builds the dataset's index, with the analysers of the item index, if it isn't already. */
+  public static void prepare(Dataset dataset) throws IOException {
+    if (!dataset.isBuilt()) {
+      BenchmarkItemIndex index = new BenchmarkItemIndex();
+      index.setAnalyzerLanguage("en");
+      dataset.build(index.getAnalyser());
+    }
+  }
+
+  private BenchmarkItemIndex() {
+    BenchmarkEnvironment.initialise();
+    try {
+      Field field = ItemIndex.class.getDeclaredField("freetextIndex");
+      field.setAccessible(true);
+      field.set(this, createSettings());
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  @Override
+  protected FreetextResult createResult(
+      ItemIdKey key, Document doc, float relevance, boolean sortByRelevance) {
+    return new FreetextResult(key, relevance, sortByRelevance);
+  }
+
+  private static FreetextIndex createSettings() {
+    return (FreetextIndex)
+        Proxy.newProxyInstance(
+            FreetextIndex.class.getClassLoader(),
+            new Class<?>[] {FreetextIndex.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                  case "getDefaultOperator":
+                    return "AND";
+                  case "getAnalyzerLanguage":
+                    return "en";
+                  case "getSearchSettings":
+                    return new SearchSettings();
+                  case "getInstitutionShards":
+                    return Collections.emptyMap();
+                  case "toString":
+                    return "BenchmarkFreetextIndex";
+                  default:
+                    return defaultValue(method.getReturnType());
+                }
+              }
+            });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else if (type == float.class) {
+      return 0f;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.tle.beans.Institution;
+import com.tle.common.Triple;
+import com.tle.common.security.SecurityConstants;
+import com.tle.common.security.SecurityConstants.Recipient;
+import com.tle.common.usermanagement.user.DefaultUserState;
+import com.tle.common.usermanagement.user.valuebean.DefaultUserBean;
+import com.tle.core.dao.AccessExpressionDao;
+import com.tle.core.security.impl.TLEAclManagerImpl;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Users and ACL expressions matching the ones {@link SyntheticItems} puts on items. ACL expressions
+ * are resolved by the real ACL manager, with the expression table held in memory.
+ */
+@SuppressWarnings("nls")
+public final class BenchmarkUsers {
+  private BenchmarkUsers() {
+    throw new Error();
+  }
+
+  public static Institution institution() {
+    Institution institution = new Institution();
+    institution.setUniqueId(SyntheticItems.INSTITUTION);
+    institution.setDatabaseId(SyntheticItems.INSTITUTION);
+    return institution;
+  }
+
+  /**
+   * @param groups The number of groups the user belongs to.
+   * @param roles The number of roles the user has.
+   * @return A user whose ACL expressions have not yet been resolved.
+   */
+  public static DefaultUserState user(int user, int groups, int roles) {
+    BenchmarkEnvironment.initialise();
+    String userId = SyntheticItems.userId(user);
+    DefaultUserState state = new DefaultUserState();
+    state.setInstitution(institution());
+    state.setLoggedInUser(new DefaultUserBean(userId, userId, "Bench", "Mark", userId + "@test"));
+    state.setAuthenticated(true);
+    for (int i = 0; i < groups; i++) {
+      state.getUsersGroups().add(SyntheticItems.groupId((user + i) % SyntheticItems.GROUPS));
+    }
+    for (int i = 0; i < roles; i++) {
+      state.getUsersRoles().add(SyntheticItems.roleId((user + i) % SyntheticItems.ROLES));
+    }
+    return state;
+  }
+
+  /** @return The user, with the ACL expressions that apply to them resolved. */
+  public static DefaultUserState loggedInUser(
+      TLEAclManagerImpl aclManager, int user, int groups, int roles) {
+    DefaultUserState state = user(user, groups, roles);
+    Triple<Collection<Long>, Collection<Long>, Collection<Long>> expressions =
+        aclManager.getAclExpressions(state, true);
+    state.setAclExpressions(expressions);
+    return state;
+  }
+
+  /** @return An ACL manager which resolves the synthetic ACL expressions. */
+  public static TLEAclManagerImpl aclManager() {
+    TLEAclManagerImpl aclManager = new TLEAclManagerImpl();
+    try {
+      Field field = TLEAclManagerImpl.class.getDeclaredField("expressionDao");
+      field.setAccessible(true);
+      field.set(aclManager, createExpressionDao());
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return aclManager;
+  }
+
+  /**
+   * Like the real DAO, an expression matches when any of its operands is one of the values. The
+   * expression table is indexed by operand as the database's is.
+   */
+  private static AccessExpressionDao createExpressionDao() {
+    final ListMultimap<String, Integer> byOperand = ArrayListMultimap.create();
+    for (int id = 0; id < SyntheticItems.EXPRESSIONS; id++) {
+      for (String token : SyntheticItems.expression(id).split(" ")) {
+        if (!isOperator(token)) {
+          byOperand.put(token, id);
+        }
+      }
+    }
+
+    return (AccessExpressionDao)
+        Proxy.newProxyInstance(
+            AccessExpressionDao.class.getClassLoader(),
+            new Class<?>[] {AccessExpressionDao.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!method.getName().equals("getMatchingExpressions")) {
+                  throw new UnsupportedOperationException(method.getName());
+                }
+                @SuppressWarnings("unchecked")
+                List<String> values = (List<String>) args[0];
+                Set<Integer> ids = new LinkedHashSet<Integer>();
+                for (String value : values) {
+                  ids.addAll(byOperand.get(value));
+                }
+                List<Triple<Long, String, Boolean>> matching =
+                    new ArrayList<Triple<Long, String, Boolean>>();
+                for (Integer id : ids) {
+                  String expression = SyntheticItems.expression(id);
+                  matching.add(
+                      new Triple<Long, String, Boolean>(
+                          (long) id,
+                          expression,
+                          expression.contains(SecurityConstants.getRecipient(Recipient.OWNER))));
+                }
+                return matching;
+              }
+            });
+  }
+
+  private static boolean isOperator(String token) {
+    return token.equals("AND") || token.equals("OR") || token.equals("NOT");
+  }
+}
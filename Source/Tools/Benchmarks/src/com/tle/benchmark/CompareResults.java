@@ -0,0 +1,147 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files (written with {@code -rf json}), e.g. from the commit before and
+ * after a change. Prints the score of each benchmark in both and the change, marking changes that
+ * are larger than the threshold and larger than the error of both runs combined.
+ *
+ * <p>Usage: {@code CompareResults <baseline.json> <current.json> [threshold percent, default 10]}.
+ * Exits with 1 if anything has regressed, so it can fail a build.
+ */
+@SuppressWarnings("nls")
+public final class CompareResults {
+  private static final double DEFAULT_THRESHOLD = 10;
+
+  private CompareResults() {
+    throw new Error();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: CompareResults <baseline.json> <current.json> [threshold %]");
+      System.exit(2);
+    }
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+    Map<String, Score> baseline = read(new File(args[0]));
+    Map<String, Score> current = read(new File(args[1]));
+
+    int regressions = 0;
+    System.out.println(
+        String.format(
+            "%-70s %14s %14s %-8s %8s", "Benchmark", "Baseline", "Current", "Units", "Change"));
+    for (Map.Entry<String, Score> entry : current.entrySet()) {
+      Score now = entry.getValue();
+      Score before = baseline.get(entry.getKey());
+      if (before == null) {
+        System.out.println(
+            String.format(
+                "%-70s %14s %14.3f %-8s %8s", entry.getKey(), "-", now.score, now.unit, "new"));
+        continue;
+      }
+      double change = (now.score - before.score) / before.score * 100;
+      // Slower is worse when timing, fewer is worse when counting operations
+      double worse = now.higherIsBetter ? -change : change;
+      boolean significant =
+          Math.abs(change) > threshold
+              && Math.abs(now.score - before.score) > now.error + before.error;
+      String flag = "";
+      if (significant) {
+        if (worse > 0) {
+          flag = " REGRESSION";
+          regressions++;
+        } else {
+          flag = " improved";
+        }
+      }
+      System.out.println(
+          String.format(
+              "%-70s %14.3f %14.3f %-8s %+7.1f%%%s",
+              entry.getKey(), before.score, now.score, now.unit, change, flag));
+    }
+    for (String key : baseline.keySet()) {
+      if (!current.containsKey(key)) {
+        System.out.println(String.format("%-70s %s", key, "missing from current results"));
+      }
+    }
+
+    if (regressions > 0) {
+      System.out.println(regressions + " benchmark(s) regressed by more than " + threshold + "%");
+      System.exit(1);
+    }
+  }
+
+  /** @return Scores keyed by the benchmark name, mode and parameters. */
+  static Map<String, Score> read(File file) throws IOException {
+    Map<String, Score> scores = new LinkedHashMap<String, Score>();
+    for (JsonNode result : new ObjectMapper().readTree(file)) {
+      StringBuilder key = new StringBuilder(shortName(result.get("benchmark").asText()));
+      String mode = result.get("mode").asText();
+      key.append(" [").append(mode);
+      JsonNode params = result.get("params");
+      if (params != null) {
+        Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+        while (fields.hasNext()) {
+          Map.Entry<String, JsonNode> param = fields.next();
+          key.append(", ").append(param.getKey()).append('=').append(param.getValue().asText());
+        }
+      }
+      key.append(']');
+
+      JsonNode metric = result.get("primaryMetric");
+      double error = metric.get("scoreError").asDouble();
+      scores.put(
+          key.toString(),
+          new Score(
+              metric.get("score").asDouble(),
+              Double.isNaN(error) ? 0 : error,
+              metric.get("scoreUnit").asText(),
+              mode.equals("thrpt")));
+    }
+    return scores;
+  }
+
+  private static String shortName(String benchmark) {
+    String prefix = CompareResults.class.getPackage().getName() + '.';
+    return benchmark.startsWith(prefix) ? benchmark.substring(prefix.length()) : benchmark;
+  }
+
+  static final class Score {
+    final double score;
+    final double error;
+    final String unit;
+    final boolean higherIsBetter;
+
+    Score(double score, double error, String unit, boolean higherIsBetter) {
+      this.score = score;
+      this.error = error;
+      this.unit = unit;
+      this.higherIsBetter = higherIsBetter;
+    }
+  }
+}
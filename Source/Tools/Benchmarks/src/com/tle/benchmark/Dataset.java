@@ -0,0 +1,110 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.dytech.common.io.FileUtils;
+import com.tle.freetext.LuceneConstants;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * The scales the index benchmarks are run at. Indexes are generated on first use and kept under
+ * {@code target/benchmark-datasets} (or the {@code benchmark.datasets} system property) for later
+ * runs, since the larger ones take a while to build.
+ */
+@SuppressWarnings("nls")
+public enum Dataset {
+  SMALL(10000),
+  MEDIUM(100000),
+  LARGE(1000000);
+
+  /** Change whenever the generated items change, so that previously built indexes are ignored. */
+  private static final int VERSION = 1;
+
+  private static final String COMPLETE_MARKER = "complete";
+  private static final int DOCS_PER_SEGMENT = 10000;
+
+  private final int items;
+
+  Dataset(int items) {
+    this.items = items;
+  }
+
+  /** @param name The name of the dataset in any case, as given in a benchmark parameter. */
+  public static Dataset forName(String name) {
+    return valueOf(name.toUpperCase(Locale.ENGLISH));
+  }
+
+  public int getItems() {
+    return items;
+  }
+
+  public SyntheticItems getGenerator() {
+    return new SyntheticItems(items);
+  }
+
+  public File getDirectory() {
+    return new File(
+        System.getProperty("benchmark.datasets", "target/benchmark-datasets"),
+        name().toLowerCase(Locale.ENGLISH) + "-v" + VERSION);
+  }
+
+  public File getIndexPath() {
+    return new File(getDirectory(), "index");
+  }
+
+  public boolean isBuilt() {
+    return new File(getDirectory(), COMPLETE_MARKER).exists();
+  }
+
+  /**
+   * Writes the dataset's items to a new index. Segments are flushed by document count and merged by
+   * document count, so the segment layout is the same on every build.
+   */
+  public synchronized void build(Analyzer analyzer) throws IOException {
+    File directory = getDirectory();
+    FileUtils.delete(directory);
+    File indexPath = getIndexPath();
+    if (!indexPath.mkdirs()) {
+      throw new IOException("Could not create " + indexPath);
+    }
+
+    IndexWriterConfig config = new IndexWriterConfig(LuceneConstants.LATEST_VERSION, analyzer);
+    config.setMaxBufferedDocs(DOCS_PER_SEGMENT);
+    config.setRAMBufferSizeMB(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+    config.setMergePolicy(new LogDocMergePolicy());
+    SyntheticItems generator = getGenerator();
+    try (FSDirectory fsDirectory = FSDirectory.open(indexPath);
+        IndexWriter writer = new IndexWriter(fsDirectory, config)) {
+      for (int i = 0; i < items; i++) {
+        writer.addDocument(generator.document(i));
+      }
+    }
+
+    if (!new File(directory, COMPLETE_MARKER).createNewFile()) {
+      throw new IOException("Could not mark " + directory + " as complete");
+    }
+  }
+}
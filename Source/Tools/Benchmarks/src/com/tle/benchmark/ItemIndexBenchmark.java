@@ -0,0 +1,138 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.google.common.collect.Multimap;
+import com.tle.common.Pair;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.search.LiveItemSearch;
+import com.tle.common.searching.Search.SortType;
+import com.tle.common.searching.SearchResults;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.core.services.item.FreetextResult;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches of the item index as made by the search pages: a logged in user searching live items, so
+ * every search goes through the institution, status and security filters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class ItemIndexBenchmark {
+  // Words from across the frequency range, from in most items to in a handful
+  private static final String[] QUERIES = {
+    SyntheticItems.word(0),
+    SyntheticItems.word(7),
+    SyntheticItems.word(40),
+    SyntheticItems.word(300),
+    SyntheticItems.word(2000),
+    SyntheticItems.word(12000),
+    SyntheticItems.word(1) + " " + SyntheticItems.word(25),
+    SyntheticItems.word(3) + " OR " + SyntheticItems.word(900),
+    SyntheticItems.word(1) + "*"
+  };
+
+  @Param({"small", "medium"})
+  public String dataset;
+
+  private BenchmarkItemIndex index;
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    index = BenchmarkItemIndex.open(Dataset.forName(dataset));
+  }
+
+  /** Each benchmark thread is its own logged in user, cycling through the queries. */
+  @State(Scope.Thread)
+  public static class Session {
+    private int next;
+
+    @Setup(Level.Trial)
+    public void login() {
+      CurrentInstitution.set(BenchmarkUsers.institution());
+      CurrentUser.setUserState(BenchmarkUsers.loggedInUser(BenchmarkUsers.aclManager(), 7, 3, 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void logout() {
+      CurrentUser.setUserState(null);
+      CurrentInstitution.remove();
+    }
+
+    String nextQuery() {
+      return QUERIES[next++ % QUERIES.length];
+    }
+  }
+
+  @Benchmark
+  public SearchResults<FreetextResult> keywordSearch(Session session) {
+    LiveItemSearch search = new LiveItemSearch();
+    search.setQuery(session.nextQuery());
+    return index.search(search, 0, 10, true);
+  }
+
+  @Benchmark
+  public SearchResults<FreetextResult> browseNewest(Session session) {
+    LiveItemSearch search = new LiveItemSearch();
+    search.setSortType(SortType.DATEMODIFIED);
+    return index.search(search, 0, 10, true);
+  }
+
+  @Benchmark
+  public SearchResults<FreetextResult> collectionPage(Session session) {
+    LiveItemSearch search = new LiveItemSearch();
+    search.setCollectionUuids(Collections.singleton(SyntheticItems.collectionUuid(2)));
+    search.setSortType(SortType.NAME);
+    return index.search(search, 50, 10, true);
+  }
+
+  @Benchmark
+  public int count(Session session) {
+    LiveItemSearch search = new LiveItemSearch();
+    search.setQuery(session.nextQuery());
+    return index.count(search, true);
+  }
+
+  @Benchmark
+  public Multimap<String, Pair<String, Integer>> facetCount(Session session) {
+    LiveItemSearch search = new LiveItemSearch();
+    search.setQuery(session.nextQuery());
+    return index.facetCount(search, Collections.singleton(SyntheticItems.SUBJECT_PATH));
+  }
+}
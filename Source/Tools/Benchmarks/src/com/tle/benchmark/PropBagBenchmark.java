@@ -0,0 +1,111 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.dytech.devlib.PropBagEx;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Reading item XML the way wizards, indexing and display templates do, over generated items. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+@SuppressWarnings("nls")
+public class PropBagBenchmark {
+  private static final int ITEMS = 64;
+
+  private String[] xmlStrings;
+  private PropBagEx[] xmls;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticItems generator = Dataset.SMALL.getGenerator();
+    xmlStrings = new String[ITEMS];
+    xmls = new PropBagEx[ITEMS];
+    for (int i = 0; i < ITEMS; i++) {
+      xmlStrings[i] = generator.itemXmlString(i);
+      xmls[i] = new PropBagEx(xmlStrings[i]);
+    }
+  }
+
+  private int nextItem() {
+    next = (next + 1) % ITEMS;
+    return next;
+  }
+
+  @Benchmark
+  public PropBagEx parse() {
+    return new PropBagEx(xmlStrings[nextItem()]);
+  }
+
+  @Benchmark
+  public String getNode() {
+    return xmls[nextItem()].getNode("item/name");
+  }
+
+  @Benchmark
+  public boolean nodeExists() {
+    return xmls[nextItem()].nodeExists("item/rights/licence");
+  }
+
+  @Benchmark
+  public int nodeCount() {
+    return xmls[nextItem()].nodeCount("item/keywords/keyword");
+  }
+
+  @Benchmark
+  public List<String> getNodeList() {
+    return xmls[nextItem()].getNodeList("item/subjects/subject");
+  }
+
+  @Benchmark
+  public void iterateValues(Blackhole blackhole) {
+    for (String value : xmls[nextItem()].iterateValues("item/keywords/keyword")) {
+      blackhole.consume(value);
+    }
+  }
+
+  @Benchmark
+  public void iterateSubtrees(Blackhole blackhole) {
+    for (PropBagEx subject : xmls[nextItem()].iterator("item/subjects/subject")) {
+      blackhole.consume(subject.getNode());
+    }
+  }
+
+  @Benchmark
+  public String serialise() {
+    return xmls[nextItem()].toString();
+  }
+}
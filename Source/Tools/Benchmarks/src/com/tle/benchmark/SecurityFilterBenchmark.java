@@ -0,0 +1,93 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.usermanagement.user.CurrentUser;
+import com.tle.core.freetext.filters.SecurityFilter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the documents a user may discover, as every search does. The cost grows with the number of
+ * ACL expressions that apply to the user, i.e. the groups they are in.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+@SuppressWarnings("nls")
+public class SecurityFilterBenchmark {
+  @Param({"small", "medium"})
+  public String dataset;
+
+  @Param({"1", "10", "50"})
+  public int groups;
+
+  private FSDirectory directory;
+  private IndexReader reader;
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    Dataset data = Dataset.forName(dataset);
+    BenchmarkItemIndex.prepare(data);
+    directory = FSDirectory.open(data.getIndexPath());
+    reader = IndexReader.open(directory);
+
+    CurrentInstitution.set(BenchmarkUsers.institution());
+    CurrentUser.setUserState(
+        BenchmarkUsers.loggedInUser(BenchmarkUsers.aclManager(), 7, groups, 1));
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    CurrentUser.setUserState(null);
+    CurrentInstitution.remove();
+    reader.close();
+    directory.close();
+  }
+
+  @Benchmark
+  public DocIdSet discoverable() throws IOException {
+    return new SecurityFilter("ACLD-").getDocIdSet(reader);
+  }
+
+  @Benchmark
+  public DocIdSet viewable() throws IOException {
+    return new SecurityFilter("ACLV-").getDocIdSet(reader);
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.benchmark;
+
+import com.dytech.devlib.PropBagEx;
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.beans.entity.Schema;
+import com.tle.beans.item.ItemStatus;
+import com.tle.common.security.SecurityConstants;
+import com.tle.common.security.SecurityConstants.Recipient;
+import com.tle.common.util.Dates;
+import com.tle.common.util.UtcDate;
+import com.tle.core.freetext.indexer.AbstractIndexingExtension;
+import com.tle.freetext.XmlSchemaIndexer;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericField;
+
+/**
+ * Generates items for the benchmarks. Everything about an item is derived from the dataset seed and
+ * the item's index, so the same dataset is generated on every machine and for every commit.
+ *
+ * <p>Words, subjects, collections and owners are drawn from skewed distributions so that, like real
+ * repositories, a few terms are very common and most are rare.
+ */
+@SuppressWarnings("nls")
+public class SyntheticItems {
+  public static final long INSTITUTION = 1;
+  public static final int COLLECTIONS = 20;
+  public static final int USERS = 1000;
+  public static final int GROUPS = 50;
+  public static final int ROLES = 10;
+  public static final int SUBJECTS = 500;
+  public static final int VOCABULARY = 20000;
+
+  /** The ids of ACL expressions, expression 0 being everyone. */
+  public static final int EXPRESSIONS = 1 + GROUPS + ROLES + USERS;
+
+  public static final String SUBJECT_PATH = "/item/subjects/subject";
+  public static final String NAME_PATH = "/item/name";
+
+  private static final String SCHEMA =
+      "<xml><item>"
+          + "<name field=\"true\" search=\"true\" type=\"text\"/>"
+          + "<description search=\"true\" type=\"text\"/>"
+          + "<subjects><subject field=\"true\" search=\"true\" type=\"text\"/></subjects>"
+          + "<keywords><keyword search=\"true\" type=\"text\"/></keywords>"
+          + "<rights><licence field=\"true\" type=\"text\"/></rights>"
+          + "</item></xml>";
+  private static final String[] SYLLABLES = {
+    "ka", "lo", "mi", "ne", "pu", "ra", "si", "to", "vu", "ze", "ba", "de", "fi", "go", "hu", "ja"
+  };
+  private static final String[] LICENCES = {"cc-by", "cc-by-sa", "cc-by-nc", "copyright"};
+  private static final long BASE_TIME = 1262304000000L; // 2010-01-01
+  private static final long TIME_RANGE = 10L * 365 * 24 * 60 * 60 * 1000;
+
+  private final long seed;
+  private final Schema schema;
+
+  public SyntheticItems(long seed) {
+    BenchmarkEnvironment.initialise();
+    this.seed = seed;
+    schema = new Schema();
+    schema.setDefinition(new PropBagEx(SCHEMA));
+    schema.setItemNamePath(NAME_PATH);
+  }
+
+  /** @return A pronounceable word which is unique to the rank. */
+  public static String word(int rank) {
+    StringBuilder word = new StringBuilder();
+    int remaining = rank;
+    do {
+      word.append(SYLLABLES[remaining % SYLLABLES.length]);
+      remaining /= SYLLABLES.length;
+    } while (remaining > 0);
+    return word.toString();
+  }
+
+  public static String subject(int rank) {
+    return "subject " + word(rank);
+  }
+
+  public static String collectionUuid(int collection) {
+    return new UUID(0xC011EC7L, collection).toString();
+  }
+
+  public static String userId(int user) {
+    return "user" + user;
+  }
+
+  public static String groupId(int group) {
+    return "group" + group;
+  }
+
+  public static String roleId(int role) {
+    return "role" + role;
+  }
+
+  /** @return The ACL expression with the given id, in the form stored by the ACL manager. */
+  public static String expression(int id) {
+    if (id == 0) {
+      return SecurityConstants.getRecipient(Recipient.EVERYONE);
+    }
+    int index = id - 1;
+    if (index < GROUPS) {
+      return SecurityConstants.getRecipient(Recipient.GROUP, groupId(index));
+    }
+    index -= GROUPS;
+    if (index < ROLES) {
+      return SecurityConstants.getRecipient(Recipient.ROLE, roleId(index));
+    }
+    index -= ROLES;
+    // Individual users combined with their default group, as the ACL editor would produce
+    return SecurityConstants.getRecipient(Recipient.USER, userId(index))
+        + ' '
+        + SecurityConstants.getRecipient(Recipient.GROUP, groupId(index % GROUPS))
+        + " AND";
+  }
+
+  /** @return The item's metadata, as it would be stored in the item XML. */
+  public PropBagEx itemXml(int index) {
+    return new PropBagEx(itemXmlString(index));
+  }
+
+  public String itemXmlString(int index) {
+    Random random = random(index, 0);
+    StringBuilder xml = new StringBuilder("<xml><item>");
+    xml.append("<name>").append(words(random, 3)).append("</name>");
+    xml.append("<description>").append(words(random, 20 + random.nextInt(60)));
+    xml.append("</description><subjects>");
+    int subjects = 1 + random.nextInt(4);
+    for (int i = 0; i < subjects; i++) {
+      xml.append("<subject>").append(subject(skewed(random, SUBJECTS))).append("</subject>");
+    }
+    xml.append("</subjects><keywords>");
+    int keywords = random.nextInt(8);
+    for (int i = 0; i < keywords; i++) {
+      xml.append("<keyword>").append(word(skewed(random, VOCABULARY))).append("</keyword>");
+    }
+    xml.append("</keywords><rights><licence>");
+    xml.append(LICENCES[random.nextInt(LICENCES.length)]);
+    xml.append("</licence></rights></item></xml>");
+    return xml.toString();
+  }
+
+  /** @return The document the standard indexer would create for the item. */
+  public Document document(int index) {
+    PropBagEx xml = itemXml(index);
+    Random random = random(index, 1);
+
+    long id = index + 1L;
+    String uuid = new UUID(seed, id).toString();
+    String name = xml.getNode("item/name");
+    int owner = skewed(random, USERS);
+    Date modified = new Date(BASE_TIME + (long) (random.nextDouble() * TIME_RANGE));
+    int status = random.nextInt(10);
+
+    Document doc = new Document();
+    doc.add(keyword(FreeTextQuery.FIELD_INSTITUTION, Long.toString(INSTITUTION)));
+    doc.add(keyword(FreeTextQuery.FIELD_RATING, String.format("%.2f", random.nextFloat() * 5)));
+    doc.add(keyword(FreeTextQuery.FIELD_UUID, uuid));
+    doc.add(keyword(FreeTextQuery.FIELD_VERSION, "1"));
+    doc.add(keyword(FreeTextQuery.FIELD_UNIQUE, uuid + "/1"));
+    doc.add(keyword(FreeTextQuery.FIELD_ID, Long.toString(id)));
+    doc.add(
+        new NumericField(FreeTextQuery.FIELD_ID_RANGEABLE, 1, Store.YES, true).setLongValue(id));
+    doc.add(keyword(FreeTextQuery.FIELD_INDEXEDTIME, Long.toString(modified.getTime())));
+    doc.add(keyword(FreeTextQuery.FIELD_ITEMDEFID, collectionUuid(skewed(random, COLLECTIONS))));
+    doc.add(keyword(FreeTextQuery.FIELD_REALLASTMODIFIED, new UtcDate(modified).format(Dates.ISO)));
+    doc.add(keyword(FreeTextQuery.FIELD_REALCREATED, new UtcDate(modified).format(Dates.ISO)));
+    doc.add(
+        keyword(
+            FreeTextQuery.FIELD_ITEMSTATUS,
+            (status < 8 ? ItemStatus.LIVE : (status == 8 ? ItemStatus.DRAFT : ItemStatus.ARCHIVED))
+                .toString()));
+    doc.add(keyword(FreeTextQuery.FIELD_NAME, name));
+    doc.add(AbstractIndexingExtension.unstoredAndVectored(FreeTextQuery.FIELD_NAME_VECTORED, name));
+    doc.add(
+        AbstractIndexingExtension.unstoredAndVectored(
+            FreeTextQuery.FIELD_NAME_VECTORED_NOSTEM, name));
+    doc.add(
+        AbstractIndexingExtension.unstoredAndVectored(FreeTextQuery.FIELD_NAME_AUTOCOMPLETE, name));
+    doc.add(keyword(FreeTextQuery.FIELD_MODERATING, "false"));
+    doc.add(AbstractIndexingExtension.unstored(FreeTextQuery.FIELD_ALL, "1"));
+
+    XmlSchemaIndexer schemaIndexer = new XmlSchemaIndexer();
+    schemaIndexer.indexChildNodes(schema.getRootSchemaNode(), NAME_PATH, "", "", xml);
+    for (org.apache.lucene.document.Field field : schemaIndexer.getIndexedFields()) {
+      doc.add(field);
+    }
+    for (String path : schemaIndexer.getPathsIndexed()) {
+      doc.add(AbstractIndexingExtension.indexed(FreeTextQuery.FIELD_ALL, path));
+    }
+    for (Map.Entry<String, StringBuilder> entry : schemaIndexer.getPathValuesMap().entrySet()) {
+      doc.add(
+          AbstractIndexingExtension.unstored(entry.getKey() + '*', entry.getValue().toString()));
+    }
+
+    doc.add(AbstractIndexingExtension.indexed(FreeTextQuery.FIELD_OWNER, userId(owner)));
+    addAclEntries(doc, "ACLD-", random, owner);
+    addAclEntries(doc, "ACLV-", random, owner);
+    return doc;
+  }
+
+  /**
+   * Most items are discoverable by everyone, the rest by a few groups, roles or their owner. A few
+   * have a group revoked ahead of the grants.
+   */
+  private void addAclEntries(Document doc, String prefix, Random random, int owner) {
+    int order = 0;
+    if (random.nextInt(20) == 0) {
+      doc.add(aclEntry(prefix, 1 + skewed(random, GROUPS), order++, SecurityConstants.REVOKE));
+    }
+    if (random.nextInt(10) < 6) {
+      doc.add(aclEntry(prefix, 0, order, SecurityConstants.GRANT));
+      return;
+    }
+    int grants = 1 + random.nextInt(3);
+    for (int i = 0; i < grants; i++) {
+      int expression =
+          random.nextBoolean() ? 1 + skewed(random, GROUPS) : 1 + GROUPS + random.nextInt(ROLES);
+      doc.add(aclEntry(prefix, expression, order++, SecurityConstants.GRANT));
+    }
+    doc.add(aclEntry(prefix, 1 + GROUPS + ROLES + owner, order, SecurityConstants.GRANT));
+  }
+
+  private static org.apache.lucene.document.Field aclEntry(
+      String prefix, int expression, int order, char grant) {
+    return AbstractIndexingExtension.keyword(
+        prefix + expression, String.format("%03d%c", order, grant));
+  }
+
+  private static org.apache.lucene.document.Field keyword(String name, String value) {
+    return AbstractIndexingExtension.keyword(name, value);
+  }
+
+  private static String words(Random random, int count) {
+    StringBuilder words = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        words.append(' ');
+      }
+      words.append(word(skewed(random, VOCABULARY)));
+    }
+    return words.toString();
+  }
+
+  /** @return A value in [0, n) where low values are much more likely, roughly following Zipf. */
+  public static int skewed(Random random, int n) {
+    return Math.min(n - 1, (int) Math.pow(n + 1, random.nextDouble()) - 1);
+  }
+
+  /** @param stream Separates the random values used for the XML from those for the rest. */
+  private Random random(int index, int stream) {
+    return new Random((seed * 1000003L + index) * 31 + stream);
+  }
+}